@@ -18,8 +18,8 @@
 
 package librec.baseline;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import librec.data.SparseMatrix;
 import librec.data.SparseVector;
@@ -38,7 +38,7 @@ public class ItemAverage extends Recommender {
 	public ItemAverage(SparseMatrix rm, SparseMatrix tm, int fold) {
 		super(rm, tm, fold);
 
-		itemMeans = new HashMap<>();
+		itemMeans = new ConcurrentHashMap<>(); // filled lazily, possibly by parallel evaluation
 		algoName = "ItemAvg";
 	}
 
@@ -18,8 +18,8 @@
 
 package librec.baseline;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import librec.data.SparseMatrix;
 import librec.data.SparseVector;
@@ -39,7 +39,7 @@ public class UserAverage extends Recommender {
 		super(rm, tm, fold);
 
 		algoName = "UserAvg";
-		userMeans = new HashMap<>();
+		userMeans = new ConcurrentHashMap<>(); // filled lazily, possibly by parallel evaluation
 	}
 
 	@Override
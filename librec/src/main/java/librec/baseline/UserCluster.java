@@ -27,6 +27,8 @@ import librec.data.SparseMatrix;
 import librec.data.SparseVector;
 import librec.data.VectorEntry;
 import librec.intf.GraphicRecommender;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
 import librec.util.Logs;
 import librec.util.Randoms;
 
@@ -87,7 +89,7 @@ public class UserCluster extends GraphicRecommender {
 
 	@Override
 	protected void buildModel() throws Exception {
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
 
 			// e-step: compute Gamma_uk = P(Zu_k | ru, theta)
 			for (int u = 0; u < numUsers; u++) {
@@ -210,6 +212,24 @@ public class UserCluster extends GraphicRecommender {
 		return pred;
 	}
 
+	@Override
+	protected void writeModel(ModelWriter out) throws Exception {
+		super.writeModel(out);
+
+		out.write("Pkr", Pkr);
+		out.write("Pi", Pi);
+		out.write("Gamma", Gamma);
+	}
+
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		Pkr = in.readDenseMatrix("Pkr");
+		Pi = in.readDenseVector("Pi");
+		Gamma = in.readDenseMatrix("Gamma");
+	}
+
 	@Override
 	public String toString() {
 		return numFactors + "," + numIters;
@@ -0,0 +1,278 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.data;
+
+import java.util.Arrays;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Read-only adjacency of the rows (or columns) of a sparse matrix, e.g., the items rated by each user: for each row,
+ * the indices of its non-zero entries in ascending order, together with their values.
+ *
+ * <p>
+ * By default, the adjacency is precomputed into primitive arrays sliced from the CRS (or CCS) structure of the matrix,
+ * and membership queries use a hash table of all entries, so that lookups are lock-free and allocation-free. In the
+ * low-memory mode, rows are instead loaded on demand through a Guava cache.
+ * </p>
+ *
+ * <p>
+ * The returned arrays are shared and must not be modified. The adjacency is a snapshot: later changes of the matrix
+ * structure are not reflected.
+ * </p>
+ */
+public abstract class AdjacencyIndex {
+
+	private static final int[] NO_INDICES = new int[0];
+	private static final double[] NO_VALUES = new double[0];
+
+	/**
+	 * @return the precomputed adjacency of the rows of a matrix
+	 */
+	public static AdjacencyIndex rows(SparseMatrix mat) {
+		return new Precomputed(mat, false);
+	}
+
+	/**
+	 * @return the precomputed adjacency of the columns of a matrix
+	 */
+	public static AdjacencyIndex columns(SparseMatrix mat) {
+		return new Precomputed(mat, true);
+	}
+
+	/**
+	 * @param cacheSpec
+	 *            Guava cache specification of the low-memory mode, or null to precompute the adjacency
+	 * @return the adjacency of the rows of a matrix
+	 */
+	public static AdjacencyIndex rows(SparseMatrix mat, String cacheSpec) {
+		return cacheSpec == null ? rows(mat) : new Cached(mat, false, cacheSpec);
+	}
+
+	/**
+	 * @param cacheSpec
+	 *            Guava cache specification of the low-memory mode, or null to precompute the adjacency
+	 * @return the adjacency of the columns of a matrix
+	 */
+	public static AdjacencyIndex columns(SparseMatrix mat, String cacheSpec) {
+		return cacheSpec == null ? columns(mat) : new Cached(mat, true, cacheSpec);
+	}
+
+	/**
+	 * @param i
+	 *            row id
+	 * @return indices of the non-zero entries of row i in ascending order
+	 */
+	public abstract int[] get(int i);
+
+	/**
+	 * @param i
+	 *            row id
+	 * @return values of the non-zero entries of row i, in the order of {@link #get(int)}
+	 */
+	public abstract double[] values(int i);
+
+	/**
+	 * @return whether entry [i, j] is non-zero
+	 */
+	public abstract boolean contains(int i, int j);
+
+	/**
+	 * @return value of entry [i, j], or 0 if it is zero
+	 */
+	public double value(int i, int j) {
+		if (!contains(i, j))
+			return 0;
+
+		return values(i)[Arrays.binarySearch(get(i), j)];
+	}
+
+	/**
+	 * @return number of non-zero entries of row i
+	 */
+	public int size(int i) {
+		return get(i).length;
+	}
+
+	/**
+	 * @return the non-zero entries of row i of a matrix
+	 */
+	private static Row slice(SparseMatrix mat, boolean byColumn, int i) {
+		int[] ptr = byColumn ? mat.colPtr : mat.rowPtr;
+		int[] ind = byColumn ? mat.rowInd : mat.colInd;
+		int numRows = byColumn ? mat.numColumns : mat.numRows;
+
+		if (i >= numRows)
+			return new Row(NO_INDICES, NO_VALUES);
+
+		int start = ptr[i], end = ptr[i + 1];
+
+		int size = 0;
+		for (int k = start; k < end; k++)
+			if (entry(mat, byColumn, i, k) != 0.0)
+				size++;
+
+		int[] idx = new int[size];
+		double[] val = new double[size];
+		for (int k = start, n = 0; k < end; k++) {
+			double v = entry(mat, byColumn, i, k);
+			if (v != 0.0) {
+				idx[n] = ind[k];
+				val[n] = v;
+				n++;
+			}
+		}
+
+		return new Row(idx, val);
+	}
+
+	/**
+	 * @return value of the k-th stored entry, read from the row data as {@link SparseMatrix#get(int, int)} does
+	 */
+	private static double entry(SparseMatrix mat, boolean byColumn, int i, int k) {
+		return byColumn ? mat.get(mat.rowInd[k], i) : mat.rowData[k];
+	}
+
+	/**
+	 * non-zero entries of a row
+	 */
+	private static class Row {
+		final int[] indices;
+		final double[] values;
+
+		Row(int[] indices, double[] values) {
+			this.indices = indices;
+			this.values = values;
+		}
+	}
+
+	/**
+	 * adjacency precomputed into primitive arrays
+	 */
+	private static class Precomputed extends AdjacencyIndex {
+
+		private final int[][] indices;
+		private final double[][] values;
+		private final long numColumns;
+
+		// open-addressing hash set of keys (i * numColumns + j + 1), where 0 marks an empty slot
+		private final long[] keys;
+		private final int mask;
+
+		Precomputed(SparseMatrix mat, boolean byColumn) {
+			int numRows = byColumn ? mat.numColumns : mat.numRows;
+			numColumns = byColumn ? mat.numRows : mat.numColumns;
+
+			indices = new int[numRows][];
+			values = new double[numRows][];
+
+			long nnz = 0;
+			for (int i = 0; i < numRows; i++) {
+				Row row = slice(mat, byColumn, i);
+				indices[i] = row.indices;
+				values[i] = row.values;
+				nnz += indices[i].length;
+			}
+
+			// load factor at most 1/2
+			int capacity = Integer.highestOneBit((int) Math.max(2 * nnz, 2)) << 1;
+			keys = new long[capacity];
+			mask = capacity - 1;
+
+			for (int i = 0; i < numRows; i++) {
+				for (int j : indices[i]) {
+					long key = i * numColumns + j + 1;
+					int slot = slot(key);
+					while (keys[slot] != 0)
+						slot = (slot + 1) & mask;
+					keys[slot] = key;
+				}
+			}
+		}
+
+		@Override
+		public int[] get(int i) {
+			return i < indices.length ? indices[i] : NO_INDICES;
+		}
+
+		@Override
+		public double[] values(int i) {
+			return i < values.length ? values[i] : NO_VALUES;
+		}
+
+		@Override
+		public boolean contains(int i, int j) {
+			if (i >= indices.length || j >= numColumns)
+				return false;
+
+			long key = i * numColumns + j + 1;
+			for (int slot = slot(key);; slot = (slot + 1) & mask) {
+				long k = keys[slot];
+				if (k == key)
+					return true;
+				if (k == 0)
+					return false;
+			}
+		}
+
+		private int slot(long key) {
+			// finalizer of MurmurHash3
+			key ^= key >>> 33;
+			key *= 0xff51afd7ed558ccdL;
+			key ^= key >>> 33;
+
+			return (int) key & mask;
+		}
+	}
+
+	/**
+	 * adjacency loaded on demand through a Guava cache
+	 */
+	private static class Cached extends AdjacencyIndex {
+
+		private final LoadingCache<Integer, Row> cache;
+
+		Cached(final SparseMatrix mat, final boolean byColumn, String cacheSpec) {
+			cache = CacheBuilder.from(cacheSpec).build(new CacheLoader<Integer, Row>() {
+
+				@Override
+				public Row load(Integer i) throws Exception {
+					return slice(mat, byColumn, i);
+				}
+			});
+		}
+
+		@Override
+		public int[] get(int i) {
+			return cache.getUnchecked(i).indices;
+		}
+
+		@Override
+		public double[] values(int i) {
+			return cache.getUnchecked(i).values;
+		}
+
+		@Override
+		public boolean contains(int i, int j) {
+			return Arrays.binarySearch(get(i), j) >= 0;
+		}
+	}
+}
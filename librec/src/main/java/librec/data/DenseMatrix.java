@@ -157,6 +157,13 @@ public class DenseMatrix implements Serializable {
 		return numColumns;
 	}
 
+	/**
+	 * @return matrix's data, by rows
+	 */
+	public double[][] getData() {
+		return data;
+	}
+
 	/**
 	 * @param rowId
 	 *            row id
@@ -696,6 +703,45 @@ public class DenseMatrix implements Serializable {
 		return L.transpose();
 	}
 
+	/**
+	 * Solve A x = b in place by Cholesky decomposition of a symmetric positive-definite matrix A, given by its lower
+	 * triangle in row-major order, which is overwritten by the decomposition.
+	 * 
+	 * @return false if A is not positive definite, leaving x unchanged
+	 */
+	public static boolean choleskySolve(double[] A, double[] b, double[] x, int k) {
+		for (int f = 0; f < k; f++) {
+			for (int g = 0; g <= f; g++) {
+				double sum = A[f * k + g];
+				for (int h = 0; h < g; h++)
+					sum -= A[f * k + h] * A[g * k + h];
+
+				if (f == g) {
+					if (sum <= 0)
+						return false;
+					A[f * k + f] = Math.sqrt(sum);
+				} else {
+					A[f * k + g] = sum / A[g * k + g];
+				}
+			}
+		}
+
+		// L z = b, then L^T x = z, with z kept in x
+		for (int f = 0; f < k; f++) {
+			double sum = b[f];
+			for (int h = 0; h < f; h++)
+				sum -= A[f * k + h] * x[h];
+			x[f] = sum / A[f * k + f];
+		}
+		for (int f = k - 1; f >= 0; f--) {
+			double sum = x[f];
+			for (int h = f + 1; h < k; h++)
+				sum -= A[h * k + f] * x[h];
+			x[f] = sum / A[f * k + f];
+		}
+		return true;
+	}
+
 	/**
 	 * @return a transposed matrix of current matrix
 	 */
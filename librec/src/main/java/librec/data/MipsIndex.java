@@ -0,0 +1,255 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.data;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Approximate maximum-inner-product search (MIPS) over the rows of a (item factor) matrix, by an inverted file (IVF)
+ * index: items are partitioned by k-means into lists, and a query only scores the items of the lists nearest to it.
+ *
+ * <p>
+ * Inner products are reduced to Euclidean distances by the transform of Bachrach et al., <strong>Speeding up the Xbox
+ * recommender system using a Euclidean transformation for inner-product spaces</strong>, RecSys 2014: each item x is
+ * augmented as [x, sqrt(M^2 - |x|^2)] with M the maximum norm of items, and each query q as [q, 0], so that the nearest
+ * items of a query are those of the largest inner products. The items of the probed lists are scored exactly.
+ * </p>
+ *
+ * <p>
+ * The index is immutable and thread-safe. More probed lists give higher recall at a higher cost; probing all lists is
+ * exact.
+ * </p>
+ */
+public class MipsIndex {
+
+	// number of k-means iterations
+	private static final int NUM_ITERS = 10;
+	// number of items sampled per list to train the centroids
+	private static final int SAMPLES_PER_LIST = 256;
+
+	private final int numItems, dim, numLists, numProbes;
+
+	// centroids in the augmented space (dim + 1), and their squared norms
+	private final double[] centroids, centroidNorms;
+
+	// items of list l: ids in listItems[listPtr[l], listPtr[l + 1]), vectors stored in the same order
+	private final int[] listPtr, listItems;
+	private final double[] vectors;
+
+	/**
+	 * @param items
+	 *            item vectors, one per row
+	 * @param numLists
+	 *            number of lists (clusters)
+	 * @param numProbes
+	 *            number of lists probed per query
+	 * @param seed
+	 *            seed of the k-means initialization
+	 */
+	public MipsIndex(DenseMatrix items, int numLists, int numProbes, long seed) {
+		numItems = items.numRows;
+		dim = items.numColumns;
+		this.numLists = Math.max(1, Math.min(numLists, numItems));
+		this.numProbes = Math.max(1, Math.min(numProbes, this.numLists));
+
+		int adim = dim + 1;
+
+		// augment items to equal norms
+		double maxNorm2 = 0;
+		double[] norms2 = new double[numItems];
+		for (int j = 0; j < numItems; j++) {
+			norms2[j] = dot(items.data[j], 0, items.data[j], 0, dim);
+			maxNorm2 = Math.max(maxNorm2, norms2[j]);
+		}
+		double[] aug = new double[numItems * adim];
+		for (int j = 0; j < numItems; j++) {
+			System.arraycopy(items.data[j], 0, aug, j * adim, dim);
+			aug[j * adim + dim] = Math.sqrt(Math.max(maxNorm2 - norms2[j], 0));
+		}
+
+		// train centroids by k-means over a sample of items
+		Random rnd = new Random(seed);
+		int[] perm = new int[numItems];
+		for (int j = 0; j < numItems; j++)
+			perm[j] = j;
+		for (int j = numItems - 1; j > 0; j--) {
+			int k = rnd.nextInt(j + 1);
+			int t = perm[j];
+			perm[j] = perm[k];
+			perm[k] = t;
+		}
+		int numSamples = (int) Math.min(numItems, (long) SAMPLES_PER_LIST * this.numLists);
+
+		centroids = new double[this.numLists * adim];
+		centroidNorms = new double[this.numLists];
+		for (int l = 0; l < this.numLists; l++)
+			System.arraycopy(aug, perm[l] * adim, centroids, l * adim, adim);
+
+		int[] assign = new int[numSamples];
+		double[] sums = new double[centroids.length];
+		int[] counts = new int[this.numLists];
+		for (int iter = 0; iter < NUM_ITERS; iter++) {
+			updateNorms();
+
+			Arrays.fill(sums, 0);
+			Arrays.fill(counts, 0);
+			for (int s = 0; s < numSamples; s++) {
+				int j = perm[s];
+				int l = nearest(aug, j * adim);
+				assign[s] = l;
+				counts[l]++;
+				for (int f = 0; f < adim; f++)
+					sums[l * adim + f] += aug[j * adim + f];
+			}
+
+			for (int l = 0; l < this.numLists; l++) {
+				if (counts[l] == 0) {
+					// re-seed an empty list by a random sample
+					System.arraycopy(aug, perm[rnd.nextInt(numSamples)] * adim, centroids, l * adim, adim);
+					continue;
+				}
+				for (int f = 0; f < adim; f++)
+					centroids[l * adim + f] = sums[l * adim + f] / counts[l];
+			}
+		}
+		updateNorms();
+
+		// assign all items, and store their vectors list by list
+		int[] itemLists = new int[numItems];
+		listPtr = new int[this.numLists + 1];
+		for (int j = 0; j < numItems; j++) {
+			itemLists[j] = nearest(aug, j * adim);
+			listPtr[itemLists[j] + 1]++;
+		}
+		for (int l = 0; l < this.numLists; l++)
+			listPtr[l + 1] += listPtr[l];
+
+		listItems = new int[numItems];
+		vectors = new double[numItems * dim];
+		int[] next = Arrays.copyOf(listPtr, this.numLists);
+		for (int j = 0; j < numItems; j++) {
+			int k = next[itemLists[j]]++;
+			listItems[k] = j;
+			System.arraycopy(items.data[j], 0, vectors, k * dim, dim);
+		}
+	}
+
+	/**
+	 * @param query
+	 *            query (user) vector
+	 * @param n
+	 *            number of items to return
+	 * @param candItems
+	 *            candidate items, or null for all items
+	 * @param excludedItems
+	 *            items to exclude in ascending order, e.g., the items rated by the user
+	 * @return the (approximate) top-n items of the largest inner products with the query, from the highest to the lowest
+	 *         product; ties are broken by item ids
+	 */
+	public int[] search(DenseVector query, int n, BitSet candItems, int[] excludedItems) {
+		double[] q = query.getData();
+		int adim = dim + 1;
+
+		// the nearest lists: distance to centroid c is |q|^2 + |c|^2 - 2 q.c, where |q|^2 is the same for all lists
+		int[] probes = new int[numProbes];
+		double[] probeDists = new double[numProbes];
+		int numProbed = 0;
+		for (int l = 0; l < numLists; l++) {
+			double d = centroidNorms[l] - 2 * dot(q, 0, centroids, l * adim, dim);
+			if (numProbed == numProbes && d >= probeDists[numProbed - 1])
+				continue;
+
+			// insertion into the sorted probes
+			int k = numProbed < numProbes ? numProbed++ : numProbed - 1;
+			while (k > 0 && probeDists[k - 1] > d) {
+				probes[k] = probes[k - 1];
+				probeDists[k] = probeDists[k - 1];
+				k--;
+			}
+			probes[k] = l;
+			probeDists[k] = d;
+		}
+
+		TopItems top = new TopItems(n);
+		for (int p = 0; p < numProbed && !top.isEmpty(); p++) {
+			int l = probes[p];
+			for (int k = listPtr[l]; k < listPtr[l + 1]; k++) {
+				int j = listItems[k];
+				if (candItems != null && !candItems.get(j))
+					continue;
+				if (excludedItems != null && Arrays.binarySearch(excludedItems, j) >= 0)
+					continue;
+
+				top.offer(j, dot(q, 0, vectors, k * dim, dim));
+			}
+		}
+
+		int[] res = new int[top.sort()];
+		for (int k = 0; k < res.length; k++)
+			res[k] = top.item(k);
+
+		return res;
+	}
+
+	/**
+	 * @return number of lists
+	 */
+	public int numLists() {
+		return numLists;
+	}
+
+	/**
+	 * @return number of lists probed per query
+	 */
+	public int numProbes() {
+		return numProbes;
+	}
+
+	/**
+	 * @return the list whose centroid is the nearest to the augmented vector at the offset
+	 */
+	private int nearest(double[] aug, int offset) {
+		int adim = dim + 1;
+		int best = 0;
+		double bestDist = Double.POSITIVE_INFINITY;
+		for (int l = 0; l < numLists; l++) {
+			double d = centroidNorms[l] - 2 * dot(aug, offset, centroids, l * adim, adim);
+			if (d < bestDist) {
+				best = l;
+				bestDist = d;
+			}
+		}
+		return best;
+	}
+
+	private void updateNorms() {
+		int adim = dim + 1;
+		for (int l = 0; l < numLists; l++)
+			centroidNorms[l] = dot(centroids, l * adim, centroids, l * adim, adim);
+	}
+
+	private static double dot(double[] a, int offA, double[] b, int offB, int len) {
+		double sum = 0;
+		for (int f = 0; f < len; f++)
+			sum += a[offA + f] * b[offB + f];
+		return sum;
+	}
+}
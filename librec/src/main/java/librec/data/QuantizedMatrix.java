@@ -0,0 +1,376 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.data;
+
+/**
+ * Read-only dense matrix in a quantized form, e.g., the factors of a learned model to be stored and served at a fraction
+ * of the size of doubles:
+ *
+ * <ul>
+ * <li>INT8: each row is scaled by the maximum absolute value of its entries, and rounded to integers in [-127, 127]. The
+ * inner product of two rows is accumulated in integers, and scaled once.</li>
+ * <li>FLOAT16: each entry is rounded to an IEEE 754 half-precision number.</li>
+ * </ul>
+ */
+public class QuantizedMatrix {
+
+	/**
+	 * quantization types
+	 */
+	public enum Type {
+		INT8, FLOAT16
+	}
+
+	// half-precision numbers by their bits
+	private static final float[] HALF_TO_FLOAT = new float[1 << 16];
+
+	static {
+		for (int h = 0; h < HALF_TO_FLOAT.length; h++)
+			HALF_TO_FLOAT[h] = halfToFloat(h);
+	}
+
+	// maximum number of entries in a block of rows
+	static final int BLOCK_ENTRIES = 1 << 28;
+
+	private final Type type;
+	private final int numRows, numColumns;
+
+	// entries are stored in blocks of rows, so that a matrix may hold more entries than an array: row i is at offset
+	// (i % blockRows) * numColumns of block i / blockRows
+	private final int blockRows;
+
+	// INT8: blocks of entries in row-major order, and scales of rows
+	private final byte[][] bytes;
+	private final float[] scales;
+
+	// FLOAT16: blocks of entries in row-major order
+	private final short[][] halves;
+
+	private QuantizedMatrix(Type type, int numRows, int numColumns, byte[][] bytes, float[] scales, short[][] halves) {
+		this.type = type;
+		this.numRows = numRows;
+		this.numColumns = numColumns;
+		this.blockRows = blockRows(numColumns);
+		this.bytes = bytes;
+		this.scales = scales;
+		this.halves = halves;
+	}
+
+	/**
+	 * @return number of rows per block of a matrix with a given number of columns
+	 */
+	private static int blockRows(int numColumns) {
+		return Math.max(1, BLOCK_ENTRIES / Math.max(1, numColumns));
+	}
+
+	/**
+	 * @return number of entries of each block of a matrix with given dimensions
+	 */
+	private static int[] blockSizes(int numRows, int numColumns) {
+		if (numRows < 0 || numColumns < 0 || numColumns > BLOCK_ENTRIES)
+			throw new IllegalArgumentException("Invalid dimensions of a quantized matrix: " + numRows + " x "
+					+ numColumns);
+
+		int blockRows = blockRows(numColumns);
+		int[] sizes = new int[(numRows + blockRows - 1) / blockRows];
+		for (int b = 0; b < sizes.length; b++)
+			sizes[b] = Math.min(blockRows, numRows - b * blockRows) * numColumns;
+		return sizes;
+	}
+
+	/**
+	 * @return a quantized copy of a dense matrix
+	 */
+	public static QuantizedMatrix quantize(DenseMatrix mat, Type type) {
+		int rows = mat.numRows, cols = mat.numColumns;
+		int[] sizes = blockSizes(rows, cols);
+		int blockRows = blockRows(cols);
+
+		if (type == Type.FLOAT16) {
+			short[][] halves = new short[sizes.length][];
+			for (int b = 0; b < sizes.length; b++)
+				halves[b] = new short[sizes[b]];
+
+			for (int i = 0; i < rows; i++) {
+				short[] block = halves[i / blockRows];
+				int off = (i % blockRows) * cols;
+				for (int j = 0; j < cols; j++)
+					block[off + j] = floatToHalf((float) mat.data[i][j]);
+			}
+
+			return new QuantizedMatrix(type, rows, cols, null, null, halves);
+		}
+
+		byte[][] bytes = new byte[sizes.length][];
+		for (int b = 0; b < sizes.length; b++)
+			bytes[b] = new byte[sizes[b]];
+
+		float[] scales = new float[rows];
+		for (int i = 0; i < rows; i++) {
+			double max = 0;
+			for (int j = 0; j < cols; j++)
+				max = Math.max(max, Math.abs(mat.data[i][j]));
+			if (max == 0)
+				continue;
+
+			byte[] block = bytes[i / blockRows];
+			int off = (i % blockRows) * cols;
+			scales[i] = (float) (max / 127);
+			for (int j = 0; j < cols; j++) {
+				long q = Math.round(mat.data[i][j] / scales[i]);
+				block[off + j] = (byte) Math.max(-127, Math.min(127, q));
+			}
+		}
+
+		return new QuantizedMatrix(type, rows, cols, bytes, scales, null);
+	}
+
+	/**
+	 * @param type
+	 *            quantization type
+	 * @param numRows
+	 *            number of rows
+	 * @param numColumns
+	 *            number of columns
+	 * @param data
+	 *            blocks of entries as given by {@link #getData(int)}
+	 * @param scales
+	 *            scales of rows (INT8), or null
+	 * @return a quantized matrix of given data, e.g., read from a model file
+	 */
+	public static QuantizedMatrix of(Type type, int numRows, int numColumns, byte[][] data, double[] scales) {
+		int[] sizes = blockSizes(numRows, numColumns);
+		int width = type == Type.FLOAT16 ? 2 : 1;
+
+		if (data.length != sizes.length)
+			throw new IllegalArgumentException(data.length + " blocks of data do not match a " + type + " matrix of "
+					+ numRows + " x " + numColumns);
+		for (int b = 0; b < sizes.length; b++)
+			if (data[b] == null || data[b].length != (long) sizes[b] * width)
+				throw new IllegalArgumentException("Block " + b + " of data does not match a " + type + " matrix of "
+						+ numRows + " x " + numColumns);
+
+		if (type == Type.FLOAT16) {
+			short[][] halves = new short[sizes.length][];
+			for (int b = 0; b < sizes.length; b++) {
+				byte[] block = data[b];
+				halves[b] = new short[sizes[b]];
+				for (int k = 0; k < sizes[b]; k++)
+					halves[b][k] = (short) ((block[2 * k] << 8) | (block[2 * k + 1] & 0xff));
+			}
+
+			return new QuantizedMatrix(type, numRows, numColumns, null, null, halves);
+		}
+
+		if (scales == null || scales.length != numRows)
+			throw new IllegalArgumentException("Scales do not match a " + type + " matrix of " + numRows + " rows");
+
+		float[] fs = new float[numRows];
+		for (int i = 0; i < numRows; i++)
+			fs[i] = (float) scales[i];
+
+		return new QuantizedMatrix(type, numRows, numColumns, data, fs, null);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public int numRows() {
+		return numRows;
+	}
+
+	public int numColumns() {
+		return numColumns;
+	}
+
+	/**
+	 * @return number of blocks of entries
+	 */
+	public int numBlocks() {
+		return type == Type.INT8 ? bytes.length : halves.length;
+	}
+
+	/**
+	 * @return block b of entries in row-major order: one byte each (INT8), or two bytes each in big-endian order
+	 *         (FLOAT16)
+	 */
+	public byte[] getData(int b) {
+		if (type == Type.INT8)
+			return bytes[b];
+
+		short[] block = halves[b];
+		byte[] data = new byte[2 * block.length];
+		for (int k = 0; k < block.length; k++) {
+			data[2 * k] = (byte) (block[k] >> 8);
+			data[2 * k + 1] = (byte) block[k];
+		}
+		return data;
+	}
+
+	/**
+	 * @return scales of rows (INT8), or null
+	 */
+	public double[] getScales() {
+		if (scales == null)
+			return null;
+
+		double[] res = new double[scales.length];
+		for (int i = 0; i < scales.length; i++)
+			res[i] = scales[i];
+		return res;
+	}
+
+	/**
+	 * @return number of bytes of the quantized entries (and scales)
+	 */
+	public long sizeInBytes() {
+		long entries = (long) numRows * numColumns;
+		return type == Type.INT8 ? entries + 4L * scales.length : 2L * entries;
+	}
+
+	/**
+	 * @return the (dequantized) value of entry [i, j]
+	 */
+	public double get(int i, int j) {
+		int b = i / blockRows, k = (i % blockRows) * numColumns + j;
+		return type == Type.INT8 ? bytes[b][k] * scales[i] : HALF_TO_FLOAT[halves[b][k] & 0xffff];
+	}
+
+	/**
+	 * @return inner product of row i and a vector
+	 */
+	public double dot(int i, double[] vec) {
+		int off = (i % blockRows) * numColumns;
+		double sum = 0;
+
+		if (type == Type.INT8) {
+			byte[] block = bytes[i / blockRows];
+			for (int j = 0; j < numColumns; j++)
+				sum += block[off + j] * vec[j];
+			return sum * scales[i];
+		}
+
+		short[] block = halves[i / blockRows];
+		for (int j = 0; j < numColumns; j++)
+			sum += HALF_TO_FLOAT[block[off + j] & 0xffff] * vec[j];
+		return sum;
+	}
+
+	/**
+	 * @return inner product of row mrow of matrix m and row nrow of matrix n
+	 */
+	public static double rowMult(QuantizedMatrix m, int mrow, QuantizedMatrix n, int nrow) {
+		assert m.numColumns == n.numColumns;
+
+		int cols = m.numColumns;
+		int moff = (mrow % m.blockRows) * cols, noff = (nrow % n.blockRows) * cols;
+
+		if (m.type == Type.INT8 && n.type == Type.INT8) {
+			byte[] mb = m.bytes[mrow / m.blockRows], nb = n.bytes[nrow / n.blockRows];
+			int sum = 0;
+			for (int j = 0; j < cols; j++)
+				sum += mb[moff + j] * nb[noff + j];
+			return (double) sum * m.scales[mrow] * n.scales[nrow];
+		}
+
+		if (m.type == Type.FLOAT16 && n.type == Type.FLOAT16) {
+			short[] mh = m.halves[mrow / m.blockRows], nh = n.halves[nrow / n.blockRows];
+			double sum = 0;
+			for (int j = 0; j < cols; j++)
+				sum += HALF_TO_FLOAT[mh[moff + j] & 0xffff] * HALF_TO_FLOAT[nh[noff + j] & 0xffff];
+			return sum;
+		}
+
+		double sum = 0;
+		for (int j = 0; j < cols; j++)
+			sum += m.get(mrow, j) * n.get(nrow, j);
+		return sum;
+	}
+
+	/**
+	 * @return a dequantized copy of row i
+	 */
+	public DenseVector row(int i) {
+		DenseVector vec = new DenseVector(numColumns);
+		for (int j = 0; j < numColumns; j++)
+			vec.set(j, get(i, j));
+		return vec;
+	}
+
+	/**
+	 * @return a dequantized copy of this matrix
+	 */
+	public DenseMatrix toDenseMatrix() {
+		DenseMatrix mat = new DenseMatrix(numRows, numColumns);
+		for (int i = 0; i < numRows; i++)
+			for (int j = 0; j < numColumns; j++)
+				mat.data[i][j] = get(i, j);
+		return mat;
+	}
+
+	/**
+	 * @return the nearest half-precision number of a float, in bits (ties are rounded away from zero)
+	 */
+	static short floatToHalf(float f) {
+		int bits = Float.floatToIntBits(f);
+		int sign = (bits >>> 16) & 0x8000;
+		int abs = bits & 0x7fffffff;
+
+		// NaN or infinity
+		if (abs >= 0x7f800000)
+			return (short) (sign | 0x7c00 | (abs > 0x7f800000 ? 0x200 : 0));
+
+		// rounded, then too large: infinity
+		int val = abs + 0x1000;
+		if (val >= 0x47800000)
+			return (short) (sign | 0x7c00);
+
+		// normal numbers
+		if (val >= 0x38800000)
+			return (short) (sign | ((val - 0x38000000) >>> 13));
+
+		// too small even for subnormal numbers
+		if (abs < 0x33000000)
+			return (short) sign;
+
+		// subnormal numbers
+		int exp = abs >>> 23;
+		return (short) (sign | ((((abs & 0x7fffff) | 0x800000) + (0x800000 >>> (exp - 102))) >>> (126 - exp)));
+	}
+
+	/**
+	 * @return the float of a half-precision number given by its bits
+	 */
+	static float halfToFloat(int h) {
+		int sign = (h & 0x8000) << 16;
+		int exp = (h >>> 10) & 0x1f;
+		int mant = h & 0x3ff;
+
+		// zero or subnormal numbers: mant * 2^-24
+		if (exp == 0)
+			return Float.intBitsToFloat(sign) + (sign != 0 ? -mant : mant) * 5.9604645e-8f;
+
+		// infinity or NaN
+		if (exp == 31)
+			return Float.intBitsToFloat(sign | 0x7f800000 | (mant << 13));
+
+		return Float.intBitsToFloat(sign | ((exp + 112) << 23) | (mant << 13));
+	}
+}
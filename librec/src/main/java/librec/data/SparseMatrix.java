@@ -81,6 +81,45 @@ public class SparseMatrix implements Iterable<MatrixEntry>, Serializable {
 		this(rows, cols, dataTable, null);
 	}
 
+	/**
+	 * Construct a sparse matrix from given CRS arrays (without copying), and build the CCS structures from them
+	 *
+	 * @param rowPtr
+	 *            row pointers of length {@code rows + 1}
+	 * @param colInd
+	 *            column indices, sorted within each row
+	 * @param rowData
+	 *            values of entries in row order
+	 */
+	public SparseMatrix(int rows, int cols, int[] rowPtr, int[] colInd, double[] rowData) {
+		numRows = rows;
+		numColumns = cols;
+
+		this.rowPtr = rowPtr;
+		this.colInd = colInd;
+		this.rowData = rowData;
+
+		int nnz = rowPtr[rows];
+		colPtr = new int[cols + 1];
+		rowInd = new int[nnz];
+		colData = new double[nnz];
+
+		// count entries per column, then scatter rows in increasing order
+		for (int k = 0; k < nnz; k++)
+			colPtr[colInd[k] + 1]++;
+		for (int j = 0; j < cols; j++)
+			colPtr[j + 1] += colPtr[j];
+
+		int[] next = Arrays.copyOf(colPtr, cols);
+		for (int i = 0; i < rows; i++) {
+			for (int k = rowPtr[i]; k < rowPtr[i + 1]; k++) {
+				int pos = next[colInd[k]]++;
+				rowInd[pos] = i;
+				colData[pos] = rowData[k];
+			}
+		}
+	}
+
 	/**
 	 * Define a sparse matrix without data, only use for {@code transpose} method
 	 * 
@@ -381,6 +420,32 @@ public class SparseMatrix implements Iterable<MatrixEntry>, Serializable {
 		return res;
 	}
 
+	/**
+	 * get columns of a specific row where (row, column) entries are non-zero, without boxing
+	 *
+	 * @param row
+	 *            row id
+	 * @return an array of column indices in ascending order
+	 */
+	public int[] getColumnArray(int row) {
+		if (row >= numRows)
+			return new int[0];
+
+		int start = rowPtr[row], end = rowPtr[row + 1];
+
+		int size = 0;
+		for (int j = start; j < end; j++)
+			if (rowData[j] != 0.0)
+				size++;
+
+		int[] res = new int[size];
+		for (int j = start, k = 0; j < end; j++)
+			if (rowData[j] != 0.0)
+				res[k++] = colInd[j];
+
+		return res;
+	}
+
 	/**
 	 * create a row cache of a matrix in {row, row-specific vector}
 	 * 
@@ -94,6 +94,20 @@ public class SymmMatrix implements Serializable {
 			data.put(col, row, val + get(col, row));
 	}
 
+	/**
+	 * @return the dimension of this matrix
+	 */
+	public int size() {
+		return dim;
+	}
+
+	/**
+	 * @return reference to the data table, which keeps each entry once as (row, col) with row &gt;= col
+	 */
+	public Table<Integer, Integer, Double> getDataTable() {
+		return data;
+	}
+
 	/**
 	 * Retrieve a complete row of similar items
 	 */
@@ -0,0 +1,129 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.data;
+
+/**
+ * The top-n items by their scores, kept in a min-heap with the lowest score (then the highest item id) on top. Ties are
+ * broken by item ids, so that the top-n items do not depend on the order in which items are offered.
+ *
+ * <p>
+ * Items are added by {@link #offer(int, double)}, and then ordered by {@link #sort()}, after which the heap is not
+ * used any more. Not thread-safe.
+ * </p>
+ */
+public class TopItems {
+
+	private final int[] items;
+	private final double[] scores;
+	private int size;
+
+	/**
+	 * @param n
+	 *            number of top items to keep
+	 */
+	public TopItems(int n) {
+		items = new int[Math.max(n, 0)];
+		scores = new double[items.length];
+	}
+
+	/**
+	 * add item j with score sj, if ranked above the lowest of the top items
+	 */
+	public void offer(int j, double sj) {
+		if (size < items.length) {
+			// sift up
+			int k = size++;
+			while (k > 0 && isRankedBelow(sj, j, scores[(k - 1) / 2], items[(k - 1) / 2])) {
+				items[k] = items[(k - 1) / 2];
+				scores[k] = scores[(k - 1) / 2];
+				k = (k - 1) / 2;
+			}
+			items[k] = j;
+			scores[k] = sj;
+		} else if (size > 0 && isRankedBelow(scores[0], items[0], sj, j)) {
+			// replace the lowest one
+			siftDown(size, j, sj);
+		}
+	}
+
+	/**
+	 * @return whether no more items can be kept, i.e., n = 0
+	 */
+	public boolean isEmpty() {
+		return items.length == 0;
+	}
+
+	/**
+	 * order the top items from the highest score to the lowest, by moving the lowest one to the end in turn
+	 *
+	 * @return number of top items
+	 */
+	public int sort() {
+		for (int end = size - 1; end > 0; end--) {
+			int j = items[0];
+			double sj = scores[0];
+			siftDown(end, items[end], scores[end]);
+			items[end] = j;
+			scores[end] = sj;
+		}
+		return size;
+	}
+
+	/**
+	 * @return the k-th top item, after {@link #sort()}
+	 */
+	public int item(int k) {
+		return items[k];
+	}
+
+	/**
+	 * @return the score of the k-th top item, after {@link #sort()}
+	 */
+	public double score(int k) {
+		return scores[k];
+	}
+
+	/**
+	 * put item j with score sj at the top of the heap of the given size, and sift it down
+	 */
+	private void siftDown(int size, int j, double sj) {
+		int k = 0;
+		while (2 * k + 1 < size) {
+			int c = 2 * k + 1;
+			if (c + 1 < size && isRankedBelow(scores[c + 1], items[c + 1], scores[c], items[c]))
+				c++;
+			if (!isRankedBelow(scores[c], items[c], sj, j))
+				break;
+			items[k] = items[c];
+			scores[k] = scores[c];
+			k = c;
+		}
+		if (size > 0) {
+			items[k] = j;
+			scores[k] = sj;
+		}
+	}
+
+	/**
+	 * @return whether item i with score si is ranked below item j with score sj
+	 */
+	private static boolean isRankedBelow(double si, int i, double sj, int j) {
+		return si < sj || (si == sj && i > j);
+	}
+}
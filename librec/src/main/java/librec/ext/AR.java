@@ -59,7 +59,7 @@ public class AR extends Recommender {
 
 		A = HashBasedTable.create(numItems, numItems);
 
-		userCache = trainMatrix.rowCache(cacheSpec);
+		userItems = rowIndex(trainMatrix);
 	}
 
 	@Override
@@ -92,14 +92,12 @@ public class AR extends Recommender {
 
 	@Override
 	public double ranking(int u, int j) throws Exception {
-		SparseVector pu = userCache.get(u);
-
 		double rank = 0;
 		for (Entry<Integer, Double> en : A.column(j).entrySet()) {
 			int i = en.getKey();
 			double support = en.getValue();
 
-			rank += pu.get(i) * support;
+			rank += userItems.value(u, i) * support;
 		}
 
 		return rank;
@@ -25,6 +25,7 @@ import java.util.Map;
 import librec.data.SparseMatrix;
 import librec.data.SparseVector;
 import librec.intf.Recommender;
+import librec.io.ModelReader;
 import librec.util.Lists;
 
 import com.google.common.collect.HashBasedTable;
@@ -63,6 +64,14 @@ public class Hybrid extends Recommender {
 			itemDegrees.put(j, trainMatrix.columnSize(j));
 	}
 
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		// the degrees of items are not saved, but counted from the training data
+		initModel();
+	}
+
 	protected double ranking_basic(int u, int j) {
 
 		// Note that in ranking, we first check a user u, and then check the
@@ -219,6 +228,14 @@ public class Hybrid extends Recommender {
 		return userItemRanks.contains(u, j) ? userItemRanks.get(u, j) : 0.0;
 	}
 
+	/**
+	 * the scores of the last ranked user are kept in shared tables
+	 */
+	@Override
+	public boolean isThreadSafe() {
+		return false;
+	}
+
 	@Override
 	public String toString() {
 		return super.toString() + "," + lambda;
@@ -25,6 +25,8 @@ import librec.data.MatrixEntry;
 import librec.data.SparseMatrix;
 import librec.data.SparseVector;
 import librec.intf.IterativeRecommender;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
 import librec.util.Strings;
 
 /**
@@ -60,7 +62,7 @@ public class NMF extends IterativeRecommender {
 
 	@Override
 	protected void buildModel() throws Exception {
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
 
 			// update W by fixing H
 			for (int u = 0; u < W.numRows(); u++) {
@@ -129,6 +131,22 @@ public class NMF extends IterativeRecommender {
 		return DenseMatrix.product(W, u, H, j);
 	}
 
+	@Override
+	protected void writeModel(ModelWriter out) throws Exception {
+		super.writeModel(out);
+
+		out.write("W", W);
+		out.write("H", H);
+	}
+
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		W = in.readDenseMatrix("W");
+		H = in.readDenseMatrix("H");
+	}
+
 	@Override
 	public String toString() {
 		return Strings.toString(new Object[] { numFactors, numIters });
@@ -111,7 +111,7 @@ public class PRankD extends RankSGD {
 
 	@Override
 	protected void buildModel() throws Exception {
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
 
 			loss = 0;
 
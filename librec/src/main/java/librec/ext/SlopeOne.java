@@ -18,23 +18,37 @@
 
 package librec.ext;
 
-import librec.data.DenseMatrix;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
 import librec.data.SparseMatrix;
-import librec.data.SparseVector;
 import librec.intf.Recommender;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
+import librec.util.ComputePool;
 
 /**
  * 
  * Weighted Slope One: Lemire and Maclachlan, <strong>Slope One Predictors for Online Rating-Based Collaborative
  * Filtering</strong>, SDM 2005. 
  * 
+ * <p>
+ * The deviations are stored sparsely: each item j only keeps a list of the items co-rated with it, in ascending order,
+ * with their average differences of ratings and numbers of co-ratings. The lists of items are built in parallel, and a
+ * prediction merges the items rated by the user with the list of the target item.
+ * </p>
+ * 
  * @author guoguibing
  * 
  */
 public class SlopeOne extends Recommender {
 
-	// matrices for item-item differences with number of occurrences/cardinary
-	private DenseMatrix devMatrix, cardMatrix;
+	// items co-rated with item j: devItems[devPtr[j], devPtr[j + 1]), with average differences of ratings (r_j - r_i)
+	// and numbers of occurrences/cardinary
+	private int[] devPtr, devItems, devCards;
+	private double[] devs;
 
 	public SlopeOne(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
 		super(trainMatrix, testMatrix, fold);
@@ -42,55 +56,129 @@ public class SlopeOne extends Recommender {
 
 	@Override
 	protected void initModel() throws Exception {
-		devMatrix = new DenseMatrix(numItems, numItems);
-		cardMatrix = new DenseMatrix(numItems, numItems);
+		userItems = rowIndex(trainMatrix);
+		itemUsers = columnIndex(trainMatrix);
 	}
 
 	@Override
 	protected void buildModel() throws Exception {
+		final int[][] itemLists = new int[numItems][], cardLists = new int[numItems][];
+		final double[][] devLists = new double[numItems][];
+
+		// compute items' differences, each item by the users who rated it
+		int numTasks = Math.min(numItems, 4 * ComputePool.parallelism());
+
+		List<Callable<Void>> tasks = new ArrayList<>(numTasks);
+		for (int t = 0; t < numTasks; t++) {
+			final int start = (int) ((long) numItems * t / numTasks);
+			final int end = (int) ((long) numItems * (t + 1) / numTasks);
+			tasks.add(new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+					double[] sums = new double[numItems];
+					int[] counts = new int[numItems], touched = new int[numItems];
+
+					for (int j = start; j < end; j++) {
+						int size = 0;
 
-		// compute items' differences
-		for (int u = 0; u < numUsers; u++) {
-			SparseVector uv = trainMatrix.row(u);
-			int[] items = uv.getIndex();
-
-			for (int i : items) {
-				double rui = uv.get(i);
-				for (int j : items) {
-					if (i != j) {
-						double ruj = uv.get(j);
-						devMatrix.add(i, j, rui - ruj);
-						cardMatrix.add(i, j, 1);
+						int[] users = itemUsers.get(j);
+						double[] ratings = itemUsers.values(j);
+						for (int n = 0; n < users.length; n++) {
+							double ruj = ratings[n];
+
+							int[] items = userItems.get(users[n]);
+							double[] uv = userItems.values(users[n]);
+							for (int k = 0; k < items.length; k++) {
+								int i = items[k];
+								if (i != j) {
+									if (counts[i] == 0)
+										touched[size++] = i;
+									sums[i] += ruj - uv[k];
+									counts[i]++;
+								}
+							}
+						}
+
+						// normalize differences
+						Arrays.sort(touched, 0, size);
+						itemLists[j] = Arrays.copyOf(touched, size);
+						devLists[j] = new double[size];
+						cardLists[j] = new int[size];
+						for (int k = 0; k < size; k++) {
+							int i = touched[k];
+							devLists[j][k] = sums[i] / counts[i];
+							cardLists[j][k] = counts[i];
+
+							sums[i] = 0;
+							counts[i] = 0;
+						}
 					}
+					return null;
 				}
-			}
+			});
 		}
+		ComputePool.invokeAll(tasks);
 
-		// normalize differences
-		for (int i = 0; i < numItems; i++) {
-			for (int j = 0; j < numItems; j++) {
-				double card = cardMatrix.get(i, j);
-				if (card > 0) {
-					double sum = devMatrix.get(i, j);
-					devMatrix.set(i, j, sum / card);
-				}
-			}
+		devPtr = new int[numItems + 1];
+		for (int j = 0; j < numItems; j++)
+			devPtr[j + 1] = devPtr[j] + itemLists[j].length;
+
+		devItems = new int[devPtr[numItems]];
+		devs = new double[devItems.length];
+		devCards = new int[devItems.length];
+		for (int j = 0; j < numItems; j++) {
+			System.arraycopy(itemLists[j], 0, devItems, devPtr[j], itemLists[j].length);
+			System.arraycopy(devLists[j], 0, devs, devPtr[j], itemLists[j].length);
+			System.arraycopy(cardLists[j], 0, devCards, devPtr[j], itemLists[j].length);
 		}
 	}
 
 	@Override
 	public double predict(int u, int j) {
-		SparseVector uv = trainMatrix.row(u, j);
+		int[] items = userItems.get(u);
+		double[] uv = userItems.values(u);
+
+		// merge the items rated by user u with the items co-rated with item j, both in ascending order
 		double preds = 0, cards = 0;
-		for (int i : uv.getIndex()) {
-			double card = cardMatrix.get(j, i);
-			if (card > 0) {
-				preds += (devMatrix.get(j, i) + uv.get(i)) * card;
+		int end = devPtr[j + 1];
+		for (int n = 0, d = devPtr[j]; n < items.length && d < end;) {
+			if (items[n] < devItems[d])
+				n++;
+			else if (items[n] > devItems[d])
+				d++;
+			else {
+				double card = devCards[d];
+				preds += (devs[d] + uv[n]) * card;
 				cards += card;
+				n++;
+				d++;
 			}
 		}
 
 		return cards > 0 ? preds / cards : globalMean;
 	}
 
+	@Override
+	protected void writeModel(ModelWriter out) throws Exception {
+		super.writeModel(out);
+
+		out.write("devPtr", devPtr);
+		out.write("devItems", devItems);
+		out.write("devs", devs);
+		out.write("devCards", devCards);
+	}
+
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		userItems = rowIndex(trainMatrix);
+		itemUsers = columnIndex(trainMatrix);
+
+		devPtr = in.readIntArray("devPtr");
+		devItems = in.readIntArray("devItems");
+		devs = in.readDoubleArray("devs");
+		devCards = in.readIntArray("devCards");
+	}
 }
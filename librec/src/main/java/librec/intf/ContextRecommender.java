@@ -18,20 +18,16 @@ import librec.data.UserContext;
 public class ContextRecommender extends IterativeRecommender {
 
 	// {user, user-context}
-	protected static Map<Integer, UserContext> userContexts;
+	protected Map<Integer, UserContext> userContexts;
 	// {item, item-context}
-	protected static Map<Integer, ItemContext> itemContexts;
+	protected Map<Integer, ItemContext> itemContexts;
 	// {user, item, rating-context}
-	protected static Table<Integer, Integer, RatingContext> ratingContexts;
-
-	// initialization
-	static {
-
-		// read context information here
-	}
+	protected Table<Integer, Integer, RatingContext> ratingContexts;
 
 	public ContextRecommender(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
 		super(trainMatrix, testMatrix, fold);
+
+		// read context information here
 	}
 	
 }
@@ -0,0 +1,254 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.intf;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import librec.data.MatrixEntry;
+import librec.data.SparseMatrix;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
+import librec.metric.MetricCollection;
+import librec.util.ComputePool;
+import librec.util.Logs;
+
+/**
+ * Early stopping by a rating metric on validation data, where lower values are better.
+ *
+ * <p>
+ * After an iteration, the model is copied into an in-memory snapshot by {@link Recommender#writeModel}, and scored on
+ * (a fixed sample of) the validation ratings in the compute pool while training continues. The score is collected at
+ * the end of a later iteration; iterations finished while a validation is still in progress are not validated. The
+ * snapshot of the best score is kept, and restored into the recommender when training is finished.
+ * </p>
+ *
+ * <p>
+ * Snapshots are scored by a {@link Recommender#copy()} of the recommender, given the snapshot by
+ * {@link Recommender#readModel}. It shares the training data, global mean and indexes of the recommender being
+ * trained, but no model state.
+ * </p>
+ */
+class EarlyStopping {
+
+	private final Recommender rec;
+	private final String metric;
+	private final int patience;
+
+	// sampled validation ratings
+	private final int[] users, items;
+	private final double[] rates;
+
+	// recommender to score snapshots
+	private final Recommender scorer;
+
+	// the validation in progress
+	private ComputePool.Task<Double> pending;
+	private byte[] pendingModel;
+	private int pendingIter = -1;
+
+	// the last iteration trained, and the last iteration scored
+	private int lastIter = -1, scoredIter = -1;
+
+	// the best validation so far
+	private double best = Double.POSITIVE_INFINITY;
+	private byte[] bestModel;
+	private int bestIter;
+
+	// number of validations since the best one
+	private int numWorse;
+
+	/**
+	 * @param rec
+	 *            recommender being trained
+	 * @param metric
+	 *            name of the rating metric
+	 * @param validationMatrix
+	 *            validation ratings
+	 * @param sample
+	 *            ratio of validation ratings to be sampled, once for all iterations
+	 * @param patience
+	 *            number of validations without improvement before stopping
+	 * @param seed
+	 *            random seed of the sample
+	 */
+	EarlyStopping(Recommender rec, String metric, SparseMatrix validationMatrix, double sample, int patience,
+			long seed) throws Exception {
+		this.rec = rec;
+		this.metric = metric;
+		this.patience = patience;
+
+		scorer = rec.copy();
+
+		Random rnd = new Random(seed);
+		int size = validationMatrix.size();
+		int[] us = new int[size], js = new int[size];
+		double[] rs = new double[size];
+
+		int n = 0;
+		for (MatrixEntry me : validationMatrix) {
+			if (sample < 1 && rnd.nextDouble() >= sample)
+				continue;
+
+			us[n] = me.row();
+			js[n] = me.column();
+			rs[n] = me.get();
+			n++;
+		}
+
+		users = Arrays.copyOf(us, n);
+		items = Arrays.copyOf(js, n);
+		rates = Arrays.copyOf(rs, n);
+	}
+
+	/**
+	 * Collect the validation in progress if it is done, and start validating the current model in the background;
+	 * nothing is done while the validation in progress is not done.
+	 *
+	 * @param iter
+	 *            current iteration
+	 * @return the score collected, or NaN if none
+	 */
+	double validate(int iter) throws Exception {
+		lastIter = iter;
+		if (pending != null && !pending.isDone())
+			return Double.NaN;
+
+		double score = collect();
+
+		final byte[] model = snapshot();
+		pendingModel = model;
+		pendingIter = iter;
+		pending = ComputePool.submit(new Callable<Double>() {
+
+			@Override
+			public Double call() throws Exception {
+				return score(model);
+			}
+		});
+
+		return score;
+	}
+
+	/**
+	 * @return iteration of the score last collected
+	 */
+	int scoredIter() {
+		return scoredIter;
+	}
+
+	/**
+	 * @return whether there have been too many validations without improvement
+	 */
+	boolean isExhausted() {
+		return patience > 0 && numWorse >= patience;
+	}
+
+	/**
+	 * Collect the last validation, validate the final model if it is not validated yet, and restore the best model if
+	 * it is not the final one.
+	 */
+	void finish() throws Exception {
+		collect();
+
+		if (lastIter != pendingIter) {
+			pendingModel = snapshot();
+			pendingIter = lastIter;
+			update(score(pendingModel));
+		}
+
+		if (bestModel != null && bestIter != lastIter) {
+			try (ModelReader in = new ModelReader(bestModel)) {
+				rec.readModel(in);
+			}
+			Logs.debug("{}{} restores the model of iter {} with best {} = {}", rec.algoName, rec.foldInfo, bestIter,
+					metric, (float) best);
+		}
+
+		bestModel = null;
+		pendingModel = null;
+	}
+
+	/**
+	 * wait for the validation in progress, if any, and keep its model if it is the best
+	 */
+	private double collect() throws Exception {
+		if (pending == null)
+			return Double.NaN;
+
+		double score = pending.result();
+		pending = null;
+
+		update(score);
+
+		return score;
+	}
+
+	/**
+	 * keep the model of the last validation if its score is the best
+	 */
+	private void update(double score) {
+		scoredIter = pendingIter;
+
+		if (score < best) {
+			best = score;
+			bestModel = pendingModel;
+			bestIter = pendingIter;
+			numWorse = 0;
+		} else {
+			numWorse++;
+		}
+	}
+
+	/**
+	 * @return an in-memory snapshot of the current model
+	 */
+	private byte[] snapshot() throws Exception {
+		ModelWriter out = new ModelWriter(rec.getClass().getName());
+		rec.writeModel(out);
+		out.commit();
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * score a model snapshot on the sampled validation ratings; only one snapshot is scored at a time
+	 */
+	private double score(byte[] model) throws Exception {
+		try (ModelReader in = new ModelReader(model)) {
+			scorer.readModel(in);
+		}
+
+		MetricCollection acc = rec.measures.newRatingAccumulators(scorer);
+
+		int count = 0;
+		for (int k = 0; k < users.length; k++) {
+			double pred = scorer.predict(users[k], items[k], true);
+			if (Double.isNaN(pred))
+				continue;
+
+			acc.updateRatingMetrics(users[k], items[k], pred, rates[k], scorer);
+			count++;
+		}
+		acc.computeRatingMetrics(count);
+
+		return acc.getRatingMetric(metric).getValue();
+	}
+}
@@ -1,15 +1,18 @@
 package librec.intf;
 
+import java.util.Arrays;
+import java.util.Random;
+
 import librec.data.Configuration;
 import librec.data.DenseMatrix;
 import librec.data.DenseVector;
 import librec.data.SparseMatrix;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
 import librec.util.LineConfiger;
 import librec.util.Logs;
 import librec.util.Strings;
 
-import com.google.common.collect.Table;
-
 /**
  * Probabilistic Graphic Models
  * 
@@ -22,51 +25,54 @@ public class GraphicRecommender extends Recommender {
 	/**
 	 * line configer for general probabilistic graphic models
 	 */
-	protected static LineConfiger pgmOptions;
+	protected LineConfiger pgmOptions;
 
 	/**
 	 * number of topics
 	 */
-	protected static int numFactors;
+	protected int numFactors;
 
 	/**
 	 * Dirichlet hyper-parameters of user-topic distribution: typical value is 50/K
 	 */
-	protected static float initAlpha;
+	protected float initAlpha;
 
 	/**
 	 * Dirichlet hyper-parameters of topic-item distribution, typical value is 0.01
 	 */
-	protected static float initBeta;
+	protected float initBeta;
 	/**
 	 * burn-in period
 	 */
-	protected static int burnIn;
+	protected int burnIn;
 
 	/**
 	 * sample lag (if -1 only one sample taken)
 	 */
-	protected static int sampleLag;
+	protected int sampleLag;
 
 	/**
 	 * maximum number of iterations
 	 */
-	protected static int numIters;
+	protected int numIters;
 
 	/**
 	 * intervals for printing verbose information
 	 */
-	protected static int numIntervals;
+	protected int numIntervals;
 
-	// indicator of initialization of the general recommender
-	public static boolean isInitialized = false;
+	/**
+	 * number of Metropolis-Hastings steps per token of the alias-table samplers (option {@code -mh [steps]}), or 0 for
+	 * exact Gibbs sampling
+	 */
+	protected int mhSteps;
 
 	/*********************************** Method-specific Parameters ************************/
 
 	/**
-	 * entry[u, i, k]: topic assignment as sparse structure
+	 * entry[n]: topic assignment of the n-th token, i.e., rating (u, i), in the (CRS) order of the training matrix
 	 */
-	protected Table<Integer, Integer, Integer> z;
+	protected int[] z;
 
 	/**
 	 * entry[i, k]: number of tokens assigned to topic k, given item i.
@@ -127,31 +133,32 @@ public class GraphicRecommender extends Recommender {
 	public GraphicRecommender(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
 		super(trainMatrix, testMatrix, fold);
 
-		if (!isInitialized) {
-			isInitialized = true;
-			
-			numFactors = cf.getInt("num.factors", 10);
-			numIters = cf.getInt("num.max.iter", 30);
+		numFactors = cf.getInt("num.factors", 10);
+		numIters = cf.getInt("num.max.iter", 30);
 
-			pgmOptions = cf.getParamOptions("pgm.setup");
-			if (pgmOptions != null) {
-				burnIn = pgmOptions.getInt("-burn-in");
-				sampleLag = pgmOptions.getInt("-sample-lag");
-				numIntervals = pgmOptions.getInt("-interval");
+		pgmOptions = cf.getParamOptions("pgm.setup");
+		if (pgmOptions != null) {
+			burnIn = pgmOptions.getInt("-burn-in");
+			sampleLag = pgmOptions.getInt("-sample-lag");
+			numIntervals = pgmOptions.getInt("-interval");
 
-				initAlpha = pgmOptions.getFloat("-alpha", 1.0f / numFactors);
-				initBeta = pgmOptions.getFloat("-beta", 1.0f / numFactors);
+			initAlpha = pgmOptions.getFloat("-alpha", 1.0f / numFactors);
+			initBeta = pgmOptions.getFloat("-beta", 1.0f / numFactors);
 
-				assert burnIn > 0;
-				assert sampleLag > 0;
-			}
+			mhSteps = pgmOptions.contains("-mh") ? pgmOptions.getInt("-mh", 2) : 0;
+
+			if (pgmOptions.contains("-workers") && !(this instanceof SweepRecommender))
+				Logs.warn("{} does not support distributed sampling, option -workers is ignored", algoName);
+
+			assert burnIn > 0;
+			assert sampleLag > 0;
 		}
 	}
 
 	@Override
 	protected void buildModel() throws Exception {
 
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
 
 			// E-step: infer parameters
 			eStep();
@@ -159,6 +166,8 @@ public class GraphicRecommender extends Recommender {
 			// M-step: update hyper-parameters
 			mStep();
 
+			telemetry.endEpoch(iter, loss);
+
 			// get statistics after burn-in
 			if ((iter > burnIn) && (iter % sampleLag == 0)) {
 				readoutParams();
@@ -169,6 +178,8 @@ public class GraphicRecommender extends Recommender {
 
 			if (verbose && (iter % numIntervals == 0))
 				Logs.debug("{}{} runs at iter {}/{}", algoName, foldInfo, iter, numIters);
+
+			checkpoint(iter);
 		}
 
 		// retrieve posterior probability distributions
@@ -176,6 +187,37 @@ public class GraphicRecommender extends Recommender {
 
 	}
 
+	/**
+	 * @return index of the token of rating (u, i) in the (CRS) order of the training matrix, e.g., of its topic in z
+	 */
+	protected int tokenIndex(int u, int i) {
+		int[] rowPtr = trainMatrix.getRowPointers();
+		return Arrays.binarySearch(trainMatrix.getColumnIndices(), rowPtr[u], rowPtr[u + 1], i);
+	}
+
+	/**
+	 * draw an outcome of the unnormalized probabilities p[0, n) by the cumulative method, which cumulates p in place
+	 */
+	protected int sample(double[] p, int n) {
+		return sample(p, n, random);
+	}
+
+	/**
+	 * draw an outcome of the unnormalized probabilities p[0, n) by the cumulative method and a given generator
+	 */
+	protected static int sample(double[] p, int n, Random rnd) {
+		for (int k = 1; k < n; k++)
+			p[k] += p[k - 1];
+
+		// scaled sample because of unnormalized p[]
+		double rand = rnd.nextDouble() * p[n - 1];
+		int k = 0;
+		while (k < n - 1 && rand >= p[k])
+			k++;
+
+		return k;
+	}
+
 	/**
 	 * update the hyper-parameters
 	 */
@@ -201,7 +243,7 @@ public class GraphicRecommender extends Recommender {
 	/**
 	 * parameters estimation: used in the training phase
 	 */
-	protected void eStep() {
+	protected void eStep() throws Exception {
 	}
 
 	/**
@@ -216,6 +258,80 @@ public class GraphicRecommender extends Recommender {
 	protected void readoutParams() {
 	}
 
+	@Override
+	protected void writeModel(ModelWriter out) throws Exception {
+		super.writeModel(out);
+
+		out.write("Puk", Puk);
+		out.write("Pki", Pki);
+		out.write("Pik", Pik);
+	}
+
+	@Override
+	protected void writeTrainState(ModelWriter out) throws Exception {
+		super.writeTrainState(out);
+
+		// topic assignments
+		if (z != null)
+			out.write("z", z);
+
+		// counts
+		out.write("Nik", Nik);
+		out.write("Nki", Nki);
+		out.write("Nuk", Nuk);
+		out.write("Nk", Nk);
+		out.write("Nu", Nu);
+		out.write("Ni", Ni);
+
+		// hyper-parameters
+		out.write("alpha", alpha);
+		out.write("beta", beta);
+
+		// cumulative statistics
+		out.write("PukSum", PukSum);
+		out.write("PikSum", PikSum);
+		out.write("PkiSum", PkiSum);
+		out.write("numStats", numStats);
+
+		out.write("loss", loss);
+		out.write("lastLoss", lastLoss);
+	}
+
+	@Override
+	protected void readTrainState(ModelReader in) throws Exception {
+		super.readTrainState(in);
+
+		if (in.contains("z"))
+			z = in.readIntArray("z");
+
+		Nik = in.readDenseMatrix("Nik");
+		Nki = in.readDenseMatrix("Nki");
+		Nuk = in.readDenseMatrix("Nuk");
+		Nk = in.readDenseVector("Nk");
+		Nu = in.readDenseVector("Nu");
+		Ni = in.readDenseVector("Ni");
+
+		alpha = in.readDenseVector("alpha");
+		beta = in.readDenseVector("beta");
+
+		PukSum = in.readDenseMatrix("PukSum");
+		PikSum = in.readDenseMatrix("PikSum");
+		PkiSum = in.readDenseMatrix("PkiSum");
+		numStats = (int) in.readDouble("numStats", numStats);
+
+		loss = in.readDouble("loss", loss);
+		lastLoss = in.readDouble("lastLoss", lastLoss);
+	}
+
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		Puk = in.readDenseMatrix("Puk");
+		Pki = in.readDenseMatrix("Pki");
+		Pik = in.readDenseMatrix("Pik");
+	}
+
 	@Override
 	public String toString() {
 		return Strings.toString(new Object[] { numIters, burnIn, sampleLag }, ", ");
@@ -18,11 +18,21 @@
 
 package librec.intf;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
 import librec.data.Configuration;
 import librec.data.DenseMatrix;
 import librec.data.DenseVector;
+import librec.data.MatrixEntry;
+import librec.data.QuantizedMatrix;
 import librec.data.SparseMatrix;
-import librec.util.FileIO;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
+import librec.util.ComputePool;
 import librec.util.LineConfiger;
 import librec.util.Logs;
 import librec.util.Strings;
@@ -36,25 +46,33 @@ import librec.util.Strings;
 @Configuration("factors, lRate, maxLRate, regB, regU, regI, iters, boldDriver")
 public abstract class IterativeRecommender extends Recommender {
 
-	/************************************ Static parameters for all recommenders ***********************************/
+	/************************************ Parameters of the run (context) ********************************************/
 	// init, maximum learning rate, momentum
-	protected static float initLRate, maxLRate, momentum;
+	protected float initLRate, maxLRate, momentum;
 	// line configer for regularization parameters
-	protected static LineConfiger regOptions;
+	protected LineConfiger regOptions;
 	// user, item and bias regularization
-	protected static float regU, regI, regB, reg;
+	protected float regU, regI, regB, reg;
 	// number of factors
-	protected static int numFactors;
+	protected int numFactors;
 	// number of iterations
-	protected static int numIters;
+	protected int numIters;
 
 	// whether to adjust learning rate automatically
-	protected static boolean isBoldDriver;
+	protected boolean isBoldDriver;
 	// decay of learning rate
-	protected static float decay;
-
-	// indicator of static field initialization
-	public static boolean resetStatics = true;
+	protected float decay;
+
+	// per-parameter update rule of SGD
+	protected Optimizer.Type optimizer = Optimizer.Type.SGD;
+	// decay rates of RMSProp (rho) and Adam (beta1, beta2), and the constant to avoid division by zero
+	protected float rho, beta1, beta2, epsilon;
+	// whether SGD epochs run in parallel by lock-free updates (Hogwild!) rather than sequentially
+	protected boolean isHogwild;
+	// number of user (item) blocks of stratified SGD (DSGD), 0 if off
+	protected int dsgdBlocks;
+	// default number of blocks of DSGD, fixed so that results do not depend on the number of compute threads
+	public static final int DSGD_BLOCKS = 8;
 
 	/************************************ Recommender-specific parameters ****************************************/
 	// factorized user-factor matrix
@@ -68,12 +86,35 @@ public abstract class IterativeRecommender extends Recommender {
 	// item biases
 	protected DenseVector itemBias;
 
+	// update rules of user/item factors and biases
+	protected Optimizer optP, optQ, optUserBias, optItemBias;
+
+	// quantized user/item factors for evaluation and serving, if any
+	protected QuantizedMatrix quantP, quantQ;
+
+	// number of passes over the ratings of a user folded in by SGD
+	protected int foldInIters;
+	// Gram matrix of item factors, computed on demand to fold in users
+	private volatile DenseMatrix itemGram;
+
+	// training ratings of parallel SGD, either shuffled into shards, i.e., shard s is [shardPtr[s], shardPtr[s + 1]),
+	// or into a p x p grid of user/item blocks, i.e., block (a, b) is [blockPtr[a * p + b], blockPtr[a * p + b + 1])
+	private int[] sgdRows, sgdCols, shardPtr, blockPtr;
+	private double[] sgdVals;
+	// users of parallel SGD by users, shuffled into shards of the same sizes
+	private int[] sgdUsers;
+	private boolean isDsgdWarned;
+
 	// adaptive learn rate
 	protected double lRate;
 	// objective loss
 	protected double loss, last_loss = 0;
 	// predictive measure
 	protected double measure, last_measure = 0;
+	// early stopping by validation, if any
+	private EarlyStopping earlyStopping;
+	// seed of the validation sample, drawn before training so that a resumed run draws the same numbers
+	private final long earlyStopSeed;
 
 	// initial models using normal distribution
 	protected boolean initByNorm;
@@ -81,34 +122,40 @@ public abstract class IterativeRecommender extends Recommender {
 	public IterativeRecommender(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
 		super(trainMatrix, testMatrix, fold);
 
-		// initialization 
-		if (resetStatics) {
-			resetStatics = false;
-
-			LineConfiger lc = cf.getParamOptions("learn.rate");
-			if (lc != null) {
-				initLRate = Float.parseFloat(lc.getMainParam());
-				maxLRate = lc.getFloat("-max", -1);
-				isBoldDriver = lc.contains("-bold-driver");
-				decay = lc.getFloat("-decay", -1);
-				momentum = lc.getFloat("-momentum", 50);
-			}
-
-			regOptions = cf.getParamOptions("reg.lambda");
-			if (regOptions != null) {
-				reg = Float.parseFloat(regOptions.getMainParam());
-				regU = regOptions.getFloat("-u", reg);
-				regI = regOptions.getFloat("-i", reg);
-				regB = regOptions.getFloat("-b", reg);
-			}
+		LineConfiger lc = cf.getParamOptions("learn.rate");
+		if (lc != null) {
+			initLRate = Float.parseFloat(lc.getMainParam());
+			maxLRate = lc.getFloat("-max", -1);
+			isBoldDriver = lc.contains("-bold-driver");
+			decay = lc.getFloat("-decay", -1);
+			momentum = lc.getFloat("-momentum", 50);
+
+			optimizer = Optimizer.Type.valueOf(lc.getString("-optimizer", "sgd").toUpperCase());
+			rho = lc.getFloat("-rho", 0.9f);
+			beta1 = lc.getFloat("-beta1", 0.9f);
+			beta2 = lc.getFloat("-beta2", 0.999f);
+			epsilon = lc.getFloat("-eps", 1e-8f);
+			isHogwild = lc.contains("-hogwild");
+			dsgdBlocks = lc.contains("-dsgd") ? Math.max(1, lc.getInt("-dsgd", DSGD_BLOCKS)) : 0;
+		}
 
-			numFactors = cf.getInt("num.factors", 10);
-			numIters = cf.getInt("num.max.iter", 100);
+		regOptions = cf.getParamOptions("reg.lambda");
+		if (regOptions != null) {
+			reg = Float.parseFloat(regOptions.getMainParam());
+			regU = regOptions.getFloat("-u", reg);
+			regI = regOptions.getFloat("-i", reg);
+			regB = regOptions.getFloat("-b", reg);
 		}
 
+		numFactors = cf.getInt("num.factors", 10);
+		numIters = cf.getInt("num.max.iter", 100);
+		foldInIters = cf.getInt("num.fold.in.iter", 20);
+
 		// method-specific settings
 		lRate = initLRate;
 		initByNorm = true;
+
+		earlyStopSeed = random.nextLong();
 	}
 
 	/**
@@ -116,7 +163,454 @@ public abstract class IterativeRecommender extends Recommender {
 	 */
 	@Override
 	public double predict(int u, int j) throws Exception {
-		return DenseMatrix.rowMult(P, u, Q, j);
+		return factorMult(u, j);
+	}
+
+	/**
+	 * @return inner product of the factors of user u and item j, quantized if the model is
+	 */
+	protected double factorMult(int u, int j) {
+		return quantP != null ? QuantizedMatrix.rowMult(quantP, u, quantQ, j) : DenseMatrix.rowMult(P, u, Q, j);
+	}
+
+	/**
+	 * @return factors of user u, dequantized if the model is quantized
+	 */
+	protected DenseVector userFactors(int u) {
+		return quantP != null ? quantP.row(u) : P.row(u, false);
+	}
+
+	/**
+	 * @return factors of all items, dequantized if the model is quantized
+	 */
+	protected DenseMatrix itemFactors() {
+		return quantQ != null ? quantQ.toDenseMatrix() : Q;
+	}
+
+	/**
+	 * @return factors of item j, dequantized if the model is quantized
+	 */
+	protected DenseVector itemFactors(int j) {
+		return quantQ != null ? quantQ.row(j) : Q.row(j, false);
+	}
+
+	/**
+	 * @return the Gram matrix of item factors, i.e., Q^T Q, computed once for the learned (or loaded) model
+	 */
+	protected DenseMatrix itemGram() {
+		DenseMatrix gram = itemGram;
+		if (gram == null) {
+			gram = itemFactors().transMult();
+			itemGram = gram;
+		}
+		return gram;
+	}
+
+	/**
+	 * @return whether the predictions of the model only use the user/item factors by {@link #factorMult(int, int)}
+	 *         (besides biases), such that the factors can be quantized
+	 */
+	protected boolean isQuantizable() {
+		return false;
+	}
+
+	@Override
+	public boolean quantizeModel(QuantizedMatrix.Type type) throws Exception {
+		if (!isQuantizable())
+			return false;
+
+		// a quantized model is loaded: the full precision is unavailable
+		if (P == null)
+			return type != null && quantP != null;
+
+		itemGram = null;
+		if (type == null) {
+			quantP = null;
+			quantQ = null;
+		} else {
+			quantP = QuantizedMatrix.quantize(P, type);
+			quantQ = QuantizedMatrix.quantize(Q, type);
+		}
+		return true;
+	}
+
+	/**
+	 * update of the parameters by a training rating, in an epoch of SGD
+	 */
+	protected interface RatingUpdate {
+
+		/**
+		 * @return the loss of the rating, including the regularization of the parameters updated
+		 */
+		double update(int u, int j, double ruj) throws Exception;
+	}
+
+	/**
+	 * Run an epoch of SGD over the training ratings, either sequentially in the order of the training matrix, or (with
+	 * option {@code -hogwild} of {@code learn.rate}) by the threads of the compute pool, each over its own shard of
+	 * the ratings shuffled once. Parallel updates of the shared parameters are not locked: Niu et al., Hogwild!: A
+	 * lock-free approach to parallelizing stochastic gradient descent, NIPS 2011.
+	 * 
+	 * <p>
+	 * With option {@code -dsgd [p]} (p = {@value #DSGD_BLOCKS} by default), the epoch is stratified instead (cf.
+	 * {@link #dsgdEpoch(RatingUpdate)}), given that the updates are local (cf. {@link #hasLocalUpdates()}).
+	 * </p>
+	 * 
+	 * @return the total loss of the epoch
+	 */
+	protected double sgdEpoch(final RatingUpdate update) throws Exception {
+		if (dsgdBlocks != 0) {
+			if (hasLocalUpdates())
+				return dsgdEpoch(update);
+
+			warnDsgdIgnored();
+		}
+
+		int numShards = isHogwild ? ComputePool.parallelism() : 1;
+
+		if (numShards <= 1) {
+			double sum = 0;
+			for (MatrixEntry me : trainMatrix)
+				sum += update.update(me.row(), me.column(), me.get());
+			return sum;
+		}
+
+		if (shardPtr == null || shardPtr.length != numShards + 1)
+			shardRatings(numShards);
+
+		List<Callable<Double>> tasks = new ArrayList<>(numShards);
+		for (int s = 0; s < numShards; s++) {
+			final int start = shardPtr[s], end = shardPtr[s + 1];
+			tasks.add(new Callable<Double>() {
+
+				@Override
+				public Double call() throws Exception {
+					double sum = 0;
+					for (int k = start; k < end; k++)
+						sum += update.update(sgdRows[k], sgdCols[k], sgdVals[k]);
+					return sum;
+				}
+			});
+		}
+
+		double sum = 0;
+		for (double shardLoss : ComputePool.invokeAll(tasks))
+			sum += shardLoss;
+		return sum;
+	}
+
+	/**
+	 * update of the parameters by all training ratings of a user, in an epoch of SGD
+	 */
+	protected interface UserUpdate {
+
+		/**
+		 * @return the loss of the ratings of user u, including the regularization of the parameters updated
+		 */
+		double update(int u) throws Exception;
+	}
+
+	/**
+	 * Run an epoch of SGD by users, e.g., to update the parameters shared by the ratings of a user once per user,
+	 * either sequentially in the order of users, or (with option {@code -hogwild} of {@code learn.rate}) by the threads
+	 * of the compute pool, each over its own shard of the users shuffled once, without locks.
+	 * 
+	 * @return the total loss of the epoch
+	 */
+	protected double userEpoch(final UserUpdate update) throws Exception {
+		if (dsgdBlocks != 0)
+			warnDsgdIgnored();
+
+		int numShards = isHogwild ? Math.min(ComputePool.parallelism(), numUsers) : 1;
+
+		if (numShards <= 1) {
+			double sum = 0;
+			for (int u = 0; u < numUsers; u++)
+				sum += update.update(u);
+			return sum;
+		}
+
+		if (sgdUsers == null) {
+			sgdUsers = new int[numUsers];
+			for (int u = 0; u < numUsers; u++)
+				sgdUsers[u] = u;
+			for (int i = numUsers - 1; i > 0; i--) {
+				int r = random.nextInt(i + 1);
+				int u = sgdUsers[i];
+				sgdUsers[i] = sgdUsers[r];
+				sgdUsers[r] = u;
+			}
+		}
+
+		List<Callable<Double>> tasks = new ArrayList<>(numShards);
+		for (int s = 0; s < numShards; s++) {
+			final int start = (int) ((long) numUsers * s / numShards);
+			final int end = (int) ((long) numUsers * (s + 1) / numShards);
+			tasks.add(new Callable<Double>() {
+
+				@Override
+				public Double call() throws Exception {
+					double sum = 0;
+					for (int k = start; k < end; k++)
+						sum += update.update(sgdUsers[k]);
+					return sum;
+				}
+			});
+		}
+
+		double sum = 0;
+		for (double shardLoss : ComputePool.invokeAll(tasks))
+			sum += shardLoss;
+		return sum;
+	}
+
+	private void warnDsgdIgnored() {
+		if (!isDsgdWarned) {
+			Logs.warn("{}{}: updates are not local to the user and item of a rating, DSGD is ignored", algoName,
+					foldInfo);
+			isDsgdWarned = true;
+		}
+	}
+
+	/**
+	 * Run an epoch of stratified SGD: Gemulla et al., Large-scale matrix factorization with distributed stochastic
+	 * gradient descent, KDD 2011. Users and items are partitioned into p blocks each (balanced by their numbers of
+	 * ratings), which grid the training ratings into p x p blocks. An epoch consists of p strata in a random order,
+	 * where stratum s holds the p blocks (a, (a + s) mod p) that share no users or items, and hence are trained in
+	 * parallel without conflicts. The results only depend on p and the random seed, not on the number of threads;
+	 * hence p does not default to the number of threads, and up to p threads are used.
+	 * 
+	 * @return the total loss of the epoch
+	 */
+	protected double dsgdEpoch(final RatingUpdate update) throws Exception {
+		final int p = dsgdBlocks;
+		if (blockPtr == null || blockPtr.length != p * p + 1)
+			blockRatings(p);
+
+		// strata in a random order
+		int[] strata = new int[p];
+		for (int s = 0; s < p; s++)
+			strata[s] = s;
+		for (int s = p - 1; s > 0; s--) {
+			int r = random.nextInt(s + 1);
+			int t = strata[s];
+			strata[s] = strata[r];
+			strata[r] = t;
+		}
+
+		double sum = 0;
+		for (int s : strata) {
+			List<Callable<Double>> tasks = new ArrayList<>(p);
+			for (int a = 0; a < p; a++) {
+				int block = a * p + (a + s) % p;
+				final int start = blockPtr[block], end = blockPtr[block + 1];
+				tasks.add(new Callable<Double>() {
+
+					@Override
+					public Double call() throws Exception {
+						double sum = 0;
+						for (int k = start; k < end; k++)
+							sum += update.update(sgdRows[k], sgdCols[k], sgdVals[k]);
+						return sum;
+					}
+				});
+			}
+
+			for (double blockLoss : ComputePool.invokeAll(tasks))
+				sum += blockLoss;
+		}
+		return sum;
+	}
+
+	/**
+	 * training step of SGD over samples, e.g., of pairwise ranking
+	 */
+	protected interface SampleUpdate {
+
+		/**
+		 * draw a sample, e.g., a user with a positive and a negative item, and update the parameters by it
+		 * 
+		 * @param rnd
+		 *            random generator of the calling thread
+		 * @return the loss of the sample
+		 */
+		double update(Random rnd) throws Exception;
+	}
+
+	/**
+	 * Run an epoch of SGD over a number of samples, either sequentially by the generator of this recommender, or (with
+	 * option {@code -hogwild} of {@code learn.rate}) by the threads of the compute pool, each drawing its share of the
+	 * samples by its own generator seeded from that one and updating the shared parameters without locks. Each sample
+	 * is counted as one update in the telemetry.
+	 * 
+	 * @return the total loss of the samples
+	 */
+	protected double sampleEpoch(int numSamples, final SampleUpdate update) throws Exception {
+		telemetry.addSamples(numSamples);
+		telemetry.addUpdates(numSamples);
+
+		int numWorkers = isHogwild ? ComputePool.parallelism() : 1;
+
+		if (numWorkers <= 1 || numSamples < numWorkers) {
+			Random rnd = random;
+			double sum = 0;
+			for (int s = 0; s < numSamples; s++)
+				sum += update.update(rnd);
+			return sum;
+		}
+
+		List<Callable<Double>> tasks = new ArrayList<>(numWorkers);
+		for (int w = 0; w < numWorkers; w++) {
+			final int n = (int) ((long) numSamples * (w + 1) / numWorkers - (long) numSamples * w / numWorkers);
+			final Random rnd = new Random(random.nextLong());
+			tasks.add(new Callable<Double>() {
+
+				@Override
+				public Double call() throws Exception {
+					double sum = 0;
+					for (int s = 0; s < n; s++)
+						sum += update.update(rnd);
+					return sum;
+				}
+			});
+		}
+
+		double sum = 0;
+		for (double workerLoss : ComputePool.invokeAll(tasks))
+			sum += workerLoss;
+		return sum;
+	}
+
+	/**
+	 * @return whether an update by rating (u, j) only changes the parameters of user u and item j, as required by
+	 *         {@link #dsgdEpoch(RatingUpdate)}
+	 */
+	protected boolean hasLocalUpdates() {
+		return true;
+	}
+
+	/**
+	 * shuffle the training ratings into shards of (almost) equal sizes
+	 */
+	private void shardRatings(int numShards) {
+		int size = collectRatings();
+		shuffleRatings(0, size);
+
+		shardPtr = new int[numShards + 1];
+		for (int s = 0; s <= numShards; s++)
+			shardPtr[s] = (int) ((long) size * s / numShards);
+	}
+
+	/**
+	 * grid the training ratings into p x p blocks of users and items, shuffled within each block
+	 */
+	private void blockRatings(int p) {
+		int size = collectRatings();
+
+		int numRows = trainMatrix.numRows(), numCols = trainMatrix.numColumns();
+		int[] rowSizes = new int[numRows], colSizes = new int[numCols];
+		for (int k = 0; k < size; k++) {
+			rowSizes[sgdRows[k]]++;
+			colSizes[sgdCols[k]]++;
+		}
+		int[] rowBlocks = balancedBlocks(rowSizes, p), colBlocks = balancedBlocks(colSizes, p);
+
+		// counting sort of ratings by blocks
+		blockPtr = new int[p * p + 1];
+		for (int k = 0; k < size; k++)
+			blockPtr[rowBlocks[sgdRows[k]] * p + colBlocks[sgdCols[k]] + 1]++;
+		for (int b = 0; b < p * p; b++)
+			blockPtr[b + 1] += blockPtr[b];
+
+		int[] rows = new int[size], cols = new int[size];
+		double[] vals = new double[size];
+		int[] next = new int[p * p];
+		System.arraycopy(blockPtr, 0, next, 0, p * p);
+		for (int k = 0; k < size; k++) {
+			int pos = next[rowBlocks[sgdRows[k]] * p + colBlocks[sgdCols[k]]]++;
+			rows[pos] = sgdRows[k];
+			cols[pos] = sgdCols[k];
+			vals[pos] = sgdVals[k];
+		}
+		sgdRows = rows;
+		sgdCols = cols;
+		sgdVals = vals;
+
+		for (int b = 0; b < p * p; b++)
+			shuffleRatings(blockPtr[b], blockPtr[b + 1]);
+	}
+
+	/**
+	 * assign ids to p blocks of (almost) equal total sizes, greedily from the largest size
+	 * 
+	 * @return blocks of ids
+	 */
+	private static int[] balancedBlocks(int[] sizes, int p) {
+		// ids by increasing (size, id)
+		long[] keys = new long[sizes.length];
+		for (int i = 0; i < sizes.length; i++)
+			keys[i] = ((long) sizes[i] << 32) | i;
+		Arrays.sort(keys);
+
+		int[] blocks = new int[sizes.length];
+		long[] loads = new long[p];
+		for (int k = keys.length - 1; k >= 0; k--) {
+			int i = (int) keys[k];
+
+			int min = 0;
+			for (int b = 1; b < p; b++)
+				if (loads[b] < loads[min])
+					min = b;
+
+			blocks[i] = min;
+			loads[min] += sizes[i];
+		}
+		return blocks;
+	}
+
+	/**
+	 * copy the training ratings into primitive arrays, in the order of the training matrix
+	 * 
+	 * @return number of ratings
+	 */
+	private int collectRatings() {
+		int size = 0;
+		for (MatrixEntry me : trainMatrix)
+			size++;
+
+		sgdRows = new int[size];
+		sgdCols = new int[size];
+		sgdVals = new double[size];
+
+		int k = 0;
+		for (MatrixEntry me : trainMatrix) {
+			sgdRows[k] = me.row();
+			sgdCols[k] = me.column();
+			sgdVals[k] = me.get();
+			k++;
+		}
+		return size;
+	}
+
+	/**
+	 * shuffle the ratings in [from, to)
+	 */
+	private void shuffleRatings(int from, int to) {
+		for (int i = to - 1; i > from; i--) {
+			int r = from + random.nextInt(i - from + 1);
+
+			int u = sgdRows[i];
+			sgdRows[i] = sgdRows[r];
+			sgdRows[r] = u;
+
+			int j = sgdCols[i];
+			sgdCols[i] = sgdCols[r];
+			sgdCols[r] = j;
+
+			double ruj = sgdVals[i];
+			sgdVals[i] = sgdVals[r];
+			sgdVals[r] = ruj;
+		}
 	}
 
 	/**
@@ -141,6 +635,8 @@ public abstract class IterativeRecommender extends Recommender {
 	 */
 	protected boolean isConverged(int iter) throws Exception {
 
+		telemetry.endEpoch(iter, loss);
+
 		float delta_loss = (float) (last_loss - loss);
 
 		if (earlyStopMeasure != null) {
@@ -152,10 +648,15 @@ public abstract class IterativeRecommender extends Recommender {
 				measure = loss;
 				last_measure = last_loss;
 			} else {
-				boolean flag = isResultsOut;
-				isResultsOut = false; // to stop outputs
-				measure = measures.getRatingMetric(earlyStopMeasure).getValue();
-				isResultsOut = flag; // recover the flag
+				if (earlyStopping == null)
+					earlyStopping = newEarlyStopping();
+
+				// score of an earlier iteration, validated while later iterations were trained
+				if (earlyStopping != null) {
+					double score = earlyStopping.validate(iter);
+					if (!Double.isNaN(score))
+						measure = score;
+				}
 			}
 		}
 
@@ -166,9 +667,9 @@ public abstract class IterativeRecommender extends Recommender {
 			String learnRate = lRate > 0 ? ", learn_rate = " + (float) lRate : "";
 
 			String earlyStop = "";
-			if (earlyStopMeasure != null && !earlyStopMeasure.equals("Loss")) {
-				earlyStop = String.format(", %s = %.6f, delta_%s = %.6f", new Object[] { earlyStopMeasure,
-						(float) measure, earlyStopMeasure, delta_measure });
+			if (earlyStopping != null && earlyStopping.scoredIter() >= 0) {
+				earlyStop = String.format(", %s(iter %d) = %.6f, delta_%s = %.6f", new Object[] { earlyStopMeasure,
+						earlyStopping.scoredIter(), (float) measure, earlyStopMeasure, delta_measure });
 			}
 
 			Logs.debug("{}{} iter {}: loss = {}, delta_loss = {}{}{}", new Object[] { algoName, foldInfo, iter,
@@ -182,7 +683,8 @@ public abstract class IterativeRecommender extends Recommender {
 
 		// check if converged
 		boolean cond1 = Math.abs(loss) < 1e-5;
-		boolean cond2 = (delta_measure > 0) && (delta_measure < 1e-5);
+		boolean cond2 = earlyStopping != null && earlyStopPatience > 0 ? earlyStopping.isExhausted()
+				: (delta_measure > 0) && (delta_measure < 1e-5);
 		boolean converged = cond1 || cond2;
 
 		// if not converged, update learning rate
@@ -192,9 +694,42 @@ public abstract class IterativeRecommender extends Recommender {
 		last_loss = loss;
 		last_measure = measure;
 
+		checkpoint(iter);
+
 		return converged;
 	}
 
+	/**
+	 * @return early stopping by validation of the early-stop measure, or null if not applicable
+	 */
+	private EarlyStopping newEarlyStopping() throws Exception {
+		if (validationMatrix == null || validationMatrix.size() == 0) {
+			Logs.warn("{}{}: early stop by {} requires validation data (option -v), ignored", algoName, foldInfo,
+					earlyStopMeasure);
+			return null;
+		}
+
+		if (!measures.getRatingMetricNames().contains(earlyStopMeasure)) {
+			Logs.warn("{}{}: early-stop measure {} is not a rating metric in use, ignored", algoName, foldInfo,
+					earlyStopMeasure);
+			return null;
+		}
+
+		return new EarlyStopping(this, earlyStopMeasure, validationMatrix, earlyStopSample, earlyStopPatience,
+				earlyStopSeed);
+	}
+
+	/**
+	 * finish early stopping, restoring the best validated model
+	 */
+	@Override
+	protected void postModel() throws Exception {
+		if (earlyStopping != null) {
+			earlyStopping.finish();
+			earlyStopping = null;
+		}
+	}
+
 	/**
 	 * Update current learning rate after each epoch <br/>
 	 * 
@@ -240,51 +775,113 @@ public abstract class IterativeRecommender extends Recommender {
 			Q.init(); // Q.init(smallValue);
 		}
 
-	}
-
-	protected void saveModel() throws Exception {
-		// make a folder
-		String dirPath = FileIO.makeDirectory(tempDirPath, algoName);
+		if (optimizer != Optimizer.Type.SGD && !isOptimizerSupported()) {
+			Logs.warn("{} does not support update rules other than SGD, option -optimizer is ignored", algoName);
+			optimizer = Optimizer.Type.SGD;
+		}
 
-		// suffix info
-		String suffix = foldInfo + ".bin";
+		optP = newOptimizer(numUsers, numFactors);
+		optQ = newOptimizer(numItems, numFactors);
+		optUserBias = newOptimizer(numUsers, 1);
+		optItemBias = newOptimizer(numItems, 1);
+	}
 
-		// writing training, test data
-		FileIO.serialize(trainMatrix, dirPath + "trainMatrix" + suffix);
-		FileIO.serialize(testMatrix, dirPath + "testMatrix" + suffix);
+	/**
+	 * @return whether the model updates its parameters through the update rules of {@link #newOptimizer}, i.e.,
+	 *         supports option "-optimizer"
+	 */
+	protected boolean isOptimizerSupported() {
+		return false;
+	}
 
-		// write matrices P, Q
-		FileIO.serialize(P, dirPath + "userFactors" + suffix);
-		FileIO.serialize(Q, dirPath + "itemFactors" + suffix);
+	/**
+	 * @return the configured update rule for a block of parameters (rows x cols)
+	 */
+	protected Optimizer newOptimizer(int rows, int cols) {
+		return Optimizer.create(optimizer, rows, cols, rho, beta1, beta2, epsilon);
+	}
 
-		// write vectors
-		if (userBias != null)
-			FileIO.serialize(userBias, dirPath + "userBiases" + suffix);
-		if (itemBias != null)
-			FileIO.serialize(itemBias, dirPath + "itemBiases" + suffix);
+	/**
+	 * write the state of an update rule, if any
+	 */
+	protected static void writeOptimizer(ModelWriter out, String name, Optimizer opt) throws Exception {
+		if (opt != null)
+			opt.write(out, name);
+	}
 
-		Logs.debug("Learned models are saved to folder \"{}\"", dirPath);
+	/**
+	 * restore the state of an update rule, if any
+	 */
+	protected static void readOptimizer(ModelReader in, String name, Optimizer opt) throws Exception {
+		if (opt != null)
+			opt.read(in, name);
 	}
 
-	protected void loadModel() throws Exception {
-		// make a folder
-		String dirPath = FileIO.makeDirectory(tempDirPath, algoName);
+	@Override
+	protected void writeModel(ModelWriter out) throws Exception {
+		writeFactors(out, "userFactors", P, quantP);
+		writeFactors(out, "itemFactors", Q, quantQ);
 
-		Logs.debug("A recommender model is loaded from {}", dirPath);
+		out.write("userBiases", userBias);
+		out.write("itemBiases", itemBias);
+	}
 
-		// suffix info
-		String suffix = foldInfo + ".bin";
+	@Override
+	protected void writeTrainState(ModelWriter out) throws Exception {
+		super.writeTrainState(out);
+
+		out.write("lRate", lRate);
+		out.write("loss", loss);
+		out.write("last_loss", last_loss);
+		out.write("measure", measure);
+		out.write("last_measure", last_measure);
+
+		writeOptimizer(out, "optP", optP);
+		writeOptimizer(out, "optQ", optQ);
+		writeOptimizer(out, "optUserBias", optUserBias);
+		writeOptimizer(out, "optItemBias", optItemBias);
+	}
 
-		trainMatrix = (SparseMatrix) FileIO.deserialize(dirPath + "trainMatrix" + suffix);
-		testMatrix = (SparseMatrix) FileIO.deserialize(dirPath + "testMatrix" + suffix);
+	@Override
+	protected void readTrainState(ModelReader in) throws Exception {
+		super.readTrainState(in);
+
+		lRate = in.readDouble("lRate", lRate);
+		loss = in.readDouble("loss", loss);
+		last_loss = in.readDouble("last_loss", last_loss);
+		measure = in.readDouble("measure", measure);
+		last_measure = in.readDouble("last_measure", last_measure);
+
+		readOptimizer(in, "optP", optP);
+		readOptimizer(in, "optQ", optQ);
+		readOptimizer(in, "optUserBias", optUserBias);
+		readOptimizer(in, "optItemBias", optItemBias);
+	}
 
-		// write matrices P, Q
-		P = (DenseMatrix) FileIO.deserialize(dirPath + "userFactors" + suffix);
-		Q = (DenseMatrix) FileIO.deserialize(dirPath + "itemFactors" + suffix);
+	/**
+	 * write factors, quantized if required by the writer and supported by the model
+	 */
+	private void writeFactors(ModelWriter out, String name, DenseMatrix factors, QuantizedMatrix quantized)
+			throws Exception {
+		if (factors == null)
+			out.write(name, quantized);
+		else if (out.getQuantization() != null && isQuantizable())
+			out.write(name, QuantizedMatrix.quantize(factors, out.getQuantization()));
+		else
+			out.write(name, factors);
+	}
 
-		// write vectors
-		userBias = (DenseVector) FileIO.deserialize(dirPath + "userBiases" + suffix);
-		itemBias = (DenseVector) FileIO.deserialize(dirPath + "itemBiases" + suffix);
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		// factors saved in a quantized form are kept quantized
+		P = in.readDenseMatrix("userFactors");
+		Q = in.readDenseMatrix("itemFactors");
+		quantP = P == null ? in.readQuantizedMatrix("userFactors") : null;
+		quantQ = Q == null ? in.readQuantizedMatrix("itemFactors") : null;
+		itemGram = null;
+
+		userBias = in.readDenseVector("userBiases");
+		itemBias = in.readDenseVector("itemBiases");
 	}
 
 	@Override
@@ -0,0 +1,340 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.intf;
+
+import java.io.IOException;
+
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
+
+/**
+ * Per-parameter update rule of stochastic gradient descent, for a block of parameters such as a factor matrix (rows x
+ * columns) or a bias vector (rows x 1). Adaptive rules keep their accumulators in blocks of whole rows, such that
+ * parameters of any shape held by a {@link librec.data.DenseMatrix} are indexed without overflow.
+ *
+ * <p>
+ * Usage: {@code P.add(u, f, optP.step(u, f, delta, lRate))}, where {@code delta} is the descent direction (i.e., the
+ * negative gradient) of parameter {@code P[u][f]}, and {@code lRate} the current (global) learning rate.
+ * </p>
+ *
+ * <ul>
+ * <li>SGD: {@code lRate * delta}</li>
+ * <li>AdaGrad: Duchi et al., Adaptive subgradient methods for online learning and stochastic optimization, JMLR 2011.</li>
+ * <li>RMSProp: Tieleman and Hinton, Lecture 6.5 - RMSProp, COURSERA: Neural Networks for Machine Learning, 2012.</li>
+ * <li>Adam: Kingma and Ba, Adam: a method for stochastic optimization, ICLR 2015. Bias corrections use the number of
+ * updates of each row, as rows of sparse data are updated at different rates. The columns of a row are updated
+ * together, hence its updates are counted by those of its first column.</li>
+ * </ul>
+ */
+public abstract class Optimizer {
+
+	/**
+	 * update rules
+	 */
+	public enum Type {
+		SGD, ADAGRAD, RMSPROP, ADAM
+	}
+
+	protected final int rows, cols;
+
+	protected Optimizer(int rows, int cols) {
+		this.rows = rows;
+		this.cols = cols;
+	}
+
+	/**
+	 * @param type
+	 *            update rule
+	 * @param rows
+	 *            number of rows of parameters
+	 * @param cols
+	 *            number of columns of parameters, 1 for vectors
+	 * @param rho
+	 *            decay rate of RMSProp
+	 * @param beta1
+	 *            decay rate of the first moment of Adam
+	 * @param beta2
+	 *            decay rate of the second moment of Adam
+	 * @param eps
+	 *            small constant to avoid division by zero
+	 */
+	public static Optimizer create(Type type, int rows, int cols, double rho, double beta1, double beta2, double eps) {
+		switch (type) {
+		case ADAGRAD:
+			return new AdaGrad(rows, cols, eps);
+		case RMSPROP:
+			return new RMSProp(rows, cols, rho, eps);
+		case ADAM:
+			return new Adam(rows, cols, beta1, beta2, eps);
+		default:
+			return new SGD(rows, cols);
+		}
+	}
+
+	/**
+	 * @param row
+	 *            row of the parameter
+	 * @param col
+	 *            column of the parameter
+	 * @param delta
+	 *            descent direction, i.e., negative gradient, of the parameter
+	 * @param lRate
+	 *            current learning rate
+	 * @return the value to be added to the parameter
+	 */
+	public abstract double step(int row, int col, double delta, double lRate);
+
+	/**
+	 * step of a parameter vector
+	 */
+	public double step(int row, double delta, double lRate) {
+		return step(row, 0, delta, lRate);
+	}
+
+	/**
+	 * write the accumulators, if any, e.g., into a checkpoint
+	 */
+	public void write(ModelWriter out, String name) throws IOException {
+	}
+
+	/**
+	 * restore the accumulators written by {@link #write}, if present
+	 */
+	public void read(ModelReader in, String name) throws IOException {
+	}
+
+	/**
+	 * Accumulators of all parameters, in blocks of whole rows of at most {@link #BLOCK_ENTRIES} entries.
+	 */
+	private static class Accumulators {
+
+		// maximum number of entries of a block
+		private static final int BLOCK_ENTRIES = 1 << 28;
+
+		private final int cols, blockRows;
+		private final double[][] blocks;
+
+		Accumulators(int rows, int cols) {
+			this.cols = cols;
+			blockRows = Math.max(1, BLOCK_ENTRIES / Math.max(1, cols));
+
+			blocks = new double[(int) (((long) rows + blockRows - 1) / blockRows)][];
+			for (int b = 0; b < blocks.length; b++)
+				blocks[b] = new double[Math.min(blockRows, rows - b * blockRows) * cols];
+		}
+
+		/**
+		 * @return the block of a row
+		 */
+		double[] block(int row) {
+			return blocks[row / blockRows];
+		}
+
+		/**
+		 * @return index of a parameter in the block of its row
+		 */
+		int index(int row, int col) {
+			return (row % blockRows) * cols + col;
+		}
+
+		/**
+		 * write the blocks as entries {@code name[b]}
+		 */
+		void write(ModelWriter out, String name) throws IOException {
+			for (int b = 0; b < blocks.length; b++)
+				out.write(name + "[" + b + "]", blocks[b]);
+		}
+
+		/**
+		 * restore the blocks written by {@link #write}, if present, checking their sizes
+		 */
+		void read(ModelReader in, String name) throws IOException {
+			for (int b = 0; b < blocks.length; b++) {
+				double[] block = in.readDoubleArray(name + "[" + b + "]");
+				if (block == null)
+					continue;
+				if (block.length != blocks[b].length)
+					throw new IOException("Optimizer state " + name + "[" + b + "] has " + block.length
+							+ " values rather than " + blocks[b].length);
+				blocks[b] = block;
+			}
+		}
+	}
+
+	/**
+	 * plain stochastic gradient descent
+	 */
+	private static class SGD extends Optimizer {
+
+		SGD(int rows, int cols) {
+			super(rows, cols);
+		}
+
+		@Override
+		public double step(int row, int col, double delta, double lRate) {
+			return lRate * delta;
+		}
+	}
+
+	/**
+	 * learning rate scaled by the accumulated squared gradients
+	 */
+	private static class AdaGrad extends Optimizer {
+
+		private final double eps;
+		private final Accumulators g2;
+
+		AdaGrad(int rows, int cols, double eps) {
+			super(rows, cols);
+			this.eps = eps;
+			g2 = new Accumulators(rows, cols);
+		}
+
+		@Override
+		public double step(int row, int col, double delta, double lRate) {
+			double[] g = g2.block(row);
+			int k = g2.index(row, col);
+			g[k] += delta * delta;
+
+			return lRate * delta / (Math.sqrt(g[k]) + eps);
+		}
+
+		@Override
+		public void write(ModelWriter out, String name) throws IOException {
+			g2.write(out, name + ".g2");
+		}
+
+		@Override
+		public void read(ModelReader in, String name) throws IOException {
+			g2.read(in, name + ".g2");
+		}
+	}
+
+	/**
+	 * learning rate scaled by the moving average of squared gradients
+	 */
+	private static class RMSProp extends Optimizer {
+
+		private final double rho, eps;
+		private final Accumulators g2;
+
+		RMSProp(int rows, int cols, double rho, double eps) {
+			super(rows, cols);
+			this.rho = rho;
+			this.eps = eps;
+			g2 = new Accumulators(rows, cols);
+		}
+
+		@Override
+		public double step(int row, int col, double delta, double lRate) {
+			double[] g = g2.block(row);
+			int k = g2.index(row, col);
+			g[k] = rho * g[k] + (1 - rho) * delta * delta;
+
+			return lRate * delta / (Math.sqrt(g[k]) + eps);
+		}
+
+		@Override
+		public void write(ModelWriter out, String name) throws IOException {
+			g2.write(out, name + ".g2");
+		}
+
+		@Override
+		public void read(ModelReader in, String name) throws IOException {
+			g2.read(in, name + ".g2");
+		}
+	}
+
+	/**
+	 * moving averages of gradients and squared gradients, corrected by their initialization bias
+	 */
+	private static class Adam extends Optimizer {
+
+		// bias corrections are negligible beyond this number of updates
+		private static final int MAX_T = 1 << 14;
+
+		private final double beta1, beta2, eps;
+		private final Accumulators m, v;
+		// number of updates of each row, saturated at MAX_T
+		private int[] t;
+
+		// 1 - beta^t for t in [0, MAX_T]
+		private final double[] corr1, corr2;
+
+		Adam(int rows, int cols, double beta1, double beta2, double eps) {
+			super(rows, cols);
+			this.beta1 = beta1;
+			this.beta2 = beta2;
+			this.eps = eps;
+
+			m = new Accumulators(rows, cols);
+			v = new Accumulators(rows, cols);
+			t = new int[rows];
+
+			corr1 = new double[MAX_T + 1];
+			corr2 = new double[MAX_T + 1];
+			double p1 = 1, p2 = 1;
+			for (int i = 0; i <= MAX_T; i++) {
+				corr1[i] = 1 - p1;
+				corr2[i] = 1 - p2;
+				p1 *= beta1;
+				p2 *= beta2;
+			}
+			corr1[MAX_T] = corr2[MAX_T] = 1;
+		}
+
+		@Override
+		public double step(int row, int col, double delta, double lRate) {
+			if (col == 0 && t[row] < MAX_T)
+				t[row]++;
+			int tk = Math.max(t[row], 1);
+
+			double[] mb = m.block(row), vb = v.block(row);
+			int k = m.index(row, col);
+			mb[k] = beta1 * mb[k] + (1 - beta1) * delta;
+			vb[k] = beta2 * vb[k] + (1 - beta2) * delta * delta;
+
+			double mHat = mb[k] / corr1[tk];
+			double vHat = vb[k] / corr2[tk];
+
+			return lRate * mHat / (Math.sqrt(vHat) + eps);
+		}
+
+		@Override
+		public void write(ModelWriter out, String name) throws IOException {
+			m.write(out, name + ".m");
+			v.write(out, name + ".v");
+			out.write(name + ".t", t);
+		}
+
+		@Override
+		public void read(ModelReader in, String name) throws IOException {
+			m.read(in, name + ".m");
+			v.read(in, name + ".v");
+
+			int[] res = in.readIntArray(name + ".t");
+			if (res != null) {
+				if (res.length != t.length)
+					throw new IOException("Optimizer state " + name + ".t has " + res.length + " values rather than "
+							+ t.length);
+				t = res;
+			}
+		}
+	}
+}
@@ -21,22 +21,34 @@ package librec.intf;
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Random;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
 import librec.data.AddConfiguration;
+import librec.data.AdjacencyIndex;
 import librec.data.Configuration;
 import librec.data.DataDAO;
 import librec.data.DataSplitter;
-import librec.data.MatrixEntry;
+import librec.data.DenseMatrix;
+import librec.data.DenseVector;
+import librec.data.MipsIndex;
+import librec.data.QuantizedMatrix;
 import librec.data.SparseMatrix;
 import librec.data.SparseVector;
 import librec.data.SymmMatrix;
+import librec.data.TopItems;
+import librec.io.Checkpointer;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
+import librec.io.ResultSink;
+import librec.metric.IMetric;
 import librec.metric.IRatingMetric;
+import librec.util.ComputePool;
 import librec.util.Dates;
 import librec.util.Debug;
 import librec.util.FileConfiger;
@@ -45,15 +57,16 @@ import librec.util.LineConfiger;
 import librec.util.Lists;
 import librec.util.Logs;
 import librec.util.Measures;
+import librec.util.Randoms;
 import librec.util.Sims;
 import librec.util.Stats;
+import librec.util.Telemetry;
 
 import librec.metric.MetricCollection;
 import librec.metric.ITimeMetric;
 
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
-import com.google.common.cache.LoadingCache;
 
 /**
  * General recommenders
@@ -61,88 +74,92 @@ import com.google.common.cache.LoadingCache;
  * @author Guibing Guo
  */
 @Configuration
-public abstract class Recommender implements Runnable {
+public abstract class Recommender implements Runnable, Cloneable {
 
-	/************************************ Static parameters for all recommenders ***********************************/
+	/************************************ Parameters of the run (context) ********************************************/
+	// context of the run, i.e., configuration and data set
+	protected final RecommenderContext context;
 	// configer
-	public static FileConfiger cf;
+	public final FileConfiger cf;
 	// matrix of rating data
-	public static SparseMatrix rateMatrix, timeMatrix;
+	public final SparseMatrix rateMatrix, timeMatrix;
 
 	// default temporary file directory
-	public static String tempDirPath;
-
-	// params used for multiple runs
-	public static Map<String, List<Float>> params = new HashMap<>();
+	public final String tempDirPath;
 
 	// Guava cache configuration
-	protected static String cacheSpec;
-
-	// number of cpu cores used for parallelization
-	protected static int numCPUs;
+	protected String cacheSpec;
+	// is low-memory mode: user/item adjacency is loaded through Guava caches rather than precomputed
+	protected boolean isLowMemory;
 
 	// verbose
-	protected static boolean verbose = true;
+	protected boolean verbose = true;
 
 	// line configer for item ranking, evaluation
-	protected static LineConfiger rankOptions, algoOptions;
+	protected LineConfiger rankOptions, algoOptions;
 
 	// is ranking/rating prediction
-	public static boolean isRankingPred;
+	public boolean isRankingPred;
 	// threshold to binarize ratings
-	public static float binThold;
+	public float binThold;
 	// the ratio of validation data split from training data
-	public static float validationRatio;
+	public float validationRatio;
 	// is diversity-based measures used
-	protected static boolean isDiverseUsed;
+	protected boolean isDiverseUsed;
 	// early-stop criteria
-	protected static String earlyStopMeasure = null;
-	// is save model
-	protected static boolean isSaveModel = false;
+	protected String earlyStopMeasure = null;
+	// ratio of validation ratings sampled for early stopping
+	protected float earlyStopSample;
+	// number of validations without improvement before stopping (0: stop once the improvement is marginal)
+	protected int earlyStopPatience;
+	// random numbers of this recommender, drawn from the generator of its context
+	protected Random random;
+	// is save model, or load a saved model instead of learning it
+	protected boolean isSaveModel = false, isLoadModel = false;
+	// number of iterations between two training checkpoints (0: no checkpoints)
+	protected int checkpointIters = 0;
+	// is resume training from the latest checkpoint
+	protected boolean isResume = false;
+	// format of output results
+	protected ResultSink.Format resultFormat = ResultSink.Format.TEXT;
+	// is training telemetry appended to a JSON-lines file
+	protected boolean isTelemetryOut = false;
 	// is split data by date
-	protected static boolean isSplitByDate;
+	protected boolean isSplitByDate;
 	// view of rating predictions
-	public static String view;
+	public String view;
 
 	// rate DAO object
-	public static DataDAO rateDao;
+	public final DataDAO rateDao;
 
 	// number of users, items, ratings
-	protected static int numUsers, numItems, numRates;
+	protected int numUsers, numItems, numRates;
 	// number of recommended items
-	protected static int numRecs, numIgnore;
+	protected int numRecs, numIgnore;
 
 	// a list of rating scales
-	protected static List<Double> ratingScale;
+	protected List<Double> ratingScale;
 	// number of rating levels
-	protected static int numLevels;
+	protected int numLevels;
 	// Maximum, minimum values of rating scales
-	protected static double maxRate, minRate;
+	protected double maxRate, minRate;
 
 	// ratings' timestamps
-	public static SparseMatrix testTimeMatrix;
+	public SparseMatrix testTimeMatrix;
 	// minimum, maximum timestamp
-	protected static long minTimestamp, maxTimestamp;
+	protected long minTimestamp, maxTimestamp;
 
 	// init mean and standard deviation
-	protected static double initMean, initStd;
+	protected double initMean, initStd;
 	// small value for initialization
-	protected static double smallValue = 0.01;
+	protected double smallValue = 0.01;
 
 	// number of nearest neighbors
-	protected static int knn;
+	protected int knn;
 	// similarity measure
-	protected static String similarityMeasure;
+	protected String similarityMeasure;
 	// number of shrinkage
-	protected static int similarityShrinkage;
-
-	/**
-	 * An indicator of initialization of static fields. This enables us to control when static fields are initialized,
-	 * while "static block" will be always initialized or executed. The latter could cause unexpected exceptions when
-	 * multiple runs (with different configuration files) are conducted sequentially, because some static settings will
-	 * not be override in such a "staic block".
-	 */
-	public static boolean resetStatics = true;
+	protected int similarityShrinkage;
 
 	/************************************ Recommender-specific parameters ****************************************/
 	// algorithm's name
@@ -153,12 +170,16 @@ public abstract class Recommender implements Runnable {
 	protected String foldInfo;
 	// is output recommendation results 
 	protected boolean isResultsOut = true;
+	// the iteration to start (or resume) training from
+	protected int startIter = 1;
+	// writer of training checkpoints
+	private Checkpointer checkpointer;
 
-	// user-vector cache, item-vector cache
-	protected LoadingCache<Integer, SparseVector> userCache, itemCache;
+	// items rated by each user, users who rated each item
+	protected AdjacencyIndex userItems, itemUsers;
 
-	// user-items cache, item-users cache
-	protected LoadingCache<Integer, List<Integer>> userItemsCache, itemUsersCache;
+	// training and evaluation statistics of this recommender
+	protected Telemetry telemetry;
 
 	// rating matrix for training, validation and test
 	protected SparseMatrix trainMatrix, validationMatrix, testMatrix;
@@ -175,6 +196,19 @@ public abstract class Recommender implements Runnable {
 	// global average of training rates
 	protected double globalMean;
 
+	// candidate items of online recommendations, i.e., items with training ratings
+	private volatile BitSet candItems;
+	// vectors of all items for online recommendations of user vectors, if supported
+	private volatile DenseMatrix itemVecs;
+
+	// number of lists and lists probed per query of the MIPS index over item vectors (0: no index)
+	protected int mipsLists, mipsProbes;
+	// approximate maximum-inner-product index of the top-n items, if built
+	private volatile MipsIndex mipsIndex;
+
+	// quantization of the model for evaluation and serving, and of a saved model (null: full precision)
+	protected QuantizedMatrix.Type quantization, saveQuantization;
+
 	/**
 	 * Recommendation measures
 	 * 
@@ -202,65 +236,84 @@ public abstract class Recommender implements Runnable {
 	 */
 	public Recommender(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
 
-		// config recommender
-		if (cf == null || rateMatrix == null) {
-			Logs.error("Recommender is not well configed");
-			System.exit(-1);
+		// configuration and data of the run
+		context = RecommenderContext.current();
+		random = context.newRandom();
+		cf = context.getConfig();
+		tempDirPath = context.getTempDirPath();
+		rateDao = context.getRateDao();
+		rateMatrix = context.getRateMatrix();
+		timeMatrix = context.getTimeMatrix();
+		binThold = context.getBinThold();
+
+		ratingScale = rateDao.getRatingScale();
+		minRate = ratingScale.get(0);
+		maxRate = ratingScale.get(ratingScale.size() - 1);
+		numLevels = ratingScale.size();
+
+		numUsers = rateDao.numUsers();
+		numItems = rateDao.numItems();
+
+		// ratings' timestamps
+		minTimestamp = rateDao.getMinTimestamp();
+		maxTimestamp = rateDao.getMaxTimestamp();
+		testTimeMatrix = context.getTestTimeMatrix();
+
+		initMean = 0.0;
+		initStd = 0.1;
+
+		cacheSpec = cf.getString("guava.cache.spec", "maximumSize=200,expireAfterAccess=2m");
+		isLowMemory = cf.isOn("low.memory", false);
+
+		rankOptions = cf.getParamOptions("item.ranking");
+		isRankingPred = rankOptions.isMainOn();
+		isDiverseUsed = rankOptions.contains("-diverse");
+		numRecs = rankOptions.getInt("-topN", -1);
+		numIgnore = rankOptions.getInt("-ignore", -1);
+
+		// option "-quantize int8|float16": evaluate (and serve) a model with quantized factors
+		String quantType = rankOptions.getString("-quantize");
+		quantization = quantType == null ? null : QuantizedMatrix.Type.valueOf(quantType.toUpperCase());
+
+		// option "-mips [lists] [probes]": approximate top-n retrieval of factor models
+		List<String> mipsOptions = rankOptions.getOptions("-mips");
+		if (mipsOptions != null) {
+			int numItems = rateMatrix.numColumns();
+			mipsLists = mipsOptions.size() > 0 ? Integer.parseInt(mipsOptions.get(0)) : (int) Math.ceil(Math
+					.sqrt(numItems));
+			mipsProbes = mipsOptions.size() > 1 ? Integer.parseInt(mipsOptions.get(1)) : Math.max(1, mipsLists / 10);
 		}
 
-		// static initialization (reset), only done once
-		if (resetStatics) {
-			// change the indicator
-			resetStatics = false;
-
-			ratingScale = rateDao.getRatingScale();
-			minRate = ratingScale.get(0);
-			maxRate = ratingScale.get(ratingScale.size() - 1);
-			numLevels = ratingScale.size();
-
-			numUsers = rateDao.numUsers();
-			numItems = rateDao.numItems();
-
-			// ratings' timestamps
-			minTimestamp = rateDao.getMinTimestamp();
-			maxTimestamp = rateDao.getMaxTimestamp();
-			if (testTimeMatrix == null)
-				testTimeMatrix = timeMatrix;
-
-			initMean = 0.0;
-			initStd = 0.1;
-
-			cacheSpec = cf.getString("guava.cache.spec", "maximumSize=200,expireAfterAccess=2m");
-
-			rankOptions = cf.getParamOptions("item.ranking");
-			isRankingPred = rankOptions.isMainOn();
-			isDiverseUsed = rankOptions.contains("-diverse");
-			numRecs = rankOptions.getInt("-topN", -1);
-			numIgnore = rankOptions.getInt("-ignore", -1);
-
-			LineConfiger evalOptions = cf.getParamOptions("evaluation.setup");
-			view = evalOptions.getString("--test-view", "all");
-			validationRatio = evalOptions.getFloat("-v", 0.0f);
-			isSplitByDate = evalOptions.contains("--by-date");
-
-			earlyStopMeasure = evalOptions.getString("--early-stop");
-
-			int numProcessors = Runtime.getRuntime().availableProcessors();
-			numCPUs = evalOptions.getInt("-cpu", numProcessors);
-
-			// output options
-			LineConfiger outputOptions = cf.getParamOptions("output.setup");
-			if (outputOptions != null) {
-				verbose = outputOptions.isOn("-verbose", true);
-				isSaveModel = outputOptions.contains("--save-model");
-			}
+		LineConfiger evalOptions = cf.getParamOptions("evaluation.setup");
+		view = evalOptions.getString("--test-view", "all");
+		validationRatio = evalOptions.getFloat("-v", 0.0f);
+		isSplitByDate = evalOptions.contains("--by-date");
 
-			knn = cf.getInt("num.neighbors", 20);
-			similarityMeasure = cf.getString("similarity", "PCC");
-			similarityShrinkage = cf.getInt("num.shrinkage", 30);
+		earlyStopMeasure = evalOptions.getString("--early-stop");
+		earlyStopSample = evalOptions.getFloat("--early-stop-sample", 1.0f);
+		earlyStopPatience = evalOptions.getInt("--early-stop-patience", 0);
 
+		// output options
+		LineConfiger outputOptions = cf.getParamOptions("output.setup");
+		if (outputOptions != null) {
+			verbose = outputOptions.isOn("-verbose", true);
+			isSaveModel = outputOptions.contains("--save-model");
+			String saveType = outputOptions.getString("--save-model");
+			saveQuantization = saveType == null ? null : QuantizedMatrix.Type.valueOf(saveType.toUpperCase());
+			isLoadModel = outputOptions.contains("--load-model");
+			checkpointIters = outputOptions.getInt("--checkpoint", 0);
+			isResume = outputOptions.contains("--resume");
+			resultFormat = ResultSink.Format.valueOf(outputOptions.getString("-format", "text").toUpperCase());
+			isTelemetryOut = outputOptions.contains("--telemetry");
+
+			// whether to write out results
+			isResultsOut = outputOptions.isMainOn();
 		}
 
+		knn = cf.getInt("num.neighbors", 20);
+		similarityMeasure = cf.getString("similarity", "PCC");
+		similarityShrinkage = cf.getInt("num.shrinkage", 30);
+
         // 2016/8/2 RB Added metric configuration
         // These are class names
 
@@ -321,12 +374,6 @@ public abstract class Recommender implements Runnable {
 		this.fold = fold;
 		foldInfo = fold > 0 ? " fold [" + fold + "]" : "";
 
-		// whether to write out results
-		LineConfiger outputOptions = cf.getParamOptions("output.setup");
-		if (outputOptions != null) {
-			isResultsOut = outputOptions.isMainOn();
-		}
-
 		// global mean
 		numRates = trainMatrix.size();
 		globalMean = trainMatrix.sum() / numRates;
@@ -358,26 +405,55 @@ public abstract class Recommender implements Runnable {
 	 */
 	public void execute() throws Exception {
 
+		String jsonPath = isTelemetryOut ? tempDirPath + algoName + "-telemetry.jsonl" : null;
+		telemetry = new Telemetry(algoName, fold, jsonPath, trainMatrix.size());
+		telemetry.register();
+
+		try {
+			learnAndEvaluate();
+		} finally {
+			telemetry.unregister();
+		}
+	}
+
+	/**
+	 * learn (or load) a model, and evaluate it on the test data
+	 */
+	private void learnAndEvaluate() throws Exception {
+
 		Stopwatch sw = Stopwatch.createStarted();
-		if (Debug.ON) {
+		if (Debug.ON && !isLoadModel) {
 			// learn a recommender model
 			initModel();
 
+			// continue from the latest checkpoint, if any
+			if (isResume)
+				resume();
+
 			// show algorithm's configuration
 			printAlgoConfig();
 
 			// build the model
+			telemetry.startTraining();
 			buildModel();
 
+			// wait for the last checkpoint to be written
+			if (checkpointer != null)
+				checkpointer.await();
+
 			// post-processing after building a model, e.g., release intermediate memory to avoid memory leak
 			postModel();
 		} else {
 			/**
-			 * load a learned model: this code will not be executed unless "Debug.OFF" mainly for the purpose of
-			 * exemplifying how to use the saved models
+			 * load a learned model, saved by option "--save-model", if option "--load-model" is given or "Debug.OFF"
+			 * (mainly for the purpose of exemplifying how to use the saved models)
 			 */
 			loadModel();
 		}
+
+		// approximate top-n retrieval
+		buildMipsIndex();
+
 		long trainTime = sw.elapsed(TimeUnit.MILLISECONDS);
 
 		// validation
@@ -388,21 +464,32 @@ public abstract class Recommender implements Runnable {
 		}
 
 
-		measures.init(this);
-		// evaluation
-		if (verbose)
-			Logs.debug("{}{} evaluate test data ... ", algoName, foldInfo);
-		// TODO: to predict ratings only, or do item recommendations only
-        if (measures.hasRankingMetrics() && (measures.hasRatingMetrics())) {
-            evalRankings();
-            evalRatings();
-        } else if (measures.hasRatingMetrics()) {
-            evalRatings();
-        } else if (measures.hasRankingMetrics()) {
-            evalRankings();
-        } else {
-            Logs.debug("No metrics found.");
-        }
+		// evaluate at full precision first, as the reference of the quantized model
+		Map<String, Double> fullMetrics = null;
+		if (quantization != null) {
+			if (quantizeModel(null)) {
+				boolean isOut = isResultsOut;
+				isResultsOut = false;
+				try {
+					evaluate();
+				} finally {
+					isResultsOut = isOut;
+				}
+				fullMetrics = getMetricValues();
+			}
+
+			if (!quantizeModel(quantization)) {
+				Logs.warn("{} does not support quantization, option -quantize is ignored", algoName);
+				fullMetrics = null;
+			}
+		}
+
+		evaluate();
+		telemetry.endEvaluation();
+
+		if (fullMetrics != null)
+			reportQuantization(fullMetrics);
+
 		String measurements = measures.getEvalResultString();
 		sw.stop();
 		long testTime = sw.elapsed(TimeUnit.MILLISECONDS) - trainTime;
@@ -429,6 +516,55 @@ public abstract class Recommender implements Runnable {
 			saveModel();
 	}
 
+	/**
+	 * evaluate the model on the test data
+	 */
+	private void evaluate() throws Exception {
+		measures.init(this);
+		if (verbose)
+			Logs.debug("{}{} evaluate test data ... ", algoName, foldInfo);
+		// TODO: to predict ratings only, or do item recommendations only
+        if (measures.hasRankingMetrics() && (measures.hasRatingMetrics())) {
+            evalRankings();
+            evalRatings();
+        } else if (measures.hasRatingMetrics()) {
+            evalRatings();
+        } else if (measures.hasRankingMetrics()) {
+            evalRankings();
+        } else {
+            Logs.debug("No metrics found.");
+        }
+	}
+
+	/**
+	 * @return values of the rating and ranking metrics of the last evaluation by their names
+	 */
+	private Map<String, Double> getMetricValues() {
+		Map<String, Double> vals = new LinkedHashMap<>();
+		for (IMetric m : measures.getRatingMetrics())
+			vals.put(m.getName(), m.getValue());
+		for (IMetric m : measures.getRankingMetrics())
+			vals.put(m.getName(), m.getValue());
+		return vals;
+	}
+
+	/**
+	 * report the deltas of the metrics of the quantized model against full precision
+	 */
+	private void reportQuantization(Map<String, Double> fullMetrics) {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Double> en : getMetricValues().entrySet()) {
+			Double full = fullMetrics.get(en.getKey());
+			if (full == null)
+				continue;
+			if (sb.length() > 0)
+				sb.append(", ");
+			sb.append(String.format("%s: %.6f (%+.6f)", en.getKey(), en.getValue(), en.getValue() - full));
+		}
+
+		Logs.info("{}{} quantized to {}, deltas against full precision: {}", algoName, foldInfo, quantization, sb);
+	}
+
 	private void printAlgoConfig() {
 		String algoInfo = toString();
 
@@ -473,6 +609,20 @@ public abstract class Recommender implements Runnable {
 		return cf.contains(algoName) ? cf.getParamOptions(algoName) : null;
 	}
 
+	/**
+	 * @return adjacency of the rows of a matrix, precomputed unless in the low-memory mode
+	 */
+	protected AdjacencyIndex rowIndex(SparseMatrix mat) {
+		return AdjacencyIndex.rows(mat, isLowMemory ? cacheSpec : null);
+	}
+
+	/**
+	 * @return adjacency of the columns of a matrix, precomputed unless in the low-memory mode
+	 */
+	protected AdjacencyIndex columnIndex(SparseMatrix mat) {
+		return AdjacencyIndex.columns(mat, isLowMemory ? cacheSpec : null);
+	}
+
 	/**
 	 * build user-user or item-item correlation matrix from training data
 	 * 
@@ -594,15 +744,214 @@ public abstract class Recommender implements Runnable {
 	}
 
 	/**
-	 * Serializing a learned model (i.e., variable data) to files.
+	 * Vector of user u for approximate top-n retrieval: to be overridden by factor models together with
+	 * {@link #itemVectors()}, such that {@link #ranking(int, int)} increases with the inner product of the user vector
+	 * and the vector of item j.
+	 * 
+	 * @return the user vector, or null if not supported
+	 */
+	protected DenseVector userVector(int u) throws Exception {
+		return null;
+	}
+
+	/**
+	 * @return vectors of all items, one per row, or null if not supported (cf. {@link #userVector(int)})
+	 */
+	protected DenseMatrix itemVectors() throws Exception {
+		return null;
+	}
+
+	/**
+	 * Build the MIPS index over the item vectors of a learned (or loaded) model, if option "-mips" of "item.ranking"
+	 * is given and the model supports it. Top-n recommendations are then retrieved from the index, and the recall of
+	 * the index against the exact top-n items is reported by the evaluation of rankings.
+	 */
+	protected void buildMipsIndex() throws Exception {
+		mipsIndex = null;
+		itemVecs = null;
+		if (mipsLists <= 0)
+			return;
+
+		DenseMatrix items = itemVectors();
+		if (items == null) {
+			Logs.warn("{} does not support the MIPS index, option -mips is ignored", algoName);
+			return;
+		}
+
+		itemVecs = items;
+
+		Stopwatch sw = Stopwatch.createStarted();
+		mipsIndex = new MipsIndex(items, mipsLists, mipsProbes, random.nextLong());
+
+		Logs.debug("{}{} has built a MIPS index of {} lists ({} probed per query) in {} ms", algoName, foldInfo,
+				mipsIndex.numLists(), mipsIndex.numProbes(), sw.elapsed(TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Quantize the model for evaluation and serving, to be overridden by models supporting it.
+	 * 
+	 * @param type
+	 *            quantization, or null to restore full precision
+	 * @return whether the model supports (and is set to) the given precision
+	 */
+	public boolean quantizeModel(QuantizedMatrix.Type type) throws Exception {
+		return false;
+	}
+
+	/**
+	 * prepare a learned (or loaded) model to serve recommendations: quantize the model and build the MIPS index, if
+	 * required by options "-quantize" and "-mips" of "item.ranking"
+	 */
+	public void prepareServing() throws Exception {
+		if (quantization != null && !quantizeModel(quantization))
+			Logs.warn("{} does not support quantization, option -quantize is ignored", algoName);
+
+		buildMipsIndex();
+	}
+
+	/**
+	 * @return path of the model file of current fold
+	 */
+	protected String getModelPath() throws Exception {
+		return FileIO.makeDirectory(tempDirPath, algoName) + "model" + foldInfo + ".bin";
+	}
+
+	/**
+	 * Saving a learned model (i.e., variable data) to a binary model file.
 	 */
 	protected void saveModel() throws Exception {
+		String filePath = getModelPath();
+
+		try (ModelWriter out = new ModelWriter(filePath, getClass().getName())) {
+			out.setQuantization(saveQuantization);
+
+			// writing training, test data
+			out.write("trainMatrix", trainMatrix);
+			out.write("testMatrix", testMatrix);
+
+			writeModel(out);
+
+			out.commit();
+		}
+
+		Logs.debug("Learned models are saved to \"{}\"", filePath);
 	}
 
 	/**
-	 * Deserializing a learned model (i.e., variable data) from files.
+	 * Loading a learned model (i.e., variable data) from a binary model file, e.g., to serve recommendations online.
 	 */
-	protected void loadModel() throws Exception {
+	public void loadModel() throws Exception {
+		String filePath = getModelPath();
+
+		try (ModelReader in = new ModelReader(filePath)) {
+			if (!in.getModelClass().equals(getClass().getName()))
+				throw new Exception("Model file " + filePath + " is learned by " + in.getModelClass());
+
+			trainMatrix = in.readSparseMatrix("trainMatrix");
+			testMatrix = in.readSparseMatrix("testMatrix");
+
+			readModel(in);
+		}
+		candItems = null;
+		itemVecs = null;
+
+		Logs.debug("A recommender model is loaded from {}", filePath);
+	}
+
+	/**
+	 * @return path of the training checkpoint of current fold
+	 */
+	protected String getCheckpointPath() throws Exception {
+		return FileIO.makeDirectory(tempDirPath, algoName) + "checkpoint" + foldInfo + ".bin";
+	}
+
+	/**
+	 * Take a checkpoint of the training state after a given iteration, if due (cf. option "--checkpoint n"). The state
+	 * is copied into memory, and written to disk by a background thread while training continues.
+	 */
+	protected void checkpoint(int iter) throws Exception {
+		if (checkpointIters <= 0 || iter % checkpointIters != 0)
+			return;
+
+		ModelWriter snapshot = new ModelWriter(getClass().getName());
+		snapshot.write("iter", iter);
+		snapshot.write("randomState", Randoms.getState(random));
+
+		writeModel(snapshot);
+		writeTrainState(snapshot);
+
+		snapshot.commit();
+
+		if (checkpointer == null)
+			checkpointer = new Checkpointer(getCheckpointPath());
+		checkpointer.save(snapshot, iter);
+	}
+
+	/**
+	 * Restore the training state from the latest checkpoint, if existing, and continue training from the next
+	 * iteration.
+	 */
+	protected void resume() throws Exception {
+		String filePath = getCheckpointPath();
+		if (!FileIO.exist(filePath)) {
+			Logs.debug("{}{} has no checkpoint to resume from", algoName, foldInfo);
+			return;
+		}
+
+		try (ModelReader in = new ModelReader(filePath)) {
+			if (!in.getModelClass().equals(getClass().getName()))
+				throw new Exception("Checkpoint " + filePath + " is taken by " + in.getModelClass());
+
+			int iter = (int) in.readDouble("iter", 0);
+
+			readModel(in);
+			readTrainState(in);
+
+			byte[] state = in.readBytes("randomState");
+			if (state != null)
+				random = Randoms.fromState(state);
+
+			startIter = iter + 1;
+		}
+
+		Logs.debug("{}{} resumes training from iter {}", algoName, foldInfo, startIter);
+	}
+
+	/**
+	 * Write the training state, in addition to the learned state of {@link #writeModel(ModelWriter)}, that is required
+	 * to continue training from a checkpoint, e.g., learning rates, losses or sampling statistics.
+	 */
+	protected void writeTrainState(ModelWriter out) throws Exception {
+	}
+
+	/**
+	 * Read the training state written by {@link #writeTrainState(ModelWriter)}.
+	 */
+	protected void readTrainState(ModelReader in) throws Exception {
+	}
+
+	/**
+	 * Write the learned state of a recommender as named entries; subclasses extending the state of their super classes
+	 * should call the super method.
+	 */
+	protected void writeModel(ModelWriter out) throws Exception {
+	}
+
+	/**
+	 * Read the learned state written by {@link #writeModel(ModelWriter)}. All fields read by predictions and changed
+	 * by training are replaced, not updated in place, such that a {@link #copy()} can be given a model without
+	 * touching the one of this recommender; indexes of the training data are kept if already built.
+	 */
+	protected void readModel(ModelReader in) throws Exception {
+	}
+
+	/**
+	 * @return a shallow copy of this recommender, sharing its data, e.g., the (split) training matrix, global mean and
+	 *         indexes built from the training data, and its model until another one is given by
+	 *         {@link #readModel(ModelReader)}
+	 */
+	protected Recommender copy() throws Exception {
+		return (Recommender) super.clone();
 	}
 
 	/**
@@ -624,54 +973,126 @@ public abstract class Recommender implements Runnable {
 	 */
 	protected void evalRatings() throws Exception {
 
-		List<String> preds = null;
+		ResultSink sink = null;
 		String toFile = null;
 		if (isResultsOut) {
-			preds = new ArrayList<String>(1500);
-			preds.add("# userId itemId rating prediction"); // optional: file header
-			toFile = tempDirPath + algoName + "-rating-predictions" + foldInfo + ".txt"; // the output-file name
-			FileIO.deleteFile(toFile); // delete possibly old files
+			toFile = tempDirPath + algoName + "-rating-predictions" + foldInfo + resultFormat.extension(); // the output-file name
+			sink = new ResultSink(toFile, resultFormat, ResultSink.Kind.RATINGS,
+					"# userId itemId rating prediction", rateDao); // optional: file header
+			sink.start();
+		}
+
+		// partition test data into contiguous ranges, each evaluated with its own metric accumulators; metrics that
+		// cannot be merged are evaluated serially
+		int numUnits = numRatingTestUnits();
+		boolean isParallel = ComputePool.parallelism() > 1 && numUnits > 1 && measures.isRatingMergeable();
+		int numParts = isParallel ? Math.min(numUnits, ComputePool.parallelism() * 4) : 1;
+
+		final MetricCollection[] accs = new MetricCollection[numParts];
+		final ResultSink out = sink;
+		List<Callable<Integer>> tasks = new ArrayList<>(numParts);
+		for (int p = 0; p < numParts; p++) {
+			final int index = p;
+			final int from = (int) ((long) numUnits * p / numParts);
+			final int to = (int) ((long) numUnits * (p + 1) / numParts);
+			final MetricCollection acc = isParallel ? measures.newRatingAccumulators(this) : measures;
+			accs[p] = acc;
+
+			tasks.add(new Callable<Integer>() {
+
+				@Override
+				public Integer call() throws Exception {
+					// predictions are written in the order of test data, partition by partition
+					if (out == null)
+						return evalRatings(from, to, acc, null);
+
+					ResultSink.RatingBatch batch = out.newRatingBatch(index);
+					try {
+						return evalRatings(from, to, acc, batch);
+					} finally {
+						batch.close();
+					}
+				}
+			});
+		}
+
+		List<Integer> counts = null;
+		try {
+			counts = ComputePool.invokeAll(tasks);
+		} finally {
+			if (sink != null)
+				sink.close();
 		}
 
+		if (isResultsOut)
+			Logs.debug("{}{} has written rating predictions to {}", algoName, foldInfo, toFile);
+
+		// merge partitions in a fixed order
 		int numCount = 0;
+		for (int p = 0; p < numParts; p++) {
+			if (isParallel)
+				measures.mergeRatingMetrics(accs[p]);
+			numCount += counts.get(p);
+		}
 
-		for (MatrixEntry me : testMatrix) {
-			double rate = me.get();
+		measures.computeRatingMetrics(numCount);
 
-			int u = me.row();
-			int j = me.column();
+	}
 
-			if (!isTestable(u, j))
+	/**
+	 * @return the number of units (here: test users) over which rating evaluation is partitioned
+	 */
+	protected int numRatingTestUnits() {
+		return testMatrix.numRows();
+	}
+
+	/**
+	 * evaluate rating predictions of the test units (here: test users) in range [from, to)
+	 * 
+	 * @param acc
+	 *            rating metrics to accumulate into
+	 * @param out
+	 *            batch of predictions to output, null if results are not output
+	 * @return the number of predictions evaluated
+	 */
+	protected int evalRatings(int from, int to, MetricCollection acc, ResultSink.RatingBatch out)
+			throws Exception {
+
+		int[] rowPtr = testMatrix.getRowPointers();
+		int[] colInd = testMatrix.getColumnIndices();
+		double[] rowData = testMatrix.getData();
+
+		int numCount = 0;
+		for (int u = from; u < to; u++) {
+			if (rowPtr[u] == rowPtr[u + 1])
 				continue;
 
-			double pred = predict(u, j, true);
+			long start = System.nanoTime();
+			for (int idx = rowPtr[u]; idx < rowPtr[u + 1]; idx++) {
+				double rate = rowData[idx];
+				int j = colInd[idx];
 
-            // 2016/8/2 RB Should the metrics handle this?
-            if (Double.isNaN(pred))
-            	continue;
+				if (!isTestable(u, j))
+					continue;
 
-            measures.updateRatingMetrics(u, j, pred, rate, this);
+				double pred = predict(u, j, true);
 
-			numCount++;
+				// 2016/8/2 RB Should the metrics handle this?
+				if (Double.isNaN(pred))
+					continue;
 
-			// output predictions
-			if (isResultsOut) {
-				// restore back to the original user/item id
-				preds.add(rateDao.getUserId(u) + " " + rateDao.getItemId(j) + " " + rate + " " + (float) pred);
-				if (preds.size() >= 1000) {
-					FileIO.writeList(toFile, preds, true);
-					preds.clear();
-				}
-			}
-		}
+				acc.updateRatingMetrics(u, j, pred, rate, this);
 
-		if (isResultsOut && preds.size() > 0) {
-			FileIO.writeList(toFile, preds, true);
-			Logs.debug("{}{} has written rating predictions to {}", algoName, foldInfo, toFile);
-		}
+				numCount++;
 
-		measures.computeRatingMetrics(numCount);
+				// output predictions
+				if (out != null)
+					out.putRating(u, j, rate, pred);
+			}
+			telemetry.recordEval(System.nanoTime() - start);
+		}
 
+		return numCount;
 	}
 
 	/**
@@ -679,136 +1100,185 @@ public abstract class Recommender implements Runnable {
 	 */
 	protected void evalRankings() throws Exception {
 
-		int capacity = Lists.initSize(testMatrix.numRows());
+		int numTrainItems = trainMatrix.numColumns();
 
 		// candidate items for all users: here only training items
-		// use HashSet instead of ArrayList to speedup removeAll() and contains() operations: HashSet: O(1); ArrayList: O(log n).
-		Set<Integer> candItems = new HashSet<>(trainMatrix.columns());
-
-		List<String> preds = null;
-		String toFile = null;
-		int numTopNRanks = numRecs < 0 ? 10 : numRecs;
-		if (isResultsOut) {
-			preds = new ArrayList<String>(1500);
-			preds.add("# userId: recommendations in (itemId, ranking score) pairs, where a correct recommendation is denoted by symbol *."); // optional: file header
-			toFile = tempDirPath
-					+ String.format("%s-top-%d-items%s.txt", new Object[] { algoName, numTopNRanks, foldInfo }); // the output-file name
-			FileIO.deleteFile(toFile); // delete possibly old files
+		// use a bit set over item indices: contains() is O(1) without boxing, and iteration follows the item order
+		BitSet candItems = new BitSet(numTrainItems);
+		int[] itemDegs = new int[numTrainItems];
+		for (int j = 0; j < numTrainItems; j++) {
+			itemDegs[j] = trainMatrix.columnSize(j);
+			if (itemDegs[j] > 0)
+				candItems.set(j);
 		}
 
 		if (verbose)
-			Logs.debug("{}{} has candidate items: {}", algoName, foldInfo, candItems.size());
+			Logs.debug("{}{} has candidate items: {}", algoName, foldInfo, candItems.cardinality());
 
 		// ignore items for all users: most popular items
 		if (numIgnore > 0) {
-			List<Map.Entry<Integer, Integer>> itemDegs = new ArrayList<>();
-			for (Integer j : candItems) {
-				itemDegs.add(new SimpleImmutableEntry<Integer, Integer>(j, trainMatrix.columnSize(j)));
-			}
-			Lists.sortList(itemDegs, true);
+			// pack (-degree, item) into a long so that a primitive sort orders by degree desc, then by item asc
+			long[] degItems = new long[candItems.cardinality()];
 			int k = 0;
-			for (Map.Entry<Integer, Integer> deg : itemDegs) {
+			for (int j = candItems.nextSetBit(0); j >= 0; j = candItems.nextSetBit(j + 1))
+				degItems[k++] = ((long) -itemDegs[j] << 32) | j;
 
-				// ignore these items from candidate items
-				candItems.remove(deg.getKey());
-				if (++k >= numIgnore)
-					break;
-			}
+			Arrays.sort(degItems);
+
+			// ignore these items from candidate items
+			for (k = 0; k < numIgnore && k < degItems.length; k++)
+				candItems.clear((int) degItems[k]);
 		}
 
-		// for each test user
-        int numCount = 0;
-		for (int u = 0, um = testMatrix.numRows(); u < um; u++) {
+		// number of candidate items for all users
+		int numCandItems = candItems.cardinality();
+		int numCount = 0;
 
-			if (verbose && ((u + 1) % 100 == 0))
-				Logs.debug("{}{} evaluates progress: {} / {}", algoName, foldInfo, u + 1, um);
+		ResultSink sink = null;
+		String toFile = null;
+		int numTopNRanks = numRecs < 0 ? 10 : numRecs;
+		int[] topItems = null;
+		double[] topScores = null;
+		boolean[] topCorrect = null;
+		if (isResultsOut) {
+			toFile = tempDirPath
+					+ String.format("%s-top-%d-items%s%s", new Object[] { algoName, numTopNRanks, foldInfo,
+							resultFormat.extension() }); // the output-file name
+			sink = new ResultSink(toFile, resultFormat, ResultSink.Kind.RANKINGS,
+					"# userId: recommendations in (itemId, ranking score) pairs, where a correct recommendation is denoted by symbol *.",
+					rateDao); // optional: file header
+			sink.start();
+
+			topItems = new int[numTopNRanks];
+			topScores = new double[numTopNRanks];
+			topCorrect = new boolean[numTopNRanks];
+		}
 
-			// number of candidate items for all users
-			int numCands = candItems.size();
+		// recall of the MIPS index against the exact top-n items, and the time of both
+		MipsIndex index = mipsIndex;
+		int mipsN = numRecs > 0 ? numRecs : 10;
+		double mipsRecall = 0;
+		long exactNanos = 0, mipsNanos = 0;
+		int numMipsUsers = 0;
 
-			// get positive items from test matrix
-			List<Integer> testItems = testMatrix.getColumns(u);
-			List<Integer> correctItems = new ArrayList<>();
+		try {
+			// for each test user
+			for (int u = 0, um = testMatrix.numRows(); u < um; u++) {
 
-			// intersect with the candidate items
-			for (Integer j : testItems) {
-				if (candItems.contains(j))
-					correctItems.add(j);
-			}
+				if (verbose && ((u + 1) % 100 == 0))
+					Logs.debug("{}{} evaluates progress: {} / {}", algoName, foldInfo, u + 1, um);
 
-			if (correctItems.size() == 0)
-				continue; // no testing data for user u
+				long start = System.nanoTime();
 
-			// remove rated items from candidate items
-			List<Integer> ratedItems = trainMatrix.getColumns(u);
+				// number of candidate items for user u
+				int numCands = numCandItems;
 
-			// predict the ranking scores (unordered) of all candidate items
-			List<Map.Entry<Integer, Double>> itemScores = new ArrayList<>(Lists.initSize(candItems));
-			for (final Integer j : candItems) {
-				// item j is not rated 
-				if (!ratedItems.contains(j)) {
-					final double rank = ranking(u, j);
-					if (!Double.isNaN(rank)) {
-						itemScores.add(new SimpleImmutableEntry<Integer, Double>(j, rank));
-					}
-				} else {
-					numCands--;
+				// get positive items from test matrix, sorted by item index
+				int[] testItems = testMatrix.getColumnArray(u);
+				List<Integer> correctItems = new ArrayList<>();
+
+				// intersect with the candidate items
+				for (int j : testItems) {
+					if (candItems.get(j))
+						correctItems.add(j);
 				}
-			}
 
-			if (itemScores.size() == 0)
-				continue; // no recommendations available for user u
+				if (correctItems.size() == 0)
+					continue; // no testing data for user u
+
+				long exactStart = System.nanoTime();
 
-			// order the ranking scores from highest to lowest: List to preserve orders
-			Lists.sortList(itemScores, true);
-			List<Map.Entry<Integer, Double>> recomd = (numRecs <= 0 || itemScores.size() <= numRecs) ? itemScores
-					: itemScores.subList(0, numRecs);
+				// rated items to be removed from candidate items: both are sorted, hence a merge scan suffices
+				int[] ratedItems = trainMatrix.getColumnArray(u);
 
-			List<Integer> rankedItems = new ArrayList<>();
-			StringBuilder sb = new StringBuilder();
-			int count = 0;
-			for (Map.Entry<Integer, Double> kv : recomd) {
-				Integer item = kv.getKey();
-				rankedItems.add(item);
+				// predict the ranking scores (unordered) of all candidate items
+				List<Map.Entry<Integer, Double>> itemScores = new ArrayList<>(Lists.initSize(numCandItems));
+				for (int j = candItems.nextSetBit(0), r = 0; j >= 0; j = candItems.nextSetBit(j + 1)) {
+					while (r < ratedItems.length && ratedItems[r] < j)
+						r++;
 
-				if (isResultsOut && count < numTopNRanks) {
-					// restore back to the original item id
-					sb.append("(").append(rateDao.getItemId(item));
+					// item j is rated
+					if (r < ratedItems.length && ratedItems[r] == j) {
+						numCands--;
+						continue;
+					}
+
+					final double rank = ranking(u, j);
+					if (!Double.isNaN(rank)) {
+						itemScores.add(new SimpleImmutableEntry<Integer, Double>(j, rank));
+					}
+				}
 
-					if (testItems.contains(item))
-						sb.append("*"); // indicating correct recommendation
+				if (itemScores.size() == 0)
+					continue; // no recommendations available for user u
+
+				// order the ranking scores from highest to lowest: List to preserve orders
+				Lists.sortList(itemScores, true);
+				exactNanos += System.nanoTime() - exactStart;
+
+				if (index != null) {
+					long mipsStart = System.nanoTime();
+					int[] approxItems = index.search(userVector(u), mipsN, candItems, ratedItems);
+					mipsNanos += System.nanoTime() - mipsStart;
+
+					int numExact = Math.min(mipsN, itemScores.size());
+					int[] exactItems = new int[numExact];
+					for (int k = 0; k < numExact; k++)
+						exactItems[k] = itemScores.get(k).getKey();
+					Arrays.sort(exactItems);
+
+					int hits = 0;
+					for (int j : approxItems)
+						if (Arrays.binarySearch(exactItems, j) >= 0)
+							hits++;
+					mipsRecall += (double) hits / numExact;
+					numMipsUsers++;
+				}
 
-					sb.append(", ").append(kv.getValue().floatValue()).append(")");
+				List<Map.Entry<Integer, Double>> recomd = (numRecs <= 0 || itemScores.size() <= numRecs) ? itemScores
+						: itemScores.subList(0, numRecs);
 
-					count++;
+				List<Integer> rankedItems = new ArrayList<>();
+				int count = 0;
+				for (Map.Entry<Integer, Double> kv : recomd) {
+					Integer item = kv.getKey();
+					rankedItems.add(item);
 
-					if (count < numTopNRanks)
-						sb.append(", ");
+					if (isResultsOut && count < numTopNRanks) {
+						topItems[count] = item;
+						topScores[count] = kv.getValue();
+						topCorrect[count] = Arrays.binarySearch(testItems, item) >= 0;
+						count++;
+					}
 				}
-			}
 
-			numCount++;
+				numCount++;
 
-			int numDropped = numCands - rankedItems.size();
+				int numDropped = numCands - rankedItems.size();
 
-            measures.updateRankingMetrics(rankedItems, correctItems, numDropped, this);
+	            measures.updateRankingMetrics(rankedItems, correctItems, numDropped, this);
 
-			// output predictions
-			if (isResultsOut) {
-				// restore back to the original user id
-				preds.add(rateDao.getUserId(u) + ": " + sb.toString());
-				if (preds.size() >= 1000) {
-					FileIO.writeList(toFile, preds, true);
-					preds.clear();
-				}
+				// output predictions
+				if (isResultsOut)
+					sink.putRanking(u, topItems, topScores, topCorrect, count);
+
+				telemetry.recordEval(System.nanoTime() - start);
 			}
+
+		} finally {
+			// write results out first
+			if (sink != null)
+				sink.close();
 		}
 
-		// write results out first
-		if (isResultsOut && preds.size() > 0) {
-			FileIO.writeList(toFile, preds, true);
+		if (isResultsOut)
 			Logs.debug("{}{} has written item recommendations to {}", algoName, foldInfo, toFile);
-		}
+
+		if (numMipsUsers > 0)
+			Logs.info("{}{} MIPS index of {} lists, {} probes: recall@{} = {}, {} us per user (exact: {} us)",
+					algoName, foldInfo, index.numLists(), index.numProbes(), mipsN,
+					(float) (mipsRecall / numMipsUsers), mipsNanos / 1000 / numMipsUsers, exactNanos / 1000
+							/ numMipsUsers);
 
 		// measure the performance
         measures.computeRankingMetrics(numCount);
@@ -871,6 +1341,169 @@ public abstract class Recommender implements Runnable {
 		return predict(u, j, false);
 	}
 
+	/**
+	 * Recommend the top-n items of a user among the items with training ratings, excluding the items rated by the user.
+	 * Thread-safe if {@link #ranking(int, int)} is, e.g., to serve a learned model online. If the MIPS index is built,
+	 * the (approximate) top-n items are retrieved from the index instead of ranking all items.
+	 * 
+	 * @param u
+	 *            user id
+	 * @param n
+	 *            number of items to recommend, at most the number of items
+	 * @return (item, ranking score) pairs ordered from the highest score to the lowest
+	 */
+	public List<Map.Entry<Integer, Double>> recommend(int u, int n) throws Exception {
+		n = Math.max(0, Math.min(n, numItems));
+
+		BitSet cands = candidateItems();
+		int[] ratedItems = u < trainMatrix.numRows() ? trainMatrix.getColumnArray(u) : new int[0];
+
+		// approximate top-n items by the MIPS index, if built
+		MipsIndex index = mipsIndex;
+		if (index != null) {
+			int[] items = index.search(userVector(u), n, cands, ratedItems);
+
+			List<Map.Entry<Integer, Double>> res = new ArrayList<>(items.length);
+			for (int j : items)
+				res.add(new SimpleImmutableEntry<Integer, Double>(j, ranking(u, j)));
+
+			return res;
+		}
+
+		TopItems top = new TopItems(n);
+		for (int j = cands.nextSetBit(0), r = 0; j >= 0 && !top.isEmpty(); j = cands.nextSetBit(j + 1)) {
+			while (r < ratedItems.length && ratedItems[r] < j)
+				r++;
+			if (r < ratedItems.length && ratedItems[r] == j)
+				continue;
+
+			double rank = ranking(u, j);
+			if (!Double.isNaN(rank))
+				top.offer(j, rank);
+		}
+
+		return drain(top);
+	}
+
+	/**
+	 * Recommend the top-n items of a user given by a user vector, e.g., the vector of a new user by
+	 * {@link #foldIn(SparseVector)}, scored by its inner products with the item vectors (cf. {@link #userVector(int)}
+	 * ). If the MIPS index is built, the (approximate) top-n items are retrieved from the index.
+	 * 
+	 * @param userVec
+	 *            user vector
+	 * @param excludedItems
+	 *            items to exclude in ascending order, e.g., the items rated by the user
+	 * @param n
+	 *            number of items to recommend, at most the number of items
+	 * @return (item, ranking score) pairs ordered from the highest score to the lowest, or null if the model does not
+	 *         support user vectors
+	 */
+	public List<Map.Entry<Integer, Double>> recommend(DenseVector userVec, int[] excludedItems, int n)
+			throws Exception {
+		DenseMatrix items = getItemVectors();
+		if (items == null)
+			return null;
+
+		n = Math.max(0, Math.min(n, items.numRows()));
+
+		BitSet cands = candidateItems();
+
+		MipsIndex index = mipsIndex;
+		if (index != null) {
+			int[] topItems = index.search(userVec, n, cands, excludedItems);
+
+			List<Map.Entry<Integer, Double>> res = new ArrayList<>(topItems.length);
+			for (int j : topItems)
+				res.add(new SimpleImmutableEntry<Integer, Double>(j, score(userVec, items, j)));
+
+			return res;
+		}
+
+		TopItems top = new TopItems(n);
+		for (int j = cands.nextSetBit(0), r = 0; j >= 0 && !top.isEmpty(); j = cands.nextSetBit(j + 1)) {
+			while (r < excludedItems.length && excludedItems[r] < j)
+				r++;
+			if (r < excludedItems.length && excludedItems[r] == j)
+				continue;
+
+			top.offer(j, score(userVec, items, j));
+		}
+
+		return drain(top);
+	}
+
+	/**
+	 * @return the inner product of a user vector and the vector of item j
+	 */
+	private static double score(DenseVector userVec, DenseMatrix items, int j) {
+		double sum = 0;
+		for (int f = 0, fm = items.numColumns(); f < fm; f++)
+			sum += userVec.get(f) * items.get(j, f);
+		return sum;
+	}
+
+	/**
+	 * Fold in a new or updated user without retraining the model, to be overridden by models supporting it: the
+	 * parameters of the items are kept fixed, and only the parameters of the user are learned from the given ratings.
+	 * 
+	 * @param ratings
+	 *            ratings of the user, indexed by item ids
+	 * @return the user vector, to be scored by {@link #recommend(DenseVector, int[], int)}, or null if not supported
+	 */
+	public DenseVector foldIn(SparseVector ratings) throws Exception {
+		return null;
+	}
+
+	/**
+	 * @return true if predictions of a trained model may be made by concurrent threads, i.e., they only read the model;
+	 *         to be overridden by models which keep per-user state while predicting, whose predictions are then
+	 *         made by one thread at a time, e.g., by the {@link librec.main.RecommenderServer}
+	 */
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	/**
+	 * @return candidate items of online recommendations, i.e., items with training ratings
+	 */
+	private BitSet candidateItems() {
+		BitSet cands = candItems;
+		if (cands == null) {
+			cands = new BitSet(trainMatrix.numColumns());
+			for (int j = 0, jm = trainMatrix.numColumns(); j < jm; j++)
+				if (trainMatrix.columnSize(j) > 0)
+					cands.set(j);
+			candItems = cands;
+		}
+		return cands;
+	}
+
+	/**
+	 * @return vectors of all items for online recommendations, cached until the model is reloaded or re-indexed
+	 */
+	private DenseMatrix getItemVectors() throws Exception {
+		DenseMatrix items = itemVecs;
+		if (items == null) {
+			items = itemVectors();
+			itemVecs = items;
+		}
+		return items;
+	}
+
+	/**
+	 * @return the top items ordered from the highest score to the lowest
+	 */
+	private static List<Map.Entry<Integer, Double>> drain(TopItems top) {
+		int size = top.sort();
+
+		List<Map.Entry<Integer, Double>> res = new ArrayList<>(size);
+		for (int k = 0; k < size; k++)
+			res.add(new SimpleImmutableEntry<Integer, Double>(top.item(k), top.score(k)));
+
+		return res;
+	}
+
 	/**
 	 *
 	 * @param rankedItems
@@ -0,0 +1,244 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.intf;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import librec.data.DataDAO;
+import librec.data.SparseMatrix;
+import librec.util.FileConfiger;
+import librec.util.LineConfiger;
+import librec.util.Logs;
+import librec.util.Strings;
+
+import com.google.common.collect.HashBiMap;
+
+/**
+ * The context of a run: a configuration together with the (loaded) data set. Every recommender reads its settings and
+ * data from the context it is created in, so that recommenders of different contexts, e.g., different algorithms or
+ * hyper-parameters over the same data set, can be trained concurrently in one JVM.
+ *
+ * <p>
+ * Recommenders are created either by {@link #create(Class, SparseMatrix, SparseMatrix, int)}, or by their constructors
+ * within {@link #enter()} and {@link #exit(RecommenderContext)}, which binds the context to the current thread while
+ * the constructors run.
+ * </p>
+ */
+public class RecommenderContext {
+
+	// context of recommenders being constructed by the current thread
+	private static final ThreadLocal<RecommenderContext> constructing = new ThreadLocal<>();
+
+	private final FileConfiger cf;
+	private final String tempDirPath;
+
+	private final DataDAO rateDao;
+	private final SparseMatrix rateMatrix, timeMatrix;
+	private final float binThold;
+
+	// random numbers of the run, seeded by option "--rand-seed" of "evaluation.setup"
+	private final Random random;
+
+	// timestamps of a separate test set, if any
+	private volatile SparseMatrix testTimeMatrix;
+
+	// social data sets by path, loaded on demand and shared by contexts over the same rating data
+	private final Map<String, SocialData> socialData;
+
+	/**
+	 * @param cf
+	 *            configuration
+	 * @param tempDirPath
+	 *            output directory
+	 * @param rateDao
+	 *            DAO of rating data
+	 * @param rateMatrix
+	 *            matrix of all ratings
+	 * @param timeMatrix
+	 *            matrix of ratings' timestamps
+	 * @param binThold
+	 *            threshold to binarize ratings
+	 */
+	public RecommenderContext(FileConfiger cf, String tempDirPath, DataDAO rateDao, SparseMatrix rateMatrix,
+			SparseMatrix timeMatrix, float binThold) {
+		this(cf, tempDirPath, rateDao, rateMatrix, timeMatrix, binThold, new HashMap<String, SocialData>());
+	}
+
+	private RecommenderContext(FileConfiger cf, String tempDirPath, DataDAO rateDao, SparseMatrix rateMatrix,
+			SparseMatrix timeMatrix, float binThold, Map<String, SocialData> socialData) {
+		this.cf = cf;
+		this.tempDirPath = tempDirPath;
+		this.rateDao = rateDao;
+		this.rateMatrix = rateMatrix;
+		this.timeMatrix = timeMatrix;
+		this.binThold = binThold;
+		this.socialData = socialData;
+
+		LineConfiger evalOptions = cf.getParamOptions("evaluation.setup");
+		long seed = evalOptions != null ? evalOptions.getLong("--rand-seed", System.currentTimeMillis()) : System
+				.currentTimeMillis();
+		random = new Random(seed);
+	}
+
+	/**
+	 * @return a context with another configuration over the same data set (but without a separate test set), e.g., to
+	 *         run other algorithms or hyper-parameters concurrently
+	 */
+	public RecommenderContext withConfig(FileConfiger cf, String tempDirPath) {
+		return new RecommenderContext(cf, tempDirPath, rateDao, rateMatrix, timeMatrix, binThold, socialData);
+	}
+
+	/**
+	 * create a recommender in this context
+	 */
+	public <T extends Recommender> T create(Class<T> clazz, SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold)
+			throws Exception {
+		Constructor<T> ctor = clazz.getConstructor(SparseMatrix.class, SparseMatrix.class, int.class);
+
+		RecommenderContext prev = enter();
+		try {
+			return ctor.newInstance(trainMatrix, testMatrix, fold);
+		} catch (InvocationTargetException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception)
+				throw (Exception) cause;
+			throw (Error) cause;
+		} finally {
+			exit(prev);
+		}
+	}
+
+	/**
+	 * bind this context to the current thread, for recommenders constructed until {@link #exit(RecommenderContext)}
+	 *
+	 * @return the context previously bound, to be restored by {@link #exit(RecommenderContext)}
+	 */
+	public RecommenderContext enter() {
+		RecommenderContext prev = constructing.get();
+		constructing.set(this);
+		return prev;
+	}
+
+	/**
+	 * restore the context bound before {@link #enter()}
+	 */
+	public static void exit(RecommenderContext prev) {
+		if (prev == null)
+			constructing.remove();
+		else
+			constructing.set(prev);
+	}
+
+	/**
+	 * @return the context of recommenders being constructed by the current thread
+	 */
+	static RecommenderContext current() {
+		RecommenderContext ctx = constructing.get();
+		if (ctx == null)
+			throw new IllegalStateException("Recommender is not created in a context");
+		return ctx;
+	}
+
+	public FileConfiger getConfig() {
+		return cf;
+	}
+
+	public String getTempDirPath() {
+		return tempDirPath;
+	}
+
+	public DataDAO getRateDao() {
+		return rateDao;
+	}
+
+	public SparseMatrix getRateMatrix() {
+		return rateMatrix;
+	}
+
+	public SparseMatrix getTimeMatrix() {
+		return timeMatrix;
+	}
+
+	public float getBinThold() {
+		return binThold;
+	}
+
+	/**
+	 * @return a new random generator seeded by the generator of this context; recommenders constructed in the same
+	 *         order draw the same numbers, whatever other contexts run concurrently
+	 */
+	public synchronized Random newRandom() {
+		return new Random(random.nextLong());
+	}
+
+	/**
+	 * @return timestamps of the test set if given separately, otherwise timestamps of all ratings
+	 */
+	public SparseMatrix getTestTimeMatrix() {
+		SparseMatrix m = testTimeMatrix;
+		return m != null ? m : timeMatrix;
+	}
+
+	public void setTestTimeMatrix(SparseMatrix testTimeMatrix) {
+		this.testTimeMatrix = testTimeMatrix;
+	}
+
+	/**
+	 * @return DAO of the social data given by "dataset.social", loaded once for all recommenders sharing the data set
+	 */
+	public DataDAO getSocialDao() throws Exception {
+		return loadSocialData().dao;
+	}
+
+	/**
+	 * @return matrix of the social data given by "dataset.social"
+	 */
+	public SparseMatrix getSocialMatrix() throws Exception {
+		return loadSocialData().matrix;
+	}
+
+	private SocialData loadSocialData() throws Exception {
+		String socialPath = cf.getPath("dataset.social");
+
+		synchronized (socialData) {
+			SocialData data = socialData.get(socialPath);
+			if (data == null) {
+				Logs.debug("Social dataset: {}", Strings.last(socialPath, 38));
+
+				// new users of social data are added to a copy of the user ids of rating data, which are read by
+				// recommenders running meanwhile
+				data = new SocialData();
+				data.dao = new DataDAO(socialPath, HashBiMap.create(rateDao.getUserIds()));
+				data.matrix = data.dao.readData()[0];
+
+				socialData.put(socialPath, data);
+			}
+			return data;
+		}
+	}
+
+	private static class SocialData {
+		DataDAO dao;
+		SparseMatrix matrix;
+	}
+}
@@ -18,17 +18,12 @@
 
 package librec.intf;
 
-import java.util.List;
-
+import librec.data.AdjacencyIndex;
 import librec.data.Configuration;
 import librec.data.DataDAO;
 import librec.data.SparseMatrix;
-import librec.data.SparseVector;
-import librec.util.Logs;
 import librec.util.Strings;
 
-import com.google.common.cache.LoadingCache;
-
 /**
  * Recommenders in which social information is used
  * 
@@ -39,47 +34,27 @@ import com.google.common.cache.LoadingCache;
 public abstract class SocialRecommender extends IterativeRecommender {
 
 	// social data dao
-	protected static DataDAO socialDao;
+	protected DataDAO socialDao;
 
 	// socialMatrix: social rate matrix, indicating a user is connecting to a number of other users
 	// trSocialMatrix: inverse social matrix, indicating a user is connected by a number of other users
-	protected static SparseMatrix socialMatrix;
+	protected SparseMatrix socialMatrix;
 
 	// social regularization
-	protected static float regS;
-
-	// indicator of static field initialization or reset
-	public static boolean resetStatics = true;
-
-	// shared social cache for all social recommenders
-	protected LoadingCache<Integer, SparseVector> socialCache;
-	protected LoadingCache<Integer, List<Integer>> userFriendsCache;
-
-	// initialization
-	static {
-		String socialPath = cf.getPath("dataset.social");
-		Logs.debug("Social dataset: {}", Strings.last(socialPath, 38));
-
-		socialDao = new DataDAO(socialPath, rateDao.getUserIds());
+	protected float regS;
 
-		try {
-			socialMatrix = socialDao.readData()[0];
-			numUsers = socialDao.numUsers();
+	// users trusted by each user
+	protected AdjacencyIndex userFriends;
 
-			//socialCache = socialMatrix.rowCache(cacheSpec);
-		} catch (Exception e) {
-			e.printStackTrace();
-			System.exit(-1);
-		}
-	}
-
-	public SocialRecommender(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
+	public SocialRecommender(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) throws Exception {
 		super(trainMatrix, testMatrix, fold);
 
-		if (resetStatics) {
-			resetStatics = false;
-			regS = regOptions.getFloat("-s", reg);
-		}
+		// social data, shared by all social recommenders of the context
+		socialDao = context.getSocialDao();
+		socialMatrix = context.getSocialMatrix();
+		numUsers = socialDao.numUsers();
+
+		regS = regOptions.getFloat("-s", reg);
 	}
 
 	@Override
@@ -0,0 +1,262 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.intf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import librec.data.DenseMatrix;
+import librec.data.DenseVector;
+import librec.data.SparseMatrix;
+import librec.util.ComputePool;
+
+/**
+ * Probabilistic graphic models trained by sweeping over the tokens of users, e.g., by Gibbs sampling, either
+ * sequentially or by approximate distributed sampling, see {@link SweepWorker}
+ */
+public abstract class SweepRecommender extends GraphicRecommender {
+
+	/**
+	 * number of workers of approximate distributed sampling (option {@code -workers [n]}, by default the size of the
+	 * compute pool), or 0 to sweep over the tokens sequentially
+	 */
+	protected int numWorkers;
+
+	/**
+	 * number of reconciliations of the workers' counts per sweep (option {@code -syncs})
+	 */
+	protected int numSyncs;
+
+	// workers of the current training, and the first users of their shards
+	private SweepWorker[] workers;
+	private int[] workerUsers;
+
+	public SweepRecommender(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
+		super(trainMatrix, testMatrix, fold);
+
+		if (pgmOptions != null) {
+			numWorkers = pgmOptions.contains("-workers") ? pgmOptions.getInt("-workers", ComputePool.parallelism()) : 0;
+			numSyncs = Math.max(1, pgmOptions.getInt("-syncs", 1));
+		}
+	}
+
+	@Override
+	protected void buildModel() throws Exception {
+
+		// workers take the counts of this training, e.g., restored from a checkpoint
+		workers = null;
+		super.buildModel();
+	}
+
+	/**
+	 * A worker that sweeps over the tokens of users, e.g., to draw their topics by Gibbs sampling.
+	 * 
+	 * <p>
+	 * In approximate distributed sampling (AD-LDA): Newman et al., <strong>Distributed Algorithms for Topic
+	 * Models</strong>, JMLR 2009, users are partitioned across {@link #numWorkers} workers, each of which samples its
+	 * users against local copies of the counts shared by all users (e.g., of topics and items), taken by
+	 * {@link #counts(DenseMatrix)}. The copies are reconciled {@link #numSyncs} times per sweep, by adding the changes
+	 * of all workers to the shared counts. Counts of a user (e.g., Nuk) belong to one worker, and are updated in place.
+	 * </p>
+	 */
+	protected abstract class SweepWorker {
+
+		/**
+		 * generator of random numbers, owned by this worker if it is local
+		 */
+		protected final Random rnd;
+
+		private final boolean isLocal;
+
+		// rows of the shared counts, and of their local copies
+		private final List<double[]> sharedRows = new ArrayList<>(), localRows = new ArrayList<>();
+		private final List<int[]> sharedIntRows = new ArrayList<>(), localIntRows = new ArrayList<>();
+
+		/**
+		 * @param isLocal
+		 *            whether to sample against local copies of the shared counts, or against the shared counts
+		 *            themselves
+		 */
+		protected SweepWorker(boolean isLocal) {
+			this.isLocal = isLocal;
+			rnd = isLocal ? new Random(random.nextLong()) : random;
+		}
+
+		/**
+		 * @return the counts to sample against, i.e., a local copy of the shared counts, or the shared counts
+		 */
+		protected DenseMatrix counts(DenseMatrix shared) {
+			if (!isLocal)
+				return shared;
+
+			DenseMatrix local = shared.clone();
+			for (int r = 0; r < shared.numRows(); r++) {
+				sharedRows.add(shared.getData()[r]);
+				localRows.add(local.getData()[r]);
+			}
+			return local;
+		}
+
+		/**
+		 * @return the counts to sample against, i.e., a local copy of the shared counts, or the shared counts
+		 */
+		protected DenseVector counts(DenseVector shared) {
+			if (!isLocal)
+				return shared;
+
+			DenseVector local = shared.clone();
+			sharedRows.add(shared.getData());
+			localRows.add(local.getData());
+			return local;
+		}
+
+		/**
+		 * @return the counts to sample against, i.e., a local copy of the shared counts, or the shared counts
+		 */
+		protected int[][][] counts(int[][][] shared) {
+			if (!isLocal)
+				return shared;
+
+			int[][][] local = new int[shared.length][][];
+			for (int a = 0; a < shared.length; a++) {
+				local[a] = new int[shared[a].length][];
+				for (int b = 0; b < shared[a].length; b++) {
+					local[a][b] = shared[a][b].clone();
+					sharedIntRows.add(shared[a][b]);
+					localIntRows.add(local[a][b]);
+				}
+			}
+			return local;
+		}
+
+		/**
+		 * sweep over the tokens of user u
+		 */
+		protected abstract void sweep(int u);
+
+		/**
+		 * copy the shared counts into the local ones
+		 */
+		private void pull() {
+			for (int n = 0; n < sharedRows.size(); n++) {
+				double[] shared = sharedRows.get(n);
+				System.arraycopy(shared, 0, localRows.get(n), 0, shared.length);
+			}
+			for (int n = 0; n < sharedIntRows.size(); n++) {
+				int[] shared = sharedIntRows.get(n);
+				System.arraycopy(shared, 0, localIntRows.get(n), 0, shared.length);
+			}
+		}
+	}
+
+	/**
+	 * @return a new worker to sweep over the tokens of users, see {@link SweepWorker}
+	 */
+	protected abstract SweepWorker newWorker(boolean isLocal);
+
+	/**
+	 * sweep over the tokens of all users, either sequentially in the order of users, or by {@link #numWorkers} workers
+	 */
+	protected void sweep() throws Exception {
+		int numShards = Math.min(numWorkers, numUsers);
+
+		if (numShards <= 1) {
+			SweepWorker worker = newWorker(false);
+			for (int u = 0; u < numUsers; u++)
+				worker.sweep(u);
+			return;
+		}
+
+		if (workers == null) {
+			// shards of contiguous users with about the same number of tokens
+			int[] rowPtr = trainMatrix.getRowPointers();
+			workers = new SweepWorker[numShards];
+			workerUsers = new int[numShards + 1];
+			for (int w = 0, u = 0; w < numShards; w++) {
+				long first = (long) rowPtr[numUsers] * w / numShards;
+				while (u < numUsers && rowPtr[u] < first)
+					u++;
+				workerUsers[w] = u;
+				workers[w] = newWorker(true);
+			}
+			workerUsers[numShards] = numUsers;
+		}
+
+		List<Callable<Void>> tasks = new ArrayList<>(numShards);
+		for (int s = 0; s < numSyncs; s++) {
+			tasks.clear();
+			for (int w = 0; w < numShards; w++) {
+				final SweepWorker worker = workers[w];
+				int from = workerUsers[w], size = workerUsers[w + 1] - from;
+				final int start = from + (int) ((long) size * s / numSyncs);
+				final int end = from + (int) ((long) size * (s + 1) / numSyncs);
+				tasks.add(new Callable<Void>() {
+
+					@Override
+					public Void call() throws Exception {
+						worker.pull();
+						for (int u = start; u < end; u++)
+							worker.sweep(u);
+						return null;
+					}
+				});
+			}
+			ComputePool.invokeAll(tasks);
+
+			reconcile();
+		}
+	}
+
+	/**
+	 * add the changes of the workers' local counts to the shared counts
+	 */
+	private void reconcile() {
+		SweepWorker first = workers[0];
+
+		double[][] locals = new double[workers.length][];
+		for (int n = 0; n < first.sharedRows.size(); n++) {
+			double[] shared = first.sharedRows.get(n);
+			for (int w = 0; w < workers.length; w++)
+				locals[w] = workers[w].localRows.get(n);
+
+			for (int j = 0; j < shared.length; j++) {
+				double sum = shared[j];
+				for (double[] local : locals)
+					sum += local[j] - shared[j];
+				shared[j] = sum;
+			}
+		}
+
+		int[][] intLocals = new int[workers.length][];
+		for (int n = 0; n < first.sharedIntRows.size(); n++) {
+			int[] shared = first.sharedIntRows.get(n);
+			for (int w = 0; w < workers.length; w++)
+				intLocals[w] = workers[w].localIntRows.get(n);
+
+			for (int j = 0; j < shared.length; j++) {
+				int sum = shared[j];
+				for (int[] local : intLocals)
+					sum += local[j] - shared[j];
+				shared[j] = sum;
+			}
+		}
+	}
+}
@@ -18,18 +18,14 @@
 
 package librec.intf;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import librec.data.Configuration;
 import librec.data.MatrixEntry;
 import librec.data.SparseMatrix;
 import librec.data.SparseTensor;
-import librec.data.TensorEntry;
-import librec.util.FileIO;
-import librec.util.Logs;
+import librec.io.ResultSink;
+import librec.metric.MetricCollection;
 import librec.util.Strings;
 
 /**
@@ -43,24 +39,22 @@ import librec.util.Strings;
 public class TensorRecommender extends IterativeRecommender {
 
 	/* for all tensors */
-	protected static SparseTensor rateTensor;
-	protected static int numDimensions, userDimension, itemDimension;
-	protected static int[] dimensions;
+	protected SparseTensor rateTensor;
+	protected int numDimensions, userDimension, itemDimension;
+	protected int[] dimensions;
 
 	/* for a specific recommender */
 	protected SparseTensor trainTensor, testTensor;
 
-	static {
+	public TensorRecommender(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) throws Exception {
+		super(trainMatrix, testMatrix, fold);
+
 		rateTensor = rateDao.getRateTensor();
 		numDimensions = rateTensor.numDimensions();
 		dimensions = rateTensor.dimensions();
 
 		userDimension = rateTensor.getUserDimension();
 		itemDimension = rateTensor.getItemDimension();
-	}
-
-	public TensorRecommender(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) throws Exception {
-		super(trainMatrix, testMatrix, fold);
 
 		// construct train and test data
 		trainTensor = rateTensor.clone();
@@ -82,53 +76,49 @@ public class TensorRecommender extends IterativeRecommender {
 		}
 	}
 
+	/**
+	 * @return the number of units (here: test tensor entries) over which rating evaluation is partitioned
+	 */
 	@Override
-	protected void evalRatings() throws Exception {
-		List<String> preds = null;
-		String toFile = null;
-		if (isResultsOut) {
-			preds = new ArrayList<String>(1500);
-			preds.add("# userId itemId rating prediction"); // optional: file header
-			toFile = tempDirPath + algoName + "-rating-predictions" + foldInfo + ".txt"; // the output-file name
-			FileIO.deleteFile(toFile); // delete possibly old files
-		}
+	protected int numRatingTestUnits() {
+		return testTensor.size();
+	}
+
+	/**
+	 * evaluate rating predictions of the test tensor entries in range [from, to)
+	 */
+	@Override
+	protected int evalRatings(int from, int to, MetricCollection acc, ResultSink.RatingBatch out)
+			throws Exception {
 
-		double sum_maes = 0, sum_mses = 0, sum_r_maes = 0, sum_r_rmses = 0;
-		int numCount = 0, numPEs = 0;
-		for (TensorEntry te : testTensor) {
-			double rate = te.get();
+		int numCount = 0;
+		for (int index = from; index < to; index++) {
+			long start = System.nanoTime();
+			int[] keys = testTensor.keys(index);
+			double rate = testTensor.value(index);
 
-			int u = te.key(userDimension);
-			int j = te.key(itemDimension);
+			int u = keys[userDimension];
+			int j = keys[itemDimension];
 
 			if (!isTestable(u, j))
 				continue;
 
-			double pred = predict(te.keys(), true);
+			double pred = predict(keys, true);
 			if (Double.isNaN(pred))
 				continue;
 
-			measures.updateRatingMetrics(u, j, pred, rate, this);
+			acc.updateRatingMetrics(u, j, pred, rate, this);
 
 			numCount++;
 
 			// output predictions
-			if (isResultsOut) {
-				// restore back to the original user/item id
-				preds.add(rateDao.getUserId(u) + " " + rateDao.getItemId(j) + " " + rate + " " + (float) pred);
-				if (preds.size() >= 1000) {
-					FileIO.writeList(toFile, preds, true);
-					preds.clear();
-				}
-			}
-		}
+			if (out != null)
+				out.putRating(u, j, rate, pred);
 
-		if (isResultsOut && preds.size() > 0) {
-			FileIO.writeList(toFile, preds, true);
-			Logs.debug("{}{} has written rating predictions to {}", algoName, foldInfo, toFile);
+			telemetry.recordEval(System.nanoTime() - start);
 		}
 
-		measures.computeRatingMetrics(numCount);
+		return numCount;
 	}
 
 	protected double predict(int[] keys, boolean bound) throws Exception {
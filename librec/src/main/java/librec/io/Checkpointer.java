@@ -0,0 +1,81 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.io;
+
+import librec.util.Logs;
+
+/**
+ * Writes training checkpoints in the background. A checkpoint is taken as an in-memory snapshot of the training state
+ * (see {@link ModelWriter#ModelWriter(String)}), so that training continues while the snapshot is written to disk.
+ * At most one snapshot is being written at a time: saving a new one waits for the previous one to complete, which
+ * bounds the memory held by snapshots.
+ */
+public class Checkpointer {
+
+	private final String filePath;
+
+	private Thread writer;
+	private volatile Exception error;
+
+	/**
+	 * @param filePath
+	 *            checkpoint file, replaced atomically by each new checkpoint
+	 */
+	public Checkpointer(String filePath) {
+		this.filePath = filePath;
+	}
+
+	/**
+	 * write a committed snapshot in the background
+	 */
+	public void save(final ModelWriter snapshot, final int iter) throws Exception {
+		await();
+
+		writer = new Thread("Checkpointer-" + filePath) {
+
+			@Override
+			public void run() {
+				try {
+					snapshot.writeTo(filePath);
+					Logs.debug("Checkpoint of iter {} is saved to {}", iter, filePath);
+				} catch (Exception e) {
+					error = e;
+				}
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * wait for the snapshot being written, if any
+	 */
+	public void await() throws Exception {
+		if (writer != null) {
+			writer.join();
+			writer = null;
+		}
+
+		if (error != null) {
+			Exception e = error;
+			error = null;
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,563 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import librec.data.DenseMatrix;
+import librec.data.DenseVector;
+import librec.data.QuantizedMatrix;
+import librec.data.SparseMatrix;
+import librec.data.SymmMatrix;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+
+/**
+ * Reader of a binary model file, or an in-memory snapshot, written by {@link ModelWriter}. The entries are indexed when the file is opened, and
+ * each entry is read on request by its name and verified against its checksum.
+ *
+ * <p>
+ * The file is read either through memory-mapped windows, or by plain channel reads. In both cases, numbers are decoded
+ * in bulk into the primitive arrays of the data structures.
+ * </p>
+ */
+public class ModelReader implements AutoCloseable {
+
+	// size of a mapped window
+	private static final long WINDOW_SIZE = 1L << 28;
+	// size of the chunks that are checksummed and decoded at once
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	private final String filePath;
+	private final FileChannel channel;
+	private final long fileSize;
+	private final boolean mapped;
+
+	private final String modelClass;
+	private final Map<String, Entry> entries = new HashMap<>();
+
+	// current window of file data, starting at file position winPos
+	private ByteBuffer window;
+	private long winPos;
+
+	private final byte[] chunk = new byte[CHUNK_SIZE];
+	private final ByteBuffer chunkBuffer = ByteBuffer.wrap(chunk);
+	private final CRC32 crc = new CRC32();
+
+	/**
+	 * open a model file with memory-mapped reading
+	 */
+	public ModelReader(String filePath) throws IOException {
+		this(filePath, true);
+	}
+
+	/**
+	 * @param filePath
+	 *            path of the model file
+	 * @param mapped
+	 *            whether to memory-map the file, or to read it by channel reads
+	 */
+	public ModelReader(String filePath, boolean mapped) throws IOException {
+		this.filePath = filePath;
+		this.mapped = mapped;
+
+		channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+		fileSize = channel.size();
+
+		if (!mapped) {
+			window = ByteBuffer.allocateDirect(1 << 20);
+			window.limit(0);
+		}
+
+		modelClass = readIndex();
+	}
+
+	/**
+	 * read an in-memory model, e.g., a snapshot taken by {@link ModelWriter#toByteArray()}
+	 */
+	public ModelReader(byte[] data) throws IOException {
+		this.filePath = "<memory>";
+		this.mapped = false;
+
+		channel = null;
+		fileSize = data.length;
+		window = ByteBuffer.wrap(data);
+
+		modelClass = readIndex();
+	}
+
+	/**
+	 * check the header and index the entries
+	 *
+	 * @return name of the model class
+	 */
+	private String readIndex() throws IOException {
+		try {
+			seek(0);
+			if (getInt() != ModelWriter.MAGIC)
+				throw new IOException(filePath + " is not a model file");
+
+			int version = getInt();
+			if (version != ModelWriter.VERSION)
+				throw new IOException("Unsupported version " + version + " of model file " + filePath);
+
+			String modelClass = getString();
+
+			// index entries
+			while (true) {
+				long pos = position();
+				int len = getInt();
+				if (len == ModelWriter.END)
+					break;
+
+				seek(pos);
+				String name = getString();
+				byte type = get();
+				long size = getLong();
+
+				Entry en = new Entry(type, position(), size);
+				entries.put(name, en);
+
+				seek(en.offset + size + 8);
+			}
+
+			return modelClass;
+		} catch (IOException | RuntimeException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return name of the model (class) that has written this file
+	 */
+	public String getModelClass() {
+		return modelClass;
+	}
+
+	/**
+	 * @return whether an entry exists
+	 */
+	public boolean contains(String name) {
+		return entries.containsKey(name);
+	}
+
+	/**
+	 * @return names of all entries
+	 */
+	public List<String> getNames() {
+		return new ArrayList<>(entries.keySet());
+	}
+
+	/**
+	 * @return a scalar value, or the given default value if absent
+	 */
+	public double readDouble(String name, double val) throws IOException {
+		if (!begin(name, ModelWriter.DOUBLE))
+			return val;
+
+		val = readDouble();
+		end(name);
+
+		return val;
+	}
+
+	/**
+	 * @return a byte array, or null if absent
+	 */
+	public byte[] readBytes(String name) throws IOException {
+		if (!begin(name, ModelWriter.BYTES))
+			return null;
+
+		int n = readInt();
+		byte[] res = new byte[n];
+		for (int off = 0; off < n; off += CHUNK_SIZE) {
+			int k = Math.min(n - off, CHUNK_SIZE);
+			read(k);
+			System.arraycopy(chunk, 0, res, off, k);
+		}
+		end(name);
+
+		return res;
+	}
+
+	/**
+	 * @return an int array, or null if absent
+	 */
+	public int[] readIntArray(String name) throws IOException {
+		if (!begin(name, ModelWriter.INT_ARRAY))
+			return null;
+
+		int[] res = new int[readInt()];
+		readInts(res, 0, res.length);
+		end(name);
+
+		return res;
+	}
+
+	/**
+	 * @return a double array, or null if absent
+	 */
+	public double[] readDoubleArray(String name) throws IOException {
+		if (!begin(name, ModelWriter.DOUBLE_ARRAY))
+			return null;
+
+		double[] res = new double[readInt()];
+		readDoubles(res, 0, res.length);
+		end(name);
+
+		return res;
+	}
+
+	/**
+	 * @return a dense vector, or null if absent
+	 */
+	public DenseVector readDenseVector(String name) throws IOException {
+		if (!begin(name, ModelWriter.DENSE_VECTOR))
+			return null;
+
+		double[] data = new double[readInt()];
+		readDoubles(data, 0, data.length);
+		end(name);
+
+		return new DenseVector(data, false);
+	}
+
+	/**
+	 * @return a dense matrix, or null if absent
+	 */
+	public DenseMatrix readDenseMatrix(String name) throws IOException {
+		if (!begin(name, ModelWriter.DENSE_MATRIX))
+			return null;
+
+		int rows = readInt(), cols = readInt();
+		double[][] data = new double[rows][cols];
+		for (int i = 0; i < rows; i++)
+			readDoubles(data[i], 0, cols);
+		end(name);
+
+		return new DenseMatrix(data, rows, cols);
+	}
+
+	/**
+	 * @return an array of dense matrices written as entries {@code name[0], name[1], ...}, or null if absent
+	 */
+	public DenseMatrix[] readDenseMatrices(String name) throws IOException {
+		int n = 0;
+		while (contains(name + "[" + n + "]"))
+			n++;
+
+		if (n == 0)
+			return null;
+
+		DenseMatrix[] res = new DenseMatrix[n];
+		for (int i = 0; i < n; i++)
+			res[i] = readDenseMatrix(name + "[" + i + "]");
+
+		return res;
+	}
+
+	/**
+	 * @return a quantized matrix written as entries {@code name.shape}, blocks {@code name.data[b]} and
+	 *         {@code name.scales}, or null if absent
+	 */
+	public QuantizedMatrix readQuantizedMatrix(String name) throws IOException {
+		int[] shape = readIntArray(name + ".shape");
+		if (shape == null)
+			return null;
+
+		try {
+			QuantizedMatrix.Type type = QuantizedMatrix.Type.values()[shape[0]];
+
+			int n = 0;
+			while (contains(name + ".data[" + n + "]"))
+				n++;
+
+			byte[][] data = new byte[n][];
+			for (int b = 0; b < n; b++)
+				data[b] = readBytes(name + ".data[" + b + "]");
+
+			return QuantizedMatrix.of(type, shape[1], shape[2], data, readDoubleArray(name + ".scales"));
+		} catch (RuntimeException e) {
+			throw new IOException("Corrupted quantized matrix " + name + " in model file " + filePath, e);
+		}
+	}
+
+	/**
+	 * @return a sparse matrix (with both CRS and CCS structures), or null if absent
+	 */
+	public SparseMatrix readSparseMatrix(String name) throws IOException {
+		if (!begin(name, ModelWriter.SPARSE_MATRIX))
+			return null;
+
+		int rows = readInt(), cols = readInt(), nnz = readInt();
+		int[] rowPtr = new int[rows + 1];
+		int[] colInd = new int[nnz];
+		double[] rowData = new double[nnz];
+
+		readInts(rowPtr, 0, rowPtr.length);
+		readInts(colInd, 0, nnz);
+		readDoubles(rowData, 0, nnz);
+		end(name);
+
+		return new SparseMatrix(rows, cols, rowPtr, colInd, rowData);
+	}
+
+	/**
+	 * @return a symmetric matrix, or null if absent
+	 */
+	public SymmMatrix readSymmMatrix(String name) throws IOException {
+		if (!begin(name, ModelWriter.SYMM_MATRIX))
+			return null;
+
+		SymmMatrix res = new SymmMatrix(readInt());
+		for (int k = 0, n = readInt(); k < n; k++) {
+			int row = readInt();
+			int col = readInt();
+			res.set(row, col, readDouble());
+		}
+		end(name);
+
+		return res;
+	}
+
+	/**
+	 * @return a 3-dimensional double array, or null if absent
+	 */
+	public double[][][] readDoubleArray3(String name) throws IOException {
+		if (!begin(name, ModelWriter.DOUBLE_ARRAY3))
+			return null;
+
+		int d1 = readInt(), d2 = readInt(), d3 = readInt();
+		double[][][] res = new double[d1][d2][d3];
+		for (double[][] v2 : res)
+			for (double[] v3 : v2)
+				readDoubles(v3, 0, d3);
+		end(name);
+
+		return res;
+	}
+
+	/**
+	 * @return a data table, or null if absent
+	 */
+	public Table<Integer, Integer, Double> readTable(String name) throws IOException {
+		if (!begin(name, ModelWriter.TABLE))
+			return null;
+
+		Table<Integer, Integer, Double> res = HashBasedTable.create();
+		for (int k = 0, n = readInt(); k < n; k++) {
+			int row = readInt();
+			int col = readInt();
+			res.put(row, col, readDouble());
+		}
+		end(name);
+
+		return res;
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		if (channel != null)
+			channel.close();
+	}
+
+	/**
+	 * position at the payload of an entry
+	 *
+	 * @return false if the entry is absent
+	 */
+	private boolean begin(String name, byte type) throws IOException {
+		Entry en = entries.get(name);
+		if (en == null)
+			return false;
+
+		if (en.type != type)
+			throw new IOException("Entry " + name + " of model file " + filePath + " has type " + en.type
+					+ " rather than " + type);
+
+		seek(en.offset);
+		crc.reset();
+
+		return true;
+	}
+
+	/**
+	 * verify the checksum of an entry
+	 */
+	private void end(String name) throws IOException {
+		long expected = getLong();
+		if (crc.getValue() != expected)
+			throw new IOException("Checksum mismatch of entry " + name + " in model file " + filePath);
+	}
+
+	/* payload data: checksummed */
+
+	private int readInt() throws IOException {
+		read(4);
+		return chunkBuffer.getInt(0);
+	}
+
+	private double readDouble() throws IOException {
+		read(8);
+		return chunkBuffer.getDouble(0);
+	}
+
+	private void readInts(int[] vals, int from, int to) throws IOException {
+		while (from < to) {
+			int n = Math.min(to - from, CHUNK_SIZE / 4);
+			read(4 * n);
+			chunkBuffer.asIntBuffer().get(vals, from, n);
+			from += n;
+		}
+	}
+
+	private void readDoubles(double[] vals, int from, int to) throws IOException {
+		while (from < to) {
+			int n = Math.min(to - from, CHUNK_SIZE / 8);
+			read(8 * n);
+			chunkBuffer.asDoubleBuffer().get(vals, from, n);
+			from += n;
+		}
+	}
+
+	/**
+	 * read n bytes into the chunk and update the checksum
+	 */
+	private void read(int n) throws IOException {
+		for (int off = 0; off < n;) {
+			ensure(1);
+			int k = Math.min(n - off, window.remaining());
+			window.get(chunk, off, k);
+			off += k;
+		}
+		crc.update(chunk, 0, n);
+	}
+
+	/* structure data: not checksummed */
+
+	private byte get() throws IOException {
+		ensure(1);
+		return window.get();
+	}
+
+	private int getInt() throws IOException {
+		ensure(4);
+		return window.getInt();
+	}
+
+	private long getLong() throws IOException {
+		ensure(8);
+		return window.getLong();
+	}
+
+	private String getString() throws IOException {
+		int len = getInt();
+		if (len < 0 || len > fileSize)
+			throw new IOException("Corrupted model file " + filePath);
+
+		byte[] bytes = new byte[len];
+		for (int off = 0; off < len;) {
+			ensure(1);
+			int k = Math.min(len - off, window.remaining());
+			window.get(bytes, off, k);
+			off += k;
+		}
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/* windows */
+
+	private long position() {
+		return winPos + window.position();
+	}
+
+	/**
+	 * make sure there are at least n bytes remaining in the window
+	 */
+	private void ensure(int n) throws IOException {
+		if (window.remaining() < n)
+			seek(position());
+
+		if (window.remaining() < n)
+			throw new EOFException("Unexpected end of model file " + filePath);
+	}
+
+	/**
+	 * move the window to start at a given file position
+	 */
+	private void seek(long pos) throws IOException {
+		if (pos > fileSize)
+			throw new EOFException("Unexpected end of model file " + filePath);
+
+		// within the current window
+		if (window != null && pos >= winPos && pos < winPos + window.limit() && window.limit() - (pos - winPos) >= 8) {
+			window.position((int) (pos - winPos));
+			return;
+		}
+
+		// in memory: the window covers all data
+		if (channel == null) {
+			window.position((int) pos);
+			return;
+		}
+
+		winPos = pos;
+		if (mapped) {
+			window = channel.map(MapMode.READ_ONLY, pos, Math.min(WINDOW_SIZE, fileSize - pos));
+		} else {
+			window.clear();
+			while (window.hasRemaining()) {
+				int n = channel.read(window, pos + window.position());
+				if (n < 0)
+					break;
+			}
+			window.flip();
+		}
+	}
+
+	/**
+	 * an indexed entry
+	 */
+	private static class Entry {
+		final byte type;
+		final long offset, size;
+
+		Entry(byte type, long offset, long size) {
+			this.type = type;
+			this.offset = offset;
+			this.size = size;
+		}
+	}
+}
@@ -0,0 +1,518 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import librec.data.DenseMatrix;
+import librec.data.DenseVector;
+import librec.data.QuantizedMatrix;
+import librec.data.SparseMatrix;
+import librec.data.SymmMatrix;
+
+import com.google.common.collect.Table;
+import com.google.common.collect.Table.Cell;
+
+/**
+ * Writer of a binary model file, consisting of named entries (matrices, vectors, arrays and scalars) which are read
+ * back by {@link ModelReader}.
+ *
+ * <p>
+ * File layout (big-endian):
+ * </p>
+ * <ul>
+ * <li>header: {@code int magic, int version, string modelClass}</li>
+ * <li>entries: {@code string name, byte type, long payloadBytes, payload, long crc32(payload)}</li>
+ * <li>end mark: {@code int -1}</li>
+ * </ul>
+ * where a string is an {@code int} length followed by UTF-8 bytes. Numbers are written in bulk from the primitive
+ * arrays of the data structures, without any object serialization.
+ *
+ * <p>
+ * Data are written to a temporary file which replaces the target file only by {@link #commit()}, so that an existing
+ * model is never left half-written. Alternatively, data are kept in memory as a snapshot of the current state, which can
+ * be written to a file later (e.g., by another thread) using {@link #writeTo(String)}, or read back directly using
+ * {@link #toByteArray()}.
+ * </p>
+ */
+public class ModelWriter implements AutoCloseable {
+
+	/**
+	 * magic number ("LRMD") and version of the model format
+	 */
+	public static final int MAGIC = 0x4C524D44, VERSION = 1;
+
+	// entry types
+	static final byte DOUBLE = 1, INT_ARRAY = 2, DOUBLE_ARRAY = 3, DENSE_VECTOR = 4, DENSE_MATRIX = 5,
+			SPARSE_MATRIX = 6, SYMM_MATRIX = 7, DOUBLE_ARRAY3 = 8, TABLE = 9, BYTES = 10;
+
+	// end mark of entries
+	static final int END = -1;
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	// target and temporary files, or null for in-memory snapshots
+	private final Path target, temp;
+	private final FileChannel channel;
+	// written blocks of an in-memory snapshot
+	private final List<byte[]> blocks;
+	private final ByteBuffer buffer;
+	private final byte[] array;
+
+	private final CRC32 crc = new CRC32();
+	// start of the current payload in buffer, or -1 if not in a payload
+	private int crcFrom = -1;
+
+	private final Set<String> names = new HashSet<>();
+	private boolean committed;
+
+	// quantization of the factors of a saved model, or null for full precision
+	private QuantizedMatrix.Type quantization;
+
+	/**
+	 * @param filePath
+	 *            path of the model file
+	 * @param modelClass
+	 *            name of the model (class) written, checked when loading
+	 */
+	public ModelWriter(String filePath, String modelClass) throws IOException {
+		target = Paths.get(filePath);
+		temp = Paths.get(filePath + ".tmp");
+
+		channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		blocks = null;
+
+		array = new byte[BUFFER_SIZE];
+		buffer = ByteBuffer.wrap(array);
+
+		writeHeader(modelClass);
+	}
+
+	/**
+	 * Create an in-memory snapshot: all data are copied when written, so the source structures can be modified right
+	 * after, while the snapshot is written to a file by {@link #writeTo(String)}.
+	 *
+	 * @param modelClass
+	 *            name of the model (class) written, checked when loading
+	 */
+	public ModelWriter(String modelClass) throws IOException {
+		target = temp = null;
+		channel = null;
+		blocks = new ArrayList<>();
+
+		array = new byte[BUFFER_SIZE];
+		buffer = ByteBuffer.wrap(array);
+
+		writeHeader(modelClass);
+	}
+
+	private void writeHeader(String modelClass) throws IOException {
+		ensure(8);
+		buffer.putInt(MAGIC).putInt(VERSION);
+		putString(modelClass);
+	}
+
+	/**
+	 * set the quantization of the factor matrices of a model, e.g., to save a model for serving at a fraction of its
+	 * size; the model decides which matrices, if any, are quantized
+	 */
+	public void setQuantization(QuantizedMatrix.Type quantization) {
+		this.quantization = quantization;
+	}
+
+	/**
+	 * @return quantization of the factor matrices of a model, or null for full precision
+	 */
+	public QuantizedMatrix.Type getQuantization() {
+		return quantization;
+	}
+
+	/**
+	 * write a scalar value
+	 */
+	public void write(String name, double val) throws IOException {
+		begin(name, DOUBLE, 8);
+		putDouble(val);
+		end();
+	}
+
+	/**
+	 * write a byte array; ignored if null
+	 */
+	public void write(String name, byte[] vals) throws IOException {
+		if (vals == null)
+			return;
+
+		begin(name, BYTES, 4 + vals.length);
+		putInt(vals.length);
+		putBytes(vals);
+		end();
+	}
+
+	/**
+	 * write an int array; ignored if null
+	 */
+	public void write(String name, int[] vals) throws IOException {
+		if (vals == null)
+			return;
+
+		begin(name, INT_ARRAY, 4 + 4L * vals.length);
+		putInt(vals.length);
+		putInts(vals, 0, vals.length);
+		end();
+	}
+
+	/**
+	 * write a double array; ignored if null
+	 */
+	public void write(String name, double[] vals) throws IOException {
+		if (vals == null)
+			return;
+
+		begin(name, DOUBLE_ARRAY, 4 + 8L * vals.length);
+		putInt(vals.length);
+		putDoubles(vals, 0, vals.length);
+		end();
+	}
+
+	/**
+	 * write a dense vector; ignored if null
+	 */
+	public void write(String name, DenseVector vec) throws IOException {
+		if (vec == null)
+			return;
+
+		int size = vec.getData().length;
+		begin(name, DENSE_VECTOR, 4 + 8L * size);
+		putInt(size);
+		putDoubles(vec.getData(), 0, size);
+		end();
+	}
+
+	/**
+	 * write a dense matrix in row-major order; ignored if null
+	 */
+	public void write(String name, DenseMatrix mat) throws IOException {
+		if (mat == null)
+			return;
+
+		int rows = mat.numRows(), cols = mat.numColumns();
+		begin(name, DENSE_MATRIX, 8 + 8L * rows * cols);
+		putInt(rows);
+		putInt(cols);
+		for (int i = 0; i < rows; i++)
+			putDoubles(mat.row(i, false).getData(), 0, cols);
+		end();
+	}
+
+	/**
+	 * write the CRS structure of a sparse matrix; ignored if null
+	 */
+	public void write(String name, SparseMatrix mat) throws IOException {
+		if (mat == null)
+			return;
+
+		int rows = mat.numRows();
+		int[] rowPtr = mat.getRowPointers();
+		int nnz = rowPtr[rows];
+
+		begin(name, SPARSE_MATRIX, 12 + 4L * (rows + 1) + 12L * nnz);
+		putInt(rows);
+		putInt(mat.numColumns());
+		putInt(nnz);
+		putInts(rowPtr, 0, rows + 1);
+		putInts(mat.getColumnIndices(), 0, nnz);
+		putDoubles(mat.getData(), 0, nnz);
+		end();
+	}
+
+	/**
+	 * write the entries of a symmetric matrix; ignored if null
+	 */
+	public void write(String name, SymmMatrix mat) throws IOException {
+		if (mat == null)
+			return;
+
+		Table<Integer, Integer, Double> table = mat.getDataTable();
+		int n = table.size();
+		begin(name, SYMM_MATRIX, 8 + 16L * n);
+		putInt(mat.size());
+		putInt(n);
+		for (Cell<Integer, Integer, Double> cell : table.cellSet()) {
+			putInt(cell.getRowKey());
+			putInt(cell.getColumnKey());
+			putDouble(cell.getValue());
+		}
+		end();
+	}
+
+	/**
+	 * write a 3-dimensional double array, which must not be jagged; ignored if null
+	 */
+	public void write(String name, double[][][] vals) throws IOException {
+		if (vals == null)
+			return;
+
+		int d1 = vals.length, d2 = d1 > 0 ? vals[0].length : 0, d3 = d2 > 0 ? vals[0][0].length : 0;
+		begin(name, DOUBLE_ARRAY3, 12 + 8L * d1 * d2 * d3);
+		putInt(d1);
+		putInt(d2);
+		putInt(d3);
+		for (double[][] v2 : vals)
+			for (double[] v3 : v2)
+				putDoubles(v3, 0, d3);
+		end();
+	}
+
+	/**
+	 * write the cells of a data table; ignored if null
+	 */
+	public void write(String name, Table<Integer, Integer, Double> table) throws IOException {
+		if (table == null)
+			return;
+
+		int n = table.size();
+		begin(name, TABLE, 4 + 16L * n);
+		putInt(n);
+		for (Cell<Integer, Integer, Double> cell : table.cellSet()) {
+			putInt(cell.getRowKey());
+			putInt(cell.getColumnKey());
+			putDouble(cell.getValue());
+		}
+		end();
+	}
+
+	/**
+	 * write an array of dense matrices as entries {@code name[0], name[1], ...}; ignored if null
+	 */
+	public void write(String name, DenseMatrix[] mats) throws IOException {
+		if (mats == null)
+			return;
+
+		for (int i = 0; i < mats.length; i++)
+			write(name + "[" + i + "]", mats[i]);
+	}
+
+	/**
+	 * write a quantized matrix as entries {@code name.shape} (type, rows, columns), blocks {@code name.data[b]} and
+	 * {@code name.scales}; ignored if null
+	 */
+	public void write(String name, QuantizedMatrix mat) throws IOException {
+		if (mat == null)
+			return;
+
+		write(name + ".shape", new int[] { mat.getType().ordinal(), mat.numRows(), mat.numColumns() });
+		for (int b = 0; b < mat.numBlocks(); b++)
+			write(name + ".data[" + b + "]", mat.getData(b));
+		write(name + ".scales", mat.getScales());
+	}
+
+	/**
+	 * finish the file and atomically replace the target file by it; or finish an in-memory snapshot
+	 */
+	public void commit() throws IOException {
+		putInt(END);
+		flush();
+		committed = true;
+
+		if (channel == null)
+			return;
+
+		channel.force(false);
+		channel.close();
+
+		replace(temp, target);
+	}
+
+	/**
+	 * write a committed in-memory snapshot to a file, atomically replacing the file if existing
+	 */
+	public void writeTo(String filePath) throws IOException {
+		if (blocks == null || !committed)
+			throw new IllegalStateException("Only a committed snapshot can be written to a file");
+
+		Path to = Paths.get(filePath);
+		Path tmp = Paths.get(filePath + ".tmp");
+		try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (byte[] block : blocks) {
+				ByteBuffer bb = ByteBuffer.wrap(block);
+				while (bb.hasRemaining())
+					ch.write(bb);
+			}
+			ch.force(false);
+		}
+
+		replace(tmp, to);
+	}
+
+	/**
+	 * @return the content of a committed in-memory snapshot, which can be read back by
+	 *         {@link ModelReader#ModelReader(byte[])}
+	 */
+	public byte[] toByteArray() {
+		if (blocks == null || !committed)
+			throw new IllegalStateException("Only a committed snapshot can be converted to bytes");
+
+		long size = 0;
+		for (byte[] block : blocks)
+			size += block.length;
+		if (size > Integer.MAX_VALUE)
+			throw new IllegalStateException("Snapshot of " + size + " bytes is too large for an array");
+
+		byte[] res = new byte[(int) size];
+		int off = 0;
+		for (byte[] block : blocks) {
+			System.arraycopy(block, 0, res, off, block.length);
+			off += block.length;
+		}
+
+		return res;
+	}
+
+	private static void replace(Path from, Path to) throws IOException {
+		try {
+			Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * close the file; if not committed, the temporary file is discarded and the target file is left untouched
+	 */
+	@Override
+	public void close() throws IOException {
+		if (committed || channel == null)
+			return;
+
+		channel.close();
+		Files.deleteIfExists(temp);
+	}
+
+	private void begin(String name, byte type, long payloadBytes) throws IOException {
+		if (!names.add(name))
+			throw new IllegalArgumentException("Duplicated model entry: " + name);
+
+		putString(name);
+		ensure(9);
+		buffer.put(type).putLong(payloadBytes);
+
+		crc.reset();
+		crcFrom = buffer.position();
+	}
+
+	private void end() throws IOException {
+		crc.update(array, crcFrom, buffer.position() - crcFrom);
+		crcFrom = -1;
+
+		putLong(crc.getValue());
+	}
+
+	private void putString(String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		putInt(bytes.length);
+		putBytes(bytes);
+	}
+
+	private void putBytes(byte[] bytes) throws IOException {
+		for (int off = 0; off < bytes.length;) {
+			ensure(1);
+			int n = Math.min(bytes.length - off, buffer.remaining());
+			buffer.put(bytes, off, n);
+			off += n;
+		}
+	}
+
+	private void putInt(int val) throws IOException {
+		ensure(4);
+		buffer.putInt(val);
+	}
+
+	private void putLong(long val) throws IOException {
+		ensure(8);
+		buffer.putLong(val);
+	}
+
+	private void putDouble(double val) throws IOException {
+		ensure(8);
+		buffer.putDouble(val);
+	}
+
+	private void putInts(int[] vals, int from, int to) throws IOException {
+		while (from < to) {
+			ensure(4);
+			int n = Math.min(to - from, buffer.remaining() / 4);
+			buffer.asIntBuffer().put(vals, from, n);
+			buffer.position(buffer.position() + 4 * n);
+			from += n;
+		}
+	}
+
+	private void putDoubles(double[] vals, int from, int to) throws IOException {
+		while (from < to) {
+			ensure(8);
+			int n = Math.min(to - from, buffer.remaining() / 8);
+			buffer.asDoubleBuffer().put(vals, from, n);
+			buffer.position(buffer.position() + 8 * n);
+			from += n;
+		}
+	}
+
+	/**
+	 * make sure there are at least n bytes remaining in buffer
+	 */
+	private void ensure(int n) throws IOException {
+		if (buffer.remaining() < n)
+			flush();
+	}
+
+	private void flush() throws IOException {
+		// checksum the part of payload in buffer before it is overwritten
+		if (crcFrom >= 0) {
+			crc.update(array, crcFrom, buffer.position() - crcFrom);
+			crcFrom = 0;
+		}
+
+		if (channel == null) {
+			blocks.add(Arrays.copyOf(array, buffer.position()));
+		} else {
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -0,0 +1,209 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.io;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded ring buffer of result records with many producers and a single consumer. Records are kept in primitive
+ * arrays, so nothing is allocated per record. A group of records (e.g., all recommendations of a user) is published
+ * atomically, or in pieces while other producers wait if it does not fit into the ring, such that the records of a
+ * group are always consecutive. Producers block only while the ring is full, i.e., when the consumer cannot keep up
+ * (back-pressure).
+ *
+ * <p>
+ * The consumer calls {@link #take()} to get the end of all published records, reads the slots from its own position up
+ * to there without holding the lock, and then returns them by {@link #release(long)}.
+ * </p>
+ */
+class RecordRing {
+
+	// record flags
+	static final byte FIRST = 1, LAST = 2, CORRECT = 4;
+
+	final int capacity;
+
+	// record fields
+	final int[] users, items;
+	final double[] rates, scores;
+	final byte[] flags;
+
+	// positions (increasing) of the next record to consume, and to publish
+	private long head, tail;
+
+	// no more records will be published
+	private boolean closed;
+	// the consumer has failed, and records will be discarded
+	private boolean aborted;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	// held by a producer while publishing, such that groups published in pieces are not interleaved
+	private final ReentrantLock putLock = new ReentrantLock();
+	private final Condition notFull = lock.newCondition();
+	private final Condition notEmpty = lock.newCondition();
+
+	RecordRing(int capacity) {
+		this.capacity = capacity;
+
+		users = new int[capacity];
+		items = new int[capacity];
+		rates = new double[capacity];
+		scores = new double[capacity];
+		flags = new byte[capacity];
+	}
+
+	/**
+	 * @return slot of a given position
+	 */
+	int slot(long pos) {
+		return (int) (pos % capacity);
+	}
+
+	/**
+	 * publish a single record
+	 *
+	 * @return false if the consumer has aborted
+	 */
+	boolean put(int user, int item, double rate, double score) throws InterruptedException {
+		putLock.lock();
+		lock.lock();
+		try {
+			if (!awaitRoom(1))
+				return false;
+
+			int s = slot(tail++);
+			users[s] = user;
+			items[s] = item;
+			rates[s] = rate;
+			scores[s] = score;
+			flags[s] = FIRST | LAST;
+
+			notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+			putLock.unlock();
+		}
+	}
+
+	/**
+	 * publish the first {@code n} entries of the given arrays as one group of a user, in pieces of the ring capacity if
+	 * the group is larger than the ring
+	 *
+	 * @return false if the consumer has aborted
+	 */
+	boolean put(int user, int[] groupItems, double[] groupScores, boolean[] correct, int n)
+			throws InterruptedException {
+		putLock.lock();
+		lock.lock();
+		try {
+			for (int k = 0; k < n;) {
+				if (!awaitRoom(Math.min(n - k, capacity)))
+					return false;
+
+				for (int end = Math.min(n, k + capacity); k < end; k++) {
+					int s = slot(tail++);
+					users[s] = user;
+					items[s] = groupItems[k];
+					rates[s] = 0;
+					scores[s] = groupScores[k];
+
+					byte flag = 0;
+					if (k == 0)
+						flag |= FIRST;
+					if (k == n - 1)
+						flag |= LAST;
+					if (correct != null && correct[k])
+						flag |= CORRECT;
+					flags[s] = flag;
+				}
+
+				notEmpty.signal();
+			}
+			return true;
+		} finally {
+			lock.unlock();
+			putLock.unlock();
+		}
+	}
+
+	private boolean awaitRoom(int n) throws InterruptedException {
+		while (!aborted && tail + n - head > capacity)
+			notFull.await();
+
+		return !aborted;
+	}
+
+	/**
+	 * wait until some records are published
+	 *
+	 * @return the (exclusive) end position of the published records, or -1 if the ring is closed and drained
+	 */
+	long take() throws InterruptedException {
+		lock.lock();
+		try {
+			while (head == tail && !closed)
+				notEmpty.await();
+
+			return head == tail ? -1 : tail;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * free the slots of records before a given position
+	 */
+	void release(long pos) {
+		lock.lock();
+		try {
+			head = pos;
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * no more records will be published
+	 */
+	void close() {
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * the consumer has failed: release all waiting producers
+	 */
+	void abort() {
+		lock.lock();
+		try {
+			aborted = true;
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
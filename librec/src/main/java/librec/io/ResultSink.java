@@ -0,0 +1,427 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.io;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import librec.data.DataDAO;
+
+/**
+ * Sink of recommendation results, i.e., rating predictions or top-N item recommendations. Evaluation threads publish
+ * records into a ring buffer, and a dedicated writer thread encodes them into a large direct buffer which is written
+ * to a single open {@link FileChannel}. Evaluation threads thus never wait for the disk, unless the ring is full.
+ *
+ * <p>
+ * Two formats are supported:
+ * </p>
+ * <ul>
+ * <li>{@link Format#TEXT}: one line per prediction ({@code userId itemId rating prediction}), or per user for
+ * recommendations ({@code userId: (itemId, score), ...}, where a correct recommendation is denoted by symbol *), using
+ * the original user/item ids.</li>
+ * <li>{@link Format#BINARY}: a header of {@code int magic, int version, int kind}, followed by fixed-size records
+ * {@code (int userIdx, int itemIdx, float score)} in big-endian order, using the inner user/item indices.
+ * Recommendations of a user are stored as consecutive records in ranking order.</li>
+ * </ul>
+ */
+public class ResultSink extends Thread {
+
+	/**
+	 * output formats
+	 */
+	public enum Format {
+		TEXT, BINARY;
+
+		/**
+		 * @return file extension of this format
+		 */
+		public String extension() {
+			return this == TEXT ? ".txt" : ".bin";
+		}
+	}
+
+	/**
+	 * kinds of results
+	 */
+	public enum Kind {
+		RATINGS, RANKINGS
+	}
+
+	/**
+	 * magic number ("LRRS") and version of the binary format
+	 */
+	public static final int MAGIC = 0x4C525253, VERSION = 1;
+
+	/**
+	 * size of a binary record in bytes
+	 */
+	public static final int RECORD_BYTES = 12;
+
+	// default capacity of the ring, in records
+	private static final int RING_CAPACITY = 1 << 16;
+	// maximum number of rating predictions buffered by a batch
+	private static final int BATCH_CAPACITY = 1 << 14;
+	// size of the direct output buffer
+	private static final int BUFFER_SIZE = 4 << 20;
+
+	private final String filePath;
+	private final Format format;
+	private final Kind kind;
+	private final String header;
+	private final DataDAO dao;
+
+	private final RecordRing ring;
+
+	// used by the writer thread only
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private CharsetEncoder encoder;
+	private StringBuilder sb;
+
+	// exception raised by the writer thread, if any
+	private volatile Exception error;
+
+	// batches of rating predictions completed ahead of their turn, and the index of the next batch to publish
+	private final Map<Integer, RatingBatch> pendingBatches = new HashMap<>();
+	private int nextBatch;
+
+	/**
+	 * @param filePath
+	 *            output file, overwritten if existing
+	 * @param format
+	 *            output format
+	 * @param kind
+	 *            kind of results
+	 * @param header
+	 *            header line of text files, ignored if null or in binary format
+	 * @param dao
+	 *            data DAO to restore original user/item ids in text format
+	 */
+	public ResultSink(String filePath, Format format, Kind kind, String header, DataDAO dao) {
+		this(filePath, format, kind, header, dao, RING_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            capacity of the ring buffer in records, i.e., the maximum number of records waiting to be written
+	 */
+	public ResultSink(String filePath, Format format, Kind kind, String header, DataDAO dao, int capacity) {
+		super("ResultSink-" + filePath);
+		setDaemon(true);
+
+		this.filePath = filePath;
+		this.format = format;
+		this.kind = kind;
+		this.header = header;
+		this.dao = dao;
+
+		ring = new RecordRing(capacity);
+	}
+
+	/**
+	 * publish a rating prediction
+	 *
+	 * @param user
+	 *            user index
+	 * @param item
+	 *            item index
+	 * @param rate
+	 *            ground-truth rating
+	 * @param pred
+	 *            predicted rating
+	 */
+	public void putRating(int user, int item, double rate, double pred) throws Exception {
+		if (!ring.put(user, item, rate, pred))
+			throw error;
+	}
+
+	/**
+	 * Create the batch of rating predictions of the index-th partition of test data. Batches are published in the order
+	 * of partitions regardless of the threads evaluating them: the batch in turn is published in chunks as it fills
+	 * up; a batch completed ahead of its turn is kept until the preceding ones are published, and a batch filled up
+	 * ahead of its turn waits for it. Hence at most one chunk of each partition is kept in memory.
+	 *
+	 * @param index
+	 *            index of the partition, starting from 0
+	 * @return batch to be closed by {@link RatingBatch#close()} once all predictions of the partition are added, also
+	 *         if the evaluation fails
+	 */
+	public RatingBatch newRatingBatch(int index) {
+		return new RatingBatch(this, index);
+	}
+
+	/**
+	 * publish the buffered predictions of a batch once it is in turn
+	 *
+	 * @param isLast
+	 *            whether the batch is completed
+	 */
+	private void putRatings(RatingBatch batch, boolean isLast) throws Exception {
+		if (!isLast)
+			ForkJoinPool.managedBlock(batch);
+
+		synchronized (this) {
+			if (error != null)
+				throw error;
+
+			if (batch.index != nextBatch) {
+				// completed ahead of its turn
+				pendingBatches.put(batch.index, batch);
+				return;
+			}
+
+			try {
+				batch.publish();
+				if (isLast) {
+					nextBatch++;
+					while ((batch = pendingBatches.remove(nextBatch)) != null) {
+						batch.publish();
+						nextBatch++;
+					}
+				}
+			} finally {
+				// wake up the batches waiting for their turn, or for the failure of the writer
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * @return whether the batch of the index-th partition is in turn, or the writer has failed
+	 */
+	private synchronized boolean isTurn(int index) {
+		return index == nextBatch || error != null;
+	}
+
+	/**
+	 * publish the top-n recommendations of a user, in ranking order
+	 *
+	 * @param user
+	 *            user index
+	 * @param items
+	 *            recommended item indices
+	 * @param scores
+	 *            ranking scores of items
+	 * @param correct
+	 *            whether items are correct recommendations; null if unknown
+	 * @param n
+	 *            number of recommendations to output, taken from the beginning of the arrays
+	 */
+	public void putRanking(int user, int[] items, double[] scores, boolean[] correct, int n) throws Exception {
+		if (n <= 0)
+			return;
+
+		if (!ring.put(user, items, scores, correct, n))
+			throw error;
+	}
+
+	/**
+	 * wait for all published records to be written, and close the file
+	 */
+	public void close() throws Exception {
+		ring.close();
+		join();
+
+		if (error != null)
+			throw error;
+	}
+
+	@Override
+	public void run() {
+		try (FileChannel ch = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+			channel = ch;
+			buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			encoder = StandardCharsets.UTF_8.newEncoder();
+			sb = new StringBuilder(256);
+
+			writeHeader();
+
+			long head = 0, end;
+			while ((end = ring.take()) >= 0) {
+				for (long pos = head; pos < end; pos++) {
+					int s = ring.slot(pos);
+					if (format == Format.BINARY)
+						writeBinary(s);
+					else
+						writeText(s);
+				}
+
+				ring.release(end);
+				head = end;
+			}
+
+			flush();
+
+		} catch (Exception e) {
+			error = e;
+			ring.abort();
+		}
+	}
+
+	private void writeHeader() throws Exception {
+		if (format == Format.BINARY) {
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(kind.ordinal());
+		} else if (header != null) {
+			sb.setLength(0);
+			sb.append(header).append('\n');
+			encode();
+		}
+	}
+
+	private void writeBinary(int s) throws Exception {
+		if (buffer.remaining() < RECORD_BYTES)
+			flush();
+
+		buffer.putInt(ring.users[s]).putInt(ring.items[s]).putFloat((float) ring.scores[s]);
+	}
+
+	private void writeText(int s) throws Exception {
+		byte flag = ring.flags[s];
+		sb.setLength(0);
+
+		if (kind == Kind.RATINGS) {
+			// restore back to the original user/item id
+			sb.append(dao.getUserId(ring.users[s])).append(' ').append(dao.getItemId(ring.items[s])).append(' ')
+					.append(ring.rates[s]).append(' ').append((float) ring.scores[s]).append('\n');
+		} else {
+			if ((flag & RecordRing.FIRST) != 0)
+				sb.append(dao.getUserId(ring.users[s])).append(": ");
+
+			sb.append('(').append(dao.getItemId(ring.items[s]));
+			if ((flag & RecordRing.CORRECT) != 0)
+				sb.append('*'); // indicating correct recommendation
+			sb.append(", ").append((float) ring.scores[s]).append(')');
+
+			sb.append((flag & RecordRing.LAST) != 0 ? "\n" : ", ");
+		}
+
+		encode();
+	}
+
+	/**
+	 * encode the content of string builder into the output buffer
+	 */
+	private void encode() throws Exception {
+		CharBuffer cb = CharBuffer.wrap(sb);
+		while (true) {
+			CoderResult cr = encoder.encode(cb, buffer, true);
+			if (cr.isOverflow())
+				flush();
+			else if (cr.isError())
+				cr.throwException();
+			else
+				break;
+		}
+		encoder.reset();
+	}
+
+	/**
+	 * write out the output buffer
+	 */
+	private void flush() throws Exception {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Rating predictions of a partition of test data, buffered in the order they are made, up to a chunk of
+	 * predictions (cf. {@link ResultSink#newRatingBatch(int)})
+	 */
+	public static class RatingBatch implements ForkJoinPool.ManagedBlocker {
+
+		private final ResultSink sink;
+		private final int index;
+
+		private int size;
+		private int[] users = new int[64], items = new int[64];
+		private double[] rates = new double[64], preds = new double[64];
+
+		private RatingBatch(ResultSink sink, int index) {
+			this.sink = sink;
+			this.index = index;
+		}
+
+		/**
+		 * add a rating prediction, and publish the chunk if full
+		 */
+		public void putRating(int user, int item, double rate, double pred) throws Exception {
+			if (size == users.length) {
+				if (size >= BATCH_CAPACITY) {
+					sink.putRatings(this, false);
+				} else {
+					int capacity = 2 * size;
+					users = Arrays.copyOf(users, capacity);
+					items = Arrays.copyOf(items, capacity);
+					rates = Arrays.copyOf(rates, capacity);
+					preds = Arrays.copyOf(preds, capacity);
+				}
+			}
+
+			users[size] = user;
+			items[size] = item;
+			rates[size] = rate;
+			preds[size] = pred;
+			size++;
+		}
+
+		/**
+		 * publish the remaining predictions, and pass the turn to the next partition
+		 */
+		public void close() throws Exception {
+			sink.putRatings(this, true);
+		}
+
+		/**
+		 * write the buffered predictions into the ring, called by the sink in turn
+		 */
+		private void publish() throws Exception {
+			for (int k = 0; k < size; k++)
+				sink.putRating(users[k], items[k], rates[k], preds[k]);
+			size = 0;
+		}
+
+		@Override
+		public boolean isReleasable() {
+			return sink.isTurn(index);
+		}
+
+		@Override
+		public boolean block() throws InterruptedException {
+			synchronized (sink) {
+				while (!sink.isTurn(index))
+					sink.wait();
+			}
+			return true;
+		}
+	}
+}
@@ -18,6 +18,8 @@
 
 package librec.main;
 
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -25,6 +27,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
 import librec.baseline.ConstantGuess;
@@ -46,9 +49,8 @@ import librec.ext.NMF;
 import librec.ext.PD;
 import librec.ext.PRankD;
 import librec.ext.SlopeOne;
-import librec.intf.GraphicRecommender;
-import librec.intf.IterativeRecommender;
 import librec.intf.Recommender;
+import librec.intf.RecommenderContext;
 import librec.metric.AvgMetricCollection;
 import librec.metric.MetricCollection;
 import librec.ranking.BHfree;
@@ -85,6 +87,7 @@ import librec.rating.TrustMF;
 import librec.rating.TrustSVD;
 import librec.rating.URP;
 import librec.rating.UserKNN;
+import librec.util.ComputePool;
 import librec.util.Dates;
 import librec.util.EMailer;
 import librec.util.FileConfiger;
@@ -129,6 +132,11 @@ public class LibRec {
 	// rating, timestamp matrix
 	protected SparseMatrix rateMatrix, timeMatrix;
 
+	// context of recommenders: configuration and data set of the current run
+	protected RecommenderContext context;
+	// data set of the context, to be shared by successive runs over the same data set
+	protected String dataKey;
+
 	/**
 	 * run the LibRec library
 	 */
@@ -162,6 +170,14 @@ public class LibRec {
 	 * read input data
 	 */
 	protected void readData() throws Exception {
+		// share the data set loaded by the previous run, if the same
+		String key = cf.getPath("dataset.ratings") + "|" + cf.getString("ratings.setup") + "|"
+				+ cf.getPath("dataset.social");
+		if (context != null && key.equals(dataKey)) {
+			context = context.withConfig(cf, FileIO.makeDirectory(tempDirPath));
+			return;
+		}
+
 		// DAO object
 		rateDao = new DataDAO(cf.getPath("dataset.ratings"));
 
@@ -189,40 +205,33 @@ public class LibRec {
 		rateMatrix = data[0];
 		timeMatrix = data[1];
 
-		Recommender.rateMatrix = rateMatrix;
-		Recommender.timeMatrix = timeMatrix;
-		Recommender.rateDao = rateDao;
-		Recommender.binThold = binThold;
+		context = new RecommenderContext(cf, FileIO.makeDirectory(tempDirPath), rateDao, rateMatrix, timeMatrix, binThold);
+		dataKey = key;
 	}
 
 	/**
-	 * reset general (and static) settings
+	 * reset general settings
 	 */
 	protected void preset(String configFile) throws Exception {
 
 		// a new configer
 		cf = new FileConfiger(configFile);
 
-		// seeding the general recommender
-		Recommender.cf = cf;
-
-		// reset recommenders' static properties 
-		Recommender.resetStatics = true;
-		IterativeRecommender.resetStatics = true;
-		GraphicRecommender.resetStatics = true;
-
 		// LibRec outputs
 		outputOptions = cf.getParamOptions("output.setup");
 		if (outputOptions != null) {
 			tempDirPath = outputOptions.getString("-dir", "./Results/");
 		}
 
-		// make output directory
-		Recommender.tempDirPath = FileIO.makeDirectory(tempDirPath);
-
 		// initialize random seed 
 		LineConfiger evalOptions = cf.getParamOptions("evaluation.setup");
 		Randoms.seed(evalOptions.getLong("--rand-seed", System.currentTimeMillis())); // initial random seed
+
+		// size the shared compute pool, once per process
+		int numCPUs = evalOptions.getInt("-cpu", Runtime.getRuntime().availableProcessors());
+		if (!ComputePool.setParallelism(numCPUs))
+			Logs.warn("The compute pool is in use with {} threads, option -cpu {} is ignored", ComputePool.parallelism(),
+					numCPUs);
 	}
 
 	/**
@@ -272,6 +281,12 @@ public class LibRec {
 			System.exit(0);
 		}
 
+		if (paramOptions.contains("--serve")) {
+			// serve the model saved by option "--save-model"
+			serve(paramOptions);
+			System.exit(0);
+		}
+
 		if (paramOptions.contains("--dataset-spec")) {
 			for (String configFile : configFiles) {
 				// print out data set specification
@@ -348,6 +363,31 @@ public class LibRec {
 
 	}
 
+	/**
+	 * Load the model of the first configuration, saved by option "--save-model", and serve it over a local HTTP
+	 * endpoint until the JVM is shut down. Options: "-fold" of the model (default: the model learned by all data or a
+	 * given test set), "-host" and "-port" to listen on, "-threads" of workers, "-batch" users per request at most, and
+	 * "-n" items recommended by default.
+	 */
+	protected void serve(LineConfiger serveOptions) throws Exception {
+		preset(configFiles.get(0));
+		readData();
+
+		Recommender algo = getRecommender(new SparseMatrix[] { rateMatrix, rateMatrix }, serveOptions.getInt("-fold", -1));
+		algo.loadModel();
+		algo.prepareServing();
+
+		String host = serveOptions.getString("-host");
+		InetSocketAddress address = host == null ? new InetSocketAddress(InetAddress.getLoopbackAddress(),
+				serveOptions.getInt("-port", 8080)) : new InetSocketAddress(host, serveOptions.getInt("-port", 8080));
+
+		RecommenderServer server = new RecommenderServer(algo, rateDao, address, serveOptions.getInt("-threads",
+				Runtime.getRuntime().availableProcessors()), serveOptions.getInt("-batch", 256), serveOptions.getInt(
+				"-n", 10));
+		server.start();
+		server.await();
+	}
+
 	/**
 	 * write a matrix data into a file
 	 */
@@ -439,7 +479,7 @@ public class LibRec {
 
 			SparseMatrix[] testData = testDao.readData(columns, binThold);
 			data = new SparseMatrix[] { rateMatrix, testData[0] };
-			Recommender.testTimeMatrix = testData[1];
+			context.setTestTimeMatrix(testData[1]);
 			break;
 		case "given-n":
 			N = evalOptions.getInt("-N", 20);
@@ -495,8 +535,8 @@ public class LibRec {
 
 		DataSplitter ds = new DataSplitter(rateMatrix, kFold);
 
-		Thread[] ts = new Thread[kFold];
 		Recommender[] algos = new Recommender[kFold];
+		List<Callable<Void>> folds = new ArrayList<>(kFold);
 
         // average performance of k-fold
         AvgMetricCollection avgMeasures = null;
@@ -509,16 +549,15 @@ public class LibRec {
             }
 
             algos[i] = algo;
-			ts[i] = new Thread(algo);
-			ts[i].start();
+			folds.add(foldTask(algo));
 
 			if (!isParallelFold)
-				ts[i].join();
+				algo.execute();
 		}
 
+		// parallel folds share the compute pool with their inner parallel loops
 		if (isParallelFold)
-			for (Thread t : ts)
-				t.join();
+			ComputePool.invokeAll(folds);
 
 		for (Recommender algo : algos) {
             avgMeasures.updateFromMeasures(algo.measures);
@@ -534,10 +573,10 @@ public class LibRec {
 	 */
 	private void runLeaveOneOut(LineConfiger params) throws Exception {
 
-		int numThreads = params.getInt("-t", Runtime.getRuntime().availableProcessors()); // default by number of processors
+		int numThreads = params.getInt("-t", ComputePool.parallelism()); // default by the size of compute pool
 
-		Thread[] ts = new Thread[numThreads];
 		Recommender[] algos = new Recommender[numThreads];
+		List<Callable<Void>> folds = new ArrayList<>(numThreads);
 		// average performance of k-fold
 		AvgMetricCollection avgMeasures = null;
 
@@ -573,31 +612,19 @@ public class LibRec {
 			}
 
 			algos[count] = algo;
-			ts[count] = new Thread(algo);
-			ts[count].start();
-
-			if (numThreads == 1) {
-				ts[count].join(); // fold by fold
-
-				avgMeasures.updateFromMeasures(algo.measures);
-
-			} else if (count < numThreads) {
-				count++;
-			}
+			folds.add(foldTask(algo));
+			count++;
 
 			if (count == numThreads) {
-				// parallel fold
-				for (Thread t : ts)
-					t.join();
+				runFolds(folds, algos, count, avgMeasures);
 				count = 0;
-
-				// record performance
-				for (Recommender algo2 : algos) {
-					avgMeasures.updateFromMeasures(algo2.measures);
-				}
 			}
 		}
 
+		// the remaining folds
+		if (count > 0)
+			runFolds(folds, algos, count, avgMeasures);
+
 		// normalization
 		int size = rateMatrix.size();
 		avgMeasures.compute(size);
@@ -605,6 +632,32 @@ public class LibRec {
 		printEvalInfo(algos[0], avgMeasures);
 	}
 
+	/**
+	 * run a batch of folds in the compute pool, and record their performance
+	 */
+	private void runFolds(List<Callable<Void>> folds, Recommender[] algos, int count, AvgMetricCollection avgMeasures)
+			throws Exception {
+		ComputePool.invokeAll(folds);
+		folds.clear();
+
+		for (int k = 0; k < count; k++)
+			avgMeasures.updateFromMeasures(algos[k].measures);
+	}
+
+	/**
+	 * @return a task to execute a recommender
+	 */
+	private static Callable<Void> foldTask(final Recommender algo) {
+		return new Callable<Void>() {
+
+			@Override
+			public Void call() throws Exception {
+				algo.execute();
+				return null;
+			}
+		};
+	}
+
 	/**
 	 * print out the evaluation information for a specific algorithm
 	 */
@@ -738,121 +791,127 @@ public class LibRec {
 		// output data
 		writeData(trainMatrix, testMatrix, fold);
 
-		switch (algorithm.toLowerCase()) {
-
-		/* baselines */
-		case "globalavg":
-			return new GlobalAverage(trainMatrix, testMatrix, fold);
-		case "useravg":
-			return new UserAverage(trainMatrix, testMatrix, fold);
-		case "itemavg":
-			return new ItemAverage(trainMatrix, testMatrix, fold);
-		case "usercluster":
-			return new UserCluster(trainMatrix, testMatrix, fold);
-		case "itemcluster":
-			return new ItemCluster(trainMatrix, testMatrix, fold);
-		case "random":
-			return new RandomGuess(trainMatrix, testMatrix, fold);
-		case "constant":
-			return new ConstantGuess(trainMatrix, testMatrix, fold);
-		case "mostpop":
-			return new MostPopular(trainMatrix, testMatrix, fold);
-
-			/* rating prediction */
-		case "userknn":
-			return new UserKNN(trainMatrix, testMatrix, fold);
-		case "itemknn":
-			return new ItemKNN(trainMatrix, testMatrix, fold);
-		case "itembigram":
-			return new ItemBigram(trainMatrix, testMatrix, fold);
-		case "regsvd":
-			return new PMF(trainMatrix, testMatrix, fold);
-		case "rfrec":
-			return new RfRec(trainMatrix, testMatrix, fold);
-		case "biasedmf":
-			return new BiasedMF(trainMatrix, testMatrix, fold);
-		case "gplsa":
-			return new GPLSA(trainMatrix, testMatrix, fold);
-		case "svd++":
-			return new SVDPlusPlus(trainMatrix, testMatrix, fold);
-		case "timesvd++":
-			return new TimeSVD(trainMatrix, testMatrix, fold);
-		case "pmf":
-			return new PMF(trainMatrix, testMatrix, fold);
-		case "bpmf":
-			return new BPMF(trainMatrix, testMatrix, fold);
-		case "socialmf":
-			return new SocialMF(trainMatrix, testMatrix, fold);
-		case "trustmf":
-			return new TrustMF(trainMatrix, testMatrix, fold);
-		case "sorec":
-			return new SoRec(trainMatrix, testMatrix, fold);
-		case "soreg":
-			return new SoReg(trainMatrix, testMatrix, fold);
-		case "rste":
-			return new RSTE(trainMatrix, testMatrix, fold);
-		case "trustsvd":
-			return new TrustSVD(trainMatrix, testMatrix, fold);
-		case "urp":
-			return new URP(trainMatrix, testMatrix, fold);
-		case "ldcc":
-			return new LDCC(trainMatrix, testMatrix, fold);
-		case "cptf":
-			return new CPTF(trainMatrix, testMatrix, fold);
-
-			/* item ranking */
-		case "climf":
-			return new CLiMF(trainMatrix, testMatrix, fold);
-		case "fismrmse":
-			return new FISMrmse(trainMatrix, testMatrix, fold);
-		case "fism":
-		case "fismauc":
-			return new FISMauc(trainMatrix, testMatrix, fold);
-		case "lrmf":
-			return new LRMF(trainMatrix, testMatrix, fold);
-		case "rankals":
-			return new RankALS(trainMatrix, testMatrix, fold);
-		case "ranksgd":
-			return new RankSGD(trainMatrix, testMatrix, fold);
-		case "wrmf":
-			return new WRMF(trainMatrix, testMatrix, fold);
-		case "bpr":
-			return new BPR(trainMatrix, testMatrix, fold);
-		case "wbpr":
-			return new WBPR(trainMatrix, testMatrix, fold);
-		case "gbpr":
-			return new GBPR(trainMatrix, testMatrix, fold);
-		case "sbpr":
-			return new SBPR(trainMatrix, testMatrix, fold);
-		case "slim":
-			return new SLIM(trainMatrix, testMatrix, fold);
-		case "lda":
-			return new LDA(trainMatrix, testMatrix, fold);
-
-			/* extension */
-		case "nmf":
-			return new NMF(trainMatrix, testMatrix, fold);
-		case "hybrid":
-			return new Hybrid(trainMatrix, testMatrix, fold);
-		case "slopeone":
-			return new SlopeOne(trainMatrix, testMatrix, fold);
-		case "pd":
-			return new PD(trainMatrix, testMatrix, fold);
-		case "ar":
-			return new AR(trainMatrix, testMatrix, fold);
-		case "prankd":
-			return new PRankD(trainMatrix, testMatrix, fold);
-		case "external":
-			return new External(trainMatrix, testMatrix, fold);
-
-			/* both tasks */
-		case "bucm":
-			return new BUCM(trainMatrix, testMatrix, fold);
-		case "bhfree":
-			return new BHfree(trainMatrix, testMatrix, fold);
+		// recommenders read their settings and data from the context
+		RecommenderContext prev = context.enter();
+		try {
+			switch (algorithm.toLowerCase()) {
+
+			/* baselines */
+			case "globalavg":
+				return new GlobalAverage(trainMatrix, testMatrix, fold);
+			case "useravg":
+				return new UserAverage(trainMatrix, testMatrix, fold);
+			case "itemavg":
+				return new ItemAverage(trainMatrix, testMatrix, fold);
+			case "usercluster":
+				return new UserCluster(trainMatrix, testMatrix, fold);
+			case "itemcluster":
+				return new ItemCluster(trainMatrix, testMatrix, fold);
+			case "random":
+				return new RandomGuess(trainMatrix, testMatrix, fold);
+			case "constant":
+				return new ConstantGuess(trainMatrix, testMatrix, fold);
+			case "mostpop":
+				return new MostPopular(trainMatrix, testMatrix, fold);
+
+				/* rating prediction */
+			case "userknn":
+				return new UserKNN(trainMatrix, testMatrix, fold);
+			case "itemknn":
+				return new ItemKNN(trainMatrix, testMatrix, fold);
+			case "itembigram":
+				return new ItemBigram(trainMatrix, testMatrix, fold);
+			case "regsvd":
+				return new PMF(trainMatrix, testMatrix, fold);
+			case "rfrec":
+				return new RfRec(trainMatrix, testMatrix, fold);
+			case "biasedmf":
+				return new BiasedMF(trainMatrix, testMatrix, fold);
+			case "gplsa":
+				return new GPLSA(trainMatrix, testMatrix, fold);
+			case "svd++":
+				return new SVDPlusPlus(trainMatrix, testMatrix, fold);
+			case "timesvd++":
+				return new TimeSVD(trainMatrix, testMatrix, fold);
+			case "pmf":
+				return new PMF(trainMatrix, testMatrix, fold);
+			case "bpmf":
+				return new BPMF(trainMatrix, testMatrix, fold);
+			case "socialmf":
+				return new SocialMF(trainMatrix, testMatrix, fold);
+			case "trustmf":
+				return new TrustMF(trainMatrix, testMatrix, fold);
+			case "sorec":
+				return new SoRec(trainMatrix, testMatrix, fold);
+			case "soreg":
+				return new SoReg(trainMatrix, testMatrix, fold);
+			case "rste":
+				return new RSTE(trainMatrix, testMatrix, fold);
+			case "trustsvd":
+				return new TrustSVD(trainMatrix, testMatrix, fold);
+			case "urp":
+				return new URP(trainMatrix, testMatrix, fold);
+			case "ldcc":
+				return new LDCC(trainMatrix, testMatrix, fold);
+			case "cptf":
+				return new CPTF(trainMatrix, testMatrix, fold);
+
+				/* item ranking */
+			case "climf":
+				return new CLiMF(trainMatrix, testMatrix, fold);
+			case "fismrmse":
+				return new FISMrmse(trainMatrix, testMatrix, fold);
+			case "fism":
+			case "fismauc":
+				return new FISMauc(trainMatrix, testMatrix, fold);
+			case "lrmf":
+				return new LRMF(trainMatrix, testMatrix, fold);
+			case "rankals":
+				return new RankALS(trainMatrix, testMatrix, fold);
+			case "ranksgd":
+				return new RankSGD(trainMatrix, testMatrix, fold);
+			case "wrmf":
+				return new WRMF(trainMatrix, testMatrix, fold);
+			case "bpr":
+				return new BPR(trainMatrix, testMatrix, fold);
+			case "wbpr":
+				return new WBPR(trainMatrix, testMatrix, fold);
+			case "gbpr":
+				return new GBPR(trainMatrix, testMatrix, fold);
+			case "sbpr":
+				return new SBPR(trainMatrix, testMatrix, fold);
+			case "slim":
+				return new SLIM(trainMatrix, testMatrix, fold);
+			case "lda":
+				return new LDA(trainMatrix, testMatrix, fold);
+
+				/* extension */
+			case "nmf":
+				return new NMF(trainMatrix, testMatrix, fold);
+			case "hybrid":
+				return new Hybrid(trainMatrix, testMatrix, fold);
+			case "slopeone":
+				return new SlopeOne(trainMatrix, testMatrix, fold);
+			case "pd":
+				return new PD(trainMatrix, testMatrix, fold);
+			case "ar":
+				return new AR(trainMatrix, testMatrix, fold);
+			case "prankd":
+				return new PRankD(trainMatrix, testMatrix, fold);
+			case "external":
+				return new External(trainMatrix, testMatrix, fold);
+
+				/* both tasks */
+			case "bucm":
+				return new BUCM(trainMatrix, testMatrix, fold);
+			case "bhfree":
+				return new BHfree(trainMatrix, testMatrix, fold);
 
-		default:
-			throw new Exception("No recommender is specified!");
+			default:
+				throw new Exception("No recommender is specified!");
+			}
+		} finally {
+			RecommenderContext.exit(prev);
 		}
 	}
 
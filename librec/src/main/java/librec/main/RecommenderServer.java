@@ -0,0 +1,462 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.main;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import librec.data.DataDAO;
+import librec.data.DenseVector;
+import librec.data.SparseVector;
+import librec.intf.Recommender;
+import librec.util.ComputePool;
+import librec.util.LatencyHistogram;
+import librec.util.Logs;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Long-lived server of a loaded recommender model, answering requests over a local HTTP endpoint (JSON responses):
+ *
+ * <ul>
+ * <li>{@code GET /recommend?user=u1,u2,...&n=10}: top-n items of each user, excluding the items rated in training. A
+ * batch of users is scored in parallel by the compute pool.</li>
+ * <li>{@code GET /score?user=u&item=i1,i2,...}: predictions of the given items for a user.</li>
+ * <li>{@code GET /foldin?ratings=i1:r1,i2:r2,...&n=10}: top-n items of a new (or updated) user given by the ratings
+ * (1 if omitted), excluding the rated items. The user is folded into the model without retraining it.</li>
+ * <li>{@code GET /stats}: number of requests and percentiles of their latencies, in microseconds, per endpoint.</li>
+ * </ul>
+ *
+ * Users and items are referred to by their raw ids in the data set. Requests are handled by a fixed pool of worker
+ * threads sharing the model. If the predictions of the model are not thread-safe (cf.
+ * {@link Recommender#isThreadSafe()}), the requests using the model are served one at a time, and the users of a
+ * batch one after another.
+ */
+public class RecommenderServer {
+
+	private final Recommender algo;
+	private final DataDAO rateDao;
+
+	// whether the model may be used by concurrent requests
+	private final boolean isConcurrent;
+
+	// maximum number of users of a request
+	private final int maxBatch;
+	// default number of recommended items
+	private final int defaultN;
+
+	private final HttpServer server;
+	private final ExecutorService workers;
+
+	// latencies of requests by endpoint
+	private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+
+	private final CountDownLatch stopped = new CountDownLatch(1);
+
+	/**
+	 * @param algo
+	 *            recommender with a learned (or loaded) model
+	 * @param rateDao
+	 *            DAO of the rating data, to map raw ids of users and items
+	 * @param address
+	 *            address to listen on
+	 * @param numThreads
+	 *            number of worker threads
+	 * @param maxBatch
+	 *            maximum number of users of a request
+	 * @param defaultN
+	 *            number of recommended items if not given by a request
+	 */
+	public RecommenderServer(Recommender algo, DataDAO rateDao, InetSocketAddress address, int numThreads,
+			int maxBatch, int defaultN) throws IOException {
+		this.algo = algo;
+		this.rateDao = rateDao;
+		this.isConcurrent = algo.isThreadSafe();
+		this.maxBatch = maxBatch;
+		this.defaultN = defaultN;
+
+		server = HttpServer.create(address, 0);
+		workers = Executors.newFixedThreadPool(numThreads);
+		server.setExecutor(workers);
+
+		server.createContext("/recommend", new Endpoint("recommend", true) {
+
+			@Override
+			protected String respond(Map<String, String> params) throws Exception {
+				return recommend(params);
+			}
+		});
+		server.createContext("/score", new Endpoint("score", true) {
+
+			@Override
+			protected String respond(Map<String, String> params) throws Exception {
+				return score(params);
+			}
+		});
+		server.createContext("/foldin", new Endpoint("foldin", true) {
+
+			@Override
+			protected String respond(Map<String, String> params) throws Exception {
+				return foldIn(params);
+			}
+		});
+		server.createContext("/stats", new Endpoint("stats", false) {
+
+			@Override
+			protected String respond(Map<String, String> params) throws Exception {
+				return stats();
+			}
+		});
+	}
+
+	/**
+	 * start listening, and stop when the JVM shuts down
+	 */
+	public void start() {
+		server.start();
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+
+			@Override
+			public void run() {
+				RecommenderServer.this.stop();
+			}
+		});
+
+		Logs.info("Serving {} at http://{}:{}/", algo.algoName, server.getAddress().getHostString(), server
+				.getAddress().getPort());
+	}
+
+	/**
+	 * stop listening, waiting (briefly) for the requests in progress
+	 */
+	public void stop() {
+		if (stopped.getCount() == 0)
+			return;
+
+		server.stop(1);
+		workers.shutdown();
+		try {
+			workers.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		stopped.countDown();
+
+		Logs.info("Server of {} is stopped", algo.algoName);
+	}
+
+	/**
+	 * block until the server is stopped
+	 */
+	public void await() throws InterruptedException {
+		stopped.await();
+	}
+
+	private String recommend(Map<String, String> params) throws Exception {
+		String[] rawUsers = require(params, "user").split(",");
+		if (rawUsers.length > maxBatch)
+			throw new HttpError(400, "At most " + maxBatch + " users per request");
+
+		final int n = topN(params);
+
+		List<Callable<List<Map.Entry<Integer, Double>>>> tasks = new ArrayList<>(rawUsers.length);
+		for (String rawUser : rawUsers) {
+			final int u = innerId(rateDao.getUserIds(), rawUser, "user");
+			tasks.add(new Callable<List<Map.Entry<Integer, Double>>>() {
+
+				@Override
+				public List<Map.Entry<Integer, Double>> call() throws Exception {
+					return algo.recommend(u, n);
+				}
+			});
+		}
+
+		List<List<Map.Entry<Integer, Double>>> results;
+		if (tasks.size() == 1)
+			results = Collections.singletonList(tasks.get(0).call());
+		else if (isConcurrent)
+			results = ComputePool.invokeAll(tasks);
+		else {
+			results = new ArrayList<>(tasks.size());
+			for (Callable<List<Map.Entry<Integer, Double>>> task : tasks)
+				results.add(task.call());
+		}
+
+		StringBuilder sb = new StringBuilder("{\"results\":[");
+		for (int i = 0; i < rawUsers.length; i++) {
+			if (i > 0)
+				sb.append(',');
+			sb.append("{\"user\":").append(quote(rawUsers[i])).append(",\"items\":[");
+
+			List<Map.Entry<Integer, Double>> items = results.get(i);
+			for (int k = 0; k < items.size(); k++) {
+				if (k > 0)
+					sb.append(',');
+				Map.Entry<Integer, Double> kv = items.get(k);
+				sb.append("{\"item\":").append(quote(rateDao.getItemId(kv.getKey()))).append(",\"score\":")
+						.append(number(kv.getValue())).append('}');
+			}
+			sb.append("]}");
+		}
+
+		return sb.append("]}").toString();
+	}
+
+	private String score(Map<String, String> params) throws Exception {
+		String rawUser = require(params, "user");
+		String[] rawItems = require(params, "item").split(",");
+		if (rawItems.length > maxBatch)
+			throw new HttpError(400, "At most " + maxBatch + " items per request");
+
+		int u = innerId(rateDao.getUserIds(), rawUser, "user");
+
+		StringBuilder sb = new StringBuilder("{\"user\":").append(quote(rawUser)).append(",\"items\":[");
+		for (int k = 0; k < rawItems.length; k++) {
+			int j = innerId(rateDao.getItemIds(), rawItems[k], "item");
+			double score = algo.isRankingPred ? algo.ranking(u, j) : algo.predict(u, j, true);
+
+			if (k > 0)
+				sb.append(',');
+			sb.append("{\"item\":").append(quote(rawItems[k])).append(",\"score\":").append(number(score))
+					.append('}');
+		}
+
+		return sb.append("]}").toString();
+	}
+
+	private String foldIn(Map<String, String> params) throws Exception {
+		String[] pairs = require(params, "ratings").split(",");
+		if (pairs.length > maxBatch)
+			throw new HttpError(400, "At most " + maxBatch + " ratings per request");
+
+		int n = topN(params);
+
+		SparseVector ratings = new SparseVector(rateDao.numItems());
+		for (String pair : pairs) {
+			int colon = pair.lastIndexOf(':');
+			String rawItem = colon < 0 ? pair : pair.substring(0, colon);
+			double rate = colon < 0 ? 1 : parseDouble(pair.substring(colon + 1));
+
+			ratings.set(innerId(rateDao.getItemIds(), rawItem, "item"), rate);
+		}
+
+		DenseVector userVec = algo.foldIn(ratings);
+		List<Map.Entry<Integer, Double>> items = userVec == null ? null : algo.recommend(userVec,
+				ratings.getIndex(), n);
+		if (items == null)
+			throw new HttpError(400, algo.algoName + " does not support folding in users");
+
+		StringBuilder sb = new StringBuilder("{\"items\":[");
+		for (int k = 0; k < items.size(); k++) {
+			if (k > 0)
+				sb.append(',');
+			Map.Entry<Integer, Double> kv = items.get(k);
+			sb.append("{\"item\":").append(quote(rateDao.getItemId(kv.getKey()))).append(",\"score\":")
+					.append(number(kv.getValue())).append('}');
+		}
+
+		return sb.append("]}").toString();
+	}
+
+	private String stats() {
+		StringBuilder sb = new StringBuilder("{");
+		int k = 0;
+		for (Map.Entry<String, LatencyHistogram> en : latencies.entrySet()) {
+			LatencyHistogram h = en.getValue();
+			if (k++ > 0)
+				sb.append(',');
+			sb.append(quote(en.getKey())).append(":{\"count\":").append(h.count());
+			sb.append(",\"p50Micros\":").append(h.percentileMicros(0.5));
+			sb.append(",\"p90Micros\":").append(h.percentileMicros(0.9));
+			sb.append(",\"p99Micros\":").append(h.percentileMicros(0.99)).append('}');
+		}
+
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * @return number of items to recommend, given by parameter "n" and at most the number of items
+	 */
+	private int topN(Map<String, String> params) throws HttpError {
+		int n = params.containsKey("n") ? parseInt(params.get("n")) : defaultN;
+		if (n < 1)
+			throw new HttpError(400, "Not a positive integer: " + n);
+
+		return Math.min(n, rateDao.numItems());
+	}
+
+	private static String require(Map<String, String> params, String key) throws HttpError {
+		String val = params.get(key);
+		if (val == null || val.isEmpty())
+			throw new HttpError(400, "Missing parameter: " + key);
+		return val;
+	}
+
+	private static int parseInt(String val) throws HttpError {
+		try {
+			return Integer.parseInt(val);
+		} catch (NumberFormatException e) {
+			throw new HttpError(400, "Not an integer: " + val);
+		}
+	}
+
+	private static double parseDouble(String val) throws HttpError {
+		try {
+			return Double.parseDouble(val);
+		} catch (NumberFormatException e) {
+			throw new HttpError(400, "Not a number: " + val);
+		}
+	}
+
+	private static int innerId(Map<String, Integer> ids, String rawId, String kind) throws HttpError {
+		Integer id = ids.get(rawId);
+		if (id == null)
+			throw new HttpError(404, "Unknown " + kind + ": " + rawId);
+		return id;
+	}
+
+	private static String number(double val) {
+		return Double.isNaN(val) || Double.isInfinite(val) ? "null" : Double.toString(val);
+	}
+
+	private static String quote(String val) {
+		StringBuilder sb = new StringBuilder(val.length() + 2).append('"');
+		for (int i = 0; i < val.length(); i++) {
+			char c = val.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			default:
+				if (c < 0x20)
+					sb.append(String.format("\\u%04x", (int) c));
+				else
+					sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	private static Map<String, String> parseQuery(String query) throws IOException {
+		Map<String, String> params = new HashMap<>();
+		if (query == null)
+			return params;
+
+		for (String pair : query.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq < 0)
+				params.put(URLDecoder.decode(pair, "UTF-8"), "");
+			else
+				params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+						URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+		}
+		return params;
+	}
+
+	/**
+	 * error with an HTTP status code
+	 */
+	private static class HttpError extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		final int status;
+
+		HttpError(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+
+	/**
+	 * GET endpoint answering in JSON, with a histogram of its latencies
+	 */
+	private abstract class Endpoint implements HttpHandler {
+
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		// whether the endpoint uses the model
+		private final boolean usesModel;
+
+		Endpoint(String name, boolean usesModel) {
+			this.usesModel = usesModel;
+			latencies.put(name, latency);
+		}
+
+		protected abstract String respond(Map<String, String> params) throws Exception;
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			long start = System.nanoTime();
+
+			int status = 200;
+			String body;
+			try {
+				if (!"GET".equals(exchange.getRequestMethod()))
+					throw new HttpError(405, "Only GET is supported");
+
+				Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+				if (usesModel && !isConcurrent) {
+					synchronized (algo) {
+						body = respond(params);
+					}
+				} else
+					body = respond(params);
+			} catch (HttpError e) {
+				status = e.status;
+				body = "{\"error\":" + quote(e.getMessage()) + "}";
+			} catch (Exception e) {
+				Logs.error("Failed to serve {}: {}", exchange.getRequestURI(), e);
+				status = 500;
+				body = "{\"error\":" + quote(String.valueOf(e.getMessage())) + "}";
+			}
+
+			try {
+				byte[] bytes = body.getBytes("UTF-8");
+				exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+				exchange.sendResponseHeaders(status, bytes.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(bytes);
+				}
+			} finally {
+				exchange.close();
+				latency.record(System.nanoTime() - start);
+			}
+		}
+	}
+}
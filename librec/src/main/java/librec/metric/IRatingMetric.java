@@ -14,12 +14,13 @@ public interface IRatingMetric extends IMetric {
     public void updatePredicted(int user, int item,
                                 double predicted, double actual,
                                 Recommender rec);
+
 }
 
 // DEFAULT RATING METRICS
 //	xMAE, xRMSE, xNMAE, xrMAE, xrRMSE, xMPE, xPerplexity,
 
-class MetricMAE implements IRatingMetric {
+class MetricMAE implements MergeableRatingMetric {
     private double m_totalErr;
     private double m_mae;
     public String getName () { return "MAE";}
@@ -34,6 +35,10 @@ class MetricMAE implements IRatingMetric {
         m_totalErr += err;
     }
 
+    public void merge(MergeableRatingMetric other) {
+        m_totalErr += ((MetricMAE) other).m_totalErr;
+    }
+
     public void compute(int count) {
         m_mae = m_totalErr / count;
     }
@@ -44,7 +49,7 @@ class MetricMAE implements IRatingMetric {
     }
 }
 
-class MetricRMSE implements IRatingMetric {
+class MetricRMSE implements MergeableRatingMetric {
     private double m_totalSqErr;
     private double m_rmse;
     public String getName () { return "RMSE";}
@@ -59,6 +64,10 @@ class MetricRMSE implements IRatingMetric {
         m_totalSqErr += err * err;
     }
 
+    public void merge(MergeableRatingMetric other) {
+        m_totalSqErr += ((MetricRMSE) other).m_totalSqErr;
+    }
+
     public void compute(int count) {
         m_rmse = Math.sqrt(m_totalSqErr / count);
     }
@@ -69,7 +78,7 @@ class MetricRMSE implements IRatingMetric {
     }
 }
 
-class MetricRMAE implements IRatingMetric {
+class MetricRMAE implements MergeableRatingMetric {
     private double m_totalErr;
     private double m_rmae;
     private double m_minRate;
@@ -91,6 +100,10 @@ class MetricRMAE implements IRatingMetric {
         m_totalErr += err;
     }
 
+    public void merge(MergeableRatingMetric other) {
+        m_totalErr += ((MetricRMAE) other).m_totalErr;
+    }
+
     public void compute(int count) { m_rmae = m_totalErr / count; }
 
     public double getValue() { return m_rmae;}
@@ -99,7 +112,7 @@ class MetricRMAE implements IRatingMetric {
     }
 }
 
-class MetricRRMSE implements IRatingMetric {
+class MetricRRMSE implements MergeableRatingMetric {
     private double m_totalSqErr;
     private double m_rrmse;
     private double m_minRate;
@@ -120,6 +133,10 @@ class MetricRRMSE implements IRatingMetric {
         m_totalSqErr += err * err;
     }
 
+    public void merge(MergeableRatingMetric other) {
+        m_totalSqErr += ((MetricRRMSE) other).m_totalSqErr;
+    }
+
     public void compute(int count) {
         m_rrmse = Math.sqrt(m_totalSqErr / count);
     }
@@ -130,7 +147,7 @@ class MetricRRMSE implements IRatingMetric {
     }
 }
 
-class MetricNMAE implements IRatingMetric {
+class MetricNMAE implements MergeableRatingMetric {
     private double m_totalErr;
     private double m_nmae;
     private double m_minRate, m_maxRate;
@@ -149,6 +166,10 @@ class MetricNMAE implements IRatingMetric {
         m_totalErr += err;
     }
 
+    public void merge(MergeableRatingMetric other) {
+        m_totalErr += ((MetricNMAE) other).m_totalErr;
+    }
+
     public void compute(int count) {
         double mae = m_totalErr / count;
         m_nmae = mae / (m_maxRate - m_minRate);
@@ -160,7 +181,7 @@ class MetricNMAE implements IRatingMetric {
     }
 }
 
-class MetricMPE implements IRatingMetric {
+class MetricMPE implements MergeableRatingMetric {
     private int m_errCount;
     private static double s_threshold = 1e-5;
     private double m_mpe;
@@ -183,6 +204,10 @@ class MetricMPE implements IRatingMetric {
         if (err > s_threshold) m_errCount++;
     }
 
+    public void merge(MergeableRatingMetric other) {
+        m_errCount += ((MetricMPE) other).m_errCount;
+    }
+
     public void compute(int count) {
         m_mpe = (double)(m_errCount) / count;
     }
@@ -193,7 +218,7 @@ class MetricMPE implements IRatingMetric {
     }
 }
 
-class Perplexity implements IRatingMetric {
+class Perplexity implements MergeableRatingMetric {
     private double m_sumPerps;
     private double m_perp;
     public String getName () { return "Perplexity";}
@@ -213,6 +238,10 @@ class Perplexity implements IRatingMetric {
         }
     }
 
+    public void merge(MergeableRatingMetric other) {
+        m_sumPerps += ((Perplexity) other).m_sumPerps;
+    }
+
     public void compute (int count) {
         if (m_sumPerps > 0) {
             m_perp = Math.exp(m_sumPerps / count);
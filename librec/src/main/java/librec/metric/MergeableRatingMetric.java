@@ -0,0 +1,15 @@
+package librec.metric;
+
+/**
+ * Rating metrics whose values can be accumulated over partitions of the test data, e.g., in parallel threads,
+ * and merged afterwards. Rating metrics not implementing this interface are evaluated serially.
+ */
+public interface MergeableRatingMetric extends IRatingMetric {
+
+    /**
+     * Adds the values accumulated by another instance of the same metric, e.g., one evaluating a different
+     * partition of the test data, to this one. Must be called before compute.
+     * @param other
+     */
+    public void merge(MergeableRatingMetric other);
+}
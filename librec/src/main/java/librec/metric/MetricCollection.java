@@ -78,18 +78,11 @@ public class MetricCollection {
      * Helper function
      * @param classObj
      * @param intf
-     * @return True if the class implements the interface
+     * @return True if the class implements the interface, directly or via a sub-interface (e.g.,
+     * MergeableRatingMetric) or a superclass
      */
-    private boolean implementsInterface(Class classObj, Class intf) {
-        Class[] interfaces = classObj.getInterfaces();
-
-        for (Class i : interfaces) {
-            if (i.toString().equals(intf.toString())) {
-                return true;
-                // if this is true, the class implements the interface you're looking for
-            }
-        }
-        return false;
+    private boolean implementsInterface(Class<?> classObj, Class<?> intf) {
+        return intf.isAssignableFrom(classObj);
     }
 
     public boolean hasRatingMetrics () { return !m_ratingMetrics.isEmpty(); }
@@ -176,6 +169,47 @@ public class MetricCollection {
         }
     }
 
+    /**
+     * @return whether all rating metrics can be accumulated over partitions of the test data and merged, i.e.,
+     * evaluated in parallel
+     */
+    public boolean isRatingMergeable() {
+        for (IRatingMetric metric : m_ratingMetrics.getMetrics()) {
+            if (!(metric instanceof MergeableRatingMetric))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Creates a collection with a fresh, initialized instance of each rating metric, e.g., to accumulate the
+     * predictions of one partition of the test data in another thread.
+     * @param rec
+     * @return a collection holding only rating metrics
+     */
+    public MetricCollection newRatingAccumulators(Recommender rec) throws IllegalAccessException,
+            InstantiationException {
+        MetricCollection res = new MetricCollection();
+        for (IRatingMetric metric : m_ratingMetrics.getMetrics()) {
+            IRatingMetric acc = metric.getClass().newInstance();
+            acc.init(rec);
+            res.m_ratingMetrics.addMetric(acc.getName(), acc);
+        }
+        return res;
+    }
+
+    /**
+     * Adds the values accumulated by the rating metrics of another collection, as created by
+     * newRatingAccumulators, to the rating metrics of this collection. All rating metrics must be mergeable, see
+     * isRatingMergeable.
+     * @param other
+     */
+    public void mergeRatingMetrics(MetricCollection other) {
+        for (IRatingMetric metric : m_ratingMetrics.getMetrics()) {
+            ((MergeableRatingMetric) metric).merge((MergeableRatingMetric) other.getRatingMetric(metric.getName()));
+        }
+    }
+
     public void computeRatingMetrics(int count) {
         m_ratingMetrics.computeAll(count);
     }
@@ -22,10 +22,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Random;
 
 import librec.data.DenseVector;
 import librec.data.SparseMatrix;
-import librec.data.SparseVector;
 import librec.intf.IterativeRecommender;
 import librec.util.Lists;
 import librec.util.Randoms;
@@ -44,8 +44,8 @@ import librec.util.Strings;
  */
 public class AoBPR extends IterativeRecommender {
 
-	private static int loopNumber;
-	private static int lamda_Item;
+	private int loopNumber;
+	private int lamda_Item;
 
 	private double[] var;
 	private int[][] factorRanking;
@@ -62,6 +62,8 @@ public class AoBPR extends IterativeRecommender {
 	protected void initModel() throws Exception {
 		super.initModel();
 
+		userItems = rowIndex(trainMatrix);
+
 		//set for this alg
 		lamda_Item = (int) (algoOptions.getFloat("-lambda") * numItems);
 		//lamda_Item=500;
@@ -85,35 +87,28 @@ public class AoBPR extends IterativeRecommender {
 	protected void buildModel() throws Exception {
 		int countIter = 0;
 
-		for (int iter = 1; iter <= numIters; iter++) {
+		SampleUpdate update = new SampleUpdate() {
 
-			loss = 0;
-			for (int s = 0, smax = numUsers * 100; s < smax; s++) {
-
-				//update Ranking every |I|log|I| 
-				if (countIter % loopNumber == 0) {
-					updateRankingInFactor();
-					countIter = 0;
-				}
-				countIter++;
+			@Override
+			public double update(Random rnd) throws Exception {
+				double loss = 0;
 
 				// randomly draw (u, i, j)
 				int u = 0, i = 0, j = 0;
 
 				while (true) {
 					//random draw an u and i by uniformly
-					u = Randoms.uniform(numUsers);
-					SparseVector pu = trainMatrix.row(u);
-					if (pu.getCount() == 0)
+					u = rnd.nextInt(numUsers);
+					int[] is = userItems.get(u);
+					if (is.length == 0)
 						continue;
-					int[] is = pu.getIndex();
-					i = is[Randoms.uniform(is.length)];
+					i = is[rnd.nextInt(is.length)];
 
 					do {
 						//randoms get a r by exp(-r/lamda)
 						int randomJIndex = 0;
 						do {
-							randomJIndex = Randoms.discrete(RankingPro);
+							randomJIndex = Randoms.discrete(RankingPro, rnd);
 						} while (randomJIndex > numItems);
 
 						//randoms get a f by p(f|c)
@@ -127,7 +122,7 @@ public class AoBPR extends IterativeRecommender {
 						for (int index = 0; index < numFactors; index++) {
 							pfc[index] /= sumfc;
 						}
-						int f = Randoms.discrete(pfc);
+						int f = Randoms.discrete(pfc, rnd);
 
 						//get the r-1 in f item
 						if (P.get(u, f) > 0) {
@@ -135,7 +130,7 @@ public class AoBPR extends IterativeRecommender {
 						} else {
 							j = factorRanking[f][numItems - randomJIndex - 1];
 						}
-					} while (pu.contains(j));
+					} while (userItems.contains(u, j));
 
 					break;
 				}
@@ -161,6 +156,28 @@ public class AoBPR extends IterativeRecommender {
 
 					loss += regU * puf * puf + regI * qif * qif + regI * qjf * qjf;
 				}
+
+				return loss;
+			}
+		};
+
+		for (int iter = startIter; iter <= numIters; iter++) {
+
+			loss = 0;
+			for (int s = 0, smax = numUsers * 100; s < smax;) {
+
+				//update Ranking every |I|log|I| 
+				if (countIter % loopNumber == 0) {
+					updateRankingInFactor();
+					countIter = 0;
+				}
+
+				// samples until the next update of rankings, drawn with the rankings fixed
+				int n = Math.min(smax - s, loopNumber - countIter);
+				loss += sampleEpoch(n, update);
+
+				countIter += n;
+				s += n;
 			}
 
 			if (isConverged(iter))
@@ -18,17 +18,19 @@
 
 package librec.ranking;
 
+import java.util.Arrays;
+
 import librec.data.AddConfiguration;
 import librec.data.DenseMatrix;
 import librec.data.DenseVector;
 import librec.data.MatrixEntry;
 import librec.data.SparseMatrix;
 import librec.intf.GraphicRecommender;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
+import librec.util.Randoms;
 import librec.util.Strings;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
-
 /**
  * Barbieri et al., <strong>Balancing Prediction and Recommendation Accuracy: Hierarchical Latent Factors for Preference
  * Data</strong>, SDM 2012. <br>
@@ -49,7 +51,11 @@ public class BHfree extends GraphicRecommender {
 	private DenseMatrix Nkl;
 	private int[][][] Nklr, Nkli;
 
-	private Table<Integer, Integer, Integer> Zk, Zl;
+	// user's and item's topics of the ratings, in the (row-major) order of the training matrix
+	private int[] Zk, Zl;
+
+	// buffers of the joint and marginal probabilities of sampling
+	private double[] Pzw, Pz, Pw;
 
 	// parameters
 	private DenseMatrix Puk, Pkl, PukSum, PklSum;
@@ -80,17 +86,18 @@ public class BHfree extends GraphicRecommender {
 		Nklr = new int[K][L][numLevels];
 		Nkli = new int[K][L][numItems];
 
-		Zk = HashBasedTable.create();
-		Zl = HashBasedTable.create();
+		Zk = new int[numRates];
+		Zl = new int[numRates];
 
+		int n = 0;
 		for (MatrixEntry me : trainMatrix) {
 			int u = me.row();
 			int i = me.column();
 			double rate = me.get();
 			int r = ratingScale.indexOf(rate);
 
-			int k = (int) (K * Math.random()); // user's topic k
-			int l = (int) (L * Math.random()); // item's topic l
+			int k = Randoms.uniform(K); // user's topic k
+			int l = Randoms.uniform(L); // item's topic l
 
 			Nuk.add(u, k, 1);
 			Nu.add(u, 1);
@@ -101,10 +108,15 @@ public class BHfree extends GraphicRecommender {
 			Nklr[k][l][r]++;
 			Nkli[k][l][i]++;
 
-			Zk.put(u, i, k);
-			Zl.put(u, i, l);
+			Zk[n] = k;
+			Zl[n] = l;
+			n++;
 		}
 
+		Pzw = new double[K * L];
+		Pz = new double[K];
+		Pw = new double[L];
+
 		// parameters
 		PukSum = new DenseMatrix(numUsers, K);
 		PklSum = new DenseMatrix(K, L);
@@ -117,14 +129,15 @@ public class BHfree extends GraphicRecommender {
 	@Override
 	protected void eStep() {
 
+		int n = 0;
 		for (MatrixEntry me : trainMatrix) {
 			int u = me.row();
 			int i = me.column();
 			double rate = me.get();
 			int r = ratingScale.indexOf(rate);
 
-			int k = Zk.get(u, i);
-			int l = Zl.get(u, i);
+			int k = Zk[n];
+			int l = Zl[n];
 
 			Nuk.add(u, k, -1);
 			Nu.add(u, -1);
@@ -133,48 +146,30 @@ public class BHfree extends GraphicRecommender {
 			Nklr[k][l][r]--;
 			Nkli[k][l][i]--;
 
-			DenseMatrix Pzw = new DenseMatrix(K, L);
-			double sum = 0;
 			for (int z = 0; z < K; z++) {
+				double v1 = (Nuk.get(u, z) + initAlpha) / (Nu.get(u) + K * initAlpha);
 				for (int w = 0; w < L; w++) {
-					double v1 = (Nuk.get(u, k) + initAlpha) / (Nu.get(u) + K * initAlpha);
-					double v2 = (Nkl.get(k, l) + initBeta) / (Nk.get(k) + L * initBeta);
-					double v3 = (Nklr[k][l][r] + initGamma) / (Nkl.get(k, l) + numLevels * initGamma);
-					double v4 = (Nkli[k][l][i] + initSigma) / (Nkl.get(k, l) + numItems * initSigma);
-
-					double val = v1 * v2 * v3 * v4;
-					Pzw.set(z, w, val);
-					sum += val;
-				}
-			}
+					double nzw = Nkl.get(z, w);
+					double v2 = (nzw + initBeta) / (Nk.get(z) + L * initBeta);
+					double v3 = (Nklr[z][w][r] + initGamma) / (nzw + numLevels * initGamma);
+					double v4 = (Nkli[z][w][i] + initSigma) / (nzw + numItems * initSigma);
 
-			// normalization
-			Pzw = Pzw.scale(1.0 / sum);
-
-			// resample k
-			double[] Pz = new double[K];
-			for (int z = 0; z < K; z++)
-				Pz[z] = Pzw.sumOfRow(z);
-			for (int z = 1; z < K; z++)
-				Pz[z] += Pz[z - 1];
-			double rand = Math.random();
-			for (k = 0; k < K; k++) {
-				if (rand < Pz[k])
-					break;
+					Pzw[z * L + w] = v1 * v2 * v3 * v4;
+				}
 			}
 
-			// resample l
-			double[] Pw = new double[L];
-			for (int w = 0; w < L; w++)
-				Pw[w] = Pzw.sumOfColumn(w);
-			for (int w = 1; w < L; w++)
-				Pw[w] += Pw[w - 1];
-
-			rand = Math.random();
-			for (l = 0; l < L; l++) {
-				if (rand < Pw[l])
-					break;
+			// resample k and l by the marginals of the (unnormalized) joint probabilities
+			Arrays.fill(Pw, 0);
+			for (int z = 0; z < K; z++) {
+				double sum = 0;
+				for (int w = 0; w < L; w++) {
+					sum += Pzw[z * L + w];
+					Pw[w] += Pzw[z * L + w];
+				}
+				Pz[z] = sum;
 			}
+			k = sample(Pz, K);
+			l = sample(Pw, L);
 
 			// add statistic
 			Nuk.add(u, k, 1);
@@ -184,8 +179,9 @@ public class BHfree extends GraphicRecommender {
 			Nklr[k][l][r]++;
 			Nkli[k][l][i]++;
 
-			Zk.put(u, i, k);
-			Zl.put(u, i, l);
+			Zk[n] = k;
+			Zl[n] = l;
+			n++;
 		}
 	}
 
@@ -287,6 +283,24 @@ public class BHfree extends GraphicRecommender {
 		return rank;
 	}
 
+	@Override
+	protected void writeModel(ModelWriter out) throws Exception {
+		super.writeModel(out);
+
+		out.write("Pkl", Pkl);
+		out.write("Pklr", Pklr);
+		out.write("Pkli", Pkli);
+	}
+
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		Pkl = in.readDenseMatrix("Pkl");
+		Pklr = in.readDoubleArray3("Pklr");
+		Pkli = in.readDoubleArray3("Pkli");
+	}
+
 	@Override
 	public String toString() {
 		return Strings.toString(new Object[] { K, L, initAlpha, initBeta, initGamma, initSigma }) + ", "
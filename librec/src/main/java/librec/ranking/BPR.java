@@ -18,11 +18,15 @@
 
 package librec.ranking;
 
+import java.util.Arrays;
+import java.util.Random;
+
 import librec.data.Configuration;
+import librec.data.DenseMatrix;
+import librec.data.DenseVector;
 import librec.data.SparseMatrix;
 import librec.data.SparseVector;
 import librec.intf.IterativeRecommender;
-import librec.util.Randoms;
 import librec.util.Strings;
 
 /**
@@ -46,59 +50,68 @@ public class BPR extends IterativeRecommender {
 	protected void initModel() throws Exception {
 		super.initModel();
 		
-		userCache = trainMatrix.rowCache(cacheSpec);
+		userItems = rowIndex(trainMatrix);
+	}
+
+	@Override
+	protected boolean isOptimizerSupported() {
+		return true;
 	}
 
 	@Override
 	protected void buildModel() throws Exception {
 
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
 
-			loss = 0;
-			for (int s = 0, smax = numUsers * 100; s < smax; s++) {
+			int smax = numUsers * 100;
+			loss = sampleEpoch(smax, new SampleUpdate() {
 
-				// randomly draw (u, i, j)
-				int u = 0, i = 0, j = 0;
+				@Override
+				public double update(Random rnd) throws Exception {
 
-				while (true) {
-					u = Randoms.uniform(numUsers);
-					SparseVector pu = userCache.get(u);
+					// randomly draw (u, i, j)
+					int u = 0, i = 0, j = 0;
 
-					if (pu.getCount() == 0 || pu.getCount() == numItems)
-						continue;
+					while (true) {
+						u = rnd.nextInt(numUsers);
+						int[] is = userItems.get(u);
 
-					int[] is = pu.getIndex();
-					i = is[Randoms.uniform(is.length)];
+						if (is.length == 0 || is.length == numItems)
+							continue;
 
-					do {
-						j = Randoms.uniform(numItems);
-					} while (pu.contains(j));
+						i = is[rnd.nextInt(is.length)];
 
-					break;
-				}
+						do {
+							j = rnd.nextInt(numItems);
+						} while (userItems.contains(u, j));
+
+						break;
+					}
 
-				// update parameters
-				double xui = predict(u, i);
-				double xuj = predict(u, j);
-				double xuij = xui - xuj;
+					// update parameters
+					double xui = predict(u, i);
+					double xuj = predict(u, j);
+					double xuij = xui - xuj;
 
-				double vals = -Math.log(g(xuij));
-				loss += vals;
+					double loss = -Math.log(g(xuij));
 
-				double cmg = g(-xuij);
+					double cmg = g(-xuij);
 
-				for (int f = 0; f < numFactors; f++) {
-					double puf = P.get(u, f);
-					double qif = Q.get(i, f);
-					double qjf = Q.get(j, f);
+					for (int f = 0; f < numFactors; f++) {
+						double puf = P.get(u, f);
+						double qif = Q.get(i, f);
+						double qjf = Q.get(j, f);
 
-					P.add(u, f, lRate * (cmg * (qif - qjf) - regU * puf));
-					Q.add(i, f, lRate * (cmg * puf - regI * qif));
-					Q.add(j, f, lRate * (cmg * (-puf) - regI * qjf));
+						P.add(u, f, optP.step(u, f, cmg * (qif - qjf) - regU * puf, lRate));
+						Q.add(i, f, optQ.step(i, f, cmg * puf - regI * qif, lRate));
+						Q.add(j, f, optQ.step(j, f, cmg * (-puf) - regI * qjf, lRate));
 
-					loss += regU * puf * puf + regI * qif * qif + regI * qjf * qjf;
+						loss += regU * puf * puf + regI * qif * qif + regI * qjf * qjf;
+					}
+
+					return loss;
 				}
-			}
+			});
 
 			if (isConverged(iter))
 				break;
@@ -106,6 +119,55 @@ public class BPR extends IterativeRecommender {
 		}
 	}
 
+	@Override
+	protected boolean isQuantizable() {
+		return true;
+	}
+
+	@Override
+	protected DenseVector userVector(int u) throws Exception {
+		return userFactors(u);
+	}
+
+	@Override
+	protected DenseMatrix itemVectors() throws Exception {
+		return itemFactors();
+	}
+
+	/**
+	 * user factors learned by SGD over sampled pairs of the given (positive) items and the others, with the item factors
+	 * fixed; pairs are sampled by a generator seeded by the given items, so that the same ratings are folded into the
+	 * same factors, whatever other requests are served concurrently
+	 */
+	@Override
+	public DenseVector foldIn(SparseVector ratings) throws Exception {
+		DenseVector pu = new DenseVector(numFactors);
+
+		int[] is = ratings.getIndex();
+		if (is.length == 0 || is.length == numItems)
+			return pu;
+
+		Random rnd = new Random(Arrays.hashCode(is));
+		int smax = foldInIters * is.length;
+		for (int s = 0; s < smax; s++) {
+			int i = is[rnd.nextInt(is.length)], j;
+			do {
+				j = rnd.nextInt(numItems);
+			} while (Arrays.binarySearch(is, j) >= 0);
+
+			DenseVector qi = itemFactors(i), qj = itemFactors(j);
+			double xuij = pu.inner(qi) - pu.inner(qj);
+			double cmg = g(-xuij);
+
+			for (int f = 0; f < numFactors; f++) {
+				double puf = pu.get(f);
+				pu.add(f, initLRate * (cmg * (qi.get(f) - qj.get(f)) - regU * puf));
+			}
+		}
+
+		return pu;
+	}
+
 	@Override
 	public String toString() {
 		return Strings.toString(new Object[] { binThold, numFactors, initLRate, maxLRate, regU, regI, numIters, isBoldDriver }, ",");
@@ -24,12 +24,13 @@ import librec.data.DenseMatrix;
 import librec.data.DenseVector;
 import librec.data.MatrixEntry;
 import librec.data.SparseMatrix;
-import librec.intf.GraphicRecommender;
+import librec.intf.SweepRecommender;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
 import librec.util.Logs;
+import librec.util.Randoms;
 import librec.util.Strings;
 
-import com.google.common.collect.HashBasedTable;
-
 /**
  * Bayesian UCM: Nicola Barbieri et al., <strong>Modeling Item Selection and Relevance for Accurate Recommendations: a
  * Bayesian Approach</strong>, RecSys 2011.
@@ -42,7 +43,7 @@ import com.google.common.collect.HashBasedTable;
  *
  */
 @AddConfiguration(before = "factors, alpha, beta, gamma")
-public class BUCM extends GraphicRecommender {
+public class BUCM extends SweepRecommender {
 
 	private float initGamma;
 	private DenseVector gamma;
@@ -66,6 +67,9 @@ public class BUCM extends GraphicRecommender {
 	 */
 	protected double[][][] Pkir;
 
+	// sums of the hyper-parameters as of the current sweep
+	private double sumAlpha, sumBeta, sumGamma;
+
 	@Override
 	protected void initModel() throws Exception {
 
@@ -93,8 +97,10 @@ public class BUCM extends GraphicRecommender {
 		initGamma = algoOptions.getFloat("-gamma", 1.0f / numLevels);
 		gamma.setAll(initGamma);
 
+
 		// initialize topics
-		z = HashBasedTable.create();
+		z = new int[trainMatrix.getRowPointers()[numUsers]];
+		int n = 0;
 		for (MatrixEntry me : trainMatrix) {
 
 			int u = me.row();
@@ -102,10 +108,10 @@ public class BUCM extends GraphicRecommender {
 			double rui = me.get();
 
 			int r = ratingScale.indexOf(rui); // rating level 0 ~ numLevels
-			int t = (int) (Math.random() * numFactors); // 0 ~ k-1
+			int t = Randoms.uniform(numFactors); // 0 ~ k-1
 
 			// assign a topic t to pair (u, i)
-			z.put(u, i, t);
+			z[n++] = t;
 			// for users
 			Nuk.add(u, t, 1);
 			Nu.add(u, 1);
@@ -118,64 +124,83 @@ public class BUCM extends GraphicRecommender {
 	}
 
 	@Override
-	protected void eStep() {
-
-		double sumAlpha = alpha.sum();
-		double sumBeta = beta.sum();
-		double sumGamma = gamma.sum();
+	protected void eStep() throws Exception {
+		sumAlpha = alpha.sum();
+		sumBeta = beta.sum();
+		sumGamma = gamma.sum();
 
 		// collapse Gibbs sampling
-		for (MatrixEntry me : trainMatrix) {
-			int u = me.row();
-			int i = me.column();
-			double rui = me.get();
+		sweep();
+	}
 
-			int r = ratingScale.indexOf(rui); // rating level 0 ~ numLevels
-			int t = z.get(u, i);
+	@Override
+	protected SweepWorker newWorker(boolean isLocal) {
+		return new Worker(isLocal);
+	}
 
-			Nuk.add(u, t, -1);
-			Nu.add(u, -1);
-			Nki.add(t, i, -1);
-			Nk.add(t, -1);
-			Nkir[t][i][r]--;
+	/**
+	 * Gibbs sampler of the topics of users' ratings, against its own (local) or the shared counts of topics and items
+	 */
+	private class Worker extends SweepWorker {
 
-			// do multinomial sampling via cumulative method:
-			double[] p = new double[numFactors];
-			double v1, v2, v3;
-			for (int k = 0; k < numFactors; k++) {
+		private final DenseMatrix Nki;
+		private final DenseVector Nk;
+		private final int[][][] Nkir;
 
-				v1 = (Nuk.get(u, k) + alpha.get(k)) / (Nu.get(u) + sumAlpha);
-				v2 = (Nki.get(k, i) + beta.get(i)) / (Nk.get(k) + sumBeta);
-				v3 = (Nkir[k][i][r] + gamma.get(r)) / (Nki.get(k, i) + sumGamma);
+		// probabilities of topics of a token, reused for all tokens
+		private final double[] p = new double[numFactors];
 
-				p[k] = v1 * v2 * v3;
-			}
-			// cumulate multinomial parameters
-			for (int k = 1; k < p.length; k++) {
-				p[k] += p[k - 1];
-			}
-			// scaled sample because of unnormalized p[], randomly sampled a new topic t
-			double rand = Math.random() * p[numFactors - 1];
-			for (t = 0; t < p.length; t++) {
-				if (rand < p[t])
-					break;
-			}
+		Worker(boolean isLocal) {
+			super(isLocal);
 
-			// new topic t
-			z.put(u, i, t);
+			Nki = counts(BUCM.this.Nki);
+			Nk = counts(BUCM.this.Nk);
+			Nkir = counts(BUCM.this.Nkir);
+		}
 
-			// add newly estimated z_i to count variables
-			Nuk.add(u, t, 1);
-			Nu.add(u, 1);
-			Nki.add(t, i, 1);
-			Nk.add(t, 1);
-			Nkir[t][i][r]++;
+		@Override
+		protected void sweep(int u) {
+			int[] rowPtr = trainMatrix.getRowPointers(), colInd = trainMatrix.getColumnIndices();
+			double[] rates = trainMatrix.getData();
+
+			for (int n = rowPtr[u]; n < rowPtr[u + 1]; n++) {
+				int i = colInd[n];
+				double rui = rates[n];
+
+				int r = ratingScale.indexOf(rui); // rating level 0 ~ numLevels
+				int t = z[n];
+
+				Nuk.add(u, t, -1);
+				Nu.add(u, -1);
+				Nki.add(t, i, -1);
+				Nk.add(t, -1);
+				Nkir[t][i][r]--;
+
+				// do multinomial sampling via cumulative method:
+				double v1, v2, v3;
+				for (int k = 0; k < numFactors; k++) {
+
+					v1 = (Nuk.get(u, k) + alpha.get(k)) / (Nu.get(u) + sumAlpha);
+					v2 = (Nki.get(k, i) + beta.get(i)) / (Nk.get(k) + sumBeta);
+					v3 = (Nkir[k][i][r] + gamma.get(r)) / (Nki.get(k, i) + sumGamma);
+
+					p[k] = v1 * v2 * v3;
+				}
+				t = sample(p, numFactors, rnd);
+
+				// new topic t
+				z[n] = t;
+
+				// add newly estimated z_i to count variables
+				Nuk.add(u, t, 1);
+				Nu.add(u, 1);
+				Nki.add(t, i, 1);
+				Nk.add(t, 1);
+				Nkir[t][i][r]++;
+			}
 		}
 	}
 
-	/**
-	 * Thomas P. Minka, Estimating a Dirichlet distribution, see Eq.(55)
-	 */
 	@Override
 	protected void mStep() {
 		double sumAlpha = alpha.sum();
@@ -364,6 +389,20 @@ public class BUCM extends GraphicRecommender {
 		return rank;
 	}
 
+	@Override
+	protected void writeModel(ModelWriter out) throws Exception {
+		super.writeModel(out);
+
+		out.write("Pkir", Pkir);
+	}
+
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		Pkir = in.readDoubleArray3("Pkir");
+	}
+
 	@Override
 	public String toString() {
 		return Strings.toString(new Object[] { numFactors, initAlpha, initBeta, initGamma }) + ", " + super.toString();
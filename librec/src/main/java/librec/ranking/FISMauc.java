@@ -25,9 +25,8 @@ import librec.data.Configuration;
 import librec.data.DenseMatrix;
 import librec.data.DenseVector;
 import librec.data.SparseMatrix;
-import librec.data.SparseVector;
-import librec.data.VectorEntry;
 import librec.intf.IterativeRecommender;
+import librec.io.ModelReader;
 import librec.util.Randoms;
 import librec.util.Strings;
 
@@ -63,38 +62,38 @@ public class FISMauc extends IterativeRecommender {
 		rho = algoOptions.getInt("-rho");
 		alpha = algoOptions.getFloat("-alpha");
 
-		userItemsCache = trainMatrix.rowColumnsCache(cacheSpec);
+		userItems = rowIndex(trainMatrix);
 	}
 
 	@Override
 	protected void buildModel() throws Exception {
 
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
 
 			loss = 0;
 
 			// update throughout each (u, i, j) cell
 			for (int u : trainMatrix.rows()) {
-				SparseVector Ru = trainMatrix.row(u);
-				int[] ratedItems = Ru.getIndex();
+				int[] ratedItems = userItems.get(u);
+				double[] ratings = userItems.values(u);
 
-				for (VectorEntry ve : Ru) {
-					int i = ve.index();
-					double rui = ve.get();
+				for (int n = 0; n < ratedItems.length; n++) {
+					int i = ratedItems[n];
+					double rui = ratings[n];
 
 					// sample a set of items unrated by user u
 					List<Integer> js = new ArrayList<>();
 					int len = 0;
 					while (len < rho) {
 						int j = Randoms.uniform(numItems);
-						if (Ru.contains(j) || js.contains(j))
+						if (userItems.contains(u, j) || js.contains(j))
 							continue;
 
 						js.add(j);
 						len++;
 					}
 
-					double wu = Ru.getCount() - 1 > 0 ? Math.pow(Ru.getCount() - 1, -alpha) : 0;
+					double wu = ratedItems.length - 1 > 0 ? Math.pow(ratedItems.length - 1, -alpha) : 0;
 					double[] x = new double[numFactors];
 
 					// update for each unrated item
@@ -113,7 +112,7 @@ public class FISMauc extends IterativeRecommender {
 						double bi = itemBias.get(i), bj = itemBias.get(j);
 
 						double pui = bi + wu * sum_i;
-						double puj = bj + Math.pow(Ru.getCount(), -alpha) * sum_j;
+						double puj = bj + Math.pow(ratedItems.length, -alpha) * sum_j;
 						double ruj = 0;
 
 						double eij = (rui - ruj) - (pui - puj);
@@ -181,7 +180,7 @@ public class FISMauc extends IterativeRecommender {
 		double sum = 0;
 		int count = 0;
 
-		List<Integer> items = userItemsCache.get(u);
+		int[] items = userItems.get(u);
 		for (int j : items) {
 			// for test, i and j will be always unequal as j is unrated
 			if (i != j) {
@@ -195,6 +194,14 @@ public class FISMauc extends IterativeRecommender {
 		return itemBias.get(i) + wu * sum;
 	}
 
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		if (userItems == null)
+			userItems = rowIndex(trainMatrix);
+	}
+
 	@Override
 	public String toString() {
 		return Strings.toString(new Object[] { binThold, rho, alpha, numFactors, initLRate, maxLRate, regI, regB,
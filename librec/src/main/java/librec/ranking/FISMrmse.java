@@ -27,6 +27,7 @@ import librec.data.SparseMatrix;
 import librec.data.SparseVector;
 import librec.data.VectorEntry;
 import librec.intf.IterativeRecommender;
+import librec.io.ModelReader;
 import librec.util.Randoms;
 import librec.util.Strings;
 
@@ -68,7 +69,7 @@ public class FISMrmse extends IterativeRecommender {
 		rho = algoOptions.getFloat("-rho");
 		alpha = algoOptions.getFloat("-alpha");
 
-		userItemsCache = trainMatrix.rowColumnsCache(cacheSpec);
+		userItems = rowIndex(trainMatrix);
 	}
 
 	@Override
@@ -77,7 +78,7 @@ public class FISMrmse extends IterativeRecommender {
 		int sampleSize = (int) (rho * nnz);
 		int totalSize = numUsers * numItems;
 
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
 
 			loss = 0;
 
@@ -199,7 +200,7 @@ public class FISMrmse extends IterativeRecommender {
 		double sum = 0;
 		int count = 0;
 
-		List<Integer> items = userItemsCache.get(u);
+		int[] items = userItems.get(u);
 		for (int i : items) {
 			// for test, i and j will be always unequal as j is unrated
 			if (i != j) {
@@ -213,6 +214,14 @@ public class FISMrmse extends IterativeRecommender {
 		return pred + wu * sum;
 	}
 
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		if (userItems == null)
+			userItems = rowIndex(trainMatrix);
+	}
+
 	@Override
 	public String toString() {
 		return Strings.toString(new Object[] { binThold, rho, alpha, numFactors, initLRate, maxLRate, regI, regB,
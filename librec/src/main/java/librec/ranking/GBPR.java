@@ -20,12 +20,12 @@ package librec.ranking;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import librec.data.DenseMatrix;
 import librec.data.DenseVector;
 import librec.data.SparseMatrix;
 import librec.intf.SocialRecommender;
-import librec.util.Randoms;
 import librec.util.Strings;
 
 /**
@@ -40,7 +40,7 @@ public class GBPR extends SocialRecommender {
 	private float rho;
 	private int gLen;
 
-	public GBPR(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
+	public GBPR(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) throws Exception {
 		super(trainMatrix, testMatrix, fold);
 
 		isRankingPred = true;
@@ -58,109 +58,115 @@ public class GBPR extends SocialRecommender {
 		rho = algoOptions.getFloat("-rho");
 		gLen = algoOptions.getInt("-gSize");
 
-		userItemsCache = trainMatrix.rowColumnsCache(cacheSpec);
-		itemUsersCache = trainMatrix.columnRowsCache(cacheSpec);
+		userItems = rowIndex(trainMatrix);
+		itemUsers = columnIndex(trainMatrix);
 	}
 
 	@Override
 	protected void buildModel() throws Exception {
 
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
 
-			loss = 0;
+			final DenseMatrix PS = new DenseMatrix(numUsers, numFactors);
+			final DenseMatrix QS = new DenseMatrix(numItems, numFactors);
 
-			DenseMatrix PS = new DenseMatrix(numUsers, numFactors);
-			DenseMatrix QS = new DenseMatrix(numItems, numFactors);
+			loss = sampleEpoch(numUsers * 100, new SampleUpdate() {
 
-			for (int s = 0, smax = numUsers * 100; s < smax; s++) {
+				@Override
+				public double update(Random rnd) throws Exception {
+					double loss = 0;
 
-				// uniformly draw (u, i, g, j)
-				int u = 0, i = 0, j = 0;
+					// uniformly draw (u, i, g, j)
+					int u = 0, i = 0, j = 0;
 
-				// u
-				List<Integer> ratedItems = null; // row u
-				do {
-					u = Randoms.uniform(trainMatrix.numRows());
-					ratedItems = userItemsCache.get(u);
-				} while (ratedItems.size() == 0);
+					// u
+					int[] ratedItems = null; // row u
+					do {
+						u = rnd.nextInt(trainMatrix.numRows());
+						ratedItems = userItems.get(u);
+					} while (ratedItems.length == 0);
 
-				// i
-				i = Randoms.random(ratedItems);
+					// i
+					i = ratedItems[rnd.nextInt(ratedItems.length)];
 
-				// g
-				List<Integer> ws = itemUsersCache.get(i); // column i
-				List<Integer> g = new ArrayList<>();
-				if (ws.size() <= gLen) {
-					g.addAll(ws);
-				} else {
-
-					g.add(u); // u in G
-					while (g.size() < gLen) {
-						Integer w = Randoms.random(ws);
-						if (!g.contains(w))
+					// g
+					int[] ws = itemUsers.get(i); // column i
+					List<Integer> g = new ArrayList<>();
+					if (ws.length <= gLen) {
+						for (int w : ws)
 							g.add(w);
+					} else {
+
+						g.add(u); // u in G
+						while (g.size() < gLen) {
+							Integer w = ws[rnd.nextInt(ws.length)];
+							if (!g.contains(w))
+								g.add(w);
+						}
+
 					}
 
-				}
+					double pgui = predict(u, i, g);
+
+					// j
+					do {
+						j = rnd.nextInt(numItems);
+					} while (userItems.contains(u, j));
+
+					double puj = predict(u, j);
 
-				double pgui = predict(u, i, g);
+					double pgij = pgui - puj;
+					double vals = -Math.log(g(pgij));
+					loss += vals;
 
-				// j
-				do {
-					j = Randoms.uniform(numItems);
-				} while (ratedItems.contains(j));
+					double cmg = g(-pgij);
 
-				double puj = predict(u, j);
+					// update bi, bj
+					double bi = itemBias.get(i);
+					itemBias.add(i, lRate * (cmg - regB * bi));
+					loss += regB * bi * bi;
 
-				double pgij = pgui - puj;
-				double vals = -Math.log(g(pgij));
-				loss += vals;
+					double bj = itemBias.get(j);
+					itemBias.add(j, lRate * (-cmg - regB * bj));
+					loss += regB * bj * bj;
 
-				double cmg = g(-pgij);
+					// update Pw
+					double n = 1.0 / g.size();
+					double sum_w[] = new double[numFactors];
+					for (int w : g) {
+						double delta = w == u ? 1 : 0;
+						for (int f = 0; f < numFactors; f++) {
+							double pwf = P.get(w, f);
+							double qif = Q.get(i, f);
+							double qjf = Q.get(j, f);
 
-				// update bi, bj
-				double bi = itemBias.get(i);
-				itemBias.add(i, lRate * (cmg - regB * bi));
-				loss += regB * bi * bi;
+							double delta_pwf = rho * n * qif + (1 - rho) * delta * qif - delta * qjf;
+							PS.add(w, f, lRate * (cmg * delta_pwf - regU * pwf));
 
-				double bj = itemBias.get(j);
-				itemBias.add(j, lRate * (-cmg - regB * bj));
-				loss += regB * bj * bj;
+							loss += regU * pwf * pwf;
 
-				// update Pw
-				double n = 1.0 / g.size();
-				double sum_w[] = new double[numFactors];
-				for (int w : g) {
-					double delta = w == u ? 1 : 0;
+							sum_w[f] += pwf;
+						}
+					}
+
+					// update Qi, Qj
 					for (int f = 0; f < numFactors; f++) {
-						double pwf = P.get(w, f);
+						double puf = P.get(u, f);
 						double qif = Q.get(i, f);
 						double qjf = Q.get(j, f);
 
-						double delta_pwf = rho * n * qif + (1 - rho) * delta * qif - delta * qjf;
-						PS.add(w, f, lRate * (cmg * delta_pwf - regU * pwf));
-
-						loss += regU * pwf * pwf;
+						double delta_qif = rho * n * sum_w[f] + (1 - rho) * puf;
+						QS.add(i, f, lRate * (cmg * delta_qif - regI * qif));
+						loss += regI * qif * qif;
 
-						sum_w[f] += pwf;
+						double delta_qjf = -puf;
+						QS.add(j, f, lRate * (cmg * delta_qjf - regI * qjf));
+						loss += regI * qjf * qjf;
 					}
-				}
-
-				// update Qi, Qj
-				for (int f = 0; f < numFactors; f++) {
-					double puf = P.get(u, f);
-					double qif = Q.get(i, f);
-					double qjf = Q.get(j, f);
-
-					double delta_qif = rho * n * sum_w[f] + (1 - rho) * puf;
-					QS.add(i, f, lRate * (cmg * delta_qif - regI * qif));
-					loss += regI * qif * qif;
 
-					double delta_qjf = -puf;
-					QS.add(j, f, lRate * (cmg * delta_qjf - regI * qjf));
-					loss += regI * qjf * qjf;
+					return loss;
 				}
-			}
+			});
 
 			P = P.add(PS);
 			Q = Q.add(QS);
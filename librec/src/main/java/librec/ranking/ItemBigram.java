@@ -33,10 +33,11 @@ import librec.data.DenseVector;
 import librec.data.RatingContext;
 import librec.data.SparseMatrix;
 import librec.intf.GraphicRecommender;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
+import librec.util.Randoms;
 import librec.util.Strings;
 
-import com.google.common.collect.HashBasedTable;
-
 /**
  * Hanna M. Wallach, <strong>Topic Modeling: Beyond Bag-of-Words</strong>, ICML 2006.
  * 
@@ -57,6 +58,9 @@ public class ItemBigram extends GraphicRecommender {
 
 	private DenseMatrix beta;
 
+	// probabilities of topics of a token, reused for all tokens
+	private double[] Pk;
+
 	public ItemBigram(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
 		super(trainMatrix, testMatrix, fold);
 
@@ -65,25 +69,7 @@ public class ItemBigram extends GraphicRecommender {
 
 	@Override
 	protected void initModel() throws Exception {
-		// build the training data, sorting by date
-		userItemsMap = new HashMap<>();
-		for (int u = 0; u < numUsers; u++) {
-			List<Integer> unsortedItems = trainMatrix.getColumns(u);
-			int size = unsortedItems.size();
-
-			List<RatingContext> rcs = new ArrayList<>(size);
-			for (Integer i : unsortedItems) {
-				rcs.add(new RatingContext(u, i, (long) timeMatrix.get(u, i)));
-			}
-			Collections.sort(rcs);
-
-			List<Integer> sortedItems = new ArrayList<>(size);
-			for (RatingContext rc : rcs) {
-				sortedItems.add(rc.getItem());
-			}
-
-			userItemsMap.put(u, sortedItems);
-		}
+		buildUserItemsMap();
 
 		// count variables
 		Nuk = new DenseMatrix(numUsers, numFactors);
@@ -106,7 +92,8 @@ public class ItemBigram extends GraphicRecommender {
 		beta.setAll(initBeta);
 
 		// initialization
-		z = HashBasedTable.create();
+		Pk = new double[numFactors];
+		z = new int[trainMatrix.getRowPointers()[numUsers]];
 		for (Entry<Integer, List<Integer>> en : userItemsMap.entrySet()) {
 			int u = en.getKey();
 			List<Integer> items = en.getValue();
@@ -114,8 +101,8 @@ public class ItemBigram extends GraphicRecommender {
 			for (int m = 0; m < items.size(); m++) {
 				int i = items.get(m);
 
-				int k = (int) (Math.random() * numFactors);
-				z.put(u, i, k);
+				int k = Randoms.uniform(numFactors);
+				z[tokenIndex(u, i)] = k;
 
 				Nuk.add(u, k, 1.0);
 				Nu.add(u, 1.0);
@@ -132,13 +119,18 @@ public class ItemBigram extends GraphicRecommender {
 		double sumAlpha = alpha.sum();
 		double v1, v2;
 
+		double[] sumBeta = new double[numFactors];
+		for (int t = 0; t < numFactors; t++)
+			sumBeta[t] = beta.sumOfRow(t);
+
 		for (Entry<Integer, List<Integer>> en : userItemsMap.entrySet()) {
 			int u = en.getKey();
 			List<Integer> items = en.getValue();
 
 			for (int m = 0; m < items.size(); m++) {
 				int i = items.get(m);
-				int k = z.get(u, i);
+				int n = tokenIndex(u, i);
+				int k = z[n];
 
 				Nuk.add(u, k, -1.0);
 				Nu.add(u, -1.0);
@@ -147,25 +139,15 @@ public class ItemBigram extends GraphicRecommender {
 				Nkji[k][j][i]--;
 				Nkj.add(k, j, -1);
 
-				double[] Pk = new double[numFactors];
 				for (int t = 0; t < numFactors; t++) {
 					v1 = (Nuk.get(u, t) + alpha.get(t)) / (Nu.get(u) + sumAlpha);
-					v2 = (Nkji[t][j][i] + beta.get(t, j)) / (Nkj.get(t, j) + beta.sumOfRow(t));
+					v2 = (Nkji[t][j][i] + beta.get(t, j)) / (Nkj.get(t, j) + sumBeta[t]);
 
 					Pk[t] = v1 * v2;
 				}
+				k = sample(Pk, numFactors);
 
-				for (int t = 1; t < numFactors; t++) {
-					Pk[t] += Pk[t - 1];
-				}
-
-				double rand = Math.random() * Pk[numFactors - 1];
-				for (k = 0; k < numFactors; k++) {
-					if (rand < Pk[k])
-						break;
-				}
-
-				z.put(u, i, k);
+				z[n] = k;
 
 				Nuk.add(u, k, 1.0);
 				Nu.add(u, 1.0);
@@ -258,6 +240,46 @@ public class ItemBigram extends GraphicRecommender {
 		return rank;
 	}
 
+	/**
+	 * build the training data, sorting by date
+	 */
+	private void buildUserItemsMap() {
+		userItemsMap = new HashMap<>();
+		for (int u = 0; u < numUsers; u++) {
+			List<Integer> unsortedItems = trainMatrix.getColumns(u);
+			int size = unsortedItems.size();
+
+			List<RatingContext> rcs = new ArrayList<>(size);
+			for (Integer i : unsortedItems) {
+				rcs.add(new RatingContext(u, i, (long) timeMatrix.get(u, i)));
+			}
+			Collections.sort(rcs);
+
+			List<Integer> sortedItems = new ArrayList<>(size);
+			for (RatingContext rc : rcs) {
+				sortedItems.add(rc.getItem());
+			}
+
+			userItemsMap.put(u, sortedItems);
+		}
+	}
+
+	@Override
+	protected void writeModel(ModelWriter out) throws Exception {
+		super.writeModel(out);
+
+		out.write("Pkji", Pkji);
+	}
+
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		Pkji = in.readDoubleArray3("Pkji");
+
+		buildUserItemsMap();
+	}
+
 	@Override
 	public String toString() {
 		return Strings.toString(new Object[] { numFactors, initAlpha, initBeta }) + ", " + super.toString();
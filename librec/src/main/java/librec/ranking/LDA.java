@@ -18,16 +18,19 @@
 package librec.ranking;
 
 import static librec.util.Gamma.digamma;
+
+import java.util.Arrays;
+
 import librec.data.AddConfiguration;
 import librec.data.DenseMatrix;
 import librec.data.DenseVector;
 import librec.data.MatrixEntry;
 import librec.data.SparseMatrix;
-import librec.intf.GraphicRecommender;
+import librec.intf.SweepRecommender;
+import librec.util.AliasTable;
+import librec.util.Randoms;
 import librec.util.Strings;
 
-import com.google.common.collect.HashBasedTable;
-
 /**
  * Latent Dirichlet Allocation for implicit feedback: Tom Griffiths, <strong>Gibbs sampling in the generative model of
  * Latent Dirichlet Allocation</strong>, 2002. <br>
@@ -40,11 +43,36 @@ import com.google.common.collect.HashBasedTable;
  * explicit ratings.
  * </p>
  * 
+ * <p>
+ * With option {@code -mh [steps]} of {@code pgm.setup}, topics are drawn by Metropolis-Hastings steps instead of exact
+ * Gibbs sampling, in O(1) amortized time per token regardless of the number of topics: Yuan et al., LightLDA: Big
+ * Topic Models on Modest Computer Clusters, WWW 2015. Each step alternates between an item proposal, drawn from alias
+ * tables of the topic counts of items as of the start of the iteration, and a user proposal, drawn from the topics of
+ * the user's tokens or from the Dirichlet prior.
+ * </p>
+ * 
  * @author Guibing Guo
  *
  */
 @AddConfiguration(before = "factors, alpha, beta")
-public class LDA extends GraphicRecommender {
+public class LDA extends SweepRecommender {
+
+	// sums of the hyper-parameters as of the current sweep
+	private double sumAlpha, sumBeta;
+
+	// item proposals: the topics of nonzero counts of item i, i.e., wordTopics[wordPtr[i], wordPtr[i + 1]), with their
+	// counts and alias tables, as of the start of an iteration
+	private int[] wordPtr, wordTopics, wordAlias;
+	private double[] wordCounts, wordWeights, wordProb, wordMass;
+
+	// smoothing terms of item proposals, i.e., 1 / (n_k + sum beta), with the topic counts they are built by
+	private double[] smoothWeights, smoothProb, staleNk;
+	private int[] smoothAlias;
+	private double smoothMass;
+
+	// user proposals of the Dirichlet prior alpha
+	private double[] alphaProb;
+	private int[] alphaAlias, work;
 
 	public LDA(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
 		super(trainMatrix, testMatrix, fold);
@@ -72,14 +100,15 @@ public class LDA extends GraphicRecommender {
 		beta.setAll(initBeta);
 
 		// The z_u,i are initialized to values in [0, K-1] to determine the initial state of the Markov chain.
-		z = HashBasedTable.create();
+		z = new int[trainMatrix.getRowPointers()[numUsers]];
+		int n = 0;
 		for (MatrixEntry me : trainMatrix) {
 			int u = me.row();
 			int i = me.column();
-			int t = (int) (Math.random() * numFactors); // 0 ~ k-1
+			int t = Randoms.uniform(numFactors); // 0 ~ k-1
 
 			// assign a topic t to pair (u, i)
-			z.put(u, i, t);
+			z[n++] = t;
 
 			// number of items of user u assigned to topic t.
 			Nuk.add(u, t, 1);
@@ -90,50 +119,203 @@ public class LDA extends GraphicRecommender {
 			// total number of words assigned to topic t.
 			Nk.add(t, 1);
 		}
+
+		if (mhSteps > 0) {
+			int K = numFactors;
+			int size = (int) Math.min(z.length, (long) K * numItems);
+
+			wordPtr = new int[numItems + 1];
+			wordTopics = new int[size];
+			wordAlias = new int[size];
+			wordCounts = new double[size];
+			wordWeights = new double[size];
+			wordProb = new double[size];
+			wordMass = new double[numItems];
+
+			smoothWeights = new double[K];
+			smoothProb = new double[K];
+			smoothAlias = new int[K];
+			staleNk = new double[K];
+
+			alphaProb = new double[K];
+			alphaAlias = new int[K];
+			work = new int[K];
+		}
 	}
 
-	protected void eStep() {
+	@Override
+	protected void eStep() throws Exception {
+		sumAlpha = alpha.sum();
+		sumBeta = beta.sum();
 
-		double sumAlpha = alpha.sum();
-		double sumBeta = beta.sum();
+		if (mhSteps > 0)
+			buildProposals();
 
-		// Gibbs sampling from full conditional distribution
-		for (MatrixEntry me : trainMatrix) {
-			int u = me.row();
-			int i = me.column();
-			int t = z.get(u, i); // topic
+		sweep();
+	}
 
-			Nuk.add(u, t, -1);
-			Nu.add(u, -1);
-			Nki.add(t, i, -1);
-			Nk.add(t, -1);
+	@Override
+	protected SweepWorker newWorker(boolean isLocal) {
+		return new Worker(isLocal);
+	}
 
-			// do multinomial sampling via cumulative method:
-			double[] p = new double[numFactors];
-			for (int k = 0; k < numFactors; k++) {
-				p[k] = (Nuk.get(u, k) + alpha.get(k)) / (Nu.get(u) + sumAlpha) * (Nki.get(k, i) + beta.get(i))
-						/ (Nk.get(k) + sumBeta);
+	/**
+	 * Sampler of the topics of users' tokens, against its own (local) or the shared counts of topics and items
+	 */
+	private class Worker extends SweepWorker {
+
+		private final DenseMatrix Nki;
+		private final DenseVector Nk;
+
+		// probabilities of topics of a token, reused for all tokens
+		private final double[] p = new double[numFactors];
+
+		Worker(boolean isLocal) {
+			super(isLocal);
+
+			Nki = counts(LDA.this.Nki);
+			Nk = counts(LDA.this.Nk);
+		}
+
+		@Override
+		protected void sweep(int u) {
+			if (mhSteps > 0) {
+				mhSweep(u);
+				return;
 			}
-			// cumulating multinomial parameters
-			for (int k = 1; k < p.length; k++) {
-				p[k] += p[k - 1];
+
+			// Gibbs sampling from full conditional distribution
+			int[] rowPtr = trainMatrix.getRowPointers(), colInd = trainMatrix.getColumnIndices();
+			for (int n = rowPtr[u]; n < rowPtr[u + 1]; n++) {
+				int i = colInd[n];
+				int t = z[n]; // topic
+
+				Nuk.add(u, t, -1);
+				Nu.add(u, -1);
+				Nki.add(t, i, -1);
+				Nk.add(t, -1);
+
+				// do multinomial sampling via cumulative method:
+				for (int k = 0; k < numFactors; k++) {
+					p[k] = (Nuk.get(u, k) + alpha.get(k)) / (Nu.get(u) + sumAlpha) * (Nki.get(k, i) + beta.get(i))
+							/ (Nk.get(k) + sumBeta);
+				}
+				t = sample(p, numFactors, rnd);
+
+				// add newly estimated z_i to count variables
+				Nuk.add(u, t, 1);
+				Nu.add(u, 1);
+				Nki.add(t, i, 1);
+				Nk.add(t, 1);
+
+				z[n] = t;
 			}
-			// scaled sample because of unnormalized p[], randomly sampled a new topic t
-			double rand = Math.random() * p[numFactors - 1];
-			for (t = 0; t < p.length; t++) {
-				if (rand < p[t])
-					break;
+		}
+
+		/**
+		 * Metropolis-Hastings sampling of the tokens of user u, by alternating item and user proposals
+		 */
+		private void mhSweep(int u) {
+			int[] rowPtr = trainMatrix.getRowPointers(), colInd = trainMatrix.getColumnIndices();
+			int from = rowPtr[u], len = rowPtr[u + 1] - from;
+
+			for (int n = from; n < from + len; n++) {
+				int i = colInd[n];
+				int s = z[n];
+				double bi = beta.get(i);
+
+				Nuk.add(u, s, -1);
+				Nu.add(u, -1);
+				Nki.add(s, i, -1);
+				Nk.add(s, -1);
+
+				for (int step = 0; step < mhSteps; step++) {
+					// item proposal: q(k) = (n'_ki + beta_i) / (n'_k + sum beta) by the counts n' of the proposals
+					int t;
+					int off = wordPtr[i], size = wordPtr[i + 1] - off;
+					if (rnd.nextDouble() * (wordMass[i] + bi * smoothMass) < wordMass[i])
+						t = wordTopics[off + AliasTable.sample(wordProb, wordAlias, off, size, rnd)];
+					else
+						t = AliasTable.sample(smoothProb, smoothAlias, 0, numFactors, rnd);
+
+					if (t != s) {
+						double pt = (Nuk.get(u, t) + alpha.get(t)) * (Nki.get(t, i) + bi) / (Nk.get(t) + sumBeta);
+						double ps = (Nuk.get(u, s) + alpha.get(s)) * (Nki.get(s, i) + bi) / (Nk.get(s) + sumBeta);
+						double qt = (staleCount(i, t) + bi) / (staleNk[t] + sumBeta);
+						double qs = (staleCount(i, s) + bi) / (staleNk[s] + sumBeta);
+
+						if (rnd.nextDouble() * ps * qt < pt * qs) {
+							s = t;
+							z[n] = s;
+						}
+					}
+
+					// user proposal: q(k) = n_uk + alpha_k (including this token), whose ratio cancels the user terms
+					if (rnd.nextDouble() * (len + sumAlpha) < len)
+						t = z[from + rnd.nextInt(len)];
+					else
+						t = AliasTable.sample(alphaProb, alphaAlias, 0, numFactors, rnd);
+
+					if (t != s) {
+						double pt = (Nki.get(t, i) + bi) / (Nk.get(t) + sumBeta);
+						double ps = (Nki.get(s, i) + bi) / (Nk.get(s) + sumBeta);
+
+						if (rnd.nextDouble() * ps < pt) {
+							s = t;
+							z[n] = s;
+						}
+					}
+				}
+
+				Nuk.add(u, s, 1);
+				Nu.add(u, 1);
+				Nki.add(s, i, 1);
+				Nk.add(s, 1);
+
+				z[n] = s;
 			}
+		}
+	}
 
-			// add newly estimated z_i to count variables
-			Nuk.add(u, t, 1);
-			Nu.add(u, 1);
-			Nki.add(t, i, 1);
-			Nk.add(t, 1);
+	/**
+	 * build the alias tables of the proposals by the current counts and hyper-parameters
+	 */
+	private void buildProposals() {
+		int K = numFactors;
+
+		for (int k = 0; k < K; k++) {
+			staleNk[k] = Nk.get(k);
+			smoothWeights[k] = 1.0 / (staleNk[k] + sumBeta);
+		}
+		smoothMass = AliasTable.build(smoothWeights, 0, K, smoothProb, smoothAlias, work);
+
+		AliasTable.build(alpha.getData(), 0, K, alphaProb, alphaAlias, work);
 
-			z.put(u, i, t);
+		int size = 0;
+		for (int i = 0; i < numItems; i++) {
+			wordPtr[i] = size;
+			for (int k = 0; k < K; k++) {
+				double nki = Nki.get(k, i);
+				if (nki > 0) {
+					wordTopics[size] = k;
+					wordCounts[size] = nki;
+					wordWeights[size] = nki / (staleNk[k] + sumBeta);
+					size++;
+				}
+			}
+
+			int n = size - wordPtr[i];
+			wordMass[i] = n > 0 ? AliasTable.build(wordWeights, wordPtr[i], n, wordProb, wordAlias, work) : 0;
 		}
+		wordPtr[numItems] = size;
+	}
 
+	/**
+	 * @return count of topic k of item i, as of the proposals
+	 */
+	private double staleCount(int i, int k) {
+		int pos = Arrays.binarySearch(wordTopics, wordPtr[i], wordPtr[i + 1], k);
+		return pos >= 0 ? wordCounts[pos] : 0;
 	}
 
 	@Override
@@ -64,7 +64,7 @@ public class LRMF extends IterativeRecommender {
 	@Override
 	protected void buildModel() throws Exception {
 
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
 
 			loss = 0;
 			for (MatrixEntry me : trainMatrix) {
@@ -18,23 +18,32 @@
 
 package librec.ranking;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
 
 import librec.data.Configuration;
 import librec.data.DenseMatrix;
 import librec.data.DenseVector;
 import librec.data.SparseMatrix;
 import librec.data.SparseVector;
-import librec.data.VectorEntry;
 import librec.intf.IterativeRecommender;
+import librec.io.ModelReader;
+import librec.util.ComputePool;
 import librec.util.Logs;
 import librec.util.Strings;
 
 /**
  * Takacs and Tikk, <strong>Alternating Least Squares for Personalized Ranking</strong>, RecSys 2012.
  * 
+ * <p>
+ * Users (items) are solved in parallel, each thread with a workspace of its own; the sums over all items (users) are
+ * computed once per half-step, such that an item step only visits the users who rated the item. Systems are solved by
+ * inverting their matrices as the original implementation, or by Cholesky decomposition with option {@code -cholesky},
+ * which is faster and more accurate but yields different factors.
+ * </p>
+ * 
  * @author guoguibing
  * 
  */
@@ -44,23 +53,40 @@ public class RankALS extends IterativeRecommender {
 	// whether support based weighting is used ($s_i=|U_i|$) or not ($s_i=1$)
 	private boolean isSupportWeight;
 
+	// whether to solve by Cholesky decomposition (option -cholesky), rather than by inverting M as the original
+	private boolean isCholesky;
+
 	private DenseVector s;
 
 	private double sum_s;
 
+	// P step: weighted sums of item factors and their outer products (row-major)
+	private double[] sum_sq, sum_sqq;
+
+	// Q step: sums of each user over the rated items
+	private double[] user_sr, user_cr, user_c;
+	private double[][] user_cq;
+
+	// Q step: sums over all users, the same for all items
+	private double[] sum_cpp, sum_p_p_c, sum_p_p_cq, sum_cr_p, sum_cpp_sq;
+
+	// sums over the (fixed) item factors of the learned model, to fold in users
+	private volatile ItemSums itemSums;
+
 	public RankALS(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
 		super(trainMatrix, testMatrix, fold);
 
 		isRankingPred = true;
 		checkBinary();
+
+		isSupportWeight = algoOptions.isOn("-sw");
+		isCholesky = algoOptions.contains("-cholesky");
 	}
 
 	@Override
 	protected void initModel() throws Exception {
 		super.initModel();
 
-		isSupportWeight = algoOptions.isOn("-sw");
-
 		s = new DenseVector(numItems);
 		sum_s = 0;
 		for (int i = 0; i < numItems; i++) {
@@ -69,131 +95,347 @@ public class RankALS extends IterativeRecommender {
 			sum_s += si;
 		}
 
+		userItems = rowIndex(trainMatrix);
+		itemUsers = columnIndex(trainMatrix);
+
+		int k = numFactors;
+		sum_sq = new double[k];
+		sum_sqq = new double[k * k];
+
+		user_sr = new double[numUsers];
+		user_cr = new double[numUsers];
+		user_c = new double[numUsers];
+		user_cq = new double[numUsers][k];
+
+		sum_cpp = new double[k * k];
+		sum_p_p_c = new double[k * k];
+		sum_p_p_cq = new double[k];
+		sum_cr_p = new double[k];
+		sum_cpp_sq = new double[k];
 	}
 
 	@Override
 	protected void buildModel() throws Exception {
-		for (int iter = 1; iter < numIters; iter++) {
+		for (int iter = startIter; iter < numIters; iter++) {
 
 			if (verbose)
 				Logs.debug("{}{} runs at iter = {}/{}", algoName, foldInfo, iter, numIters);
 
 			// P step: update user vectors
-			DenseVector sum_sq = new DenseVector(numFactors);
-			DenseMatrix sum_sqq = new DenseMatrix(numFactors, numFactors);
+			Arrays.fill(sum_sq, 0);
+			Arrays.fill(sum_sqq, 0);
+			for (int j = 0; j < numItems; j++)
+				addItemSums(Q.row(j, false).getData(), s.get(j), sum_sq, sum_sqq);
+
+			forEachRow(numUsers, new RowTask() {
+
+				@Override
+				public void run(Workspace ws, int u) {
+					// users with $c_ui=1$
+					int[] items = userItems.get(u);
+					if (items.length > 0)
+						ws.solveUser(items, userItems.values(u), Q, s, sum_s, sum_sq, sum_sqq, P.row(u, false).getData());
+				}
+			});
 
-			for (int j = 0; j < numItems; j++) {
-				DenseVector qj = Q.row(j);
-				double sj = s.get(j);
+			// Q step: update item vectors
+			forEachRow(numUsers, new RowTask() {
+
+				@Override
+				public void run(Workspace ws, int u) {
+					int[] items = userItems.get(u);
+					double[] ratings = userItems.values(u);
+
+					double sum_sr = 0, sum_cr = 0;
+					double[] sum_cq = user_cq[u];
+					Arrays.fill(sum_cq, 0);
+					for (int k = 0; k < items.length; k++) {
+						int j = items[k];
+						double ruj = ratings[k];
+						double sj = s.get(j);
+
+						sum_sr += sj * ruj;
+						sum_cr += ruj;
+						double[] qj = Q.row(j, false).getData();
+						for (int f = 0; f < numFactors; f++)
+							sum_cq[f] += qj[f];
+					}
 
-				sum_sq = sum_sq.add(qj.scale(sj));
-				sum_sqq = sum_sqq.add(qj.outer(qj).scale(sj));
+					user_sr[u] = sum_sr;
+					user_cr[u] = sum_cr;
+					user_c[u] = items.length;
+				}
+			});
+
+			// sums over all users, which are the same for all items
+			int k = numFactors;
+			Arrays.fill(sum_cpp, 0);
+			Arrays.fill(sum_p_p_c, 0);
+			Arrays.fill(sum_p_p_cq, 0);
+			Arrays.fill(sum_cr_p, 0);
+			for (int u = 0; u < numUsers; u++) {
+				if (userItems.size(u) == 0)
+					continue;
+
+				double[] pu = P.row(u, false).getData();
+				double[] sum_cq = user_cq[u];
+				for (int a = 0; a < k; a++) {
+					double p_p_cq = 0;
+					for (int b = 0; b < k; b++) {
+						double pp = pu[a] * pu[b];
+						sum_cpp[a * k + b] += pp;
+						sum_p_p_c[a * k + b] += pp * user_c[u];
+						p_p_cq += pp * sum_cq[b];
+					}
+					sum_p_p_cq[a] += p_p_cq;
+					sum_cr_p[a] += pu[a] * user_cr[u];
+				}
 			}
+			for (int a = 0; a < k; a++) {
+				double sum = 0;
+				for (int b = 0; b < k; b++)
+					sum += sum_cpp[a * k + b] * sum_sq[b];
+				sum_cpp_sq[a] = sum;
+			}
+
+			forEachRow(numItems, new RowTask() {
 
-			List<Integer> cus = trainMatrix.rows(); // list of users with
-													// $c_ui=1$
-			for (int u : cus) {
-				// for each user
-				DenseMatrix sum_cqq = new DenseMatrix(numFactors, numFactors);
-				DenseVector sum_cq = new DenseVector(numFactors);
-				DenseVector sum_cqr = new DenseVector(numFactors);
-				DenseVector sum_sqr = new DenseVector(numFactors);
-
-				SparseVector Ru = trainMatrix.row(u);
-				double sum_c = Ru.getCount();
-				double sum_sr = 0, sum_cr = 0;
-
-				for (VectorEntry ve : Ru) {
-					int i = ve.index();
-					double rui = ve.get();
-					// double cui = 1;
-					DenseVector qi = Q.row(i);
-
-					sum_cqq = sum_cqq.add(qi.outer(qi));
-					sum_cq = sum_cq.add(qi);
-					sum_cqr = sum_cqr.add(qi.scale(rui));
-
-					// ratings of unrated items will be 0
-					double si = s.get(i);
-					sum_sr += si * rui;
-					sum_cr += rui;
-					sum_sqr = sum_sqr.add(qi.scale(si * rui));
+				@Override
+				public void run(Workspace ws, int i) {
+					ws.solveItem(i, Q.row(i, false).getData());
 				}
+			});
 
-				DenseMatrix M = sum_cqq.scale(sum_s).minus(sum_cq.outer(sum_sq)).minus(sum_sq.outer(sum_cq))
-						.add(sum_sqq.scale(sum_c));
+			checkpoint(iter);
+		}
+	}
 
-				DenseVector y = sum_cqr.scale(sum_s).minus(sum_cq.scale(sum_sr)).minus(sum_sq.scale(sum_cr))
-						.add(sum_sqr.scale(sum_c));
+	/**
+	 * add the weighted factors and outer product of an item to the sums in place
+	 */
+	private void addItemSums(double[] qj, double sj, double[] sum_sq, double[] sum_sqq) {
+		int k = numFactors;
+		for (int a = 0; a < k; a++) {
+			sum_sq[a] += qj[a] * sj;
+			for (int b = 0; b < k; b++)
+				sum_sqq[a * k + b] += qj[a] * qj[b] * sj;
+		}
+	}
 
-				DenseVector pu = M.inv().mult(y);
-				P.setRow(u, pu);
-			}
+	/**
+	 * task of a row (user or item), given the workspace of the running thread
+	 */
+	private interface RowTask {
+		void run(Workspace ws, int row) throws Exception;
+	}
 
-			// Q step: update item vectors
-			Map<Integer, Double> m_sum_sr = new HashMap<>();
-			Map<Integer, Double> m_sum_cr = new HashMap<>();
-			Map<Integer, Double> m_sum_c = new HashMap<>();
-			Map<Integer, DenseVector> m_sum_cq = new HashMap<>();
+	/**
+	 * run a task over all rows in parallel, by ranges of rows, each with a workspace of its own
+	 */
+	private void forEachRow(int numRows, final RowTask task) throws Exception {
+		int numTasks = Math.min(numRows, 4 * ComputePool.parallelism());
+
+		List<Callable<Void>> tasks = new ArrayList<>(numTasks);
+		for (int t = 0; t < numTasks; t++) {
+			final int start = (int) ((long) numRows * t / numTasks);
+			final int end = (int) ((long) numRows * (t + 1) / numTasks);
+			tasks.add(new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+					Workspace ws = new Workspace();
+					for (int row = start; row < end; row++)
+						task.run(ws, row);
+					return null;
+				}
+			});
+		}
+		ComputePool.invokeAll(tasks);
+	}
 
-			for (int u : cus) {
-				SparseVector Ru = trainMatrix.row(u);
+	/**
+	 * scratch arrays of the linear systems of users and items, reused by a thread. Sums are accumulated in the same order
+	 * as the closed-form solutions are written in the paper, i.e., in the order of items (users) rated by a user (item).
+	 */
+	private class Workspace {
+
+		private final int k = numFactors;
+
+		// M in row-major order, its Cholesky decomposition, and y
+		private final double[] M = new double[k * k], A = new double[k * k], y = new double[k];
+
+		// sums of a user (item) over its rated items (users)
+		private final double[] sum_cqq = new double[k * k];
+		private final double[] sum_cq = new double[k], sum_cqr = new double[k], sum_sqr = new double[k];
+
+		/**
+		 * solve the factors of a user into x, with the item factors fixed
+		 * 
+		 * @param items
+		 *            items rated by the user, in ascending order
+		 * @param ratings
+		 *            ratings of the items
+		 */
+		void solveUser(int[] items, double[] ratings, DenseMatrix Q, DenseVector s, double sum_s, double[] sum_sq,
+				double[] sum_sqq, double[] x) {
+			Arrays.fill(sum_cqq, 0);
+			Arrays.fill(sum_cq, 0);
+			Arrays.fill(sum_cqr, 0);
+			Arrays.fill(sum_sqr, 0);
+
+			double sum_c = items.length;
+			double sum_sr = 0, sum_cr = 0;
+
+			for (int n = 0; n < items.length; n++) {
+				int i = items[n];
+				double rui = ratings[n];
+				// double cui = 1;
+				double[] qi = Q.row(i, false).getData();
+
+				// ratings of unrated items will be 0
+				double si = s.get(i);
+				sum_sr += si * rui;
+				sum_cr += rui;
+
+				for (int a = 0; a < k; a++) {
+					for (int b = 0; b < k; b++)
+						sum_cqq[a * k + b] += qi[a] * qi[b];
+					sum_cq[a] += qi[a];
+					sum_cqr[a] += qi[a] * rui;
+					sum_sqr[a] += qi[a] * (si * rui);
+				}
+			}
 
-				double sum_sr = 0, sum_cr = 0, sum_c = Ru.getCount();
-				DenseVector sum_cq = new DenseVector(numFactors);
+			for (int a = 0; a < k; a++) {
+				for (int b = 0; b < k; b++)
+					M[a * k + b] = sum_cqq[a * k + b] * sum_s - sum_cq[a] * sum_sq[b] - sum_sq[a] * sum_cq[b]
+							+ sum_sqq[a * k + b] * sum_c;
+				y[a] = sum_cqr[a] * sum_s - sum_cq[a] * sum_sr - sum_sq[a] * sum_cr + sum_sqr[a] * sum_c;
+			}
 
-				for (VectorEntry ve : Ru) {
-					int j = ve.index();
-					double ruj = ve.get();
-					double sj = s.get(j);
+			solve(x);
+		}
 
-					sum_sr += sj * ruj;
-					sum_cr += ruj;
-					sum_cq = sum_cq.add(Q.row(j));
+		/**
+		 * solve the factors of item i into x, with the user factors fixed
+		 */
+		void solveItem(int i, double[] x) {
+			// sum_cpr, sum_c_sr_p and sum_p_r_c over the users who rated item i
+			double[] sum_cpr = sum_cq, sum_c_sr_p = sum_cqr, sum_p_r_c = sum_sqr;
+			Arrays.fill(sum_cpr, 0);
+			Arrays.fill(sum_c_sr_p, 0);
+			Arrays.fill(sum_p_r_c, 0);
+
+			int[] users = itemUsers.get(i);
+			double[] ratings = itemUsers.values(i);
+			for (int n = 0; n < users.length; n++) {
+				int u = users[n];
+				double rui = ratings[n];
+				if (rui <= 0)
+					continue;
+
+				double[] pu = P.row(u, false).getData();
+				for (int a = 0; a < k; a++) {
+					sum_cpr[a] += pu[a] * rui;
+					sum_c_sr_p[a] += pu[a] * user_sr[u];
+					sum_p_r_c[a] += pu[a] * (rui * user_c[u]);
 				}
+			}
 
-				m_sum_sr.put(u, sum_sr);
-				m_sum_cr.put(u, sum_cr);
-				m_sum_c.put(u, sum_c);
-				m_sum_cq.put(u, sum_cq);
+			double si = s.get(i);
+			for (int a = 0; a < k; a++) {
+				for (int b = 0; b < k; b++)
+					M[a * k + b] = sum_cpp[a * k + b] * sum_s + sum_p_p_c[a * k + b] * si;
+				y[a] = sum_cpp_sq[a] + sum_cpr[a] * sum_s - sum_c_sr_p[a] + sum_p_p_cq[a] * si - sum_cr_p[a] * si
+						+ sum_p_r_c[a] * si;
 			}
 
-			for (int i = 0; i < numItems; i++) {
-				// for each item
-				DenseMatrix sum_cpp = new DenseMatrix(numFactors, numFactors);
-				DenseMatrix sum_p_p_c = new DenseMatrix(numFactors, numFactors);
-				DenseVector sum_p_p_cq = new DenseVector(numFactors);
-				DenseVector sum_cpr = new DenseVector(numFactors);
-				DenseVector sum_c_sr_p = new DenseVector(numFactors);
-				DenseVector sum_cr_p = new DenseVector(numFactors);
-				DenseVector sum_p_r_c = new DenseVector(numFactors);
+			solve(x);
+		}
 
-				double si = s.get(i);
+		/**
+		 * x = M^{-1} y, by inverting M, or by Cholesky decomposition of M (which is positive semi-definite) if required
+		 * and M is not singular
+		 */
+		private void solve(double[] x) {
+			if (isCholesky) {
+				System.arraycopy(M, 0, A, 0, M.length);
+				if (DenseMatrix.choleskySolve(A, y, x, k))
+					return;
+			}
 
-				for (int u : cus) {
-					DenseVector pu = P.row(u);
-					double rui = trainMatrix.get(u, i);
+			DenseMatrix mat = new DenseMatrix(k, k);
+			for (int a = 0; a < k; a++)
+				for (int b = 0; b < k; b++)
+					mat.set(a, b, M[a * k + b]);
+			System.arraycopy(mat.inv().mult(new DenseVector(y)).getData(), 0, x, 0, k);
+		}
+	}
 
-					DenseMatrix pp = pu.outer(pu);
-					sum_cpp = sum_cpp.add(pp);
-					sum_p_p_cq = sum_p_p_cq.add(pp.mult(m_sum_cq.get(u)));
-					sum_p_p_c = sum_p_p_c.add(pp.scale(m_sum_c.get(u)));
-					sum_cr_p = sum_cr_p.add(pu.scale(m_sum_cr.get(u)));
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
 
-					if (rui > 0) {
-						sum_cpr = sum_cpr.add(pu.scale(rui));
-						sum_c_sr_p = sum_c_sr_p.add(pu.scale(m_sum_sr.get(u)));
-						sum_p_r_c = sum_p_r_c.add(pu.scale(rui * m_sum_c.get(u)));
-					}
-				}
+		itemSums = null;
+	}
 
-				DenseMatrix M = sum_cpp.scale(sum_s).add(sum_p_p_c.scale(si));
-				DenseVector y = sum_cpp.mult(sum_sq).add(sum_cpr.scale(sum_s)).minus(sum_c_sr_p)
-						.add(sum_p_p_cq.scale(si)).minus(sum_cr_p.scale(si)).add(sum_p_r_c.scale(si));
-				DenseVector qi = M.inv().mult(y);
-				Q.setRow(i, qi);
+	@Override
+	protected DenseVector userVector(int u) throws Exception {
+		return userFactors(u);
+	}
+
+	@Override
+	protected DenseMatrix itemVectors() throws Exception {
+		return itemFactors();
+	}
+
+	/**
+	 * user factors by the closed-form solution of the P step, with the item factors fixed
+	 */
+	@Override
+	public DenseVector foldIn(SparseVector ratings) throws Exception {
+		ItemSums sums = itemSums();
+
+		DenseVector pu = new DenseVector(numFactors);
+		new Workspace().solveUser(ratings.getIndex(), ratings.getData(), sums.Q, sums.s, sums.sum_s, sums.sum_sq,
+				sums.sum_sqq, pu.getData());
+
+		return pu;
+	}
+
+	/**
+	 * @return sums over the item factors, computed once for the learned (or loaded) model
+	 */
+	private ItemSums itemSums() {
+		ItemSums sums = itemSums;
+		if (sums == null) {
+			sums = new ItemSums();
+			sums.Q = itemFactors();
+			sums.s = new DenseVector(numItems);
+			sums.sum_sq = new double[numFactors];
+			sums.sum_sqq = new double[numFactors * numFactors];
+
+			for (int j = 0; j < numItems; j++) {
+				double sj = isSupportWeight ? trainMatrix.columnSize(j) : 1;
+
+				sums.s.set(j, sj);
+				sums.sum_s += sj;
+				addItemSums(sums.Q.row(j, false).getData(), sj, sums.sum_sq, sums.sum_sqq);
 			}
+			itemSums = sums;
 		}
+		return sums;
+	}
+
+	/**
+	 * item factors (dequantized), item weights, and their weighted sums of item factors and outer products
+	 */
+	private static class ItemSums {
+		DenseMatrix Q;
+		DenseVector s;
+		double sum_s;
+		double[] sum_sq;
+		double[] sum_sqq;
 	}
 
 	@Override
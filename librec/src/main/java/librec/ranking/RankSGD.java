@@ -67,7 +67,7 @@ public class RankSGD extends IterativeRecommender {
 
 	@Override
 	protected void buildModel() throws Exception {
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
 
 			loss = 0;
 
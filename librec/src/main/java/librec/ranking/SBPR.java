@@ -19,9 +19,11 @@
 package librec.ranking;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 
 import librec.data.DenseMatrix;
 import librec.data.DenseVector;
@@ -29,7 +31,6 @@ import librec.data.SparseMatrix;
 import librec.data.SparseVector;
 import librec.data.VectorEntry;
 import librec.intf.SocialRecommender;
-import librec.util.Randoms;
 import librec.util.Strings;
 
 /**
@@ -45,9 +46,10 @@ import librec.util.Strings;
  */
 public class SBPR extends SocialRecommender {
 
-	private Map<Integer, List<Integer>> SP;
+	// items rated by trusted neighbors only, per user: in the order found, and sorted to look up
+	private int[][] SP, sortedSP;
 
-	public SBPR(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
+	public SBPR(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) throws Exception {
 		super(trainMatrix, testMatrix, fold);
 
 		isRankingPred = true;
@@ -62,161 +64,175 @@ public class SBPR extends SocialRecommender {
 		itemBias = new DenseVector(numItems);
 		itemBias.init();
 
-		userItemsCache = trainMatrix.rowColumnsCache(cacheSpec);
+		userItems = rowIndex(trainMatrix);
 
 		// find items rated by trusted neighbors only
-		SP = new HashMap<>();
+		SP = new int[trainMatrix.numRows()][];
+		sortedSP = new int[SP.length][];
 
 		for (int u = 0, um = trainMatrix.numRows(); u < um; u++) {
-			List<Integer> uRatedItems = userItemsCache.get(u);
-			if (uRatedItems.size() == 0)
+			if (userItems.size(u) == 0) {
+				SP[u] = sortedSP[u] = new int[0];
 				continue; // no rated items
+			}
 
 			// SPu
 			List<Integer> trustedUsers = socialMatrix.getColumns(u);
 			List<Integer> items = new ArrayList<>();
+			Set<Integer> added = new HashSet<>();
 			for (int v : trustedUsers) {
 				if (v >= um) // friend v
 					continue;
 
-				List<Integer> vRatedItems = userItemsCache.get(v);
-				for (int j : vRatedItems) {
+				for (int j : userItems.get(v)) {
 					// v's rated items
-					if (!uRatedItems.contains(j) && !items.contains(j)) // if not rated by user u and not already added to item list
+					if (!userItems.contains(u, j) && added.add(j)) // if not rated by user u and not already added to item list
 						items.add(j);
 				}
 			}
 
-			SP.put(u, items);
+			SP[u] = new int[items.size()];
+			for (int k = 0; k < SP[u].length; k++)
+				SP[u][k] = items.get(k);
+			sortedSP[u] = SP[u].clone();
+			Arrays.sort(sortedSP[u]);
 
 		}
 	}
 
 	@Override
 	protected void postModel() throws Exception {
-		SP = null; // no need for evaluation, release it. 
+		super.postModel();
+
+		SP = sortedSP = null; // no need for evaluation, release it. 
 	}
 
 	@Override
 	protected void buildModel() throws Exception {
 
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
+
+			loss = sampleEpoch(numUsers * 100, new SampleUpdate() {
 
-			loss = 0;
-			for (int s = 0, smax = numUsers * 100; s < smax; s++) {
+				@Override
+				public double update(Random rnd) throws Exception {
+					double loss = 0;
 
-				// uniformly draw (u, i, k, j)
-				int u = 0, i = 0, j = 0;
+					// uniformly draw (u, i, k, j)
+					int u = 0, i = 0, j = 0;
 
-				// u
-				List<Integer> ratedItems = null;
-				do {
-					u = Randoms.uniform(trainMatrix.numRows());
-					ratedItems = userItemsCache.get(u);
-				} while (ratedItems.size() == 0);
+					// u
+					int[] ratedItems = null;
+					do {
+						u = rnd.nextInt(trainMatrix.numRows());
+						ratedItems = userItems.get(u);
+					} while (ratedItems.length == 0);
 
-				// i
-				i = Randoms.random(ratedItems);
+					// i
+					i = ratedItems[rnd.nextInt(ratedItems.length)];
 
-				double xui = predict(u, i);
+					double xui = predict(u, i);
 
-				// SPu
-				List<Integer> SPu = SP.get(u);
+					// SPu
+					int[] SPu = SP[u], sortedSPu = sortedSP[u];
 
-				// j
-				do {
-					j = Randoms.uniform(numItems);
-				} while (ratedItems.contains(j) || SPu.contains(j));
+					// j
+					do {
+						j = rnd.nextInt(numItems);
+					} while (userItems.contains(u, j) || Arrays.binarySearch(sortedSPu, j) >= 0);
 
-				double xuj = predict(u, j);
+					double xuj = predict(u, j);
 
-				if (SPu.size() > 0) {
-					// if having social neighbors
-					int k = Randoms.random(SPu);
-					double xuk = predict(u, k);
+					if (SPu.length > 0) {
+						// if having social neighbors
+						int k = SPu[rnd.nextInt(SPu.length)];
+						double xuk = predict(u, k);
 
-					SparseVector Tu = socialMatrix.row(u);
-					double suk = 0;
-					for (VectorEntry ve : Tu) {
-						int v = ve.index();
-						if (v < trainMatrix.numRows()) {
-							double rvk = trainMatrix.get(v, k);
-							if (rvk > 0)
-								suk += 1;
+						SparseVector Tu = socialMatrix.row(u);
+						double suk = 0;
+						for (VectorEntry ve : Tu) {
+							int v = ve.index();
+							if (v < trainMatrix.numRows()) {
+								double rvk = trainMatrix.get(v, k);
+								if (rvk > 0)
+									suk += 1;
+							}
 						}
-					}
 
-					double xuik = (xui - xuk) / (1 + suk);
-					double xukj = xuk - xuj;
+						double xuik = (xui - xuk) / (1 + suk);
+						double xukj = xuk - xuj;
 
-					double vals = -Math.log(g(xuik)) - Math.log(g(xukj));
-					loss += vals;
+						double vals = -Math.log(g(xuik)) - Math.log(g(xukj));
+						loss += vals;
 
-					double cik = g(-xuik), ckj = g(-xukj);
+						double cik = g(-xuik), ckj = g(-xukj);
 
-					// update bi, bk, bj
-					double bi = itemBias.get(i);
-					itemBias.add(i, lRate * (cik / (1 + suk) - regB * bi));
-					loss += regB * bi * bi;
+						// update bi, bk, bj
+						double bi = itemBias.get(i);
+						itemBias.add(i, lRate * (cik / (1 + suk) - regB * bi));
+						loss += regB * bi * bi;
 
-					double bk = itemBias.get(k);
-					itemBias.add(k, lRate * (-cik / (1 + suk) + ckj - regB * bk));
-					loss += regB * bk * bk;
+						double bk = itemBias.get(k);
+						itemBias.add(k, lRate * (-cik / (1 + suk) + ckj - regB * bk));
+						loss += regB * bk * bk;
 
-					double bj = itemBias.get(j);
-					itemBias.add(j, lRate * (-ckj - regB * bj));
-					loss += regB * bj * bj;
+						double bj = itemBias.get(j);
+						itemBias.add(j, lRate * (-ckj - regB * bj));
+						loss += regB * bj * bj;
 
-					// update P, Q
-					for (int f = 0; f < numFactors; f++) {
-						double puf = P.get(u, f);
-						double qif = Q.get(i, f), qkf = Q.get(k, f);
-						double qjf = Q.get(j, f);
+						// update P, Q
+						for (int f = 0; f < numFactors; f++) {
+							double puf = P.get(u, f);
+							double qif = Q.get(i, f), qkf = Q.get(k, f);
+							double qjf = Q.get(j, f);
 
-						double delta_puf = cik * (qif - qkf) / (1 + suk) + ckj * (qkf - qjf);
-						P.add(u, f, lRate * (delta_puf - regU * puf));
+							double delta_puf = cik * (qif - qkf) / (1 + suk) + ckj * (qkf - qjf);
+							P.add(u, f, lRate * (delta_puf - regU * puf));
 
-						Q.add(i, f, lRate * (cik * puf / (1 + suk) - regI * qif));
+							Q.add(i, f, lRate * (cik * puf / (1 + suk) - regI * qif));
 
-						double delta_qkf = cik * (-puf / (1 + suk)) + ckj * puf;
-						Q.add(k, f, lRate * (delta_qkf - regI * qkf));
+							double delta_qkf = cik * (-puf / (1 + suk)) + ckj * puf;
+							Q.add(k, f, lRate * (delta_qkf - regI * qkf));
 
-						Q.add(j, f, lRate * (ckj * (-puf) - regI * qjf));
+							Q.add(j, f, lRate * (ckj * (-puf) - regI * qjf));
 
-						loss += regU * puf * puf + regI * qif * qif;
-						loss += regI * qkf * qkf + regI * qjf * qjf;
-					}
-				} else {
-					// if no social neighbors, the same as BPR
-					double xuij = xui - xuj;
-					double vals = -Math.log(g(xuij));
-					loss += vals;
-
-					double cij = g(-xuij);
-
-					// update bi, bj
-					double bi = itemBias.get(i);
-					itemBias.add(i, lRate * (cij - regB * bi));
-					loss += regB * bi * bi;
-
-					double bj = itemBias.get(j);
-					itemBias.add(j, lRate * (-cij - regB * bj));
-					loss += regB * bj * bj;
-
-					// update P, Q
-					for (int f = 0; f < numFactors; f++) {
-						double puf = P.get(u, f);
-						double qif = Q.get(i, f);
-						double qjf = Q.get(j, f);
-
-						P.add(u, f, lRate * (cij * (qif - qjf) - regU * puf));
-						Q.add(i, f, lRate * (cij * puf - regI * qif));
-						Q.add(j, f, lRate * (cij * (-puf) - regI * qjf));
-
-						loss += regU * puf * puf + regI * qif * qif + regI * qjf * qjf;
+							loss += regU * puf * puf + regI * qif * qif;
+							loss += regI * qkf * qkf + regI * qjf * qjf;
+						}
+					} else {
+						// if no social neighbors, the same as BPR
+						double xuij = xui - xuj;
+						double vals = -Math.log(g(xuij));
+						loss += vals;
+
+						double cij = g(-xuij);
+
+						// update bi, bj
+						double bi = itemBias.get(i);
+						itemBias.add(i, lRate * (cij - regB * bi));
+						loss += regB * bi * bi;
+
+						double bj = itemBias.get(j);
+						itemBias.add(j, lRate * (-cij - regB * bj));
+						loss += regB * bj * bj;
+
+						// update P, Q
+						for (int f = 0; f < numFactors; f++) {
+							double puf = P.get(u, f);
+							double qif = Q.get(i, f);
+							double qjf = Q.get(j, f);
+
+							P.add(u, f, lRate * (cij * (qif - qjf) - regU * puf));
+							Q.add(i, f, lRate * (cij * puf - regI * qif));
+							Q.add(j, f, lRate * (cij * (-puf) - regI * qjf));
+
+							loss += regU * puf * puf + regI * qif * qif + regI * qjf * qjf;
+						}
 					}
+
+					return loss;
 				}
-			}
+			});
 
 			if (isConverged(iter))
 				break;
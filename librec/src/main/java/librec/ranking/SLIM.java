@@ -18,25 +18,25 @@
 
 package librec.ranking;
 
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.Callable;
 
 import librec.data.Configuration;
-import librec.data.DenseMatrix;
 import librec.data.SparseMatrix;
-import librec.data.SparseVector;
 import librec.data.SymmMatrix;
-import librec.data.VectorEntry;
 import librec.intf.IterativeRecommender;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
+import librec.util.ComputePool;
 import librec.util.Lists;
 import librec.util.Logs;
+import librec.util.Randoms;
 import librec.util.Strings;
 
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
-
 /**
  * Xia Ning and George Karypis, <strong>SLIM: Sparse Linear Methods for Top-N Recommender Systems</strong>, ICDM 2011. <br>
  * 
@@ -50,19 +50,21 @@ import com.google.common.collect.Multimap;
  * </ul>
  * </p>
  * 
+ * <p>
+ * W is stored sparsely by columns: column j only holds the weights of the nearest neighbors of item j (or of all other
+ * items for kNN <= 0). The columns are independent regression problems, and hence are solved in parallel. Each column
+ * keeps the residuals of its users, such that a coordinate update of w_ij only visits the users who rated item i.
+ * </p>
+ * 
  * @author guoguibing
  * 
  */
 @Configuration("binThold, knn, regL2, regL1, similarity, iters")
 public class SLIM extends IterativeRecommender {
 
-	private DenseMatrix W;
-
-	// item's nearest neighbors for kNN > 0
-	private Multimap<Integer, Integer> itemNNs;
-
-	// item's nearest neighbors for kNN <=0, i.e., all other items
-	private List<Integer> allItems;
+	// neighbors of item j in ascending order: itemNNs[itemNNPtr[j], itemNNPtr[j + 1]), and their weights w_ij
+	private int[] itemNNPtr, itemNNs;
+	private double[] weights;
 
 	// regularization parameters for the L1 or L2 term
 	private float regL1, regL2;
@@ -78,143 +80,251 @@ public class SLIM extends IterativeRecommender {
 
 	@Override
 	protected void initModel() throws Exception {
-		W = new DenseMatrix(numItems, numItems);
-		W.init(); // initial guesses: make smaller guesses (e.g., W.init(0.01)) to speed up training
+		userItems = rowIndex(trainMatrix);
+		itemUsers = columnIndex(trainMatrix);
 
-		userCache = trainMatrix.rowCache(cacheSpec);
+		itemNNPtr = new int[numItems + 1];
 
 		if (knn > 0) {
 			// find the nearest neighbors for each item based on item similarity
 			SymmMatrix itemCorrs = buildCorrs(false);
-			itemNNs = HashMultimap.create();
+			List<int[]> nnsList = new ArrayList<>(numItems);
 
 			for (int j = 0; j < numItems; j++) {
-				// set diagonal entries to 0
-				W.set(j, j, 0);
-
 				// find the k-nearest neighbors for each item
 				Map<Integer, Double> nns = itemCorrs.row(j).toMap();
+				nns.remove(j);
 
 				// sort by values to retriev topN similar items
-				if (knn > 0 && knn < nns.size()) {
-					List<Map.Entry<Integer, Double>> sorted = Lists.sortMap(nns, true);
-					List<Map.Entry<Integer, Double>> subset = sorted.subList(0, knn);
-					nns.clear();
-					for (Map.Entry<Integer, Double> kv : subset)
-						nns.put(kv.getKey(), kv.getValue());
-				}
+				List<Map.Entry<Integer, Double>> sorted = Lists.sortMap(nns, true);
+				int[] js = new int[Math.min(knn, sorted.size())];
+				for (int k = 0; k < js.length; k++)
+					js[k] = sorted.get(k).getKey();
+				Arrays.sort(js);
 
-				// put into the nns multimap
-				for (Entry<Integer, Double> en : nns.entrySet())
-					itemNNs.put(j, en.getKey());
+				nnsList.add(js);
+			}
+
+			long size = 0;
+			for (int j = 0; j < numItems; j++) {
+				size += nnsList.get(j).length;
+				itemNNPtr[j + 1] = (int) checkNumWeights(size);
 			}
-		} else {
-			// all items are used
-			allItems = trainMatrix.columns();
 
+			itemNNs = new int[(int) size];
 			for (int j = 0; j < numItems; j++)
-				W.set(j, j, 0.0);
+				System.arraycopy(nnsList.get(j), 0, itemNNs, itemNNPtr[j], nnsList.get(j).length);
+		} else {
+			// all other (rated) items are used
+			List<Integer> allItems = trainMatrix.columns();
+			BitSet rated = new BitSet(numItems);
+			for (int i : allItems)
+				rated.set(i);
+
+			long size = 0;
+			for (int j = 0; j < numItems; j++) {
+				size += allItems.size() - (rated.get(j) ? 1 : 0);
+				itemNNPtr[j + 1] = (int) checkNumWeights(size);
+			}
+			Logs.warn("{}{}: all {} rated items are neighbors of each item, i.e., {} weights; set num.neighbors > 0 "
+					+ "for large catalogs", algoName, foldInfo, allItems.size(), size);
+
+			itemNNs = new int[(int) size];
+			for (int j = 0, k = 0; j < numItems; j++)
+				for (int i : allItems)
+					if (i != j)
+						itemNNs[k++] = i;
 		}
+
+		// initial guesses: make smaller guesses to speed up training
+		weights = new double[itemNNs.length];
+		for (int k = 0; k < weights.length; k++)
+			weights[k] = Randoms.uniform();
+	}
+
+	/**
+	 * @return number of weights, if not more than an array holds
+	 */
+	private long checkNumWeights(long size) throws Exception {
+		if (size > Integer.MAX_VALUE - 8)
+			throw new Exception(algoName + ": more than " + (Integer.MAX_VALUE - 8)
+					+ " weights of item neighbors, set num.neighbors to fewer neighbors");
+		return size;
 	}
 
 	@Override
 	protected void buildModel() throws Exception {
-		last_loss = 0;
+
+		final double[] colLoss = new double[numItems];
 
 		// number of iteration cycles
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
+
+			// each cycle iterates through the coordinate directions of all columns, which are solved in parallel
+			int numTasks = Math.min(numItems, 4 * ComputePool.parallelism());
+
+			List<Callable<Void>> tasks = new ArrayList<>(numTasks);
+			for (int t = 0; t < numTasks; t++) {
+				final int start = (int) ((long) numItems * t / numTasks);
+				final int end = (int) ((long) numItems * (t + 1) / numTasks);
+				tasks.add(new Callable<Void>() {
+
+					@Override
+					public Void call() throws Exception {
+						double[] res = new double[numUsers];
+						for (int j = start; j < end; j++)
+							colLoss[j] = updateColumn(j, res);
+						return null;
+					}
+				});
+			}
+			ComputePool.invokeAll(tasks);
 
 			loss = 0;
+			for (int j = 0; j < numItems; j++)
+				loss += colLoss[j];
 
-			// each cycle iterates through one coordinate direction
-			for (int j = 0; j < numItems; j++) {
+			if (isConverged(iter))
+				break;
+		}
+	}
 
-				// find k-nearest neighbors
-				Collection<Integer> nns = knn > 0 ? itemNNs.get(j) : allItems;
+	/**
+	 * one cycle of coordinate descent over the weights of column j
+	 * 
+	 * @param res
+	 *            workspace of residuals of users, all zeros, and left so
+	 * @return loss of the column
+	 */
+	private double updateColumn(int j, double[] res) {
+		int from = itemNNPtr[j], to = itemNNPtr[j + 1];
+
+		// residuals r_uj - sum_k r_uk w_kj of the users who rated item j or its neighbors
+		int[] users = itemUsers.get(j);
+		double[] ratings = itemUsers.values(j);
+		for (int n = 0; n < users.length; n++)
+			res[users[n]] = ratings[n];
+
+		for (int k = from; k < to; k++) {
+			double wkj = weights[k];
+			if (wkj == 0)
+				continue;
+
+			users = itemUsers.get(itemNNs[k]);
+			ratings = itemUsers.values(itemNNs[k]);
+			for (int n = 0; n < users.length; n++)
+				res[users[n]] -= ratings[n] * wkj;
+		}
 
-				// for each nearest neighbor i, update wij by the coordinate
-				// descent update rule
-				// it is OK if i==j, since wjj = 0;
-				for (Integer i : nns) {
+		double loss = 0;
+		for (int k = from; k < to; k++) {
+			// for each nearest neighbor i, update wij by the coordinate descent update rule
+			users = itemUsers.get(itemNNs[k]);
+			ratings = itemUsers.values(itemNNs[k]);
 
-					double gradSum = 0, rateSum = 0, errs = 0;
+			double wij = weights[k];
+			double gradSum = 0, rateSum = 0, errs = 0;
+			int N = users.length;
 
-					SparseVector Ri = trainMatrix.column(i);
-					int N = Ri.getCount();
-					for (VectorEntry ve : Ri) {
-						int u = ve.index();
-						double rui = ve.get();
-						double ruj = trainMatrix.get(u, j);
-						double euj = ruj - predict(u, j, i);
+			for (int n = 0; n < N; n++) {
+				double rui = ratings[n];
+				// the error of a prediction without the contribution of item i
+				double euj = res[users[n]] + rui * wij;
 
-						gradSum += rui * euj;
-						rateSum += rui * rui;
+				gradSum += rui * euj;
+				rateSum += rui * rui;
 
-						errs += euj * euj;
-					}
-					gradSum /= N;
-					rateSum /= N;
-					errs /= N;
-
-					double wij = W.get(i, j);
-					loss += errs + 0.5 * regL2 * wij * wij + regL1 * wij;
-
-					if (regL1 < Math.abs(gradSum)) {
-						if (gradSum > 0) {
-							double update = (gradSum - regL1) / (regL2 + rateSum);
-							W.set(i, j, update);
-						} else {
-							// One doubt: in this case, wij<0, however, the
-							// paper says wij>=0. How to gaurantee that?
-							double update = (gradSum + regL1) / (regL2 + rateSum);
-							W.set(i, j, update);
-						}
-					} else {
-						W.set(i, j, 0.0);
-					}
+				errs += euj * euj;
+			}
+			if (N == 0)
+				continue;
+
+			gradSum /= N;
+			rateSum /= N;
+			errs /= N;
+
+			loss += errs + 0.5 * regL2 * wij * wij + regL1 * wij;
+
+			double update = 0;
+			if (regL1 < Math.abs(gradSum)) {
+				if (gradSum > 0) {
+					update = (gradSum - regL1) / (regL2 + rateSum);
+				} else {
+					// One doubt: in this case, wij<0, however, the
+					// paper says wij>=0. How to gaurantee that?
+					update = (gradSum + regL1) / (regL2 + rateSum);
 				}
 			}
 
-			if (isConverged(iter))
-				break;
+			if (update != wij) {
+				weights[k] = update;
+				for (int n = 0; n < N; n++)
+					res[users[n]] -= ratings[n] * (update - wij);
+			}
 		}
-	}
 
-	/**
-	 * @return a prediction without the contribution of excludede_item
-	 */
-	protected double predict(int u, int j, int excluded_item) throws Exception {
+		// reset the residuals
+		for (int u : itemUsers.get(j))
+			res[u] = 0;
+		for (int k = from; k < to; k++)
+			for (int u : itemUsers.get(itemNNs[k]))
+				res[u] = 0;
 
-		Collection<Integer> nns = knn > 0 ? itemNNs.get(j) : allItems;
-		SparseVector Ru = userCache.get(u);
+		return loss;
+	}
 
+	@Override
+	public double predict(int u, int j) throws Exception {
 		double pred = 0;
-		for (int k : nns) {
-			if (Ru.contains(k) && k != excluded_item) {
-				double ruk = Ru.get(k);
-				pred += ruk * W.get(k, j);
-			}
+
+		int[] items = userItems.get(u);
+		double[] ratings = userItems.values(u);
+		for (int n = 0; n < items.length; n++) {
+			int k = Arrays.binarySearch(itemNNs, itemNNPtr[j], itemNNPtr[j + 1], items[n]);
+			if (k >= 0)
+				pred += ratings[n] * weights[k];
 		}
 
 		return pred;
 	}
 
 	@Override
-	public double predict(int u, int j) throws Exception {
-		return predict(u, j, -1);
-	}
+	protected boolean isConverged(int iter) throws Exception {
+		telemetry.endEpoch(iter, loss);
 
-	@Override
-	protected boolean isConverged(int iter) {
 		double delta_loss = last_loss - loss;
 		last_loss = loss;
 
 		if (verbose)
 			Logs.debug("{}{} iter {}: loss = {}, delta_loss = {}", algoName, foldInfo, iter, loss, delta_loss);
 
+		checkpoint(iter);
+
 		return iter > 1 ? delta_loss < 1e-5 : false;
 	}
 
+	@Override
+	protected void writeModel(ModelWriter out) throws Exception {
+		super.writeModel(out);
+
+		// weights of the neighbors of items in the compressed column format
+		out.write("itemNNPtr", itemNNPtr);
+		out.write("itemNNs", itemNNs);
+		out.write("weights", weights);
+	}
+
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		userItems = rowIndex(trainMatrix);
+		itemUsers = columnIndex(trainMatrix);
+
+		itemNNPtr = in.readIntArray("itemNNPtr");
+		itemNNs = in.readIntArray("itemNNs");
+		weights = in.readDoubleArray("weights");
+	}
+
 	@Override
 	public String toString() {
 		return Strings.toString(new Object[] { binThold, knn, regL2, regL1, similarityMeasure, numIters });
@@ -21,6 +21,7 @@ package librec.ranking;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.Map.Entry;
 
 import librec.data.DenseMatrix;
@@ -28,7 +29,6 @@ import librec.data.DenseVector;
 import librec.data.SparseMatrix;
 import librec.intf.IterativeRecommender;
 import librec.util.Lists;
-import librec.util.Randoms;
 import librec.util.Strings;
 
 import com.google.common.cache.CacheBuilder;
@@ -61,7 +61,7 @@ public class WBPR extends IterativeRecommender {
 		itemBias = new DenseVector(numItems);
 		itemBias.init(smallValue);
 
-		userItemsCache = trainMatrix.rowColumnsCache(cacheSpec);
+		userItems = rowIndex(trainMatrix);
 
 		// pre-compute and sort by item's popularity
 		sortedItemPops = new ArrayList<>();
@@ -77,15 +77,13 @@ public class WBPR extends IterativeRecommender {
 			public List<Entry<Integer, Double>> load(Integer u) throws Exception {
 				List<Entry<Integer, Double>> itemProbs = new ArrayList<>();
 
-				List<Integer> ratedItems = userItemsCache.get(u);
-
 				// filter candidate items
 				double sum = 0;
 				for (Entry<Integer, Double> itemPop : sortedItemPops) {
 					Integer item = itemPop.getKey();
 					double popularity = itemPop.getValue();
 
-					if (!ratedItems.contains(item) && popularity > 0) {
+					if (!userItems.contains(u, item) && popularity > 0) {
 						// make a clone to prevent bugs from normalization
 						itemProbs.add(new AbstractMap.SimpleEntry<Integer, Double>(itemPop));
 						sum += popularity;
@@ -105,70 +103,74 @@ public class WBPR extends IterativeRecommender {
 	@Override
 	protected void buildModel() throws Exception {
 
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
+
+			loss = sampleEpoch(numUsers * 100, new SampleUpdate() {
 
-			loss = 0;
-			for (int s = 0, smax = numUsers * 100; s < smax; s++) {
+				@Override
+				public double update(Random rnd) throws Exception {
 
-				// randomly draw (u, i, j)
-				int u = 0, i = 0, j = 0;
-				List<Integer> ratedItems = null;
-				List<Entry<Integer, Double>> itemProbs = null;
+					// randomly draw (u, i, j)
+					int u = 0, i = 0, j = 0;
+					int[] ratedItems = null;
+					List<Entry<Integer, Double>> itemProbs = null;
 
-				while (true) {
-					u = Randoms.uniform(numUsers);
-					ratedItems = userItemsCache.get(u);
+					while (true) {
+						u = rnd.nextInt(numUsers);
+						ratedItems = userItems.get(u);
 
-					if (ratedItems.size() == 0)
-						continue;
+						if (ratedItems.length == 0)
+							continue;
 
-					i = Randoms.random(ratedItems);
+						i = ratedItems[rnd.nextInt(ratedItems.length)];
 
-					// sample j by popularity (probability)
-					itemProbs = cacheItemProbs.get(u);
+						// sample j by popularity (probability)
+						itemProbs = cacheItemProbs.get(u);
 
-					double rand = Randoms.random();
-					double sum = 0;
-					for (Entry<Integer, Double> itemProb : itemProbs) {
-						sum += itemProb.getValue();
-						if (sum >= rand) {
-							j = itemProb.getKey();
-							break;
+						double rand = rnd.nextDouble();
+						double sum = 0;
+						for (Entry<Integer, Double> itemProb : itemProbs) {
+							sum += itemProb.getValue();
+							if (sum >= rand) {
+								j = itemProb.getKey();
+								break;
+							}
 						}
+
+						break;
 					}
 
-					break;
-				}
+					// update parameters
+					double xui = predict(u, i);
+					double xuj = predict(u, j);
+					double xuij = xui - xuj;
 
-				// update parameters
-				double xui = predict(u, i);
-				double xuj = predict(u, j);
-				double xuij = xui - xuj;
+					double loss = -Math.log(g(xuij));
 
-				double vals = -Math.log(g(xuij));
-				loss += vals;
+					double cmg = g(-xuij);
 
-				double cmg = g(-xuij);
+					// update bias
+					double bi = itemBias.get(i), bj = itemBias.get(j);
+					itemBias.add(i, lRate * (cmg - regB * bi));
+					itemBias.add(j, lRate * (-cmg - regB * bj));
+					loss += regB * (bi * bi + bj * bj);
 
-				// update bias
-				double bi = itemBias.get(i), bj = itemBias.get(j);
-				itemBias.add(i, lRate * (cmg - regB * bi));
-				itemBias.add(j, lRate * (-cmg - regB * bj));
-				loss += regB * (bi * bi + bj * bj);
+					// update user/item vectors
+					for (int f = 0; f < numFactors; f++) {
+						double puf = P.get(u, f);
+						double qif = Q.get(i, f);
+						double qjf = Q.get(j, f);
 
-				// update user/item vectors
-				for (int f = 0; f < numFactors; f++) {
-					double puf = P.get(u, f);
-					double qif = Q.get(i, f);
-					double qjf = Q.get(j, f);
+						P.add(u, f, lRate * (cmg * (qif - qjf) - regU * puf));
+						Q.add(i, f, lRate * (cmg * puf - regI * qif));
+						Q.add(j, f, lRate * (cmg * (-puf) - regI * qjf));
 
-					P.add(u, f, lRate * (cmg * (qif - qjf) - regU * puf));
-					Q.add(i, f, lRate * (cmg * puf - regI * qif));
-					Q.add(j, f, lRate * (cmg * (-puf) - regI * qjf));
+						loss += regU * puf * puf + regI * qif * qif + regI * qjf * qjf;
+					}
 
-					loss += regU * puf * puf + regI * qif * qif + regI * qjf * qjf;
+					return loss;
 				}
-			}
+			});
 
 			if (isConverged(iter))
 				break;
@@ -176,11 +178,6 @@ public class WBPR extends IterativeRecommender {
 		}
 	}
 
-	@Override
-	public String toString() {
-		return Strings.toString(new Object[] { binThold, numFactors, initLRate, maxLRate, regU, regI, regB, numIters });
-	}
-
 	@Override
 	public double predict(int u, int j) throws Exception {
 		return itemBias.get(j) + DenseMatrix.rowMult(P, u, Q, j);
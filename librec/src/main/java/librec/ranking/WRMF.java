@@ -1,14 +1,21 @@
 package librec.ranking;
 
-import librec.data.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import librec.data.AdjacencyIndex;
+import librec.data.Configuration;
+import librec.data.DenseMatrix;
+import librec.data.DenseVector;
+import librec.data.SparseMatrix;
+import librec.data.SparseVector;
+import librec.data.VectorEntry;
 import librec.intf.IterativeRecommender;
+import librec.util.ComputePool;
 import librec.util.Logs;
 import librec.util.Strings;
 
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-
 /**
  * <h3>WRMF: Weighted Regularized Matrix Factorization.</h3>
  * <p>
@@ -21,14 +28,22 @@ import java.util.List;
  * implicit feedback datasets, ICDM 2008.</li>
  * </ul>
  *
+ * <p>
+ * Each half-step solves the normal equations of all users (items) in parallel, i.e., {@code (Y^T Y + Y^T (C_u - I) Y +
+ * lambda I) x_u = Y^T C_u p_u}, where {@code Y^T Y} is computed once per half-step and the other terms only involve
+ * the items rated by user u. The equations are solved exactly by Cholesky decomposition, or (with option {@code -cg
+ * [steps]}) approximately by a few steps of conjugate gradient warm-started from the current factors: Takacs et al.,
+ * Applications of the conjugate gradient method for implicit feedback collaborative filtering, RecSys 2011.
+ * </p>
+ *
  * @author wkq
  */
 @Configuration("binThold, alpha, factors, regU, regI, numIters")
 public class WRMF extends IterativeRecommender {
 	private float alpha;
-	private SparseMatrix CuiI;// C_{ui} = alpha * r_{ui} C_{ui}-1
-	private SparseMatrix Pui;// P_{ui} = 1 if r_{ui}>0 or P_{ui} = 0
-	private List<List<Integer>> userItemList, itemUserList;
+
+	// number of conjugate gradient steps per row, or 0 to solve by Cholesky decomposition
+	private int cgSteps;
 
 	public WRMF(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
 		super(trainMatrix, testMatrix, fold);
@@ -36,6 +51,7 @@ public class WRMF extends IterativeRecommender {
 		isRankingPred = true; // item recommendation
 
 		alpha = algoOptions.getFloat("-alpha");
+		cgSteps = algoOptions.contains("-cg") ? algoOptions.getInt("-cg", 3) : 0;
 		// checkBinary();
 	}
 
@@ -53,124 +69,228 @@ public class WRMF extends IterativeRecommender {
 			Q.init(); // Q.init(smallValue);
 		}
 
-		// predefined CuiI and Pui
-		CuiI = new SparseMatrix(trainMatrix);
-		Pui = new SparseMatrix(trainMatrix);
-		for (MatrixEntry me : trainMatrix) {
-			int u = me.row();
-			int i = me.column();
-			CuiI.set(u, i, alpha * 1);
-			// CuiI.set(u, i, Math.log(1.0 + Math.pow(10, alpha) * me.get()));
-			Pui.set(u, i, 1.0d);
-		}
-
-		this.userItemList = new ArrayList<>();
-		this.itemUserList = new ArrayList<>();
-
-		for (int u = 0; u < numUsers; u++) {
-			userItemList.add(trainMatrix.getColumns(u));
-		}
-		for (int i = 0; i < numItems; i++) {
-			itemUserList.add(trainMatrix.getRows(i));
-		}
+		// C_{ui} = 1 + alpha and P_{ui} = 1 for the rated items, C_{ui} = 1 and P_{ui} = 0 otherwise
+		userItems = rowIndex(trainMatrix);
+		itemUsers = columnIndex(trainMatrix);
 	}
 
 	@Override
 	protected void buildModel() throws Exception {
 		// To be consistent with the symbols in the paper
 		DenseMatrix X = P, Y = Q;
-		SparseMatrix IuMatrix = DiagMatrix.eye(numFactors).scale(regU);
-		SparseMatrix IiMatrix = DiagMatrix.eye(numFactors).scale(regI);
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
+			if (verbose)
+				Logs.debug("{}{} runs at iteration = {}", algoName, foldInfo, iter);
 
 			// Step 1: update user factors;
-			DenseMatrix Yt = Y.transpose();
-			DenseMatrix YtY = Yt.mult(Y);
-			for (int u = 0; u < numUsers; u++) {
-				if (verbose && (u + 1) % numUsers == 0)
-					Logs.debug("{}{} runs at iteration = {}, user = {}/{} {}", algoName, foldInfo, iter, u + 1,
-							numUsers, new Date());
-
-				DenseMatrix YtCuI = new DenseMatrix(numFactors, numItems);
-				for (int i : userItemList.get(u)) {
-					for (int k = 0; k < numFactors; k++) {
-						YtCuI.set(k, i, Y.get(i, k) * CuiI.get(u, i));
-					}
-				}
+			solve(X, Y, userItems, regU);
 
-				// YtY + Yt * (Cu - I) * Y
-				DenseMatrix YtCuY = new DenseMatrix(numFactors, numFactors);
-				for (int k = 0; k < numFactors; k++) {
-					for (int f = 0; f < numFactors; f++) {
-						double value = 0.0;
-						for (int i : userItemList.get(u)) {
-							value += YtCuI.get(k, i) * Y.get(i, f);
-						}
-						YtCuY.set(k, f, value);
-					}
-				}
-				YtCuY = YtCuY.add(YtY);
-				// (YtCuY + lambda * I)^-1
-				// lambda * I can be pre-difined because every time is the same.
-				DenseMatrix Wu = (YtCuY.add(IuMatrix)).inv();
-				// Yt * (Cu - I) * Pu + Yt * Pu
-				DenseVector YtCuPu = new DenseVector(numFactors);
-				for (int f = 0; f < numFactors; f++) {
-					for (int i : userItemList.get(u)) {
-						YtCuPu.add(f, Pui.get(u, i) * (YtCuI.get(f, i) + Yt.get(f, i)));
-					}
+			// Step 2: update item factors;
+			solve(Y, X, itemUsers, regI);
+
+			checkpoint(iter);
+		}
+	}
+
+	/**
+	 * update the rows of X by solving their normal equations in parallel, with Y fixed
+	 * 
+	 * @param X
+	 *            factors to update
+	 * @param Y
+	 *            fixed factors
+	 * @param rated
+	 *            rows of Y rated by each row of X
+	 * @param reg
+	 *            regularization of X
+	 */
+	private void solve(final DenseMatrix X, final DenseMatrix Y, final AdjacencyIndex rated, final double reg)
+			throws Exception {
+		final DenseMatrix YtY = Y.transMult();
+
+		int numRows = X.numRows();
+		int numTasks = Math.min(numRows, 4 * ComputePool.parallelism());
+
+		List<Callable<Void>> tasks = new ArrayList<>(numTasks);
+		for (int t = 0; t < numTasks; t++) {
+			final int start = (int) ((long) numRows * t / numTasks);
+			final int end = (int) ((long) numRows * (t + 1) / numTasks);
+			tasks.add(new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+					RowSolver solver = new RowSolver(YtY, reg);
+					for (int u = start; u < end; u++)
+						solver.solve(X.row(u, false).getData(), Y, rated.get(u));
+					return null;
 				}
+			});
+		}
+		ComputePool.invokeAll(tasks);
+	}
 
-				DenseVector xu = Wu.mult(YtCuPu);
-				// udpate user factors
-				X.setRow(u, xu);
+	/**
+	 * solver of the normal equations of rows, with scratch arrays of its own (i.e., of a thread)
+	 */
+	private class RowSolver {
+
+		private final int k = numFactors;
+		private final DenseMatrix YtY;
+		private final double reg;
+
+		// A in row-major order (Cholesky), or the residual, direction and product of CG
+		private final double[] A = new double[k * k], b = new double[k];
+		private final double[] r = new double[k], d = new double[k], Ad = new double[k];
+
+		RowSolver(DenseMatrix YtY, double reg) {
+			this.YtY = YtY;
+			this.reg = reg;
+		}
+
+		/**
+		 * solve the normal equations of a row into x, which holds the current factors of the row
+		 * 
+		 * @param items
+		 *            rows of Y rated by the row
+		 */
+		void solve(double[] x, DenseMatrix Y, int[] items) {
+			// b = Y^T C_u p_u = (1 + alpha) * sum of rated y_i
+			for (int f = 0; f < k; f++)
+				b[f] = 0;
+			for (int i : items) {
+				double[] yi = Y.row(i, false).getData();
+				for (int f = 0; f < k; f++)
+					b[f] += (1 + alpha) * yi[f];
 			}
 
-			// Step 2: update item factors;
-			DenseMatrix Xt = X.transpose();
-			DenseMatrix XtX = Xt.mult(X);
-			for (int i = 0; i < numItems; i++) {
-				if (verbose && (i + 1) % numItems == 0)
-					Logs.debug("{}{} runs at iteration = {}, item = {}/{} {}", algoName, foldInfo, iter, i + 1,
-							numItems, new Date());
-
-				DenseMatrix XtCiI = new DenseMatrix(numFactors, numUsers);
-				// actually XtCiI is a sparse matrix
-				// Xt * (Ci-I)
-				for (int u : itemUserList.get(i)) {
-					for (int k = 0; k < numFactors; k++) {
-						XtCiI.set(k, u, X.get(u, k) * CuiI.get(u, i));
-					}
-				}
-				// XtX + Xt * (Ci - I) * X
-				DenseMatrix XtCiX = new DenseMatrix(numFactors, numFactors);
-				for (int k = 0; k < numFactors; k++) {
-					for (int f = 0; f < numFactors; f++) {
-						double value = 0.0;
-						for (int u : itemUserList.get(i)) {
-							value += XtCiI.get(k, u) * X.get(u, f);
-						}
-						XtCiX.set(k, f, value);
-					}
+			if (cgSteps > 0)
+				conjugateGradient(x, Y, items);
+			else
+				cholesky(x, Y, items);
+		}
+
+		private void cholesky(double[] x, DenseMatrix Y, int[] items) {
+			// A = Y^T Y + Y^T (C_u - I) Y + lambda I
+			for (int f = 0; f < k; f++) {
+				for (int g = 0; g <= f; g++)
+					A[f * k + g] = YtY.get(f, g);
+				A[f * k + f] += reg;
+			}
+			for (int i : items) {
+				double[] yi = Y.row(i, false).getData();
+				for (int f = 0; f < k; f++) {
+					double ayf = alpha * yi[f];
+					for (int g = 0; g <= f; g++)
+						A[f * k + g] += ayf * yi[g];
 				}
-				XtCiX = XtCiX.add(XtX);
-
-				// (XtCuX + lambda * I)^-1
-				// lambda * I can be pre-difined because every time is the same.
-				DenseMatrix Wi = (XtCiX.add(IiMatrix)).inv();
-				// Xt * (Ci - I) * Pu + Xt * Pu
-				DenseVector XtCiPu = new DenseVector(numFactors);
-				for (int f = 0; f < numFactors; f++) {
-					for (int u : itemUserList.get(i)) {
-						XtCiPu.add(f, Pui.get(u, i) * (XtCiI.get(f, u) + Xt.get(f, u)));
-					}
+			}
+
+			if (DenseMatrix.choleskySolve(A, b, x, k))
+				return;
+
+			// not positive definite, e.g., without regularization: keep the current factors
+			Logs.warn("{}{}: singular normal equations, factors are not updated", algoName, foldInfo);
+		}
+
+		private void conjugateGradient(double[] x, DenseMatrix Y, int[] items) {
+			// r = b - A x, d = r
+			multiply(x, Y, items, Ad);
+			double rr = 0;
+			for (int f = 0; f < k; f++) {
+				r[f] = b[f] - Ad[f];
+				d[f] = r[f];
+				rr += r[f] * r[f];
+			}
+
+			for (int step = 0; step < cgSteps && rr > 1e-20; step++) {
+				multiply(d, Y, items, Ad);
+
+				double dAd = 0;
+				for (int f = 0; f < k; f++)
+					dAd += d[f] * Ad[f];
+				if (dAd <= 0)
+					break;
+
+				double a = rr / dAd, rr2 = 0;
+				for (int f = 0; f < k; f++) {
+					x[f] += a * d[f];
+					r[f] -= a * Ad[f];
+					rr2 += r[f] * r[f];
 				}
 
-				DenseVector yi = Wi.mult(XtCiPu);
-				// udpate item factors
-				Y.setRow(i, yi);
+				double beta = rr2 / rr;
+				for (int f = 0; f < k; f++)
+					d[f] = r[f] + beta * d[f];
+				rr = rr2;
+			}
+		}
+
+		/**
+		 * res = (Y^T Y + Y^T (C_u - I) Y + lambda I) v, without forming the matrix
+		 */
+		private void multiply(double[] v, DenseMatrix Y, int[] items, double[] res) {
+			for (int f = 0; f < k; f++) {
+				double sum = reg * v[f];
+				for (int g = 0; g < k; g++)
+					sum += YtY.get(f, g) * v[g];
+				res[f] = sum;
+			}
+			for (int i : items) {
+				double[] yi = Y.row(i, false).getData();
+				double yv = 0;
+				for (int f = 0; f < k; f++)
+					yv += yi[f] * v[f];
+				for (int f = 0; f < k; f++)
+					res[f] += alpha * yv * yi[f];
+			}
+		}
+	}
+
+	@Override
+	protected boolean isQuantizable() {
+		return true;
+	}
+
+	@Override
+	protected DenseVector userVector(int u) throws Exception {
+		return userFactors(u);
+	}
+
+	@Override
+	protected DenseMatrix itemVectors() throws Exception {
+		return itemFactors();
+	}
+
+	/**
+	 * user factors by one solve of the normal equations of the user step, with the item factors fixed: {@code (Y^T Y + Y^T
+	 * (C_u - I) Y + lambda I) x_u = Y^T C_u p_u}, where {@code Y^T Y} is computed once for all users
+	 */
+	@Override
+	public DenseVector foldIn(SparseVector ratings) throws Exception {
+		DenseMatrix YtY = itemGram();
+
+		int k = numFactors;
+		double[] A = new double[k * k], b = new double[k];
+		for (int f = 0; f < k; f++) {
+			for (int g = 0; g <= f; g++)
+				A[f * k + g] = YtY.get(f, g);
+			A[f * k + f] += regU;
+		}
+
+		for (VectorEntry ve : ratings) {
+			if (ve.get() <= 0)
+				continue;
+
+			double[] yi = itemFactors(ve.index()).getData();
+			for (int f = 0; f < k; f++) {
+				for (int g = 0; g <= f; g++)
+					A[f * k + g] += alpha * yi[f] * yi[g];
+				b[f] += (1 + alpha) * yi[f];
 			}
 		}
+
+		DenseVector xu = new DenseVector(k);
+		return DenseMatrix.choleskySolve(A, b, xu.getData(), k) ? xu : null;
 	}
 
 	@Override
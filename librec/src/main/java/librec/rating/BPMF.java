@@ -25,6 +25,8 @@ import librec.data.MatrixEntry;
 import librec.data.SparseMatrix;
 import librec.data.SparseVector;
 import librec.intf.IterativeRecommender;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
 import librec.util.Randoms;
 import librec.util.Strings;
 
@@ -43,6 +45,10 @@ import librec.util.Strings;
 @Configuration("factors, iters")
 public class BPMF extends IterativeRecommender {
 
+	// hyper-parameters of user and item features: means and precision matrices
+	private DenseVector mu_u, mu_m;
+	private DenseMatrix alpha_u, alpha_m;
+
 	public BPMF(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
 		super(trainMatrix, testMatrix, fold);
 
@@ -50,12 +56,32 @@ public class BPMF extends IterativeRecommender {
 	}
 
 	@Override
-	protected void buildModel() throws Exception {
+	protected void initModel() throws Exception {
+		super.initModel();
+
+		// initializing Bayesian PMF using MAP solution found by PMF
+		P = new DenseMatrix(numUsers, numFactors);
+		Q = new DenseMatrix(numItems, numFactors);
+
+		P.init(0, 1);
+		Q.init(0, 1);
 
 		// Initialize hierarchical priors
+		mu_u = new DenseVector(numFactors);
+		mu_m = new DenseVector(numFactors);
+		for (int f = 0; f < numFactors; f++) {
+			mu_u.set(f, P.columnMean(f));
+			mu_m.set(f, Q.columnMean(f));
+		}
+
+		alpha_u = P.cov().inv();
+		alpha_m = Q.cov().inv();
+	}
+
+	@Override
+	protected void buildModel() throws Exception {
+
 		int beta = 2; // observation noise (precision)
-		DenseVector mu_u = new DenseVector(numFactors);
-		DenseVector mu_m = new DenseVector(numFactors);
 
 		// parameters of Inv-Whishart distribution
 		DenseMatrix WI_u = DenseMatrix.eye(numFactors);
@@ -68,21 +94,6 @@ public class BPMF extends IterativeRecommender {
 		int df_m = numFactors;
 		DenseVector mu0_m = new DenseVector(numFactors);
 
-		// initializing Bayesian PMF using MAP solution found by PMF
-		P = new DenseMatrix(numUsers, numFactors);
-		Q = new DenseMatrix(numItems, numFactors);
-
-		P.init(0, 1);
-		Q.init(0, 1);
-
-		for (int f = 0; f < numFactors; f++) {
-			mu_u.set(f, P.columnMean(f));
-			mu_m.set(f, Q.columnMean(f));
-		}
-
-		DenseMatrix alpha_u = P.cov().inv();
-		DenseMatrix alpha_m = Q.cov().inv();
-
 		// Iteration:
 		DenseVector x_bar = new DenseVector(numFactors);
 		DenseVector normalRdn = new DenseVector(numFactors);
@@ -93,7 +104,7 @@ public class BPMF extends IterativeRecommender {
 
 		int M = numUsers, N = numItems;
 
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
 
 			// Sample from user hyper parameters:
 			for (int f = 0; f < numFactors; f++)
@@ -117,7 +128,7 @@ public class BPMF extends IterativeRecommender {
 				lam = lam.transpose();
 
 				for (int f = 0; f < numFactors; f++)
-					normalRdn.set(f, Randoms.gaussian(0, 1));
+					normalRdn.set(f, random.nextGaussian());
 
 				mu_u = lam.mult(normalRdn).add(mu_temp);
 			}
@@ -144,7 +155,7 @@ public class BPMF extends IterativeRecommender {
 				lam = lam.transpose();
 
 				for (int f = 0; f < numFactors; f++)
-					normalRdn.set(f, Randoms.gaussian(0, 1));
+					normalRdn.set(f, random.nextGaussian());
 
 				mu_m = lam.mult(normalRdn).add(mu_temp);
 			}
@@ -182,7 +193,7 @@ public class BPMF extends IterativeRecommender {
 					if (lam != null) {
 						lam = lam.transpose();
 						for (int f = 0; f < numFactors; f++)
-							normalRdn.set(f, Randoms.gaussian(0, 1));
+							normalRdn.set(f, random.nextGaussian());
 
 						DenseVector w1_P1_u = lam.mult(normalRdn).add(mean_u);
 
@@ -220,7 +231,7 @@ public class BPMF extends IterativeRecommender {
 					if (lam != null) {
 						lam = lam.transpose();
 						for (int f = 0; f < numFactors; f++)
-							normalRdn.set(f, Randoms.gaussian(0, 1));
+							normalRdn.set(f, random.nextGaussian());
 
 						DenseVector w1_M1_j = lam.mult(normalRdn).add(mean_m);
 
@@ -266,13 +277,13 @@ public class BPMF extends IterativeRecommender {
 
 		for (int i = 0; i < p; i++) {
 			for (int j = 0; j < p; j++) {
-				z.set(i, j, Randoms.gaussian(0, 1));
+				z.set(i, j, random.nextGaussian());
 			}
 		}
 
 		SparseVector y = new SparseVector(p);
 		for (int i = 0; i < p; i++)
-			y.set(i, Randoms.gamma((df - (i + 1)) / 2, 2));
+			y.set(i, Randoms.gamma((df - (i + 1)) / 2, 2, random));
 
 		DenseMatrix B = new DenseMatrix(p, p);
 		B.set(0, 0, y.get(0));
@@ -318,6 +329,26 @@ public class BPMF extends IterativeRecommender {
 		return globalMean + DenseMatrix.rowMult(P, u, Q, j);
 	}
 
+	@Override
+	protected void writeTrainState(ModelWriter out) throws Exception {
+		super.writeTrainState(out);
+
+		out.write("mu_u", mu_u);
+		out.write("mu_m", mu_m);
+		out.write("alpha_u", alpha_u);
+		out.write("alpha_m", alpha_m);
+	}
+
+	@Override
+	protected void readTrainState(ModelReader in) throws Exception {
+		super.readTrainState(in);
+
+		mu_u = in.readDenseVector("mu_u");
+		mu_m = in.readDenseVector("mu_m");
+		alpha_u = in.readDenseMatrix("alpha_u");
+		alpha_m = in.readDenseMatrix("alpha_m");
+	}
+
 	@Override
 	public String toString() {
 		return Strings.toString(new Object[] { numFactors, numIters });
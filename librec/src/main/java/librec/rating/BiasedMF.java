@@ -20,8 +20,9 @@ package librec.rating;
 
 import librec.data.DenseMatrix;
 import librec.data.DenseVector;
-import librec.data.MatrixEntry;
 import librec.data.SparseMatrix;
+import librec.data.SparseVector;
+import librec.data.VectorEntry;
 import librec.intf.IterativeRecommender;
 
 /**
@@ -51,50 +52,55 @@ public class BiasedMF extends IterativeRecommender {
 		itemBias.init(initMean, initStd);
 	}
 
+	@Override
+	protected boolean isOptimizerSupported() {
+		return true;
+	}
+
 	@Override
 	protected void buildModel() throws Exception {
 
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
 
-			loss = 0;
-			for (MatrixEntry me : trainMatrix) {
+			loss = sgdEpoch(new RatingUpdate() {
 
-				int u = me.row(); // user
-				int j = me.column(); // item
-				double ruj = me.get();
+				@Override
+				public double update(int u, int j, double ruj) throws Exception {
+					double pred = predict(u, j, false);
+					double euj = ruj - pred;
 
-				double pred = predict(u, j, false);
-				double euj = ruj - pred;
+					double loss = euj * euj;
 
-				loss += euj * euj;
+					// update factors
+					double bu = userBias.get(u);
+					double sgd = euj - regB * bu;
+					userBias.add(u, optUserBias.step(u, sgd, lRate));
 
-				// update factors
-				double bu = userBias.get(u);
-				double sgd = euj - regB * bu;
-				userBias.add(u, lRate * sgd);
+					loss += regB * bu * bu;
 
-				loss += regB * bu * bu;
+					double bj = itemBias.get(j);
+					sgd = euj - regB * bj;
+					itemBias.add(j, optItemBias.step(j, sgd, lRate));
 
-				double bj = itemBias.get(j);
-				sgd = euj - regB * bj;
-				itemBias.add(j, lRate * sgd);
+					loss += regB * bj * bj;
 
-				loss += regB * bj * bj;
+					for (int f = 0; f < numFactors; f++) {
+						double puf = P.get(u, f);
+						double qjf = Q.get(j, f);
 
-				for (int f = 0; f < numFactors; f++) {
-					double puf = P.get(u, f);
-					double qjf = Q.get(j, f);
+						double delta_u = euj * qjf - regU * puf;
+						double delta_j = euj * puf - regI * qjf;
 
-					double delta_u = euj * qjf - regU * puf;
-					double delta_j = euj * puf - regI * qjf;
+						P.add(u, f, optP.step(u, f, delta_u, lRate));
+						Q.add(j, f, optQ.step(j, f, delta_j, lRate));
 
-					P.add(u, f, lRate * delta_u);
-					Q.add(j, f, lRate * delta_j);
+						loss += regU * puf * puf + regI * qjf * qjf;
+					}
 
-					loss += regU * puf * puf + regI * qjf * qjf;
+					return loss;
 				}
+			});
 
-			}
 			loss *= 0.5;
 
 			if (isConverged(iter))
@@ -105,7 +111,87 @@ public class BiasedMF extends IterativeRecommender {
 	}
 
 	public double predict(int u, int j) throws Exception {
-		return globalMean + userBias.get(u) + itemBias.get(j) + DenseMatrix.rowMult(P, u, Q, j);
+		return globalMean + userBias.get(u) + itemBias.get(j) + factorMult(u, j);
+	}
+
+	@Override
+	protected boolean isQuantizable() {
+		return true;
+	}
+
+	/**
+	 * user factors augmented by 1 and the user's share of the prediction (global mean and user bias), such that its
+	 * inner product with an item vector is the prediction
+	 */
+	@Override
+	protected DenseVector userVector(int u) throws Exception {
+		return userVector(userFactors(u), userBias.get(u));
+	}
+
+	/**
+	 * @return user factors augmented by 1 and the global mean plus a user bias
+	 */
+	protected DenseVector userVector(DenseVector factors, double bu) {
+		DenseVector pu = new DenseVector(numFactors + 2);
+		for (int f = 0; f < numFactors; f++)
+			pu.set(f, factors.get(f));
+		pu.set(numFactors, 1);
+		pu.set(numFactors + 1, globalMean + bu);
+
+		return pu;
+	}
+
+	/**
+	 * item factors augmented by item biases and 1
+	 */
+	@Override
+	protected DenseMatrix itemVectors() throws Exception {
+		DenseMatrix factors = itemFactors();
+		DenseMatrix qs = new DenseMatrix(numItems, numFactors + 2);
+		for (int j = 0; j < numItems; j++) {
+			for (int f = 0; f < numFactors; f++)
+				qs.set(j, f, factors.get(j, f));
+			qs.set(j, numFactors, itemBias.get(j));
+			qs.set(j, numFactors + 1, 1);
+		}
+
+		return qs;
+	}
+
+	/**
+	 * user factors and bias learned by a few passes of SGD over the given ratings, with the item factors and biases
+	 * fixed
+	 */
+	@Override
+	public DenseVector foldIn(SparseVector ratings) throws Exception {
+		DenseVector implicit = implicitFactors(ratings);
+
+		DenseVector pu = new DenseVector(numFactors);
+		double bu = 0;
+		for (int iter = 0; iter < foldInIters; iter++) {
+			for (VectorEntry ve : ratings) {
+				int j = ve.index();
+				DenseVector qj = itemFactors(j);
+
+				double pred = globalMean + bu + itemBias.get(j);
+				for (int f = 0; f < numFactors; f++)
+					pred += (pu.get(f) + implicit.get(f)) * qj.get(f);
+				double euj = ve.get() - pred;
+
+				bu += initLRate * (euj - regB * bu);
+				for (int f = 0; f < numFactors; f++)
+					pu.add(f, initLRate * (euj * qj.get(f) - regU * pu.get(f)));
+			}
+		}
+
+		return userVector(pu.add(implicit), bu);
+	}
+
+	/**
+	 * @return factors of a user implied by the items rated, added to the user factors: none by default
+	 */
+	protected DenseVector implicitFactors(SparseVector ratings) throws Exception {
+		return new DenseVector(numFactors);
 	}
 
 }
@@ -22,6 +22,8 @@ import librec.data.DenseMatrix;
 import librec.data.SparseMatrix;
 import librec.data.TensorEntry;
 import librec.intf.TensorRecommender;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
 
 /**
  * CANDECOMP/PARAFAC (CP) Tensor Factorization <br>
@@ -71,7 +73,7 @@ public class CPTF extends TensorRecommender {
 
 	@Override
 	protected void buildModel() throws Exception {
-		for (int iter = 1; iter < numIters; iter++) {
+		for (int iter = startIter; iter < numIters; iter++) {
 
 			DenseMatrix[] Ms = new DenseMatrix[numDimensions];
 			for (int d = 0; d < numDimensions; d++) {
@@ -147,4 +149,18 @@ public class CPTF extends TensorRecommender {
 
 		return pred;
 	}
+
+	@Override
+	protected void writeModel(ModelWriter out) throws Exception {
+		super.writeModel(out);
+
+		out.write("M", M);
+	}
+
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		M = in.readDenseMatrices("M");
+	}
 }
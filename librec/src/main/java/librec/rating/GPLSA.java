@@ -18,10 +18,6 @@
 
 package librec.rating;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 import librec.data.AddConfiguration;
 import librec.data.DenseMatrix;
 import librec.data.DenseVector;
@@ -29,16 +25,15 @@ import librec.data.MatrixEntry;
 import librec.data.SparseMatrix;
 import librec.data.SparseVector;
 import librec.data.VectorEntry;
-import librec.intf.GraphicRecommender;
+import librec.intf.SweepRecommender;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
 import librec.util.Gaussian;
 import librec.util.Logs;
 import librec.util.Randoms;
 import librec.util.Stats;
 import librec.util.Strings;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
-
 /**
  * Thomas Hofmann, <strong>Collaborative Filtering via Gaussian Probabilistic Latent Semantic Analysis</strong>, SIGIR
  * 2003. <br>
@@ -50,10 +45,13 @@ import com.google.common.collect.Table;
  *
  */
 @AddConfiguration(before = "factors, q, b")
-public class GPLSA extends GraphicRecommender {
+public class GPLSA extends SweepRecommender {
 
-	// {user, item, {factor z, probability}}
-	private Table<Integer, Integer, Map<Integer, Double>> Q;
+	// entry[n][z]: probability of factor z of the n-th rating, in the (CRS) order of the training matrix
+	private double[][] Q;
+
+	// ratings of item i: the n-th ratings for n in itemTokens[itemPtr[i], itemPtr[i + 1])
+	private int[] itemPtr, itemTokens;
 	private DenseMatrix Mu, Sigma;
 
 	private DenseVector mu, sigma;
@@ -108,19 +106,27 @@ public class GPLSA extends GraphicRecommender {
 		}
 
 		// initialize Q
-		Q = HashBasedTable.create();
+		Q = new double[numRates][numFactors];
 
 		for (MatrixEntry me : trainMatrix) {
 			int u = me.row();
-			int i = me.column();
 			double rate = me.get();
 
 			double r = (rate - mu.get(u)) / sigma.get(u); // continuous ratings
 			me.set(r);
-
-			Q.put(u, i, new HashMap<Integer, Double>());
 		}
 
+		int[] colInd = trainMatrix.getColumnIndices();
+		itemPtr = new int[numItems + 1];
+		for (int n = 0; n < numRates; n++)
+			itemPtr[colInd[n] + 1]++;
+		for (int i = 0; i < numItems; i++)
+			itemPtr[i + 1] += itemPtr[i];
+		itemTokens = new int[numRates];
+		int[] next = itemPtr.clone();
+		for (int n = 0; n < numRates; n++)
+			itemTokens[next[colInd[n]]++] = n;
+
 		// initialize Mu, Sigma
 		Mu = new DenseMatrix(numItems, numFactors);
 		Sigma = new DenseMatrix(numItems, numFactors);
@@ -147,46 +153,57 @@ public class GPLSA extends GraphicRecommender {
 	}
 
 	@Override
-	protected void eStep() {
+	protected void eStep() throws Exception {
 		// variational inference to compute Q
-		for (MatrixEntry me : trainMatrix) {
-			int u = me.row();
-			int i = me.column();
-			double r = me.get();
-
-			double denominator = 0;
-			double[] numerator = new double[numFactors];
-			for (int z = 0; z < numFactors; z++) {
-				double pdf = Gaussian.pdf(r, Mu.get(i, z), Sigma.get(i, z));
-				double val = Math.pow(Puk.get(u, z) * pdf, b); // Tempered EM
-
-				numerator[z] = val;
-				denominator += val;
-			}
+		sweep();
+	}
 
-			Map<Integer, Double> factorProbs = Q.get(u, i);
-			for (int z = 0; z < numFactors; z++) {
-				double prob = (denominator > 0 ? numerator[z] / denominator : 0);
-				factorProbs.put(z, prob);
+	@Override
+	protected SweepWorker newWorker(boolean isLocal) {
+		return new SweepWorker(isLocal) {
+
+			@Override
+			protected void sweep(int u) {
+				int[] rowPtr = trainMatrix.getRowPointers(), colInd = trainMatrix.getColumnIndices();
+				double[] rates = trainMatrix.getData();
+
+				for (int n = rowPtr[u]; n < rowPtr[u + 1]; n++) {
+					int i = colInd[n];
+					double r = rates[n];
+
+					double[] Qn = Q[n];
+					double denominator = 0;
+					for (int z = 0; z < numFactors; z++) {
+						double pdf = Gaussian.pdf(r, Mu.get(i, z), Sigma.get(i, z));
+						double val = Math.pow(Puk.get(u, z) * pdf, b); // Tempered EM
+
+						Qn[z] = val;
+						denominator += val;
+					}
+
+					for (int z = 0; z < numFactors; z++)
+						Qn[z] = denominator > 0 ? Qn[z] / denominator : 0;
+				}
 			}
-		}
+		};
 	}
 
 	@Override
 	protected void mStep() {
+		int[] rowPtr = trainMatrix.getRowPointers();
+		double[] rates = trainMatrix.getData();
 
 		// theta_u,z
+		double[] numerator = new double[numFactors];
 		for (int u = 0; u < numUsers; u++) {
-			List<Integer> items = trainMatrix.getColumns(u);
-			if (items.size() < 1)
+			if (rowPtr[u + 1] == rowPtr[u])
 				continue;
 
-			double[] numerator = new double[numFactors];
 			double denominator = 0;
 			for (int z = 0; z < numFactors; z++) {
-
-				for (int i : items) {
-					numerator[z] += Q.get(u, i).get(z);
+				numerator[z] = 0;
+				for (int n = rowPtr[u]; n < rowPtr[u + 1]; n++) {
+					numerator[z] += Q[n][z];
 				}
 
 				denominator += numerator[z];
@@ -199,35 +216,36 @@ public class GPLSA extends GraphicRecommender {
 
 		// Mu, Sigma
 		for (int i = 0; i < numItems; i++) {
-			List<Integer> users = trainMatrix.getRows(i);
-			if (users.size() < 1)
+			if (itemPtr[i + 1] == itemPtr[i])
 				continue;
 
 			for (int z = 0; z < numFactors; z++) {
-				double numerator = 0, denominator = 0;
+				double num = 0, denominator = 0;
 
-				for (int u : users) {
-					double r = trainMatrix.get(u, i);
-					double prob = Q.get(u, i).get(z);
+				for (int k = itemPtr[i]; k < itemPtr[i + 1]; k++) {
+					int n = itemTokens[k];
+					double r = rates[n];
+					double prob = Q[n][z];
 
-					numerator += r * prob;
+					num += r * prob;
 					denominator += prob;
 				}
 
-				double mu = denominator > 0 ? numerator / denominator : 0;
+				double mu = denominator > 0 ? num / denominator : 0;
 				Mu.set(i, z, mu);
 
-				numerator = 0;
+				num = 0;
 				denominator = 0;
-				for (int u : users) {
-					double r = trainMatrix.get(u, i);
-					double prob = Q.get(u, i).get(z);
+				for (int k = itemPtr[i]; k < itemPtr[i + 1]; k++) {
+					int n = itemTokens[k];
+					double r = rates[n];
+					double prob = Q[n][z];
 
-					numerator += Math.pow(r - mu, 2) * prob;
+					num += Math.pow(r - mu, 2) * prob;
 					denominator += prob;
 				}
 
-				double sigma = denominator > 0 ? Math.sqrt(numerator / denominator) : 0;
+				double sigma = denominator > 0 ? Math.sqrt(num / denominator) : 0;
 				Sigma.set(i, z, sigma);
 			}
 
@@ -288,6 +306,26 @@ public class GPLSA extends GraphicRecommender {
 		return false;
 	}
 
+	@Override
+	protected void writeModel(ModelWriter out) throws Exception {
+		super.writeModel(out);
+
+		out.write("Mu", Mu);
+		out.write("Sigma", Sigma);
+		out.write("mu", mu);
+		out.write("sigma", sigma);
+	}
+
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		Mu = in.readDenseMatrix("Mu");
+		Sigma = in.readDenseMatrix("Sigma");
+		mu = in.readDenseVector("mu");
+		sigma = in.readDenseVector("sigma");
+	}
+
 	@Override
 	public String toString() {
 		return Strings.toString(new Object[] { numFactors, q, b }) + ", " + super.toString();
@@ -29,6 +29,8 @@ import librec.data.SparseMatrix;
 import librec.data.SparseVector;
 import librec.data.SymmMatrix;
 import librec.intf.Recommender;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
 import librec.util.Lists;
 import librec.util.Stats;
 import librec.util.Strings;
@@ -127,6 +129,22 @@ public class ItemKNN extends Recommender {
 		}
 	}
 
+	@Override
+	protected void writeModel(ModelWriter out) throws Exception {
+		super.writeModel(out);
+
+		out.write("itemCorrs", itemCorrs);
+		out.write("itemMeans", itemMeans);
+	}
+
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		itemCorrs = in.readSymmMatrix("itemCorrs");
+		itemMeans = in.readDenseVector("itemMeans");
+	}
+
 	@Override
 	public String toString() {
 		return Strings.toString(new Object[] { knn, similarityMeasure, similarityShrinkage });
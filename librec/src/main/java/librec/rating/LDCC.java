@@ -18,18 +18,20 @@
 
 package librec.rating;
 
+import java.util.Arrays;
+
 import librec.data.AddConfiguration;
 import librec.data.DenseMatrix;
 import librec.data.DenseVector;
 import librec.data.MatrixEntry;
 import librec.data.SparseMatrix;
 import librec.intf.GraphicRecommender;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
 import librec.util.Logs;
+import librec.util.Randoms;
 import librec.util.Strings;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
-
 /**
  * LDCC: Bayesian Co-clustering (BCC) with Gibbs sampling <br>
  * 
@@ -42,7 +44,11 @@ import com.google.common.collect.Table;
 @AddConfiguration(before = "Ku, Kv, au, av, beta")
 public class LDCC extends GraphicRecommender {
 
-	private Table<Integer, Integer, Integer> Zu, Zv;
+	// user's and item's factors of the ratings, in the (row-major) order of the training matrix
+	private int[] Zu, Zv;
+
+	// buffers of the joint and marginal probabilities of sampling
+	private double[] probs, Pu, Pv;
 
 	private DenseMatrix Nui, Nvj;
 	private DenseVector Nv;
@@ -80,17 +86,18 @@ public class LDCC extends GraphicRecommender {
 		av = algoOptions.getFloat("-av", 1.0f / Kv); // alpha for item
 		bl = algoOptions.getFloat("-beta", 1.0f / numLevels); // beta for rating levels
 
-		Zu = HashBasedTable.create();
-		Zv = HashBasedTable.create();
+		Zu = new int[numRates];
+		Zv = new int[numRates];
 
+		int t = 0;
 		for (MatrixEntry me : trainMatrix) {
 			int u = me.row();
 			int v = me.column();
 			double rate = me.get();
 			int l = ratingScale.indexOf(rate);
 
-			int i = (int) (Ku * Math.random());
-			int j = (int) (Kv * Math.random());
+			int i = Randoms.uniform(Ku);
+			int j = Randoms.uniform(Kv);
 
 			Nui.add(u, i, 1);
 			Nu.add(u, 1);
@@ -101,10 +108,15 @@ public class LDCC extends GraphicRecommender {
 			Nijl[i][j][l]++;
 			Nij.add(i, j, 1);
 
-			Zu.put(u, v, i);
-			Zv.put(u, v, j);
+			Zu[t] = i;
+			Zv[t] = j;
+			t++;
 		}
 
+		probs = new double[Ku * Kv];
+		Pu = new double[Ku];
+		Pv = new double[Kv];
+
 		// parameters
 		PIuSum = new DenseMatrix(numUsers, Ku);
 		PIvSum = new DenseMatrix(numItems, Kv);
@@ -114,6 +126,7 @@ public class LDCC extends GraphicRecommender {
 
 	@Override
 	protected void eStep() {
+		int t = 0;
 		for (MatrixEntry me : trainMatrix) {
 			int u = me.row();
 			int v = me.column();
@@ -121,8 +134,8 @@ public class LDCC extends GraphicRecommender {
 			int l = ratingScale.indexOf(rate);
 
 			// user and item's factors
-			int i = Zu.get(u, v);
-			int j = Zv.get(u, v);
+			int i = Zu[t];
+			int j = Zv[t];
 
 			// remove this observation
 			Nui.add(u, i, -1);
@@ -135,52 +148,29 @@ public class LDCC extends GraphicRecommender {
 			Nij.add(i, j, -1);
 
 			// compute P(i, j)
-			DenseMatrix probs = new DenseMatrix(Ku, Kv);
-			double sum = 0;
 			for (int m = 0; m < Ku; m++) {
+				double v1 = (Nui.get(u, m) + au) / (Nu.get(u) + Ku * au);
 				for (int n = 0; n < Kv; n++) {
 					// compute Pmn
-					double v1 = (Nui.get(u, m) + au) / (Nu.get(u) + Ku * au);
 					double v2 = (Nvj.get(v, n) + av) / (Nv.get(v) + Kv * av);
 					double v3 = (Nijl[m][n][l] + bl) / (Nij.get(m, n) + numLevels * bl);
 
-					double prob = v1 * v2 * v3;
-					probs.set(m, n, prob);
-					sum += prob;
+					probs[m * Kv + n] = v1 * v2 * v3;
 				}
 			}
 
-			probs = probs.scale(1.0 / sum);
-
-			// re-sample user factor
-			double[] Pu = new double[Ku];
+			// re-sample user and item factors by the marginals of (unnormalized) P(i, j)
+			Arrays.fill(Pv, 0);
 			for (int m = 0; m < Ku; m++) {
-				Pu[m] = probs.sumOfRow(m);
-			}
-			for (int m = 1; m < Ku; m++) {
-				Pu[m] += Pu[m - 1];
-			}
-
-			double rand = Math.random();
-			for (i = 0; i < Ku; i++) {
-				if (rand < Pu[i])
-					break;
-			}
-
-			// re-sample item factor
-			double[] Pv = new double[Kv];
-			for (int n = 0; n < Kv; n++) {
-				Pv[n] = probs.sumOfColumn(n);
-			}
-			for (int n = 1; n < Kv; n++) {
-				Pv[n] += Pv[n - 1];
-			}
-
-			rand = Math.random();
-			for (j = 0; j < Kv; j++) {
-				if (rand < Pv[j])
-					break;
+				double sum = 0;
+				for (int n = 0; n < Kv; n++) {
+					sum += probs[m * Kv + n];
+					Pv[n] += probs[m * Kv + n];
+				}
+				Pu[m] = sum;
 			}
+			i = sample(Pu, Ku);
+			j = sample(Pv, Kv);
 
 			// add statistics
 			Nui.add(u, i, 1);
@@ -192,8 +182,9 @@ public class LDCC extends GraphicRecommender {
 			Nijl[i][j][l]++;
 			Nij.add(i, j, 1);
 
-			Zu.put(u, v, i);
-			Zv.put(u, v, j);
+			Zu[t] = i;
+			Zv[t] = j;
+			t++;
 		}
 	}
 
@@ -300,6 +291,24 @@ public class LDCC extends GraphicRecommender {
 		return pred;
 	}
 
+	@Override
+	protected void writeModel(ModelWriter out) throws Exception {
+		super.writeModel(out);
+
+		out.write("PIu", PIu);
+		out.write("PIv", PIv);
+		out.write("Pijl", Pijl);
+	}
+
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		PIu = in.readDenseMatrix("PIu");
+		PIv = in.readDenseMatrix("PIv");
+		Pijl = in.readDoubleArray3("Pijl");
+	}
+
 	@Override
 	public String toString() {
 		return Strings.toString(new Object[] { Ku, Kv, au, av, bl }) + ", " + super.toString();
@@ -6,6 +6,9 @@ import librec.data.MatrixEntry;
 import librec.data.SparseMatrix;
 import librec.intf.IterativeRecommender;
 import librec.intf.Recommender;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
+import librec.util.ComputePool;
 import librec.util.KernelSmoothing;
 import librec.util.Logs;
 import java.util.List;
@@ -23,16 +26,16 @@ import java.util.List;
 
 public class LLORMA extends IterativeRecommender {
 
-	private static int localNumFactors;
-	private static int localNumIters;
-	private static int multiThreadCount;
-	protected static float localRegU, localRegI;
+	private int localNumFactors;
+	private int localNumIters;
+	private int multiThreadCount;
+	protected float localRegU, localRegI;
 
 	private float localLRate;
 	private SparseMatrix predictMatrix;
-	private static int modelMax;
+	private int modelMax;
 
-	private static SparseMatrix testIndexMatrix;// test index matrix for predict
+	private SparseMatrix testIndexMatrix;// test index matrix for predict
 
 	private SparseMatrix cumPrediction, cumWeight;
 
@@ -40,7 +43,8 @@ public class LLORMA extends IterativeRecommender {
 		super(trainMatrix, testMatrix, fold);
 		algoOptions = cf.getParamOptions("LLORMA");
 		localNumFactors = algoOptions.getInt("-lnf", 20);
-		multiThreadCount = algoOptions.getInt("-mtc", 4);
+		// local models learned concurrently: as many as threads of the compute pool, unless given by option -mtc
+		multiThreadCount = algoOptions.getInt("-mtc", ComputePool.parallelism());
 		modelMax = algoOptions.getInt("-mm", 50);
 		multiThreadCount = multiThreadCount > modelMax ? modelMax : multiThreadCount;
 		localNumIters = algoOptions.getInt("-lni", 100);
@@ -78,7 +82,7 @@ public class LLORMA extends IterativeRecommender {
 
 	// global svd P Q
 	private void buildGlobalModel() throws Exception {
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
 			for (MatrixEntry me : trainMatrix) {
 
 				int u = me.row(); // user
@@ -96,6 +100,7 @@ public class LLORMA extends IterativeRecommender {
 				}
 			}
 
+			checkpoint(iter);
 		} // end of training
 	}
 
@@ -106,6 +111,7 @@ public class LLORMA extends IterativeRecommender {
 		int completeModelCount = 0;
 
 		LLORMAUpdater[] learners = new LLORMAUpdater[multiThreadCount];
+		ComputePool.Task<?>[] tasks = new ComputePool.Task<?>[multiThreadCount];
 		int[] anchorUser = new int[modelMax];
 		int[] anchorItem = new int[modelMax];
 
@@ -139,7 +145,7 @@ public class LLORMA extends IterativeRecommender {
 					// Starting a new local model learning:
 					learners[nextRunningSlot] = new LLORMAUpdater(modelCount, localNumFactors, numUsers, numItems, u_t,
 							i_t, localLRate, localRegU, localRegI, localNumIters, w, v, trainMatrix);
-					learners[nextRunningSlot].start();
+					tasks[nextRunningSlot] = ComputePool.submit(learners[nextRunningSlot]);
 
 					runningThreadList[runningThreadCount] = modelCount;
 					runningThreadCount++;
@@ -147,11 +153,7 @@ public class LLORMA extends IterativeRecommender {
 					nextRunningSlot++;
 				} else if (runningThreadCount > 0) {
 					// Joining a local model which was done with learning:
-					try {
-						learners[waitingThreadPointer].join();
-					} catch (InterruptedException ie) {
-						System.out.println("Join failed: " + ie);
-					}
+					tasks[waitingThreadPointer].result();
 
 					int mp = waitingThreadPointer;
 					int mc = completeModelCount;
@@ -290,4 +292,18 @@ public class LLORMA extends IterativeRecommender {
 	public double predict(int u, int i) throws Exception {
 		return predictMatrix.get(u, i);
 	}
+
+	@Override
+	protected void writeModel(ModelWriter out) throws Exception {
+		super.writeModel(out);
+
+		out.write("predictMatrix", predictMatrix);
+	}
+
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		predictMatrix = in.readSparseMatrix("predictMatrix");
+	}
 }
@@ -17,7 +17,7 @@ import librec.util.Randoms;
  * @author wkq
  */
 
-public class LLORMAUpdater extends Thread {
+public class LLORMAUpdater implements Runnable {
 	/**
 	 * The unique identifier of the thread.
 	 */
@@ -18,7 +18,8 @@
 
 package librec.rating;
 
-import librec.data.MatrixEntry;
+import librec.data.DenseMatrix;
+import librec.data.DenseVector;
 import librec.data.SparseMatrix;
 import librec.intf.IterativeRecommender;
 
@@ -38,34 +39,38 @@ public class PMF extends IterativeRecommender {
 		super(rm, tm, fold);
 	}
 
+	@Override
+	protected boolean isOptimizerSupported() {
+		return true;
+	}
+
 	@Override
 	protected void buildModel() throws Exception {
 
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
 
-			loss = 0;
-			for (MatrixEntry me : trainMatrix) {
+			loss = sgdEpoch(new RatingUpdate() {
 
-				int u = me.row(); // user
-				int j = me.column(); // item
-				double ruj = me.get();
+				@Override
+				public double update(int u, int j, double ruj) throws Exception {
+					double puj = predict(u, j, false);
+					double euj = ruj - puj;
 
-				double puj = predict(u, j, false);
-				double euj = ruj - puj;
+					double loss = euj * euj;
 
-				loss += euj * euj;
+					// update factors
+					for (int f = 0; f < numFactors; f++) {
+						double puf = P.get(u, f), qjf = Q.get(j, f);
 
-				// update factors
-				for (int f = 0; f < numFactors; f++) {
-					double puf = P.get(u, f), qjf = Q.get(j, f);
+						P.add(u, f, optP.step(u, f, euj * qjf - regU * puf, lRate));
+						Q.add(j, f, optQ.step(j, f, euj * puf - regI * qjf, lRate));
 
-					P.add(u, f, lRate * (euj * qjf - regU * puf));
-					Q.add(j, f, lRate * (euj * puf - regI * qjf));
+						loss += regU * puf * puf + regI * qjf * qjf;
+					}
 
-					loss += regU * puf * puf + regI * qjf * qjf;
+					return loss;
 				}
-
-			}
+			});
 
 			loss *= 0.5;
 
@@ -76,4 +81,19 @@ public class PMF extends IterativeRecommender {
 
 	}
 
+	@Override
+	protected boolean isQuantizable() {
+		return true;
+	}
+
+	@Override
+	protected DenseVector userVector(int u) throws Exception {
+		return userFactors(u);
+	}
+
+	@Override
+	protected DenseMatrix itemVectors() throws Exception {
+		return itemFactors();
+	}
+
 }
@@ -39,7 +39,7 @@ public class RSTE extends SocialRecommender {
 
 	private float alpha;
 
-	public RSTE(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
+	public RSTE(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) throws Exception {
 		super(trainMatrix, testMatrix, fold);
 
 		initByNorm = false;
@@ -48,7 +48,7 @@ public class RSTE extends SocialRecommender {
 
 	@Override
 	protected void buildModel() throws Exception {
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
 
 			loss = 0;
 
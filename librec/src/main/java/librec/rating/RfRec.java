@@ -23,6 +23,8 @@ import librec.data.DenseVector;
 import librec.data.MatrixEntry;
 import librec.data.SparseMatrix;
 import librec.intf.IterativeRecommender;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
 
 /**
  * Gedikli et al., <strong>RF-Rec: Fast and Accurate Computation of Recommendations based on Rating
@@ -198,4 +200,28 @@ public class RfRec extends IterativeRecommender {
 		}
 		return estimate;
 	}
+
+	@Override
+	protected void writeModel(ModelWriter out) throws Exception {
+		super.writeModel(out);
+
+		out.write("userAverages", userAverages);
+		out.write("itemAverages", itemAverages);
+		out.write("userRatingFrequencies", userRatingFrequencies);
+		out.write("itemRatingFrequencies", itemRatingFrequencies);
+		out.write("userWeights", userWeights);
+		out.write("itemWeights", itemWeights);
+	}
+
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		userAverages = in.readDenseVector("userAverages");
+		itemAverages = in.readDenseVector("itemAverages");
+		userRatingFrequencies = in.readDenseMatrix("userRatingFrequencies");
+		itemRatingFrequencies = in.readDenseMatrix("itemRatingFrequencies");
+		userWeights = in.readDenseVector("userWeights");
+		itemWeights = in.readDenseVector("itemWeights");
+	}
 }
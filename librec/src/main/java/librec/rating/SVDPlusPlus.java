@@ -18,16 +18,28 @@
 
 package librec.rating;
 
-import java.util.List;
+import java.util.Arrays;
 
 import librec.data.DenseMatrix;
-import librec.data.MatrixEntry;
+import librec.data.DenseVector;
 import librec.data.SparseMatrix;
+import librec.data.SparseVector;
+import librec.data.VectorEntry;
+import librec.intf.Optimizer;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
 
 /**
  * Yehuda Koren, <strong>Factorization Meets the Neighborhood: a Multifaceted Collaborative Filtering Model.</strong>,
  * KDD 2008.
  * 
+ * <p>
+ * Ratings are trained grouped by users: the implicit factors of a user, i.e., {@code |N(u)|^-1/2 sum_{k in N(u)} y_k},
+ * are summed once per user, and the gradients of {@code y_k} are accumulated over the ratings of the user and applied
+ * (with their regularization) once per user, such that an epoch is linear in the number of ratings. The implicit
+ * factors of all users are cached for prediction, and refreshed after each epoch.
+ * </p>
+ * 
  * @author guoguibing
  * 
  */
@@ -35,6 +47,12 @@ public class SVDPlusPlus extends BiasedMF {
 
 	protected DenseMatrix Y;
 
+	// update rule of Y
+	protected Optimizer optY;
+
+	// cached implicit factors of users
+	protected DenseMatrix Yu;
+
 	public SVDPlusPlus(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
 		super(trainMatrix, testMatrix, fold);
 
@@ -47,76 +65,96 @@ public class SVDPlusPlus extends BiasedMF {
 
 		Y = new DenseMatrix(numItems, numFactors);
 		Y.init(initMean, initStd);
+		optY = newOptimizer(numItems, numFactors);
 
-		userItemsCache = trainMatrix.rowColumnsCache(cacheSpec);
+		userItems = rowIndex(trainMatrix);
+		Yu = new DenseMatrix(numUsers, numFactors);
+		updateImplicitFactors();
 	}
 
 	@Override
 	protected void buildModel() throws Exception {
 
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
 
-			loss = 0;
-			for (MatrixEntry me : trainMatrix) {
+			loss = userEpoch(new UserUpdate() {
 
-				int u = me.row(); // user
-				int j = me.column(); // item
-				double ruj = me.get();
+				@Override
+				public double update(int u) throws Exception {
+					int[] items = userItems.get(u);
+					double[] ratings = userItems.values(u);
+					if (items.length == 0)
+						return 0;
 
-				double pred = predict(u, j);
-				double euj = ruj - pred;
+					double w = Math.sqrt(items.length);
+					double loss = 0;
 
-				loss += euj * euj;
+					// implicit factors, and the gradients of y_k (the same for all k in N(u)) summed over ratings
+					double[] sum_ys = new double[numFactors], sum_dy = new double[numFactors];
+					for (int k : items) {
+						double[] yk = Y.row(k, false).getData();
+						for (int f = 0; f < numFactors; f++)
+							sum_ys[f] += yk[f];
+					}
+					for (int f = 0; f < numFactors; f++)
+						sum_ys[f] /= w;
 
-				List<Integer> items = userItemsCache.get(u);
-				double w = Math.sqrt(items.size());
+					for (int n = 0; n < items.length; n++) {
+						int j = items[n];
+						double ruj = ratings[n];
 
-				// update factors
-				double bu = userBias.get(u);
-				double sgd = euj - regB * bu;
-				userBias.add(u, lRate * sgd);
+						double pred = globalMean + userBias.get(u) + itemBias.get(j);
+						for (int f = 0; f < numFactors; f++)
+							pred += (P.get(u, f) + sum_ys[f]) * Q.get(j, f);
+						double euj = ruj - pred;
 
-				loss += regB * bu * bu;
+						loss += euj * euj;
 
-				double bj = itemBias.get(j);
-				sgd = euj - regB * bj;
-				itemBias.add(j, lRate * sgd);
+						// update factors
+						double bu = userBias.get(u);
+						double sgd = euj - regB * bu;
+						userBias.add(u, optUserBias.step(u, sgd, lRate));
 
-				loss += regB * bj * bj;
+						loss += regB * bu * bu;
 
-				double[] sum_ys = new double[numFactors];
-				for (int f = 0; f < numFactors; f++) {
-					double sum_f = 0;
-					for (int k : items)
-						sum_f += Y.get(k, f);
+						double bj = itemBias.get(j);
+						sgd = euj - regB * bj;
+						itemBias.add(j, optItemBias.step(j, sgd, lRate));
 
-					sum_ys[f] = w > 0 ? sum_f / w : sum_f;
-				}
+						loss += regB * bj * bj;
 
-				for (int f = 0; f < numFactors; f++) {
-					double puf = P.get(u, f);
-					double qjf = Q.get(j, f);
+						for (int f = 0; f < numFactors; f++) {
+							double puf = P.get(u, f);
+							double qjf = Q.get(j, f);
 
-					double sgd_u = euj * qjf - regU * puf;
-					double sgd_j = euj * (puf + sum_ys[f]) - regI * qjf;
+							double sgd_u = euj * qjf - regU * puf;
+							double sgd_j = euj * (puf + sum_ys[f]) - regI * qjf;
 
-					P.add(u, f, lRate * sgd_u);
-					Q.add(j, f, lRate * sgd_j);
+							P.add(u, f, optP.step(u, f, sgd_u, lRate));
+							Q.add(j, f, optQ.step(j, f, sgd_j, lRate));
 
-					loss += regU * puf * puf + regI * qjf * qjf;
+							loss += regU * puf * puf + regI * qjf * qjf;
+
+							sum_dy[f] += euj * qjf / w;
+						}
+					}
 
 					for (int k : items) {
-						double ykf = Y.get(k, f);
-						double delta_y = euj * qjf / w - regU * ykf;
-						Y.add(k, f, lRate * delta_y);
+						for (int f = 0; f < numFactors; f++) {
+							double ykf = Y.get(k, f);
+							double delta_y = sum_dy[f] - regU * ykf;
+							Y.add(k, f, optY.step(k, f, delta_y, lRate));
 
-						loss += regU * ykf * ykf;
+							loss += regU * ykf * ykf;
+						}
 					}
-				}
 
-			}
+					return loss;
+				}
+			});
 
 			loss *= 0.5;
+			updateImplicitFactors();
 
 			if (isConverged(iter))
 				break;
@@ -125,15 +163,101 @@ public class SVDPlusPlus extends BiasedMF {
 
 	}
 
+	/**
+	 * an update also changes the implicit factors of all items rated by the user
+	 */
+	@Override
+	protected boolean hasLocalUpdates() {
+		return false;
+	}
+
+	/**
+	 * recompute the cached implicit factors of all users from Y
+	 */
+	protected void updateImplicitFactors() {
+		for (int u = 0; u < numUsers; u++) {
+			double[] yu = Yu.row(u, false).getData();
+			Arrays.fill(yu, 0);
+
+			int[] items = userItems.get(u);
+			if (items.length == 0)
+				continue;
+
+			double w = Math.sqrt(items.length);
+			for (int k : items) {
+				double[] yk = Y.row(k, false).getData();
+				for (int f = 0; f < numFactors; f++)
+					yu[f] += yk[f];
+			}
+			for (int f = 0; f < numFactors; f++)
+				yu[f] /= w;
+		}
+	}
+
 	@Override
 	public double predict(int u, int j) throws Exception {
-		double pred = globalMean + userBias.get(u) + itemBias.get(j) + DenseMatrix.rowMult(P, u, Q, j);
+		double pred = globalMean + userBias.get(u) + itemBias.get(j) + factorMult(u, j);
 
-		List<Integer> items = userItemsCache.get(u);
-		double w = Math.sqrt(items.size());
-		for (int k : items)
-			pred += DenseMatrix.rowMult(Y, k, Q, j) / w;
+		pred += quantQ != null ? quantQ.dot(j, Yu.row(u, false).getData()) : DenseMatrix.rowMult(Yu, u, Q, j);
 
 		return pred;
 	}
+
+	/**
+	 * user factors with the implicit feedback of rated items, augmented as by {@link BiasedMF}
+	 */
+	@Override
+	protected DenseVector userVector(int u) throws Exception {
+		DenseVector pu = super.userVector(u);
+
+		for (int f = 0; f < numFactors; f++)
+			pu.add(f, Yu.get(u, f));
+
+		return pu;
+	}
+
+	@Override
+	protected DenseVector implicitFactors(SparseVector ratings) throws Exception {
+		DenseVector yu = new DenseVector(numFactors);
+
+		double w = Math.sqrt(ratings.getCount());
+		for (VectorEntry ve : ratings)
+			for (int f = 0; f < numFactors; f++)
+				yu.add(f, Y.get(ve.index(), f) / w);
+
+		return yu;
+	}
+
+	@Override
+	protected void writeModel(ModelWriter out) throws Exception {
+		super.writeModel(out);
+
+		out.write("Y", Y);
+	}
+
+	@Override
+	protected void writeTrainState(ModelWriter out) throws Exception {
+		super.writeTrainState(out);
+
+		writeOptimizer(out, "optY", optY);
+	}
+
+	@Override
+	protected void readTrainState(ModelReader in) throws Exception {
+		super.readTrainState(in);
+
+		readOptimizer(in, "optY", optY);
+	}
+
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		Y = in.readDenseMatrix("Y");
+
+		if (userItems == null)
+			userItems = rowIndex(trainMatrix);
+		Yu = new DenseMatrix(numUsers, numFactors);
+		updateImplicitFactors();
+	}
 }
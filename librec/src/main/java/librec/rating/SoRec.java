@@ -26,6 +26,8 @@ import librec.data.DenseMatrix;
 import librec.data.MatrixEntry;
 import librec.data.SparseMatrix;
 import librec.intf.SocialRecommender;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
 
 /**
  * Hao Ma, Haixuan Yang, Michael R. Lyu and Irwin King, <strong>SoRec: Social recommendation using probabilistic matrix
@@ -42,7 +44,7 @@ public class SoRec extends SocialRecommender {
 
 	private Map<Integer, Integer> inDegrees, outDegrees;
 
-	public SoRec(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
+	public SoRec(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) throws Exception {
 		super(trainMatrix, testMatrix, fold);
 
 		initByNorm = false;
@@ -72,7 +74,7 @@ public class SoRec extends SocialRecommender {
 
 	@Override
 	protected void buildModel() throws Exception {
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
 			loss = 0;
 
 			DenseMatrix PS = new DenseMatrix(numUsers, numFactors);
@@ -150,6 +152,20 @@ public class SoRec extends SocialRecommender {
 		return pred;
 	}
 
+	@Override
+	protected void writeModel(ModelWriter out) throws Exception {
+		super.writeModel(out);
+
+		out.write("Z", Z);
+	}
+
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		Z = in.readDenseMatrix("Z");
+	}
+
 	@Override
 	public String toString() {
 		return regC + ", " + regZ + ", " + super.toString();
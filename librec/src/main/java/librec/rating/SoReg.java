@@ -47,7 +47,7 @@ public class SoReg extends SocialRecommender {
 	private Table<Integer, Integer, Double> userCorrs;
 	private float beta;
 
-	public SoReg(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
+	public SoReg(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) throws Exception {
 		super(trainMatrix, testMatrix, fold);
 
 		initByNorm = false;
@@ -91,7 +91,7 @@ public class SoReg extends SocialRecommender {
 
 	@Override
 	protected void buildModel() throws Exception {
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
 
 			loss = 0;
 
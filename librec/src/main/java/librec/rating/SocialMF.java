@@ -33,7 +33,7 @@ import librec.intf.SocialRecommender;
  */
 public class SocialMF extends SocialRecommender {
 
-	public SocialMF(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
+	public SocialMF(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) throws Exception {
 		super(trainMatrix, testMatrix, fold);
 
 		initByNorm = false;
@@ -41,7 +41,7 @@ public class SocialMF extends SocialRecommender {
 
 	@Override
 	protected void buildModel() throws Exception {
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
 
 			loss = 0;
 
@@ -18,7 +18,6 @@
 package librec.rating;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -27,6 +26,8 @@ import librec.data.DenseVector;
 import librec.data.MatrixEntry;
 import librec.data.SparseMatrix;
 import librec.intf.IterativeRecommender;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
 import librec.util.Randoms;
 import librec.util.Strings;
 
@@ -42,7 +43,7 @@ import com.google.common.collect.Table;
 public class TimeSVD extends IterativeRecommender {
 
 	// the span of days of rating timestamps
-	private static int numDays;
+	private int numDays;
 
 	// {user, mean date}
 	private DenseVector userMeanDate;
@@ -120,7 +121,7 @@ public class TimeSVD extends IterativeRecommender {
 		Cut.init();
 
 		// cache
-		userItemsCache = trainMatrix.rowColumnsCache(cacheSpec);
+		userItems = rowIndex(trainMatrix);
 
 		// global average date
 		double sum = 0;
@@ -140,23 +141,23 @@ public class TimeSVD extends IterativeRecommender {
 
 		// compute user's mean of rating timestamps
 		userMeanDate = new DenseVector(numUsers);
-		List<Integer> Ru = null;
+		int[] Ru = null;
 		for (int u = 0; u < numUsers; u++) {
 
 			sum = 0;
-			Ru = userItemsCache.get(u);
+			Ru = userItems.get(u);
 			for (int i : Ru) {
 				sum += days((long) timeMatrix.get(u, i), minTimestamp);
 			}
 
-			double mean = (Ru.size() > 0) ? (sum + 0.0) / Ru.size() : globalMeanDate;
+			double mean = (Ru.length > 0) ? (sum + 0.0) / Ru.length : globalMeanDate;
 			userMeanDate.set(u, mean);
 		}
 	}
 
 	@Override
 	protected void buildModel() throws Exception {
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
 			loss = 0;
 
 			for (MatrixEntry me : trainMatrix) {
@@ -188,12 +189,12 @@ public class TimeSVD extends IterativeRecommender {
 				pui += bu + au * dev_ut + but; // bu(t)
 
 				// qi * yj
-				List<Integer> Ru = userItemsCache.get(u);
+				int[] Ru = userItems.get(u);
 				double sum_y = 0;
 				for (int j : Ru) {
 					sum_y += DenseMatrix.rowMult(Y, j, Q, i);
 				}
-				double wi = Ru.size() > 0 ? Math.pow(Ru.size(), -0.5) : 0;
+				double wi = Ru.length > 0 ? Math.pow(Ru.length, -0.5) : 0;
 				pui += sum_y * wi;
 
 				// qi * pu(t)
@@ -322,12 +323,12 @@ public class TimeSVD extends IterativeRecommender {
 		pred += userBias.get(u) + Alpha.get(u) * dev_ut + but;
 
 		// qi * yj
-		List<Integer> Ru = userItemsCache.get(u);
+		int[] Ru = userItems.get(u);
 		double sum_y = 0;
 		for (int j : Ru)
 			sum_y += DenseMatrix.rowMult(Y, j, Q, i);
 
-		double wi = Ru.size() > 0 ? Math.pow(Ru.size(), -0.5) : 0;
+		double wi = Ru.length > 0 ? Math.pow(Ru.length, -0.5) : 0;
 		pred += sum_y * wi;
 
 		// qi * pu(t)
@@ -350,6 +351,48 @@ public class TimeSVD extends IterativeRecommender {
 		return pred;
 	}
 
+	@Override
+	protected void writeModel(ModelWriter out) throws Exception {
+		super.writeModel(out);
+
+		out.write("userMeanDate", userMeanDate);
+		out.write("Y", Y);
+		out.write("Bit", Bit);
+		out.write("Alpha", Alpha);
+		out.write("Auk", Auk);
+		out.write("Cu", Cu);
+		out.write("Cut", Cut);
+		out.write("But", But);
+
+		for (Map.Entry<Integer, Table<Integer, Integer, Double>> en : Pukt.entrySet())
+			out.write("Pukt[" + en.getKey() + "]", en.getValue());
+	}
+
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		userMeanDate = in.readDenseVector("userMeanDate");
+		Y = in.readDenseMatrix("Y");
+		Bit = in.readDenseMatrix("Bit");
+		Alpha = in.readDenseVector("Alpha");
+		Auk = in.readDenseMatrix("Auk");
+		Cu = in.readDenseVector("Cu");
+		Cut = in.readDenseMatrix("Cut");
+		But = in.readTable("But");
+
+		Pukt = new HashMap<>();
+		for (int u = 0; u < numUsers; u++) {
+			Table<Integer, Integer, Double> pkt = in.readTable("Pukt[" + u + "]");
+			if (pkt != null)
+				Pukt.put(u, pkt);
+		}
+
+		numDays = days(maxTimestamp, minTimestamp) + 1;
+		if (userItems == null)
+			userItems = rowIndex(trainMatrix);
+	}
+
 	@Override
 	public String toString() {
 		return super.toString() + "," + Strings.toString(new Object[] { beta, numBins });
@@ -23,6 +23,8 @@ import librec.data.DenseVector;
 import librec.data.MatrixEntry;
 import librec.data.SparseMatrix;
 import librec.intf.SocialRecommender;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
 
 /**
  * Yang et al., <strong>Social Collaborative Filtering by Trust</strong>, IJCAI 2013.
@@ -37,7 +39,7 @@ public class TrustMF extends SocialRecommender {
 
 	protected String model;
 
-	public TrustMF(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
+	public TrustMF(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) throws Exception {
 		super(trainMatrix, testMatrix, fold);
 
 		model = algoOptions.getString("-m");
@@ -104,7 +106,7 @@ public class TrustMF extends SocialRecommender {
 	 * Build TrusterMF model: Br*Vr
 	 */
 	protected void TrusterMF() throws Exception {
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
 			loss = 0;
 
 			// gradients of B, V, W
@@ -175,7 +177,7 @@ public class TrustMF extends SocialRecommender {
 	 * Build TrusteeMF model: We*Ve
 	 */
 	protected void TrusteeMF() throws Exception {
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
 			loss = 0;
 
 			// gradients of B, V, W
@@ -278,4 +280,28 @@ public class TrustMF extends SocialRecommender {
 
 		return pred;
 	}
+
+	@Override
+	protected void writeModel(ModelWriter out) throws Exception {
+		super.writeModel(out);
+
+		out.write("Br", Br);
+		out.write("Wr", Wr);
+		out.write("Vr", Vr);
+		out.write("Be", Be);
+		out.write("We", We);
+		out.write("Ve", Ve);
+	}
+
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		Br = in.readDenseMatrix("Br");
+		Wr = in.readDenseMatrix("Wr");
+		Vr = in.readDenseMatrix("Vr");
+		Be = in.readDenseMatrix("Be");
+		We = in.readDenseMatrix("We");
+		Ve = in.readDenseMatrix("Ve");
+	}
 }
@@ -18,13 +18,14 @@
 
 package librec.rating;
 
-import java.util.List;
-
 import librec.data.DenseMatrix;
 import librec.data.DenseVector;
 import librec.data.MatrixEntry;
 import librec.data.SparseMatrix;
+import librec.intf.Optimizer;
 import librec.intf.SocialRecommender;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
 
 /**
  * Guo et al., <strong>TrustSVD: Collaborative Filtering with Both the Explicit and Implicit Influence of User Trust and
@@ -38,7 +39,10 @@ public class TrustSVD extends SocialRecommender {
 	private DenseMatrix W, Y;
 	private DenseVector wlr_j, wlr_tc, wlr_tr;
 
-	public TrustSVD(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
+	// update rules of W and Y
+	private Optimizer optW, optY;
+
+	public TrustSVD(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) throws Exception {
 		super(trainMatrix, testMatrix, fold);
 	}
 
@@ -64,12 +68,15 @@ public class TrustSVD extends SocialRecommender {
 			Y.init();
 		}
 
+		optW = newOptimizer(numUsers, numFactors);
+		optY = newOptimizer(numItems, numFactors);
+
 		wlr_tc = new DenseVector(numUsers);
 		wlr_tr = new DenseVector(numUsers);
 		wlr_j = new DenseVector(numItems);
 
-		userItemsCache = trainMatrix.rowColumnsCache(cacheSpec);
-		userFriendsCache = socialMatrix.rowColumnsCache(cacheSpec);
+		userItems = rowIndex(trainMatrix);
+		userFriends = rowIndex(socialMatrix);
 
 		for (int u = 0; u < numUsers; u++) {
 			int count = socialMatrix.columnSize(u);
@@ -85,9 +92,14 @@ public class TrustSVD extends SocialRecommender {
 		}
 	}
 
+	@Override
+	protected boolean isOptimizerSupported() {
+		return true;
+	}
+
 	@Override
 	protected void buildModel() throws Exception {
-		for (int iter = 1; iter <= numIters; iter++) {
+		for (int iter = startIter; iter <= numIters; iter++) {
 			loss = 0;
 
 			DenseMatrix PS = new DenseMatrix(numUsers, numFactors);
@@ -104,41 +116,41 @@ public class TrustSVD extends SocialRecommender {
 				double pred = globalMean + bu + bj + DenseMatrix.rowMult(P, u, Q, j);
 
 				// Y
-				List<Integer> nu = userItemsCache.get(u);
-				if (nu.size() > 0) {
+				int[] nu = userItems.get(u);
+				if (nu.length > 0) {
 					double sum = 0;
 					for (int i : nu)
 						sum += DenseMatrix.rowMult(Y, i, Q, j);
 
-					pred += sum / Math.sqrt(nu.size());
+					pred += sum / Math.sqrt(nu.length);
 				}
 
 				// W
-				List<Integer> tu = userFriendsCache.get(u);
-				if (tu.size() > 0) {
+				int[] tu = userFriends.get(u);
+				if (tu.length > 0) {
 					double sum = 0.0;
 					for (int v : tu)
 						sum += DenseMatrix.rowMult(W, v, Q, j);
 
-					pred += sum / Math.sqrt(tu.size());
+					pred += sum / Math.sqrt(tu.length);
 				}
 
 				double euj = pred - ruj;
 
 				loss += euj * euj;
 
-				double w_nu = Math.sqrt(nu.size());
-				double w_tu = Math.sqrt(tu.size());
+				double w_nu = Math.sqrt(nu.length);
+				double w_tu = Math.sqrt(tu.length);
 
 				// update factors
 				double reg_u = 1.0 / w_nu;
 				double reg_j = wlr_j.get(j);
 
 				double sgd = euj + regB * reg_u * bu;
-				userBias.add(u, -lRate * sgd);
+				userBias.add(u, optUserBias.step(u, -sgd, lRate));
 
 				sgd = euj + regB * reg_j * bj;
-				itemBias.add(j, -lRate * sgd);
+				itemBias.add(j, optItemBias.step(j, -sgd, lRate));
 
 				loss += regB * reg_u * bu * bu;
 				loss += regB * reg_j * bj * bj;
@@ -169,7 +181,7 @@ public class TrustSVD extends SocialRecommender {
 					double delta_j = euj * (puf + sum_ys[f] + sum_ts[f]) + regI * reg_j * qjf;
 
 					PS.add(u, f, delta_u);
-					Q.add(j, f, -lRate * delta_j);
+					Q.add(j, f, optQ.step(j, f, -delta_j, lRate));
 
 					loss += regU * reg_u * puf * puf + regI * reg_j * qjf * qjf;
 
@@ -178,7 +190,7 @@ public class TrustSVD extends SocialRecommender {
 
 						double reg_yi = wlr_j.get(i);
 						double delta_y = euj * qjf / w_nu + regI * reg_yi * yif;
-						Y.add(i, f, -lRate * delta_y);
+						Y.add(i, f, optY.step(i, f, -delta_y, lRate));
 
 						loss += regI * reg_yi * yif * yif;
 					}
@@ -222,8 +234,8 @@ public class TrustSVD extends SocialRecommender {
 				}
 			}
 
-			P = P.add(PS.scale(-lRate));
-			W = W.add(WS.scale(-lRate));
+			step(P, PS, optP);
+			step(W, WS, optW);
 
 			loss *= 0.5;
 
@@ -233,30 +245,76 @@ public class TrustSVD extends SocialRecommender {
 		}// end of training
 	}
 
+	/**
+	 * update parameters X by the gradients XS accumulated over an iteration
+	 */
+	private void step(DenseMatrix X, DenseMatrix XS, Optimizer opt) {
+		for (int r = 0; r < X.numRows(); r++)
+			for (int f = 0; f < X.numColumns(); f++)
+				X.add(r, f, opt.step(r, f, -XS.get(r, f), lRate));
+	}
+
 	@Override
 	public double predict(int u, int j) throws Exception {
 		double pred = globalMean + userBias.get(u) + itemBias.get(j) + DenseMatrix.rowMult(P, u, Q, j);
 
 		// Y
-		List<Integer> nu = userItemsCache.get(u);
-		if (nu.size() > 0) {
+		int[] nu = userItems.get(u);
+		if (nu.length > 0) {
 			double sum = 0;
 			for (int i : nu)
 				sum += DenseMatrix.rowMult(Y, i, Q, j);
 
-			pred += sum / Math.sqrt(nu.size());
+			pred += sum / Math.sqrt(nu.length);
 		}
 
 		// W
-		List<Integer> tu = userFriendsCache.get(u);
-		if (tu.size() > 0) {
+		int[] tu = userFriends.get(u);
+		if (tu.length > 0) {
 			double sum = 0.0;
 			for (int v : tu)
 				sum += DenseMatrix.rowMult(W, v, Q, j);
 
-			pred += sum / Math.sqrt(tu.size());
+			pred += sum / Math.sqrt(tu.length);
 		}
 
 		return pred;
 	}
+
+	@Override
+	protected void writeModel(ModelWriter out) throws Exception {
+		super.writeModel(out);
+
+		out.write("W", W);
+		out.write("Y", Y);
+	}
+
+	@Override
+	protected void writeTrainState(ModelWriter out) throws Exception {
+		super.writeTrainState(out);
+
+		writeOptimizer(out, "optW", optW);
+		writeOptimizer(out, "optY", optY);
+	}
+
+	@Override
+	protected void readTrainState(ModelReader in) throws Exception {
+		super.readTrainState(in);
+
+		readOptimizer(in, "optW", optW);
+		readOptimizer(in, "optY", optY);
+	}
+
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		W = in.readDenseMatrix("W");
+		Y = in.readDenseMatrix("Y");
+
+		if (userItems == null) {
+			userItems = rowIndex(trainMatrix);
+			userFriends = rowIndex(socialMatrix);
+		}
+	}
 }
\ No newline at end of file
@@ -24,12 +24,13 @@ import librec.data.DenseMatrix;
 import librec.data.DenseVector;
 import librec.data.MatrixEntry;
 import librec.data.SparseMatrix;
-import librec.intf.GraphicRecommender;
+import librec.intf.SweepRecommender;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
 import librec.util.Logs;
+import librec.util.Randoms;
 import librec.util.Strings;
 
-import com.google.common.collect.HashBasedTable;
-
 /**
  * User Rating Profile: a LDA model for rating prediction. <br>
  * 
@@ -41,7 +42,7 @@ import com.google.common.collect.HashBasedTable;
  *
  */
 @AddConfiguration(before = "factors, alpha, beta")
-public class URP extends GraphicRecommender {
+public class URP extends SweepRecommender {
 
 	private double preRMSE;
 
@@ -64,6 +65,9 @@ public class URP extends GraphicRecommender {
 	 */
 	protected double[][][] Pkir;
 
+	// sums of the hyper-parameters as of the current sweep
+	private double sumAlpha, sumBeta;
+
 	@Override
 	protected void initModel() throws Exception {
 
@@ -84,8 +88,10 @@ public class URP extends GraphicRecommender {
 		beta = new DenseVector(numLevels);
 		beta.setAll(initBeta);
 
+
 		// initialize topics
-		z = HashBasedTable.create();
+		z = new int[trainMatrix.getRowPointers()[numUsers]];
+		int n = 0;
 		for (MatrixEntry me : trainMatrix) {
 
 			int u = me.row();
@@ -93,10 +99,10 @@ public class URP extends GraphicRecommender {
 			double rui = me.get();
 
 			int r = ratingScale.indexOf(rui); // rating level 0 ~ numLevels
-			int t = (int) (Math.random() * numFactors); // 0 ~ k-1
+			int t = Randoms.uniform(numFactors); // 0 ~ k-1
 
 			// assign a topic t to pair (u, i)
-			z.put(u, i, t);
+			z[n++] = t;
 			// number of pairs (u, t) in (u, i, t)
 			Nuk.add(u, t, 1);
 			// total number of items of user u
@@ -111,56 +117,73 @@ public class URP extends GraphicRecommender {
 	}
 
 	@Override
-	protected void eStep() {
-
-		double sumAlpha = alpha.sum();
-		double sumBeta = beta.sum();
+	protected void eStep() throws Exception {
+		sumAlpha = alpha.sum();
+		sumBeta = beta.sum();
 
 		// collapse Gibbs sampling
-		for (MatrixEntry me : trainMatrix) {
-			int u = me.row();
-			int i = me.column();
-			double rui = me.get();
+		sweep();
+	}
 
-			int r = (int) (rui / minRate - 1); // rating level 0 ~ numLevels
-			int t = z.get(u, i);
+	@Override
+	protected SweepWorker newWorker(boolean isLocal) {
+		return new Worker(isLocal);
+	}
 
-			Nuk.add(u, t, -1);
-			Nu.add(u, -1);
-			Nkir[t][i][r]--;
-			Nki.add(t, i, -1);
+	/**
+	 * Gibbs sampler of the topics of users' ratings, against its own (local) or the shared counts of topics and items
+	 */
+	private class Worker extends SweepWorker {
 
-			// do multinomial sampling via cumulative method:
-			double[] p = new double[numFactors];
-			for (int k = 0; k < numFactors; k++) {
-				p[k] = (Nuk.get(u, k) + alpha.get(k)) / (Nu.get(u) + sumAlpha) * (Nkir[k][i][r] + beta.get(r))
-						/ (Nki.get(k, i) + sumBeta);
-			}
-			// cumulate multinomial parameters
-			for (int k = 1; k < p.length; k++) {
-				p[k] += p[k - 1];
-			}
-			// scaled sample because of unnormalized p[], randomly sampled a new topic t
-			double rand = Math.random() * p[numFactors - 1];
-			for (t = 0; t < p.length; t++) {
-				if (rand < p[t])
-					break;
-			}
+		private final int[][][] Nkir;
+		private final DenseMatrix Nki;
 
-			// new topic t
-			z.put(u, i, t);
+		// probabilities of topics of a token, reused for all tokens
+		private final double[] p = new double[numFactors];
 
-			// add newly estimated z_i to count variables
-			Nuk.add(u, t, 1);
-			Nu.add(u, 1);
-			Nkir[t][i][r]++;
-			Nki.add(t, i, 1);
+		Worker(boolean isLocal) {
+			super(isLocal);
+
+			Nkir = counts(URP.this.Nkir);
+			Nki = counts(URP.this.Nki);
+		}
+
+		@Override
+		protected void sweep(int u) {
+			int[] rowPtr = trainMatrix.getRowPointers(), colInd = trainMatrix.getColumnIndices();
+			double[] rates = trainMatrix.getData();
+
+			for (int n = rowPtr[u]; n < rowPtr[u + 1]; n++) {
+				int i = colInd[n];
+				double rui = rates[n];
+
+				int r = (int) (rui / minRate - 1); // rating level 0 ~ numLevels
+				int t = z[n];
+
+				Nuk.add(u, t, -1);
+				Nu.add(u, -1);
+				Nkir[t][i][r]--;
+				Nki.add(t, i, -1);
+
+				// do multinomial sampling via cumulative method:
+				for (int k = 0; k < numFactors; k++) {
+					p[k] = (Nuk.get(u, k) + alpha.get(k)) / (Nu.get(u) + sumAlpha) * (Nkir[k][i][r] + beta.get(r))
+							/ (Nki.get(k, i) + sumBeta);
+				}
+				t = sample(p, numFactors, rnd);
+
+				// new topic t
+				z[n] = t;
+
+				// add newly estimated z_i to count variables
+				Nuk.add(u, t, 1);
+				Nu.add(u, 1);
+				Nkir[t][i][r]++;
+				Nki.add(t, i, 1);
+			}
 		}
 	}
 
-	/**
-	 * Thomas P. Minka, Estimating a Dirichlet distribution, see Eq.(55)
-	 */
 	@Override
 	protected void mStep() {
 		double sumAlpha = alpha.sum();
@@ -294,6 +317,20 @@ public class URP extends GraphicRecommender {
 		return pred;
 	}
 
+	@Override
+	protected void writeModel(ModelWriter out) throws Exception {
+		super.writeModel(out);
+
+		out.write("Pkir", Pkir);
+	}
+
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		Pkir = in.readDoubleArray3("Pkir");
+	}
+
 	@Override
 	public String toString() {
 		return Strings.toString(new Object[] { numFactors, alpha, beta }) + ", " + super.toString();
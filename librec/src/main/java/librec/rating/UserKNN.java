@@ -29,6 +29,8 @@ import librec.data.SparseMatrix;
 import librec.data.SparseVector;
 import librec.data.SymmMatrix;
 import librec.intf.Recommender;
+import librec.io.ModelReader;
+import librec.io.ModelWriter;
 import librec.util.Lists;
 import librec.util.Stats;
 import librec.util.Strings;
@@ -123,6 +125,22 @@ public class UserKNN extends Recommender {
 		}
 	}
 
+	@Override
+	protected void writeModel(ModelWriter out) throws Exception {
+		super.writeModel(out);
+
+		out.write("userCorrs", userCorrs);
+		out.write("userMeans", userMeans);
+	}
+
+	@Override
+	protected void readModel(ModelReader in) throws Exception {
+		super.readModel(in);
+
+		userCorrs = in.readSymmMatrix("userCorrs");
+		userMeans = in.readDenseVector("userMeans");
+	}
+
 	@Override
 	public String toString() {
 		return Strings.toString(new Object[] { knn, similarityMeasure, similarityShrinkage });
@@ -0,0 +1,84 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.util;
+
+import java.util.Random;
+
+/**
+ * Alias tables of discrete distributions by Vose's method, which take O(n) time to build and O(1) time to draw a sample:
+ * Vose, A linear algorithm for generating random numbers with a given distribution, IEEE TSE 1991.
+ *
+ * <p>
+ * A table of n outcomes is stored at an offset of two arrays (probabilities and aliases), such that the tables of many
+ * small distributions, e.g., one per item, can be packed into the same arrays.
+ * </p>
+ */
+public class AliasTable {
+
+	/**
+	 * Build the alias table of the (unnormalized) weights w[off, off + n), all positive, into prob[off, off + n) and
+	 * alias[off, off + n).
+	 *
+	 * @param work
+	 *            scratch array of at least n entries
+	 * @return the sum of weights
+	 */
+	public static double build(double[] w, int off, int n, double[] prob, int[] alias, int[] work) {
+		double sum = 0;
+		for (int k = 0; k < n; k++)
+			sum += w[off + k];
+
+		// outcomes of scaled probabilities below 1 are stacked from the front of work, the others from the back
+		int small = 0, large = n;
+		for (int k = 0; k < n; k++) {
+			prob[off + k] = w[off + k] * n / sum;
+			alias[off + k] = k;
+			if (prob[off + k] < 1)
+				work[small++] = k;
+			else
+				work[--large] = k;
+		}
+
+		while (small > 0 && large < n) {
+			int s = work[--small], l = work[large];
+			alias[off + s] = l;
+			prob[off + l] -= 1 - prob[off + s];
+			if (prob[off + l] < 1) {
+				large++;
+				work[small++] = l;
+			}
+		}
+
+		// the remaining outcomes are (up to rounding) of probability 1
+		while (small > 0)
+			prob[off + work[--small]] = 1;
+		while (large < n)
+			prob[off + work[large++]] = 1;
+
+		return sum;
+	}
+
+	/**
+	 * @return an outcome in [0, n) of the table at offset off
+	 */
+	public static int sample(double[] prob, int[] alias, int off, int n, Random rnd) {
+		int k = rnd.nextInt(n);
+		return rnd.nextDouble() < prob[off + k] ? k : alias[off + k];
+	}
+}
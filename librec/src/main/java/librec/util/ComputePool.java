@@ -0,0 +1,201 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The framework-wide pool of compute threads, sized by option {@code -cpu} of {@code evaluation.setup}. Folds,
+ * evaluation and parallel loops inside algorithms all submit their tasks to this pool. The pool is sized once per
+ * process, before it is first used, since runs of different configurations may share it.
+ *
+ * <p>
+ * Nested parallelism is bounded by the pool size: tasks submitted from a thread of the pool (e.g., parallel evaluation
+ * inside a parallel fold) are forked into the same pool, and a thread waiting for its sub-tasks executes pending tasks
+ * instead of blocking. Hence, k parallel folds with parallel inner loops still keep about {@code -cpu} threads busy.
+ * </p>
+ */
+public class ComputePool {
+
+	private static int parallelism = Runtime.getRuntime().availableProcessors();
+
+	// created on demand
+	private static ForkJoinPool pool;
+
+	/**
+	 * set the number of compute threads, unless the pool is already in use
+	 * 
+	 * @return whether the pool has the given number of threads
+	 */
+	public static synchronized boolean setParallelism(int numThreads) {
+		numThreads = Math.max(1, numThreads);
+		if (numThreads == parallelism)
+			return true;
+		if (pool != null)
+			return false;
+
+		parallelism = numThreads;
+		return true;
+	}
+
+	/**
+	 * @return the number of compute threads
+	 */
+	public static synchronized int parallelism() {
+		return parallelism;
+	}
+
+	private static synchronized ForkJoinPool pool() {
+		if (pool == null)
+			pool = new ForkJoinPool(parallelism);
+		return pool;
+	}
+
+	/**
+	 * @return whether the current thread belongs to the compute pool
+	 */
+	private static boolean inPool(ForkJoinPool fjp) {
+		Thread t = Thread.currentThread();
+		return t instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) t).getPool() == fjp;
+	}
+
+	/**
+	 * run tasks in the compute pool and wait for them to complete
+	 *
+	 * @return results in the same order as tasks
+	 */
+	public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks) throws Exception {
+		List<T> res = new ArrayList<>(tasks.size());
+
+		if (parallelism() <= 1 || tasks.size() <= 1) {
+			for (Callable<T> task : tasks)
+				res.add(task.call());
+			return res;
+		}
+
+		final List<Task<T>> fjts = new ArrayList<>(tasks.size());
+		for (Callable<T> task : tasks)
+			fjts.add(new Task<>(task));
+
+		ForkJoinPool fjp = pool();
+		if (inPool(fjp)) {
+			ForkJoinTask.invokeAll(fjts);
+		} else {
+			fjp.invoke(new RecursiveAction() {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					ForkJoinTask.invokeAll(fjts);
+				}
+			});
+		}
+
+		for (Task<T> fjt : fjts)
+			res.add(fjt.result());
+
+		return res;
+	}
+
+	/**
+	 * submit a task to the compute pool without waiting for it
+	 *
+	 * @return handle to retrieve the result of the task
+	 */
+	public static <T> Task<T> submit(Callable<T> task) {
+		Task<T> fjt = new Task<>(task);
+
+		ForkJoinPool fjp = pool();
+		if (inPool(fjp))
+			fjt.fork();
+		else
+			fjp.execute(fjt);
+
+		return fjt;
+	}
+
+	/**
+	 * submit a task to the compute pool without waiting for it
+	 */
+	public static Task<Void> submit(final Runnable task) {
+		return submit(new Callable<Void>() {
+
+			@Override
+			public Void call() throws Exception {
+				task.run();
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * A task of the compute pool, which keeps checked exceptions to be rethrown by {@link #result()}
+	 */
+	public static final class Task<T> extends ForkJoinTask<T> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Callable<T> callable;
+		private T result;
+		private Exception error;
+
+		private Task(Callable<T> callable) {
+			this.callable = callable;
+		}
+
+		/**
+		 * wait for the task to complete; a thread of the compute pool executes other tasks while waiting
+		 *
+		 * @return the result of the task
+		 */
+		public T result() throws Exception {
+			join();
+			if (error != null)
+				throw error;
+			return result;
+		}
+
+		@Override
+		public T getRawResult() {
+			return result;
+		}
+
+		@Override
+		protected void setRawResult(T value) {
+			result = value;
+		}
+
+		@Override
+		protected boolean exec() {
+			try {
+				result = callable.call();
+			} catch (Exception e) {
+				error = e;
+			}
+			return true;
+		}
+	}
+}
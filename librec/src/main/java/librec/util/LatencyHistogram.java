@@ -0,0 +1,99 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe histogram of latencies in log-scaled buckets, each covering a quarter of a power of two in nanoseconds,
+ * i.e., percentiles are reported within 25% of their exact values.
+ */
+public class LatencyHistogram {
+
+	// number of buckets, covering latencies up to about 2^65 ns
+	private static final int NUM_BUCKETS = 256;
+
+	private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+
+	/**
+	 * record a latency
+	 */
+	public void record(long nanos) {
+		counts.incrementAndGet(bucket(nanos));
+		count.incrementAndGet();
+	}
+
+	/**
+	 * @return number of latencies recorded
+	 */
+	public long count() {
+		return count.get();
+	}
+
+	/**
+	 * @param p
+	 *            percentile in (0, 1]
+	 * @return the upper bound of the bucket holding the p-th percentile of latencies, in microseconds
+	 */
+	public double percentileMicros(double p) {
+		long[] cs = new long[NUM_BUCKETS];
+		long total = 0;
+		for (int b = 0; b < NUM_BUCKETS; b++) {
+			cs[b] = counts.get(b);
+			total += cs[b];
+		}
+		if (total == 0)
+			return 0;
+
+		long target = (long) Math.ceil(p * total);
+		long cum = 0;
+		for (int b = 0; b < NUM_BUCKETS; b++) {
+			cum += cs[b];
+			if (cum >= target)
+				return upperBound(b) / 1e3;
+		}
+
+		return upperBound(NUM_BUCKETS - 1) / 1e3;
+	}
+
+	/**
+	 * @return bucket of a latency: exact below 8ns, otherwise by the highest bit and the two bits below it
+	 */
+	private static int bucket(long nanos) {
+		if (nanos < 8)
+			return (int) Math.max(nanos, 0);
+
+		int msb = 63 - Long.numberOfLeadingZeros(nanos);
+		int sub = (int) (nanos >>> (msb - 2)) & 3;
+
+		return Math.min(8 + (msb - 3) * 4 + sub, NUM_BUCKETS - 1);
+	}
+
+	private static long upperBound(int bucket) {
+		if (bucket < 8)
+			return bucket;
+
+		int msb = (bucket - 8) / 4 + 3;
+		int sub = (bucket - 8) % 4;
+
+		return ((5L + sub) << (msb - 2)) - 1;
+	}
+}
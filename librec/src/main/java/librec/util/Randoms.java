@@ -18,6 +18,10 @@
 
 package librec.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -50,6 +54,26 @@ public class Randoms {
 		r = new Random(seed);
 	}
 
+	/**
+	 * @return the state of a random generator, e.g., to be saved in a checkpoint
+	 */
+	public static byte[] getState(Random rnd) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+			oos.writeObject(rnd);
+		}
+		return bos.toByteArray();
+	}
+
+	/**
+	 * @return a random generator restored from the state returned by {@link #getState(Random)}
+	 */
+	public static Random fromState(byte[] state) throws Exception {
+		try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(state))) {
+			return (Random) ois.readObject();
+		}
+	}
+
 	/**
 	 * Random generate an integer in [min, max)
 	 * 
@@ -77,6 +101,13 @@ public class Randoms {
 		return data.get(idx);
 	}
 
+	/**
+	 * @return a random number from a given array of numbers
+	 */
+	public static int random(int[] data) {
+		return data[uniform(data.length)];
+	}
+
 	/**
 	 * a random double array with values in [0, 1)
 	 * 
@@ -157,6 +188,13 @@ public class Randoms {
 	 * @return a sample point randomly drawn from the given distribution.
 	 */
 	public static double gamma(double alpha, double scale) {
+		return gamma(alpha, scale, r);
+	}
+
+	/**
+	 * Randomly sample 1 point from Gamma Distribution with the given parameters and random generator.
+	 */
+	public static double gamma(double alpha, double scale, Random rnd) {
 		double rate = 1 / scale;
 
 		if (alpha <= 0.0 || rate <= 0.0) {
@@ -170,18 +208,18 @@ public class Randoms {
 		if (alpha < 1.0) {
 			b = 1.0 + 0.36788794412 * alpha; // Step 1
 			while (true) {
-				double p = b * r.nextDouble();
+				double p = b * rnd.nextDouble();
 				// Step 2. Case gds <= 1
 				if (p <= 1.0) {
 					gds = Math.exp(Math.log(p) / alpha);
-					if (Math.log(r.nextDouble()) <= -gds) {
+					if (Math.log(rnd.nextDouble()) <= -gds) {
 						return gds / rate;
 					}
 				}
 				// Step 3. Case gds > 1
 				else {
 					gds = -Math.log((b - p) / alpha);
-					if (Math.log(r.nextDouble()) <= ((alpha - 1.0) * Math.log(gds))) {
+					if (Math.log(rnd.nextDouble()) <= ((alpha - 1.0) * Math.log(gds))) {
 						return gds / rate;
 					}
 				}
@@ -206,8 +244,8 @@ public class Randoms {
 			double v1;
 
 			do {
-				v1 = 2.0 * r.nextDouble() - 1.0;
-				double v2 = 2.0 * r.nextDouble() - 1.0;
+				v1 = 2.0 * rnd.nextDouble() - 1.0;
+				double v2 = 2.0 * rnd.nextDouble() - 1.0;
 				v12 = v1 * v1 + v2 * v2;
 			} while (v12 > 1.0);
 
@@ -219,7 +257,7 @@ public class Randoms {
 				return gds / rate;
 			}
 
-			double u = r.nextDouble();
+			double u = rnd.nextDouble();
 			if (d * u <= t * t * t) { // Squeeze acceptance
 				return gds / rate;
 			}
@@ -306,8 +344,8 @@ public class Randoms {
 				double sign_u;
 				double e;
 				do { // Step 9. Rejection of t
-					e = -Math.log(r.nextDouble());
-					u = r.nextDouble();
+					e = -Math.log(rnd.nextDouble());
+					u = rnd.nextDouble();
 					u = u + u - 1.0;
 					sign_u = (u > 0) ? 1.0 : -1.0;
 					t = b + (e * si) * sign_u;
@@ -383,6 +421,13 @@ public class Randoms {
 	 * nonnegative and their sum (very nearly) equals 1.0.
 	 */
 	public static int discrete(double[] a) {
+		return discrete(a, r);
+	}
+
+	/**
+	 * Return a number from a discrete distribution by a given random generator (cf. {@link #discrete(double[])}).
+	 */
+	public static int discrete(double[] a, Random rnd) {
 		double EPSILON = 1E-6;
 		double sum = 0.0;
 		for (int i = 0; i < a.length; i++) {
@@ -395,7 +440,7 @@ public class Randoms {
 
 		// the for loop may not return a value when both r is (nearly) 1.0 and when the cumulative sum is less than 1.0 (as a result of floating-point roundoff error)
 		while (true) {
-			double r = uniform();
+			double r = rnd.nextDouble();
 			sum = 0.0;
 			for (int i = 0; i < a.length; i++) {
 				sum = sum + a[i];
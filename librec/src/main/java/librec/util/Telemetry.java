@@ -0,0 +1,314 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.util;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Training and evaluation statistics of a recommender (fold): per-iteration wall time, model updates per second,
+ * samples drawn, garbage collection time and heap usage, and percentiles of evaluation latency per user.
+ *
+ * <p>
+ * The statistics are published as a JMX MBean named
+ * {@code librec:type=Recommender,name=<algorithm>,fold=<fold>,id=<id>} while the recommender is running, where the id
+ * tells apart concurrent runs of the same algorithm, and optionally appended to a file as JSON lines: one line per
+ * iteration, and one line per evaluation.
+ * </p>
+ */
+public class Telemetry implements TelemetryMBean {
+
+	// ids of the MBeans registered so far
+	private static final AtomicLong ids = new AtomicLong();
+
+	private final String algoName;
+	private final int fold;
+	private final String jsonPath;
+	private final long updatesPerEpoch;
+
+	private ObjectName objectName;
+
+	// per-iteration statistics
+	private volatile int iteration;
+	private volatile double loss, lastEpochMillis, trainMillis, updatesPerSecond;
+	private volatile long lastEpochGcMillis, heapUsedBytes;
+	private volatile long totalUpdates, totalSamples;
+
+	// counters of the current iteration
+	private final AtomicLong updates = new AtomicLong(), samples = new AtomicLong();
+	private long epochStart, gcStart;
+
+	// evaluation latencies
+	private final LatencyHistogram latencies = new LatencyHistogram();
+
+	/**
+	 * @param algoName
+	 *            name of the recommender
+	 * @param fold
+	 *            fold number, or -1 if not a fold
+	 * @param jsonPath
+	 *            file to append JSON lines to, or null
+	 * @param updatesPerEpoch
+	 *            model updates assumed per iteration if none are counted, e.g., the number of training ratings
+	 */
+	public Telemetry(String algoName, int fold, String jsonPath, long updatesPerEpoch) {
+		this.algoName = algoName;
+		this.fold = fold;
+		this.jsonPath = jsonPath;
+		this.updatesPerEpoch = updatesPerEpoch;
+	}
+
+	/**
+	 * register the MBean under a new id
+	 */
+	public void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("librec:type=Recommender,name=" + ObjectName.quote(algoName) + ",fold="
+					+ fold + ",id=" + ids.incrementAndGet());
+
+			server.registerMBean(this, name);
+			objectName = name;
+		} catch (JMException e) {
+			Logs.warn("Failed to register telemetry of {}: {}", algoName, e.getMessage());
+		}
+	}
+
+	/**
+	 * unregister the MBean, if registered
+	 */
+	public void unregister() {
+		if (objectName == null)
+			return;
+
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException e) {
+			Logs.warn("Failed to unregister telemetry of {}: {}", algoName, e.getMessage());
+		}
+		objectName = null;
+	}
+
+	/**
+	 * start timing the first iteration
+	 */
+	public void startTraining() {
+		epochStart = System.nanoTime();
+		gcStart = gcMillis();
+	}
+
+	/**
+	 * count model updates of the current iteration
+	 */
+	public void addUpdates(long n) {
+		updates.addAndGet(n);
+	}
+
+	/**
+	 * count training samples drawn in the current iteration
+	 */
+	public void addSamples(long n) {
+		samples.addAndGet(n);
+	}
+
+	/**
+	 * finish the statistics of an iteration and start timing the next one
+	 */
+	public void endEpoch(int iter, double loss) throws IOException {
+		long now = System.nanoTime();
+		long gc = gcMillis();
+
+		long n = updates.getAndSet(0);
+		if (n == 0)
+			n = updatesPerEpoch;
+		long s = samples.getAndSet(0);
+
+		double millis = (now - epochStart) / 1e6;
+
+		this.iteration = iter;
+		this.loss = loss;
+		this.lastEpochMillis = millis;
+		this.trainMillis += millis;
+		this.updatesPerSecond = millis > 0 ? n * 1000.0 / millis : 0;
+		this.totalUpdates += n;
+		this.totalSamples += s;
+		this.lastEpochGcMillis = gc - gcStart;
+		this.heapUsedBytes = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+		if (jsonPath != null)
+			append(String.format(Locale.US, "{\"algorithm\":%s,\"fold\":%d,\"event\":\"iteration\",\"iter\":%d,"
+					+ "\"loss\":%s,\"epochMillis\":%.3f,\"updates\":%d,\"updatesPerSecond\":%.1f,\"samples\":%d,"
+					+ "\"gcMillis\":%d,\"heapUsedBytes\":%d}", string(algoName), fold, iter, number(loss), millis, n,
+					updatesPerSecond, s, lastEpochGcMillis, heapUsedBytes));
+
+		// exclude the time of writing telemetry
+		epochStart = System.nanoTime();
+		gcStart = gc;
+	}
+
+	/**
+	 * record the latency of evaluating a user; thread-safe
+	 */
+	public void recordEval(long nanos) {
+		latencies.record(nanos);
+	}
+
+	/**
+	 * report the evaluation latencies recorded so far
+	 */
+	public void endEvaluation() throws IOException {
+		if (jsonPath != null)
+			append(String.format(Locale.US, "{\"algorithm\":%s,\"fold\":%d,\"event\":\"evaluation\",\"users\":%d,"
+					+ "\"p50Micros\":%.1f,\"p90Micros\":%.1f,\"p99Micros\":%.1f}", string(algoName), fold, getEvalCount(),
+					getEvalLatencyP50Micros(), getEvalLatencyP90Micros(), getEvalLatencyP99Micros()));
+	}
+
+	@Override
+	public String getAlgorithm() {
+		return algoName;
+	}
+
+	@Override
+	public int getFold() {
+		return fold;
+	}
+
+	@Override
+	public int getIteration() {
+		return iteration;
+	}
+
+	@Override
+	public double getLoss() {
+		return loss;
+	}
+
+	@Override
+	public double getLastEpochMillis() {
+		return lastEpochMillis;
+	}
+
+	@Override
+	public double getTrainMillis() {
+		return trainMillis;
+	}
+
+	@Override
+	public double getUpdatesPerSecond() {
+		return updatesPerSecond;
+	}
+
+	@Override
+	public long getUpdates() {
+		return totalUpdates;
+	}
+
+	@Override
+	public long getSamples() {
+		return totalSamples;
+	}
+
+	@Override
+	public long getLastEpochGcMillis() {
+		return lastEpochGcMillis;
+	}
+
+	@Override
+	public long getHeapUsedBytes() {
+		return heapUsedBytes;
+	}
+
+	@Override
+	public long getEvalCount() {
+		return latencies.count();
+	}
+
+	@Override
+	public double getEvalLatencyP50Micros() {
+		return latencies.percentileMicros(0.5);
+	}
+
+	@Override
+	public double getEvalLatencyP90Micros() {
+		return latencies.percentileMicros(0.9);
+	}
+
+	@Override
+	public double getEvalLatencyP99Micros() {
+		return latencies.percentileMicros(0.99);
+	}
+
+	/**
+	 * @return accumulated collection time of all garbage collectors
+	 */
+	private static long gcMillis() {
+		long sum = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			long t = gc.getCollectionTime();
+			if (t > 0)
+				sum += t;
+		}
+		return sum;
+	}
+
+	/**
+	 * @return a JSON number, or null for NaN and infinity
+	 */
+	private static String number(double val) {
+		return Double.isNaN(val) || Double.isInfinite(val) ? "null" : Double.toString(val);
+	}
+
+	/**
+	 * @return a JSON string of the given text, i.e., quoted with quotes, backslashes and control characters escaped
+	 */
+	private static String string(String text) {
+		StringBuilder sb = new StringBuilder(text.length() + 2).append('"');
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if (c < 0x20)
+				sb.append(String.format("\\u%04x", (int) c));
+			else
+				sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+
+	/**
+	 * append a line to the JSON file, shared by all recommenders (folds)
+	 */
+	private void append(String line) throws IOException {
+		byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+		synchronized (Telemetry.class) {
+			Files.write(Paths.get(jsonPath), bytes, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.util;
+
+/**
+ * JMX view of the {@link Telemetry} of a running recommender (fold)
+ */
+public interface TelemetryMBean {
+
+	/**
+	 * @return name of the recommender
+	 */
+	String getAlgorithm();
+
+	/**
+	 * @return fold number, or -1 if not a fold
+	 */
+	int getFold();
+
+	/**
+	 * @return the last completed training iteration
+	 */
+	int getIteration();
+
+	/**
+	 * @return objective loss of the last iteration
+	 */
+	double getLoss();
+
+	/**
+	 * @return wall time of the last iteration in milliseconds
+	 */
+	double getLastEpochMillis();
+
+	/**
+	 * @return wall time of all iterations in milliseconds
+	 */
+	double getTrainMillis();
+
+	/**
+	 * @return model updates of the last iteration per second
+	 */
+	double getUpdatesPerSecond();
+
+	/**
+	 * @return model updates of all iterations
+	 */
+	long getUpdates();
+
+	/**
+	 * @return training samples drawn in all iterations
+	 */
+	long getSamples();
+
+	/**
+	 * @return garbage collection time during the last iteration in milliseconds (of the whole JVM)
+	 */
+	long getLastEpochGcMillis();
+
+	/**
+	 * @return used heap memory after the last iteration in bytes
+	 */
+	long getHeapUsedBytes();
+
+	/**
+	 * @return number of users evaluated
+	 */
+	long getEvalCount();
+
+	/**
+	 * @return median evaluation latency per user in microseconds
+	 */
+	double getEvalLatencyP50Micros();
+
+	/**
+	 * @return 90th percentile of evaluation latency per user in microseconds
+	 */
+	double getEvalLatencyP90Micros();
+
+	/**
+	 * @return 99th percentile of evaluation latency per user in microseconds
+	 */
+	double getEvalLatencyP99Micros();
+}
@@ -0,0 +1,175 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import librec.intf.RecommenderContext;
+import librec.intf.TestContext;
+import librec.ranking.BPR;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The precomputed adjacency index against the cached one of the low-memory mode, and both against the matrix.
+ */
+public class AdjacencyIndexTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// a tiny cache, such that rows are evicted and reloaded
+	private static final String CACHE_SPEC = "maximumSize=2";
+
+	@Test
+	public void testRows() {
+		SparseMatrix mat = randomMatrix(60, 45);
+
+		check(mat, AdjacencyIndex.rows(mat), false);
+		check(mat, AdjacencyIndex.rows(mat, CACHE_SPEC), false);
+		checkSame(AdjacencyIndex.rows(mat), AdjacencyIndex.rows(mat, CACHE_SPEC), 60, 45);
+	}
+
+	@Test
+	public void testColumns() {
+		SparseMatrix mat = randomMatrix(60, 45);
+
+		check(mat, AdjacencyIndex.columns(mat), true);
+		check(mat, AdjacencyIndex.columns(mat, CACHE_SPEC), true);
+		checkSame(AdjacencyIndex.columns(mat), AdjacencyIndex.columns(mat, CACHE_SPEC), 45, 60);
+	}
+
+	@Test
+	public void testLowMemoryModel() throws Exception {
+		double[][] normal = trainBPR("low.memory=off");
+		double[][] lowMemory = trainBPR("low.memory=on");
+
+		for (int u = 0; u < normal.length; u++)
+			assertArrayEquals(normal[u], lowMemory[u], 0);
+	}
+
+	/**
+	 * @return predictions of all users and items of BPR learned in a fresh context
+	 */
+	private double[][] trainBPR(String option) throws Exception {
+		RecommenderContext ctx = TestContext.create(folder.newFolder(), option);
+		SparseMatrix rates = ctx.getRateMatrix();
+
+		BPR bpr = ctx.create(BPR.class, rates, rates, 0);
+		bpr.execute();
+
+		double[][] preds = new double[rates.numRows()][rates.numColumns()];
+		for (int u = 0; u < preds.length; u++)
+			for (int j = 0; j < preds[u].length; j++)
+				preds[u][j] = bpr.predict(u, j);
+		return preds;
+	}
+
+	/**
+	 * check an index against the non-zero entries of a matrix
+	 */
+	private static void check(SparseMatrix mat, AdjacencyIndex index, boolean byColumn) {
+		int numRows = byColumn ? mat.numColumns() : mat.numRows();
+		int numCols = byColumn ? mat.numRows() : mat.numColumns();
+
+		for (int i = 0; i < numRows; i++) {
+			List<Integer> cols = new ArrayList<>();
+			List<Double> vals = new ArrayList<>();
+
+			for (int j = 0; j < numCols; j++) {
+				double v = byColumn ? mat.get(j, i) : mat.get(i, j);
+				assertEquals(v != 0, index.contains(i, j));
+				assertEquals(v, index.value(i, j), 0);
+
+				if (v != 0) {
+					cols.add(j);
+					vals.add(v);
+				}
+			}
+
+			int[] idx = index.get(i);
+			double[] val = index.values(i);
+			assertEquals(cols.size(), index.size(i));
+			assertEquals(cols.size(), idx.length);
+			assertEquals(cols.size(), val.length);
+			for (int k = 0; k < idx.length; k++) {
+				assertEquals((int) cols.get(k), idx[k]);
+				assertEquals(vals.get(k), val[k], 0);
+			}
+		}
+
+		// rows beyond the matrix are empty
+		assertEquals(0, index.get(numRows).length);
+		assertFalse(index.contains(numRows, 0));
+	}
+
+	/**
+	 * check that two indexes are the same, also in the order of their queries
+	 */
+	private static void checkSame(AdjacencyIndex expected, AdjacencyIndex actual, int numRows, int numCols) {
+		Random rnd = new Random(2);
+		for (int n = 0; n < 5000; n++) {
+			int i = rnd.nextInt(numRows + 1), j = rnd.nextInt(numCols);
+
+			assertArrayEquals(expected.get(i), actual.get(i));
+			assertArrayEquals(expected.values(i), actual.values(i), 0);
+			assertEquals(expected.contains(i, j), actual.contains(i, j));
+			assertEquals(expected.value(i, j), actual.value(i, j), 0);
+		}
+	}
+
+	/**
+	 * @return a random matrix with empty rows and columns, and explicitly stored zeros
+	 */
+	private static SparseMatrix randomMatrix(int rows, int cols) {
+		Random rnd = new Random(1);
+
+		int[] rowPtr = new int[rows + 1];
+		List<Integer> colInd = new ArrayList<>();
+		List<Double> rowData = new ArrayList<>();
+		for (int i = 0; i < rows; i++) {
+			if (i % 7 != 3) {
+				for (int j = 0; j < cols; j++) {
+					if (j % 11 != 5 && rnd.nextDouble() < 0.2) {
+						colInd.add(j);
+						rowData.add(rnd.nextDouble() < 0.1 ? 0.0 : 1 + rnd.nextInt(5));
+					}
+				}
+			}
+			rowPtr[i + 1] = colInd.size();
+		}
+
+		int[] ind = new int[colInd.size()];
+		double[] data = new double[rowData.size()];
+		for (int k = 0; k < ind.length; k++) {
+			ind[k] = colInd.get(k);
+			data[k] = rowData.get(k);
+		}
+
+		return new SparseMatrix(rows, cols, rowPtr, ind, data);
+	}
+}
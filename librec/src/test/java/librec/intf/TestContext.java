@@ -0,0 +1,83 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.intf;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Random;
+
+import librec.data.DataDAO;
+import librec.data.SparseMatrix;
+import librec.util.FileConfiger;
+import librec.util.LineConfiger;
+import librec.util.Randoms;
+
+/**
+ * Contexts of recommenders over a small random data set, for tests
+ */
+public class TestContext {
+
+	public static final int NUM_USERS = 40, NUM_ITEMS = 30;
+
+	/**
+	 * create a context over random ratings of {@link #NUM_USERS} users and {@link #NUM_ITEMS} items, and seed the
+	 * random generators as {@link librec.main.LibRec} does
+	 *
+	 * @param dir
+	 *            directory of the data, configuration and output files
+	 * @param options
+	 *            configuration lines ({@code key=value}) added to, or overriding, the defaults
+	 */
+	public static RecommenderContext create(File dir, String... options) throws Exception {
+		File data = new File(dir, "ratings.txt");
+		try (PrintWriter pw = new PrintWriter(data, "UTF-8")) {
+			Random rnd = new Random(1);
+			for (int u = 0; u < NUM_USERS; u++)
+				for (int j = 0; j < NUM_ITEMS; j++)
+					if (j == u % NUM_ITEMS || rnd.nextDouble() < 0.3)
+						pw.println(u + " " + j + " " + (1 + rnd.nextInt(5)));
+		}
+
+		File conf = new File(dir, "test.conf");
+		try (PrintWriter pw = new PrintWriter(conf, "UTF-8")) {
+			pw.println("dataset.ratings=" + data.getPath());
+			pw.println("ratings.setup=-columns 0 1 2 -threshold -1");
+			pw.println("evaluation.setup=given-ratio -r 0.8 --rand-seed 1");
+			pw.println("item.ranking=off -topN -1 -ignore -1");
+			pw.println("num.factors=5");
+			pw.println("num.max.iter=10");
+			pw.println("learn.rate=0.01 -max -1");
+			pw.println("reg.lambda=0.1 -u 0.1 -i 0.1 -b 0.1");
+			pw.println("output.setup=off -verbose off -dir " + dir.getPath() + "/");
+			for (String option : options)
+				pw.println(option);
+		}
+
+		FileConfiger cf = new FileConfiger(conf.getPath());
+		Randoms.seed(cf.getParamOptions("evaluation.setup").getLong("--rand-seed", 1));
+
+		LineConfiger ratingOptions = cf.getParamOptions("ratings.setup");
+		float binThold = ratingOptions.getFloat("-threshold");
+
+		DataDAO rateDao = new DataDAO(cf.getPath("dataset.ratings"));
+		SparseMatrix[] rates = rateDao.readData(new int[] { 0, 1, 2 }, binThold);
+
+		return new RecommenderContext(cf, dir.getPath() + "/", rateDao, rates[0], rates[1], binThold);
+	}
+}
@@ -0,0 +1,255 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+import librec.data.DenseMatrix;
+import librec.data.DenseVector;
+import librec.data.SparseMatrix;
+import librec.data.SymmMatrix;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+
+/**
+ * Round trips of the entries of a model file through {@link ModelWriter} and {@link ModelReader}, and rejection of
+ * corrupted entries by their checksums.
+ */
+public class ModelIOTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final Random rnd = new Random(1);
+
+	// larger than the buffer of the writer and the chunks of the reader
+	private final DenseMatrix matrix = denseMatrix(600, 300);
+	private final DenseVector vector = denseVector(100);
+	private final int[] ints = { 3, -1, 0, Integer.MAX_VALUE, 7 };
+	private final double[] doubles = { 0.5, -2.25, Double.MIN_VALUE, 1e300 };
+	private final byte[] bytes = { 1, -128, 127, 0 };
+	private final SparseMatrix sparse = sparseMatrix(50, 40);
+	private final SymmMatrix symm = symmMatrix(30);
+	private final Table<Integer, Integer, Double> table = HashBasedTable.create();
+
+	{
+		table.put(1, 2, 0.5);
+		table.put(7, 0, -3.0);
+	}
+
+	@Test
+	public void testFileRoundTrip() throws Exception {
+		String path = write();
+
+		try (ModelReader in = new ModelReader(path)) {
+			check(in);
+		}
+		try (ModelReader in = new ModelReader(path, false)) {
+			check(in);
+		}
+	}
+
+	@Test
+	public void testSnapshotRoundTrip() throws Exception {
+		ModelWriter out = new ModelWriter("Test");
+		writeEntries(out);
+		out.commit();
+
+		try (ModelReader in = new ModelReader(out.toByteArray())) {
+			check(in);
+		}
+
+		String path = folder.newFile("snapshot.bin").getPath();
+		out.writeTo(path);
+		try (ModelReader in = new ModelReader(path)) {
+			check(in);
+		}
+	}
+
+	@Test
+	public void testUncommittedKeepsTarget() throws Exception {
+		String path = write();
+		byte[] before = Files.readAllBytes(new File(path).toPath());
+
+		try (ModelWriter out = new ModelWriter(path, "Other")) {
+			out.write("x", 1.0);
+		}
+
+		assertArrayEquals(before, Files.readAllBytes(new File(path).toPath()));
+		assertFalse(new File(path + ".tmp").exists());
+	}
+
+	@Test
+	public void testChecksumMismatch() throws Exception {
+		String path = write();
+
+		// flip a bit in the payload of the vector entry
+		File file = new File(path);
+		byte[] data = Files.readAllBytes(file.toPath());
+		int pos = indexOf(data, ByteBuffer.allocate(8).putDouble(vector.get(10)).array());
+		assertTrue(pos > 0);
+		data[pos + 7] ^= 1;
+		Files.write(file.toPath(), data);
+
+		for (boolean mapped : new boolean[] { true, false }) {
+			try (ModelReader in = new ModelReader(path, mapped)) {
+				// other entries are still readable
+				assertMatrixEquals(matrix, in.readDenseMatrix("matrix"));
+
+				try {
+					in.readDenseVector("vector");
+					fail("corrupted entry is read");
+				} catch (IOException e) {
+					assertTrue(e.getMessage(), e.getMessage().contains("Checksum mismatch"));
+				}
+			}
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotModelFile() throws Exception {
+		File file = folder.newFile("other.bin");
+		Files.write(file.toPath(), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+
+		new ModelReader(file.getPath()).close();
+	}
+
+	private String write() throws Exception {
+		String path = new File(folder.getRoot(), "model.bin").getPath();
+		try (ModelWriter out = new ModelWriter(path, "Test")) {
+			writeEntries(out);
+			out.commit();
+		}
+		return path;
+	}
+
+	private void writeEntries(ModelWriter out) throws Exception {
+		out.write("double", 3.5);
+		out.write("ints", ints);
+		out.write("doubles", doubles);
+		out.write("bytes", bytes);
+		out.write("vector", vector);
+		out.write("matrix", matrix);
+		out.write("sparse", sparse);
+		out.write("symm", symm);
+		out.write("table", table);
+	}
+
+	private void check(ModelReader in) throws Exception {
+		assertEquals("Test", in.getModelClass());
+		assertEquals(9, in.getNames().size());
+
+		assertEquals(3.5, in.readDouble("double", 0), 0);
+		assertEquals(-1, in.readDouble("absent", -1), 0);
+		assertFalse(in.contains("absent"));
+
+		assertArrayEquals(ints, in.readIntArray("ints"));
+		assertArrayEquals(doubles, in.readDoubleArray("doubles"), 0);
+		assertArrayEquals(bytes, in.readBytes("bytes"));
+
+		assertArrayEquals(vector.getData(), in.readDenseVector("vector").getData(), 0);
+
+		assertMatrixEquals(matrix, in.readDenseMatrix("matrix"));
+
+		SparseMatrix sm = in.readSparseMatrix("sparse");
+		assertEquals(sparse.numRows(), sm.numRows());
+		assertEquals(sparse.numColumns(), sm.numColumns());
+		assertEquals(sparse.size(), sm.size());
+		for (int i = 0; i < sm.numRows(); i++)
+			for (int j = 0; j < sm.numColumns(); j++)
+				assertEquals(sparse.get(i, j), sm.get(i, j), 0);
+
+		SymmMatrix ym = in.readSymmMatrix("symm");
+		for (int i = 0; i < 30; i++)
+			for (int j = 0; j < 30; j++)
+				assertEquals(symm.get(i, j), ym.get(i, j), 0);
+
+		assertEquals(table, in.readTable("table"));
+
+		// entries can be read again, in any order
+		assertArrayEquals(ints, in.readIntArray("ints"));
+	}
+
+	private static void assertMatrixEquals(DenseMatrix expected, DenseMatrix actual) {
+		assertEquals(expected.numRows(), actual.numRows());
+		assertEquals(expected.numColumns(), actual.numColumns());
+		for (int i = 0; i < actual.numRows(); i++)
+			for (int j = 0; j < actual.numColumns(); j++)
+				assertEquals(expected.get(i, j), actual.get(i, j), 0);
+	}
+
+	private static int indexOf(byte[] data, byte[] key) {
+		for (int i = 0; i + key.length <= data.length; i++) {
+			int k = 0;
+			while (k < key.length && data[i + k] == key[k])
+				k++;
+			if (k == key.length)
+				return i;
+		}
+		return -1;
+	}
+
+	private DenseMatrix denseMatrix(int rows, int cols) {
+		DenseMatrix mat = new DenseMatrix(rows, cols);
+		for (int i = 0; i < rows; i++)
+			for (int j = 0; j < cols; j++)
+				mat.set(i, j, rnd.nextGaussian());
+		return mat;
+	}
+
+	private DenseVector denseVector(int size) {
+		DenseVector vec = new DenseVector(size);
+		for (int i = 0; i < size; i++)
+			vec.set(i, rnd.nextGaussian());
+		return vec;
+	}
+
+	private SparseMatrix sparseMatrix(int rows, int cols) {
+		Table<Integer, Integer, Double> data = HashBasedTable.create();
+		for (int i = 0; i < rows; i++)
+			for (int j = 0; j < cols; j++)
+				if (rnd.nextDouble() < 0.2)
+					data.put(i, j, 1.0 + rnd.nextInt(5));
+		return new SparseMatrix(rows, cols, data);
+	}
+
+	private SymmMatrix symmMatrix(int dim) {
+		SymmMatrix mat = new SymmMatrix(dim);
+		for (int i = 0; i < dim; i++)
+			for (int j = i; j < dim; j++)
+				if (rnd.nextDouble() < 0.3)
+					mat.set(i, j, rnd.nextDouble());
+		return mat;
+	}
+}
@@ -0,0 +1,170 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.metric;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import librec.baseline.GlobalAverage;
+import librec.data.SparseMatrix;
+import librec.intf.Recommender;
+import librec.intf.RecommenderContext;
+import librec.intf.TestContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Rating metrics accumulated over partitions of the test data in parallel, and merged in the order of partitions,
+ * against the same metrics accumulated serially.
+ */
+public class MetricCollectionTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Recommender rec;
+
+	// test ratings (u, j, r) and their predictions
+	private final List<double[]> tests = new ArrayList<>();
+
+	private ExecutorService pool;
+
+	@Before
+	public void setUp() throws Exception {
+		RecommenderContext ctx = TestContext.create(folder.getRoot());
+		SparseMatrix rates = ctx.getRateMatrix();
+		rec = ctx.create(GlobalAverage.class, rates, rates, 0);
+
+		Random rnd = new Random(1);
+		int[] rowPtr = rates.getRowPointers();
+		int[] colInd = rates.getColumnIndices();
+		double[] data = rates.getData();
+		for (int u = 0; u < rates.numRows(); u++)
+			for (int k = rowPtr[u]; k < rowPtr[u + 1]; k++)
+				tests.add(new double[] { u, colInd[k], data[k], data[k] + rnd.nextGaussian() });
+
+		pool = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void tearDown() {
+		pool.shutdownNow();
+	}
+
+	@Test
+	public void testParallelMergeEqualsSerial() throws Exception {
+		List<String> names = new ArrayList<>();
+		for (String name : MetricCollection.RatingMetrics)
+			names.add("librec.metric." + name);
+
+		MetricCollection serial = new MetricCollection(names);
+		assertTrue(serial.isRatingMergeable());
+
+		serial.init(rec);
+		update(serial, 0, tests.size());
+		serial.computeRatingMetrics(tests.size());
+
+		for (int numParts : new int[] { 1, 3, 16 }) {
+			MetricCollection merged = new MetricCollection(names);
+			merged.init(rec);
+
+			// partitions evaluated concurrently
+			List<Future<MetricCollection>> parts = new ArrayList<>();
+			for (int p = 0; p < numParts; p++) {
+				final int from = tests.size() * p / numParts;
+				final int to = tests.size() * (p + 1) / numParts;
+				final MetricCollection acc = merged.newRatingAccumulators(rec);
+
+				parts.add(pool.submit(new Callable<MetricCollection>() {
+
+					@Override
+					public MetricCollection call() throws Exception {
+						update(acc, from, to);
+						return acc;
+					}
+				}));
+			}
+
+			for (Future<MetricCollection> part : parts)
+				merged.mergeRatingMetrics(part.get());
+			merged.computeRatingMetrics(tests.size());
+
+			for (IRatingMetric metric : serial.getRatingMetrics()) {
+				double expected = metric.getValue();
+				assertEquals(numParts + " partitions: " + metric.getName(), expected,
+						merged.getRatingMetric(metric.getName()).getValue(), 1e-12 * Math.max(1, Math.abs(expected)));
+			}
+		}
+	}
+
+	@Test
+	public void testNotMergeable() throws Exception {
+		MetricCollection mc = new MetricCollection(Arrays.asList("librec.metric.MetricMAE",
+				"librec.metric.MetricCollectionTest$SerialMetric"));
+		assertFalse(mc.isRatingMergeable());
+	}
+
+	private void update(MetricCollection mc, int from, int to) {
+		for (int k = from; k < to; k++) {
+			double[] t = tests.get(k);
+			mc.updateRatingMetrics((int) t[0], (int) t[1], t[3], t[2], rec);
+		}
+	}
+
+	/**
+	 * a rating metric which cannot be merged
+	 */
+	public static class SerialMetric implements IRatingMetric {
+
+		public String getName() {
+			return "Serial";
+		}
+
+		public void init(Recommender rec) {
+		}
+
+		public void updatePredicted(int user, int item, double predicted, double actual, Recommender rec) {
+		}
+
+		public void compute(int count) {
+		}
+
+		public double getValue() {
+			return 0;
+		}
+
+		public String getValueAsString() {
+			return getName();
+		}
+	}
+}
@@ -0,0 +1,349 @@
+// Copyright (C) 2014 Guibing Guo
+//
+// This file is part of LibRec.
+//
+// LibRec is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// LibRec is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+//
+// You should have received a copy of the GNU General Public License
+// along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+//
+
+package librec.ranking;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import librec.data.DenseMatrix;
+import librec.data.DenseVector;
+import librec.data.SparseMatrix;
+import librec.data.SparseVector;
+import librec.data.VectorEntry;
+import librec.intf.IterativeRecommender;
+import librec.intf.RecommenderContext;
+import librec.intf.TestContext;
+import librec.util.ComputePool;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The parallel solvers of {@link RankALS} and {@link WRMF} against their original, serial implementations, which are
+ * kept here as references.
+ */
+public class ALSSolverTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final String[] OPTIONS = { "ratings.setup=-columns 0 1 2 -threshold 0", "num.max.iter=6",
+			"RankALS=-sw on", "OriginalRankALS=-sw on", "WRMF=-alpha 2", "OriginalWRMF=-alpha 2" };
+
+	@BeforeClass
+	public static void setUpClass() {
+		// rows solved by several threads, unless the pool is already in use by other tests
+		ComputePool.setParallelism(4);
+	}
+
+	@Test
+	public void testRankALS() throws Exception {
+		double[][] expected = train(OriginalRankALS.class);
+
+		// the default solver inverts M as the original
+		assertClose(expected, train(RankALS.class), 1e-9);
+	}
+
+	@Test
+	public void testRankALSCholesky() throws Exception {
+		double[][] expected = train(OriginalRankALS.class);
+
+		assertClose(expected, train(RankALS.class, "RankALS=-sw on -cholesky"), 1e-6);
+	}
+
+	@Test
+	public void testWRMF() throws Exception {
+		double[][] expected = train(OriginalWRMF.class);
+
+		// solved by Cholesky decomposition rather than by inversion
+		assertClose(expected, train(WRMF.class), 1e-9);
+	}
+
+	/**
+	 * @return predictions of all users and items of a recommender learned in a fresh context
+	 */
+	private double[][] train(Class<? extends IterativeRecommender> clazz, String... options) throws Exception {
+		String[] all = new String[OPTIONS.length + options.length];
+		System.arraycopy(OPTIONS, 0, all, 0, OPTIONS.length);
+		System.arraycopy(options, 0, all, OPTIONS.length, options.length);
+
+		RecommenderContext ctx = TestContext.create(folder.newFolder(), all);
+		SparseMatrix rates = ctx.getRateMatrix();
+
+		IterativeRecommender rec = ctx.create(clazz, rates, rates, 0);
+		rec.execute();
+
+		double[][] preds = new double[rates.numRows()][rates.numColumns()];
+		for (int u = 0; u < preds.length; u++)
+			for (int j = 0; j < preds[u].length; j++)
+				preds[u][j] = rec.predict(u, j);
+		return preds;
+	}
+
+	private static void assertClose(double[][] expected, double[][] actual, double tol) {
+		for (int u = 0; u < expected.length; u++)
+			for (int j = 0; j < expected[u].length; j++)
+				assertEquals("(" + u + ", " + j + ")", expected[u][j], actual[u][j],
+						tol * Math.max(1, Math.abs(expected[u][j])));
+	}
+
+	/**
+	 * RankALS as originally implemented: serial half-steps over dense vectors, with the Q step visiting all users for
+	 * each item
+	 */
+	public static class OriginalRankALS extends RankALS {
+
+		private DenseVector s;
+
+		private double sum_s;
+
+		public OriginalRankALS(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
+			super(trainMatrix, testMatrix, fold);
+		}
+
+		@Override
+		protected void initModel() throws Exception {
+			super.initModel();
+
+			boolean isSupportWeight = algoOptions.isOn("-sw");
+
+			s = new DenseVector(numItems);
+			sum_s = 0;
+			for (int i = 0; i < numItems; i++) {
+				double si = isSupportWeight ? trainMatrix.columnSize(i) : 1;
+				s.set(i, si);
+				sum_s += si;
+			}
+		}
+
+		@Override
+		protected void buildModel() throws Exception {
+			for (int iter = 1; iter < numIters; iter++) {
+
+				// P step: update user vectors
+				DenseVector sum_sq = new DenseVector(numFactors);
+				DenseMatrix sum_sqq = new DenseMatrix(numFactors, numFactors);
+
+				for (int j = 0; j < numItems; j++) {
+					DenseVector qj = Q.row(j);
+					double sj = s.get(j);
+
+					sum_sq = sum_sq.add(qj.scale(sj));
+					sum_sqq = sum_sqq.add(qj.outer(qj).scale(sj));
+				}
+
+				List<Integer> cus = trainMatrix.rows(); // list of users with $c_ui=1$
+				for (int u : cus) {
+					// for each user
+					DenseMatrix sum_cqq = new DenseMatrix(numFactors, numFactors);
+					DenseVector sum_cq = new DenseVector(numFactors);
+					DenseVector sum_cqr = new DenseVector(numFactors);
+					DenseVector sum_sqr = new DenseVector(numFactors);
+
+					SparseVector Ru = trainMatrix.row(u);
+					double sum_c = Ru.getCount();
+					double sum_sr = 0, sum_cr = 0;
+
+					for (VectorEntry ve : Ru) {
+						int i = ve.index();
+						double rui = ve.get();
+						DenseVector qi = Q.row(i);
+
+						sum_cqq = sum_cqq.add(qi.outer(qi));
+						sum_cq = sum_cq.add(qi);
+						sum_cqr = sum_cqr.add(qi.scale(rui));
+
+						double si = s.get(i);
+						sum_sr += si * rui;
+						sum_cr += rui;
+						sum_sqr = sum_sqr.add(qi.scale(si * rui));
+					}
+
+					DenseMatrix M = sum_cqq.scale(sum_s).minus(sum_cq.outer(sum_sq)).minus(sum_sq.outer(sum_cq))
+							.add(sum_sqq.scale(sum_c));
+
+					DenseVector y = sum_cqr.scale(sum_s).minus(sum_cq.scale(sum_sr)).minus(sum_sq.scale(sum_cr))
+							.add(sum_sqr.scale(sum_c));
+
+					DenseVector pu = M.inv().mult(y);
+					P.setRow(u, pu);
+				}
+
+				// Q step: update item vectors
+				Map<Integer, Double> m_sum_sr = new HashMap<>();
+				Map<Integer, Double> m_sum_cr = new HashMap<>();
+				Map<Integer, Double> m_sum_c = new HashMap<>();
+				Map<Integer, DenseVector> m_sum_cq = new HashMap<>();
+
+				for (int u : cus) {
+					SparseVector Ru = trainMatrix.row(u);
+
+					double sum_sr = 0, sum_cr = 0, sum_c = Ru.getCount();
+					DenseVector sum_cq = new DenseVector(numFactors);
+
+					for (VectorEntry ve : Ru) {
+						int j = ve.index();
+						double ruj = ve.get();
+						double sj = s.get(j);
+
+						sum_sr += sj * ruj;
+						sum_cr += ruj;
+						sum_cq = sum_cq.add(Q.row(j));
+					}
+
+					m_sum_sr.put(u, sum_sr);
+					m_sum_cr.put(u, sum_cr);
+					m_sum_c.put(u, sum_c);
+					m_sum_cq.put(u, sum_cq);
+				}
+
+				for (int i = 0; i < numItems; i++) {
+					// for each item
+					DenseMatrix sum_cpp = new DenseMatrix(numFactors, numFactors);
+					DenseMatrix sum_p_p_c = new DenseMatrix(numFactors, numFactors);
+					DenseVector sum_p_p_cq = new DenseVector(numFactors);
+					DenseVector sum_cpr = new DenseVector(numFactors);
+					DenseVector sum_c_sr_p = new DenseVector(numFactors);
+					DenseVector sum_cr_p = new DenseVector(numFactors);
+					DenseVector sum_p_r_c = new DenseVector(numFactors);
+
+					double si = s.get(i);
+
+					for (int u : cus) {
+						DenseVector pu = P.row(u);
+						double rui = trainMatrix.get(u, i);
+
+						DenseMatrix pp = pu.outer(pu);
+						sum_cpp = sum_cpp.add(pp);
+						sum_p_p_cq = sum_p_p_cq.add(pp.mult(m_sum_cq.get(u)));
+						sum_p_p_c = sum_p_p_c.add(pp.scale(m_sum_c.get(u)));
+						sum_cr_p = sum_cr_p.add(pu.scale(m_sum_cr.get(u)));
+
+						if (rui > 0) {
+							sum_cpr = sum_cpr.add(pu.scale(rui));
+							sum_c_sr_p = sum_c_sr_p.add(pu.scale(m_sum_sr.get(u)));
+							sum_p_r_c = sum_p_r_c.add(pu.scale(rui * m_sum_c.get(u)));
+						}
+					}
+
+					DenseMatrix M = sum_cpp.scale(sum_s).add(sum_p_p_c.scale(si));
+					DenseVector y = sum_cpp.mult(sum_sq).add(sum_cpr.scale(sum_s)).minus(sum_c_sr_p)
+							.add(sum_p_p_cq.scale(si)).minus(sum_cr_p.scale(si)).add(sum_p_r_c.scale(si));
+					DenseVector qi = M.inv().mult(y);
+					Q.setRow(i, qi);
+				}
+			}
+		}
+	}
+
+	/**
+	 * WRMF as originally implemented: serial updates of the rows, each by inverting its own (dense) normal equations
+	 */
+	public static class OriginalWRMF extends WRMF {
+
+		private float alpha;
+
+		public OriginalWRMF(SparseMatrix trainMatrix, SparseMatrix testMatrix, int fold) {
+			super(trainMatrix, testMatrix, fold);
+
+			alpha = algoOptions.getFloat("-alpha");
+		}
+
+		@Override
+		protected void buildModel() throws Exception {
+			// To be consistent with the symbols in the paper
+			DenseMatrix X = P, Y = Q;
+			DenseMatrix IuMatrix = DenseMatrix.eye(numFactors).scale(regU);
+			DenseMatrix IiMatrix = DenseMatrix.eye(numFactors).scale(regI);
+			for (int iter = 1; iter <= numIters; iter++) {
+
+				// Step 1: update user factors
+				DenseMatrix Yt = Y.transpose();
+				DenseMatrix YtY = Yt.mult(Y);
+				for (int u = 0; u < numUsers; u++) {
+					List<Integer> items = trainMatrix.getColumns(u);
+
+					DenseMatrix YtCuI = new DenseMatrix(numFactors, numItems);
+					for (int i : items)
+						for (int k = 0; k < numFactors; k++)
+							YtCuI.set(k, i, Y.get(i, k) * alpha);
+
+					// YtY + Yt * (Cu - I) * Y
+					DenseMatrix YtCuY = new DenseMatrix(numFactors, numFactors);
+					for (int k = 0; k < numFactors; k++) {
+						for (int f = 0; f < numFactors; f++) {
+							double value = 0.0;
+							for (int i : items)
+								value += YtCuI.get(k, i) * Y.get(i, f);
+							YtCuY.set(k, f, value);
+						}
+					}
+					YtCuY = YtCuY.add(YtY);
+					DenseMatrix Wu = (YtCuY.add(IuMatrix)).inv();
+
+					// Yt * (Cu - I) * Pu + Yt * Pu
+					DenseVector YtCuPu = new DenseVector(numFactors);
+					for (int f = 0; f < numFactors; f++)
+						for (int i : items)
+							YtCuPu.add(f, YtCuI.get(f, i) + Yt.get(f, i));
+
+					X.setRow(u, Wu.mult(YtCuPu));
+				}
+
+				// Step 2: update item factors
+				DenseMatrix Xt = X.transpose();
+				DenseMatrix XtX = Xt.mult(X);
+				for (int i = 0; i < numItems; i++) {
+					List<Integer> users = trainMatrix.getRows(i);
+
+					DenseMatrix XtCiI = new DenseMatrix(numFactors, numUsers);
+					for (int u : users)
+						for (int k = 0; k < numFactors; k++)
+							XtCiI.set(k, u, X.get(u, k) * alpha);
+
+					// XtX + Xt * (Ci - I) * X
+					DenseMatrix XtCiX = new DenseMatrix(numFactors, numFactors);
+					for (int k = 0; k < numFactors; k++) {
+						for (int f = 0; f < numFactors; f++) {
+							double value = 0.0;
+							for (int u : users)
+								value += XtCiI.get(k, u) * X.get(u, f);
+							XtCiX.set(k, f, value);
+						}
+					}
+					XtCiX = XtCiX.add(XtX);
+					DenseMatrix Wi = (XtCiX.add(IiMatrix)).inv();
+
+					// Xt * (Ci - I) * Pi + Xt * Pi
+					DenseVector XtCiPi = new DenseVector(numFactors);
+					for (int f = 0; f < numFactors; f++)
+						for (int u : users)
+							XtCiPi.add(f, XtCiI.get(f, u) + Xt.get(f, u));
+
+					Y.setRow(i, Wi.mult(XtCiPi));
+				}
+			}
+		}
+	}
+}